@@ -0,0 +1,17 @@
+function run(value, field, querier) {
+	//substitute targetGuids with the guids to read from
+	var reads = [];
+	for (var i = 0; i < targetGuids.length; i++) {
+		reads.push({"guid": targetGuids[i], "field": "depthField"});
+	}
+	// all the reads are sent in a single query, a failed read returns null
+	var newVals = querier.readGuids(reads);
+	var result = [];
+	for (var j = 0; j < newVals.length; j++) {
+		if (newVals[j] != null) {
+			result.push(newVals[j]["depthField"]);
+		}
+	}
+	value["someField"] = result;
+	return value;
+}
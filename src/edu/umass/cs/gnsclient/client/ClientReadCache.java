@@ -0,0 +1,232 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsclient.client;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import edu.umass.cs.gnscommon.packets.CommandPacket;
+import edu.umass.cs.gnscommon.packets.ReadCacheKey;
+
+/**
+ * Caches the values returned by reads at a {@link GNSClient}, keyed by the
+ * guid, the command, the fields read and the reader. Only the reads of
+ * fields are cached, see {@link ReadCacheKey}.
+ *
+ * A value is returned for at most the time to live of the cache after it
+ * was read, and for no longer than the lease the active replica granted for
+ * it, if any. The replicas grant no lease for names written recently, see
+ * {@link edu.umass.cs.gnsserver.main.GNSConfig.GNSC#READ_LEASE}. Updates,
+ * creates and deletes sent by the client drop the values of their guid
+ * right away, including those of reads still in flight; writes by others
+ * are seen once the value expires. The least recently used values are
+ * dropped once the cache is full.
+ *
+ * @author westy
+ */
+public class ClientReadCache {
+
+  // how long an invalidation is remembered, longer than any read is in flight
+  private static final long INVALIDATION_MEMORY = 60000;
+
+  private static class Entry {
+
+    final String guid;
+    final String value;
+    final long expiry;
+
+    Entry(String guid, String value, long expiry) {
+      this.guid = guid;
+      this.value = value;
+      this.expiry = expiry;
+    }
+  }
+
+  private final int maxEntries;
+  private final long ttl;
+  // the rest are guarded by this
+  private final LinkedHashMap<String, Entry> cache;
+  // guid -> the keys of its values
+  private final HashMap<String, Set<String>> keysByGuid = new HashMap<>();
+  // guid -> the time it was last invalidated
+  private final HashMap<String, Long> invalidated = new HashMap<>();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong expired = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  /**
+   * @param maxEntries the number of values cached
+   * @param ttl the time in ms for which a value is returned
+   */
+  public ClientReadCache(int maxEntries, long ttl) {
+    this.maxEntries = maxEntries;
+    this.ttl = ttl;
+    this.cache = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        if (size() > ClientReadCache.this.maxEntries) {
+          removeKey(eldest.getValue().guid, eldest.getKey());
+          return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * @param packet
+   * @return the key of the value read by {@code packet}, or null if it is
+   * not a read that may be cached, see {@link ReadCacheKey}
+   */
+  public static String getKey(CommandPacket packet) {
+    return ReadCacheKey.getKey(packet);
+  }
+
+  /**
+   * @param key
+   * @return the value, or null if there is none or it has expired
+   */
+  public synchronized String get(String key) {
+    Entry entry = cache.get(key);
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    if (System.currentTimeMillis() >= entry.expiry) {
+      expired.incrementAndGet();
+      cache.remove(key);
+      removeKey(entry.guid, key);
+      return null;
+    }
+    hits.incrementAndGet();
+    return entry.value;
+  }
+
+  /**
+   * Caches the value returned by a read, unless its guid has been
+   * invalidated since the read was sent.
+   *
+   * @param key
+   * @param guid
+   * @param value
+   * @param lease the lease granted for the value in ms, 0 if none was
+   * @param sentTime the time the read was sent
+   */
+  public synchronized void put(String key, String guid, String value, long lease, long sentTime) {
+    if (key == null || value == null || System.currentTimeMillis() - sentTime >= INVALIDATION_MEMORY) {
+      return;
+    }
+    Long invalidatedTime = invalidated.get(guid);
+    if (invalidatedTime != null && invalidatedTime >= sentTime) {
+      return;
+    }
+    // the value was read before now, so it expires counting from the send
+    long expiry = sentTime + (lease > 0 ? Math.min(lease, ttl) : ttl);
+    Entry previous = cache.put(key, new Entry(guid, value, expiry));
+    if (previous != null && !previous.guid.equals(guid)) {
+      removeKey(previous.guid, key);
+    }
+    keysByGuid.computeIfAbsent(guid, g -> new HashSet<>()).add(key);
+  }
+
+  /**
+   * Drops the values of a guid, and those of the reads in flight.
+   *
+   * @param guid
+   */
+  public synchronized void invalidate(String guid) {
+    invalidations.incrementAndGet();
+    long now = System.currentTimeMillis();
+    if (invalidated.size() >= maxEntries) {
+      for (Iterator<Long> it = invalidated.values().iterator(); it.hasNext();) {
+        if (now - it.next() >= INVALIDATION_MEMORY) {
+          it.remove();
+        }
+      }
+    }
+    invalidated.put(guid, now);
+    Set<String> keys = keysByGuid.remove(guid);
+    if (keys != null) {
+      for (String key : keys) {
+        cache.remove(key);
+      }
+    }
+  }
+
+  /**
+   * Drops all values.
+   */
+  public synchronized void invalidateAll() {
+    cache.clear();
+    keysByGuid.clear();
+  }
+
+  private void removeKey(String guid, String key) {
+    Set<String> keys = keysByGuid.get(guid);
+    if (keys != null && keys.remove(key) && keys.isEmpty()) {
+      keysByGuid.remove(guid);
+    }
+  }
+
+  /**
+   * @return the number of cached values
+   */
+  public synchronized int size() {
+    return cache.size();
+  }
+
+  /**
+   * @return the number of reads answered from the cache
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of reads that were not, including those whose value
+   * had expired
+   */
+  public long getMisses() {
+    return misses.get() + expired.get();
+  }
+
+  /**
+   * @return the fraction of the reads answered from the cache
+   */
+  public double getHitRate() {
+    long lookups = getHits() + getMisses();
+    return lookups > 0 ? getHits() / (double) lookups : 0;
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + "[size=" + size()
+            + " hits=" + hits.get() + " misses=" + misses.get() + " expired=" + expired.get()
+            + " invalidations=" + invalidations.get()
+            + " hitRate=" + Math.round(getHitRate() * 100) + "%]";
+  }
+}
@@ -19,62 +19,64 @@ import java.io.UnsupportedEncodingException;
 import java.nio.ByteBuffer;
 import java.security.*;
 import java.security.cert.CertificateException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
+import java.util.stream.IntStream;
 
 
+/**
+ * Signs the commands of the clients.
+ *
+ * Each thread signs with its own {@link Signature}, {@link MessageDigest}
+ * and {@link Cipher}, so that threads sign in parallel without locks, and
+ * each instance stays initialized with the last key it was used with, as it
+ * is ready to sign again with the same key after signing.
+ */
 public class CryptoUtils {
 
-
-
-    static final MessageDigest[] mds = new MessageDigest[Runtime
-            .getRuntime().availableProcessors()];
-    static final Cipher[] ciphers = new Cipher[2 * Runtime.getRuntime()
-                    .availableProcessors()];
-    /* arun: at least as many instances as cores for parallelism. */
-    static Signature[] signatureInstances = new Signature[2 * Runtime
-            .getRuntime().availableProcessors()];
-
-    private static int sigIndex = 0;
-    private static int mdIndex = 0;
-    private static int cipherIndex = 0;
-
-    static {
-        try {
-            for (int i = 0; i < signatureInstances.length; i++) {
-                signatureInstances[i] = Signature
-                        .getInstance(GNSProtocol.SIGNATURE_ALGORITHM.toString());
-            }
-        } catch (NoSuchAlgorithmException e) {
-            GNSConfig.getLogger().log(Level.SEVERE,
-                    "Unable to initialize for authentication:{0}", e);
+    /**
+     * The signing instances of one thread and the keys they are initialized
+     * with.
+     */
+    private static class Signer {
+
+        final Signature signature;
+        final MessageDigest md;
+        final Cipher cipher;
+        // the key signature is initialized with, null if none
+        PrivateKey privateKey;
+        // the key cipher is initialized with, null if none
+        SecretKey secretKey;
+        // the encoded certificate of secretKey
+        byte[] encodedSKCert;
+
+        Signer() throws NoSuchAlgorithmException, NoSuchPaddingException {
+            this.signature = Signature
+                    .getInstance(GNSProtocol.SIGNATURE_ALGORITHM.toString());
+            this.md = MessageDigest
+                    .getInstance(GNSProtocol.DIGEST_ALGORITHM.toString());
+            this.cipher = Cipher
+                    .getInstance(GNSProtocol.SECRET_KEY_ALGORITHM.toString());
         }
     }
 
-    static {
-        for (int i = 0; i < mds.length; i++) {
-            try {
-                mds[i] = MessageDigest
-                        .getInstance(GNSProtocol.DIGEST_ALGORITHM.toString());
-            } catch (NoSuchAlgorithmException e) {
-                e.printStackTrace();
-                System.exit(1);
-            }
-        }
-    }
+    private static final ThreadLocal<Signer> signers = new ThreadLocal<>();
 
-    static {
-        for (int i = 0; i < ciphers.length; i++) {
+    private static Signer getSigner() throws ClientException {
+        Signer signer = signers.get();
+        if (signer == null) {
             try {
-                ciphers[i] = Cipher
-                        .getInstance(GNSProtocol.SECRET_KEY_ALGORITHM.toString());
+                signer = new Signer();
             } catch (NoSuchAlgorithmException | NoSuchPaddingException e) {
-                e.printStackTrace();
-                System.exit(1);
+                GNSConfig.getLogger().log(Level.SEVERE,
+                        "Unable to initialize for authentication:{0}", e);
+                throw new ClientException("Unable to initialize for signing", e);
             }
+            signers.set(signer);
         }
-    }
-    private static synchronized Signature getSignatureInstance() {
-      return signatureInstances[sigIndex++ % signatureInstances.length];
+        return signer;
     }
 
     /**
@@ -83,82 +85,65 @@ public class CryptoUtils {
      * @param guidEntry
      * @param message
      * @return a signed digest of the message string encoded as a hex string
-     * @throws InvalidKeyException
-     * @throws NoSuchAlgorithmException
-     * @throws SignatureException
-     * @throws java.io.UnsupportedEncodingException
-     *
-     * arun: This method need to be synchronized over the signature
-     * instance, otherwise it will result in corrupted signatures.
+     * @throws ClientException
      */
     public static String signDigestOfMessage(GuidEntry guidEntry,
             String message) throws ClientException {
+        Signer signer = getSigner();
         try {
-            Signature signatureInstance = getSignatureInstance();
-            synchronized (signatureInstance) {
-                signatureInstance.initSign(guidEntry.getPrivateKey());
-                // iOS client uses UTF-8 - should switch to ISO-8859-1 to be consistent with
-                // secret key version
-                signatureInstance.update(message.getBytes("UTF-8"));
-                byte[] signedString = signatureInstance.sign();
-                // We used to encode this as a hex so we could send it with the html without
-                // encoding. Not really necessary anymore for the socket based client,
-                // but the iOS client does as well so we need to keep it like this.
-                // Also note that the secret based method doesn't do this - it just returns a string
-                // using the ISO-8859-1 charset.
-                String result = DatatypeConverter.printHexBinary(signedString);
-                //String result = ByteUtils.toHex(signedString);
-                return result;
+            PrivateKey privateKey = guidEntry.getPrivateKey();
+            if (signer.privateKey != privateKey) {
+                // forgets the key first in case initSign fails half way
+                signer.privateKey = null;
+                signer.signature.initSign(privateKey);
+                signer.privateKey = privateKey;
             }
+            // iOS client uses UTF-8 - should switch to ISO-8859-1 to be consistent with
+            // secret key version
+            signer.signature.update(message.getBytes("UTF-8"));
+            byte[] signedString = signer.signature.sign();
+            // We used to encode this as a hex so we could send it with the html without
+            // encoding. Not really necessary anymore for the socket based client,
+            // but the iOS client does as well so we need to keep it like this.
+            // Also note that the secret based method doesn't do this - it just returns a string
+            // using the ISO-8859-1 charset.
+            String result = DatatypeConverter.printHexBinary(signedString);
+            //String result = ByteUtils.toHex(signedString);
+            return result;
         } catch (InvalidKeyException | UnsupportedEncodingException | SignatureException e) {
+            // the instance may be left half way through a signature
+            signer.privateKey = null;
             throw new ClientException ("Error encoding message", e);
         }
     }
 
-    private static MessageDigest getMessageDigestInstance() {
-      return mds[mdIndex++ % mds.length];
-    }
-
-    private static Cipher getCipherInstance() {
-      return ciphers[cipherIndex++ % ciphers.length];
-    }
-
     /**
      * @param guidEntry
      * @param message
      * @return Signature encoded as a hex string
-     * @throws NoSuchAlgorithmException
-     * @throws InvalidKeyException
-     * @throws SignatureException
-     * @throws UnsupportedEncodingException
-     * @throws IllegalBlockSizeException
-     * @throws BadPaddingException
-     * @throws NoSuchPaddingException
+     * @throws ClientException
      */
     public static String signDigestOfMessageSecretKey(GuidEntry guidEntry, String message)
             throws ClientException {
+        Signer signer = getSigner();
         try {
             SecretKey secretKey = SessionKeys.getOrGenerateSecretKey(guidEntry.getPublicKey(),
                     guidEntry.getPrivateKey());
-            MessageDigest md = getMessageDigestInstance();
-            byte[] digest;
             // FIXME: The reason why we use CHARSET should be more throughly documented here.
             // This might be important for folks writing clients in other languages.
             byte[] body = message.getBytes(GNSProtocol.CHARSET.toString());
-            synchronized (md) {
-                digest = md.digest(body);
-            }
+            byte[] digest = signer.md.digest(body);
             assert (digest != null);
-            Cipher cipher = getCipherInstance();
-            byte[] signature;
-            synchronized (cipher) {
-                cipher.init(Cipher.ENCRYPT_MODE, secretKey);
-                signature = cipher.doFinal(digest);
+            if (signer.secretKey != secretKey) {
+                signer.secretKey = null;
+                signer.cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+                SessionKeys.SecretKeyCertificate skCert = SessionKeys
+                        .getSecretKeyCertificate(guidEntry.getPublicKey());
+                signer.encodedSKCert = skCert.getEncoded(false);
+                signer.secretKey = secretKey;
             }
-
-            SessionKeys.SecretKeyCertificate skCert = SessionKeys
-                    .getSecretKeyCertificate(guidEntry.getPublicKey());
-            byte[] encodedSKCert = skCert.getEncoded(false);
+            byte[] signature = signer.cipher.doFinal(digest);
+            byte[] encodedSKCert = signer.encodedSKCert;
 
             // arun: Combining them like this because the rest of the GNS code seems
             // poorly organized to add more signature related fields in a systematic
@@ -174,10 +159,45 @@ public class CryptoUtils {
             // FIXME: The reason why we use CHARSET should be more throughly documented here.
             return new String(combined, GNSProtocol.CHARSET.toString());
         } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException | NoSuchPaddingException | BadPaddingException | UnsupportedEncodingException | IllegalBlockSizeException e ) {
+            signer.secretKey = null;
             throw new ClientException("Error encoding message message (using secretkey)", e);
         }
     }
 
+    /**
+     * Signs many messages of a guid in parallel, with the secret key if
+     * {@link GNSClientConfig.GNSCC#ENABLE_SECRET_KEY} like
+     * {@link CommandUtils} signs commands.
+     *
+     * @param guidEntry
+     * @param messages
+     * @return the signatures of the messages, in order
+     * @throws ClientException if any message could not be signed
+     */
+    public static List<String> signDigestOfMessages(GuidEntry guidEntry,
+            List<String> messages) throws ClientException {
+        boolean secretKey = Config.getGlobalBoolean(GNSClientConfig.GNSCC.ENABLE_SECRET_KEY);
+        String[] signatures = new String[messages.size()];
+        // the first failure, as exceptions thrown by the workers are rewrapped
+        AtomicReference<ClientException> failure = new AtomicReference<>();
+        IntStream.range(0, signatures.length).parallel().forEach(i -> {
+            if (failure.get() != null) {
+                return;
+            }
+            try {
+                signatures[i] = secretKey
+                        ? signDigestOfMessageSecretKey(guidEntry, messages.get(i))
+                        : signDigestOfMessage(guidEntry, messages.get(i));
+            } catch (ClientException e) {
+                failure.compareAndSet(null, e);
+            }
+        });
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return Arrays.asList(signatures);
+    }
+
 	public static final PrivateKey getPrivateKey() throws KeyStoreException,
 		NoSuchAlgorithmException, CertificateException, IOException,
 		UnrecoverableKeyException {
@@ -16,6 +16,7 @@
 package edu.umass.cs.gnsclient.client;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Arrays;
@@ -24,6 +25,9 @@ import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 import java.util.logging.Level;
 
 import edu.umass.cs.gnsserver.gnsapp.GNSAppUtil;
@@ -43,6 +47,11 @@ import edu.umass.cs.gnscommon.exceptions.client.ClientException;
 import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnscommon.packets.PacketUtils;
 import edu.umass.cs.gnscommon.packets.ResponsePacket;
+import edu.umass.cs.gnscommon.utils.ConcurrencyLimiter;
+import edu.umass.cs.gnscommon.utils.LatencyHistogram;
+import edu.umass.cs.gnscommon.utils.ReplicaProber;
+import edu.umass.cs.gnscommon.utils.ReplicaSelector;
+import edu.umass.cs.gnscommon.utils.RequestTracer;
 import edu.umass.cs.gnsserver.gnsapp.packet.InternalCommandPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
 import edu.umass.cs.gnsserver.main.GNSConfig;
@@ -78,6 +87,35 @@ public class GNSClient {
 	protected AsyncClient asyncClient;
 	// local name server
 	private InetSocketAddress GNSProxy = null;
+	// null unless GNSCC.ADAPTIVE_REPLICA_SELECTION
+	private final ReplicaSelector replicaSelector;
+	private final ReplicaProber replicaProber;
+	// null unless enabled, see setReadCache
+	private volatile ClientReadCache readCache;
+	// the latencies of synchronous requests, for the hedging delay
+	private final LatencyHistogram latencies = new LatencyHistogram(LATENCY_WINDOW);
+	// 0 unless hedging, see setHedgePercentile
+	private volatile double hedgePercentile;
+	private final AtomicLong syncRequests = new AtomicLong();
+	private final AtomicLong hedgedRequests = new AtomicLong();
+	// null unless GNSCC.ADAPTIVE_CONCURRENCY_LIMIT
+	private final ConcurrencyLimiter concurrencyLimiter;
+
+	// samples before the latency percentiles are used, and between halvings
+	private static final int MIN_LATENCY_SAMPLES = 100;
+	private static final long LATENCY_WINDOW = 10000;
+	// the most requests hedged, in percent, so hedges can not swamp replicas
+	private static final int MAX_HEDGED_PERCENT = 10;
+
+	/**
+	 * The slot of each thread that its synchronous requests are answered in.
+	 */
+	private static final ThreadLocal<ResponseSlot> RESPONSE_SLOTS = new ThreadLocal<ResponseSlot>() {
+		@Override
+		protected ResponseSlot initialValue() {
+			return new ResponseSlot();
+		}
+	};
 
 	protected String getLabel() {
 		return GNSClient.class.getSimpleName();
@@ -177,6 +215,26 @@ public class GNSClient {
 				return GNSClient.this.getRequestTypes();
 			}
 		};
+		if (Config.getGlobalBoolean(GNSClientConfig.GNSCC.ADAPTIVE_REPLICA_SELECTION)) {
+			this.replicaSelector = new ReplicaSelector();
+			this.replicaProber = new ReplicaProber(this.replicaSelector,
+					Config.getGlobalInt(GNSClientConfig.GNSCC.REPLICA_PROBE_INTERVAL),
+					Config.getGlobalInt(GNSClientConfig.GNSCC.REPLICA_PROBE_TIMEOUT),
+					Config.getGlobalInt(GNSClientConfig.GNSCC.REPLICA_RESPONSE_TIMEOUT));
+		} else {
+			this.replicaSelector = null;
+			this.replicaProber = null;
+		}
+		this.setReadCache(Config.getGlobalInt(GNSClientConfig.GNSCC.CLIENT_READ_CACHE_SIZE),
+				Config.getGlobalInt(GNSClientConfig.GNSCC.CLIENT_READ_CACHE_TTL));
+		this.setHedgePercentile(Config.getGlobalInt(GNSClientConfig.GNSCC.HEDGE_PERCENTILE));
+		this.concurrencyLimiter = Config.getGlobalBoolean(GNSClientConfig.GNSCC.ADAPTIVE_CONCURRENCY_LIMIT)
+				? new ConcurrencyLimiter(1,
+						Config.getGlobalInt(GNSClientConfig.GNSCC.MAX_CONCURRENCY_LIMIT),
+						Config.getGlobalInt(GNSClientConfig.GNSCC.CONCURRENCY_QUEUE_SIZE),
+						Config.getGlobalInt(GNSClientConfig.GNSCC.CONCURRENCY_QUEUE_TIMEOUT),
+						Config.getGlobalInt(GNSClientConfig.GNSCC.REPLICA_RESPONSE_TIMEOUT))
+				: null;
 	}
 
 	protected Set<IntegerPacketType> getRequestTypes() {
@@ -256,10 +314,84 @@ public class GNSClient {
 		return this;
 	}
 
+	/**
+	 * Enables or disables the caching of the values returned by reads. A
+	 * cached value is returned by the same read of the same reader for at most
+	 * {@code ttl} ms, and for no longer than the lease the active replica
+	 * granted for it, if any. Writes sent by this client drop the cached
+	 * values of their guid, but writes by other clients are only seen once the
+	 * value expires. Coordinated reads and commands with
+	 * {@link GNSProtocol#BYPASS_CACHE} set skip the cache. See
+	 * {@link ClientReadCache}.
+	 *
+	 * @param maxEntries
+	 *            the number of values cached, 0 to disable the cache
+	 * @param ttl
+	 *            the time in ms for which a value is returned
+	 * @return {@code this}
+	 */
+	public GNSClient setReadCache(int maxEntries, long ttl) {
+		this.readCache = maxEntries > 0 && ttl > 0 ? new ClientReadCache(
+				maxEntries, ttl) : null;
+		return this;
+	}
+
+	/**
+	 * @return the read cache, with its hit and miss counts, or null if it is
+	 *         disabled
+	 */
+	public ClientReadCache getReadCache() {
+		return this.readCache;
+	}
+
+	/**
+	 * Enables or disables hedged reads. A synchronous read that has not been
+	 * answered within the given percentile of the latencies of the
+	 * synchronous requests of this client is sent again, to another active
+	 * replica, and the first response is taken. At most
+	 * {@value #MAX_HEDGED_PERCENT}% of the requests are hedged. Only
+	 * uncoordinated reads sent directly to the active replicas picked by
+	 * {@link GNSClientConfig.GNSCC#ADAPTIVE_REPLICA_SELECTION} are hedged.
+	 *
+	 * @param percentile
+	 *            between 0 and 100, 0 to disable hedging
+	 * @return {@code this}
+	 */
+	public GNSClient setHedgePercentile(double percentile) {
+		this.hedgePercentile = Math.max(0, Math.min(percentile, 100));
+		return this;
+	}
+
+	/**
+	 * @return the latencies of the synchronous requests of this client
+	 */
+	public LatencyHistogram getLatencies() {
+		return this.latencies;
+	}
+
+	/**
+	 * @return the number of synchronous requests that were hedged
+	 */
+	public long getHedgedRequestCount() {
+		return this.hedgedRequests.get();
+	}
+
+	/**
+	 * @return the limiter of the number of outstanding requests, with the
+	 *         current limit and the number of requests waiting for it, or
+	 *         null unless {@link GNSClientConfig.GNSCC#ADAPTIVE_CONCURRENCY_LIMIT}
+	 */
+	public ConcurrencyLimiter getConcurrencyLimiter() {
+		return this.concurrencyLimiter;
+	}
+
 	/**
 	 * Closes the underlying async client.
 	 */
 	public void close() {
+		if (this.replicaProber != null) {
+			this.replicaProber.shutdown();
+		}
 		this.asyncClient.close();
 	}
 
@@ -271,12 +403,85 @@ public class GNSClient {
 	 * @param callback
 	 * @return Long request ID if successfully sent, else null.
 	 * @throws IOException
+	 *             also if the concurrency limit rejects the request, with a
+	 *             {@link ClientException} with
+	 *             {@link ResponseCode#OVERLOAD} as the cause
 	 */
 	private RequestFuture<CommandPacket> sendAsync(CommandPacket packet,
-			final Callback<Request, CommandPacket> callback) throws IOException {
+			Callback<Request, CommandPacket> callback) throws IOException {
 		ClientRequest request = packet
 				.setForceCoordinatedReads(isForceCoordinatedReads());
 
+		final ConcurrencyLimiter limiter = this.concurrencyLimiter;
+		if (limiter != null && !this.acquire(limiter, packet)) {
+			throw new IOException(this.overloaded(limiter, packet));
+		}
+		try {
+			return this.sendRequest(packet, request,
+					this.wrapCallback(packet, callback, limiter));
+		} catch (IOException | RuntimeException e) {
+			if (limiter != null) {
+				limiter.cancel(packet.getRequestID());
+			}
+			throw e;
+		}
+	}
+
+	/**
+	 * Wraps the callback of a request so that a response to it releases its
+	 * permit of the concurrency limit and, for a write, drops the cached reads
+	 * of the guid, which are dropped right away as well. A hedge of the request is sent with the same
+	 * wrapping, so whichever callback handles the first response does both.
+	 *
+	 * @param packet
+	 * @param callback
+	 * @param limiter
+	 *            the limiter the request holds a permit of, or null
+	 * @return the wrapped callback
+	 */
+	private Callback<Request, CommandPacket> wrapCallback(
+			CommandPacket packet, Callback<Request, CommandPacket> callback,
+			final ConcurrencyLimiter limiter) {
+		final ClientReadCache cache = this.readCache;
+		if (cache != null
+				&& (packet.getCommandType().isUpdate() || packet
+						.getCommandType().isCreateDelete())) {
+			// again once it is done, for the reads sent while it was in flight
+			final String guid = packet.getServiceName();
+			final Callback<Request, CommandPacket> writeCallback = callback;
+			cache.invalidate(guid);
+			callback = new Callback<Request, CommandPacket>() {
+				@Override
+				public CommandPacket processResponse(Request response) {
+					cache.invalidate(guid);
+					return writeCallback.processResponse(response);
+				}
+			};
+		}
+
+		if (limiter == null) {
+			return callback;
+		}
+		final long requestID = packet.getRequestID();
+		final Callback<Request, CommandPacket> limitedCallback = callback;
+		return new Callback<Request, CommandPacket>() {
+			@Override
+			public CommandPacket processResponse(Request response) {
+				// a second response to a hedged request finds no permit left
+				if (response instanceof ResponsePacket
+						&& ((ResponsePacket) response).getErrorCode() == ResponseCode.OVERLOAD) {
+					limiter.drop(requestID);
+				} else {
+					limiter.release(requestID);
+				}
+				return limitedCallback.processResponse(response);
+			}
+		};
+	}
+
+	private RequestFuture<CommandPacket> sendRequest(CommandPacket packet,
+			ClientRequest request, final Callback<Request, CommandPacket> callback)
+			throws IOException {
 		if (isAnycast(packet)) {
 			return this.asyncClient.sendRequestAnycast(request, callback);
 		} else if (this.GNSProxy != null) {
@@ -285,11 +490,45 @@ public class GNSClient {
                                 GNSProxy);
 			return this.asyncClient.sendRequest(request, this.GNSProxy,
 					callback);
+		} else if (this.replicaSelector != null) {
+			// samples the round trip time to the replica the selector picks
+			final long requestID = packet.getRequestID();
+			return this.asyncClient.sendRequest(request,
+					new Callback<Request, CommandPacket>() {
+						@Override
+						public CommandPacket processResponse(Request response) {
+							GNSClient.this.replicaSelector.received(requestID);
+							return callback.processResponse(response);
+						}
+					}, this.replicaSelector.forRequest(requestID));
 		} else {
 			return this.asyncClient.sendRequest(request, callback);
 		}
 	}
 
+	/**
+	 * Waits for the concurrency limit to let a request through.
+	 *
+	 * @return false if the request was rejected
+	 */
+	private boolean acquire(ConcurrencyLimiter limiter, CommandPacket packet)
+			throws InterruptedIOException {
+		try {
+			return limiter.acquire(packet.getRequestID());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting to send "
+					+ packet.getSummary());
+		}
+	}
+
+	private ClientException overloaded(ConcurrencyLimiter limiter,
+			CommandPacket packet) {
+		return new ClientException(ResponseCode.OVERLOAD, this
+				+ " has too many requests outstanding to send "
+				+ packet.getSummary() + "; " + limiter);
+	}
+
 	/**
 	 * This method synchronously retrieves the response and checks for and
 	 * throws exceptions if needed. This checkResponse behavior is unlike
@@ -305,10 +544,27 @@ public class GNSClient {
 	 */
 	private CommandPacket sendSync(CommandPacket packet, final long timeout,
 			int retries) throws IOException, ClientException {
+		ClientReadCache cache = this.readCache;
+		String key = cache != null && !isForceCoordinatedReads() ? ClientReadCache
+				.getKey(packet) : null;
+		if (key != null) {
+			String value = cache.get(key);
+			if (value != null) {
+				PacketUtils.setResult(packet, new ResponsePacket(packet
+						.getServiceName(), packet.getRequestID(),
+						ResponseCode.NO_ERROR, value));
+				return packet;
+			}
+		}
+		long sentTime = System.currentTimeMillis();
 		ResponsePacket response = this.sendSyncInternal(packet, timeout,
 				retries);
 		CommandUtils.checkResponse(nullToTimeoutResponse(response, packet),
 				PacketUtils.setResult(packet, response));
+		if (key != null && response.getErrorCode() == ResponseCode.NO_ERROR) {
+			cache.put(key, packet.getServiceName(), response.getReturnValue(),
+					response.getLease(), sentTime);
+		}
 		GNSClientConfig.getLogger()
 				.log(Level.FINE,
 						"{0} received response {0} for request {1}",
@@ -345,10 +601,10 @@ public class GNSClient {
 				response = defaultHandleResponse(this.sendSyncInternal(packet,
 						timeout));
 			} catch (ClientException ce) {
-				// iOS client doesn't support empty body "if" statements
-				//if (ce.getCode() == ResponseCode.TIMEOUT)
-					// do nothing
-				//	;
+				// retrying would only add to the load that got it rejected
+				if (ce.getCode() == ResponseCode.OVERLOAD) {
+					throw ce;
+				}
 			}
 		} while ((count++ < this.numRetriesUponTimeout && (response == null || response
 				.getErrorCode() == ResponseCode.TIMEOUT)));
@@ -357,7 +613,8 @@ public class GNSClient {
 
 	/**
 	 * All sync sends come here, which in turn calls
-	 * {@link #sendAsync(CommandPacket, Callback)}{@code .get(timeout)}.
+	 * {@link #sendAsync(CommandPacket, Callback)} with the
+	 * {@link ResponseSlot} of the thread and waits for the response in it.
 	 * 
 	 * @param packet
 	 * @param timeout
@@ -367,32 +624,171 @@ public class GNSClient {
 	 */
 	private ResponsePacket sendSyncInternal(CommandPacket packet,
 			final long timeout) throws IOException, ClientException {
-
-		ResponsePacket[] processed = new ResponsePacket[1];
-		Callback<Request, CommandPacket> future = new Callback<Request, CommandPacket>() {
-			@Override
-			public CommandPacket processResponse(Request response) {
-				GNSClientConfig.getLogger().log(
-						Level.FINE,
-						"{0} received response {1} for request {2}",
-						new Object[] { GNSClient.this, packet.getSummary(),
-								response.getSummary() });
-				processed[0] = defaultHandleResponse(response);
-				return packet;
-			}
-		};
+		ConcurrencyLimiter limiter = this.concurrencyLimiter;
+		// sendAsync finds the permit taken and keeps it
+		if (limiter != null && !this.acquire(limiter, packet)) {
+			throw this.overloaded(limiter, packet);
+		}
+		ResponseSlot slot = RESPONSE_SLOTS.get();
+		slot.reset(packet);
 		try {
-			this.sendAsync(packet, future).get(timeout, TimeUnit.MILLISECONDS);
-		} catch (InterruptedException | ExecutionException | TimeoutException e) {
+			long start = System.nanoTime();
+			this.sendAsync(packet, slot);
+			this.syncRequests.incrementAndGet();
+			long hedgeDelay = this.getHedgeDelay(packet);
+			// a timeout of 0 waits forever, like RequestFuture.get does
+			if (hedgeDelay > 0
+					&& (timeout <= 0 || hedgeDelay < timeout)
+					&& !slot.await(start
+							+ TimeUnit.MILLISECONDS.toNanos(hedgeDelay))) {
+				this.sendHedge(packet,
+						this.wrapCallback(packet, slot, limiter));
+			}
+			if (!slot.await(timeout > 0 ? start
+					+ TimeUnit.MILLISECONDS.toNanos(timeout) : Long.MAX_VALUE)) {
+				if (this.replicaSelector != null) {
+					this.replicaSelector.failed(packet.getRequestID());
+				}
+				if (limiter != null) {
+					limiter.drop(packet.getRequestID());
+				}
+				throw new ClientException(new TimeoutException(
+						"No response to " + packet.getSummary() + " within "
+								+ timeout + "ms"));
+			}
+			this.latencies.record((System.nanoTime() - start) / 1000000.0);
+			return defaultHandleResponse(slot.getResponse());
+		} catch (InterruptedException e) {
+			if (limiter != null) {
+				limiter.cancel(packet.getRequestID());
+			}
+			Thread.currentThread().interrupt();
 			throw new ClientException(e);
+		} finally {
+			slot.reset(null);
 		}
-		return processed[0];
 
 		/* We could also simply have used gigapaxos' sync send above, but using
 		 * the async code above avoids the redundancy with sendAsync on checking
 		 * for anycast/proxy/default. */
 	}
 
+	/**
+	 * @param packet
+	 * @return the time in ms after which the request is hedged, 0 if it is
+	 *         not to be
+	 */
+	private long getHedgeDelay(CommandPacket packet) {
+		double percentile = this.hedgePercentile;
+		if (percentile <= 0 || this.replicaSelector == null
+				|| this.GNSProxy != null || isAnycast(packet)
+				|| !packet.getCommandType().isRead()
+				|| isForceCoordinatedReads()
+				|| this.latencies.getCount() < MIN_LATENCY_SAMPLES
+				|| this.hedgedRequests.get() * 100 >= this.syncRequests.get()
+						* MAX_HEDGED_PERCENT) {
+			return 0;
+		}
+		return (long) Math.ceil(this.latencies.getPercentile(percentile));
+	}
+
+	/**
+	 * Sends a request again, to another active replica than the one it was
+	 * sent to. The request keeps its ID, so the async client may keep only
+	 * one of the two callbacks; {@code callback} must therefore be wrapped
+	 * like the one the request was first sent with.
+	 */
+	private void sendHedge(CommandPacket packet,
+			final Callback<Request, CommandPacket> callback) throws IOException {
+		this.hedgedRequests.incrementAndGet();
+		final long requestID = packet.getRequestID();
+		if (RequestTracer.isTraced(GNSClientConfig.getLogger(), Level.FINE,
+				requestID)) {
+			RequestTracer.trace(GNSClientConfig.getLogger(), Level.FINE,
+					requestID, "{0} hedging {1}", this, packet.getSummary());
+		}
+		this.asyncClient.sendRequest(packet,
+				new Callback<Request, CommandPacket>() {
+					@Override
+					public CommandPacket processResponse(Request response) {
+						GNSClient.this.replicaSelector.received(requestID);
+						return callback.processResponse(response);
+					}
+				}, this.replicaSelector.forHedge(requestID));
+	}
+
+	/**
+	 * The response to the synchronous request of a thread, which waits for it
+	 * by parking rather than on a future or a monitor. Each thread reuses its
+	 * slot for all its requests, so a slot ignores responses to earlier
+	 * requests that timed out, and keeps the first response to a hedged
+	 * request.
+	 */
+	private static class ResponseSlot implements
+			Callback<Request, CommandPacket> {
+
+		private static final AtomicReferenceFieldUpdater<ResponseSlot, Request> RESPONSE = AtomicReferenceFieldUpdater
+				.newUpdater(ResponseSlot.class, Request.class, "response");
+
+		private volatile Thread waiter;
+		private volatile CommandPacket packet;
+		private volatile Request response;
+
+		void reset(CommandPacket packet) {
+			this.waiter = Thread.currentThread();
+			this.response = null;
+			// last, so that a response to it finds the slot ready
+			this.packet = packet;
+		}
+
+		@Override
+		public CommandPacket processResponse(Request response) {
+			CommandPacket packet = this.packet;
+			if (packet != null && response != null
+					&& isResponseTo(response, packet.getRequestID())
+					&& RESPONSE.compareAndSet(this, null, response)) {
+				LockSupport.unpark(this.waiter);
+			}
+			return packet;
+		}
+
+		private static boolean isResponseTo(Request response, long requestID) {
+			return response instanceof ClientRequest ? ((ClientRequest) response)
+					.getRequestID() == requestID
+					: response instanceof ActiveReplicaError ? ((ActiveReplicaError) response)
+							.getRequestID() == requestID : true;
+		}
+
+		/**
+		 * @param deadline
+		 *            in {@link System#nanoTime()}, or {@link Long#MAX_VALUE}
+		 *            to wait until the response arrives
+		 * @return true if the response arrived before the deadline
+		 * @throws InterruptedException
+		 */
+		boolean await(long deadline) throws InterruptedException {
+			while (this.response == null) {
+				if (deadline == Long.MAX_VALUE) {
+					LockSupport.park(this);
+				} else {
+					long remaining = deadline - System.nanoTime();
+					if (remaining <= 0) {
+						return false;
+					}
+					LockSupport.parkNanos(this, remaining);
+				}
+				if (Thread.interrupted()) {
+					throw new InterruptedException();
+				}
+			}
+			return true;
+		}
+
+		Request getResponse() {
+			return this.response;
+		}
+	}
+
 	private int numRetriesUponTimeout = 0;
 
 	/**
@@ -635,6 +1031,9 @@ public class GNSClient {
 	public void setMaximumOutstandingAppRequests(int n)
 	{
 		asyncClient.setMaximumOutstandingAppRequests(n);
+		if (this.concurrencyLimiter != null) {
+			this.concurrencyLimiter.setMaxLimit(n);
+		}
 	}
 
 	private long forcedTimeout = 0;
@@ -713,7 +1112,8 @@ public class GNSClient {
 	 * @return A future to retrieve the result of executing {@code command}
 	 *         using {@link RequestFuture#get()}.
 	 * @throws IOException
-	 *             if local network or file exceptions occur before execution.
+	 *             if local network or file exceptions occur before execution,
+	 *             or if the concurrency limit rejects the request.
 	 */
 	public RequestFuture<CommandPacket> executeAsync(CommandPacket commandPacket)
 			throws IOException {
@@ -2355,6 +2355,25 @@ public class GNSClientCommands
 	  gnsClient = gnsClient.setForceCoordinatedReads(forceCoordinatedReads);
   }
   
+  /**
+   * For documentation refer to {@link GNSClient#setReadCache(int, long)}
+   * @param maxEntries
+   * @param ttl
+   */
+  public void setReadCache(int maxEntries, long ttl)
+  {
+	  gnsClient = gnsClient.setReadCache(maxEntries, ttl);
+  }
+
+  /**
+   * For documentation refer to {@link GNSClient#getReadCache()}
+   * @return the read cache, or null if it is disabled
+   */
+  public ClientReadCache getReadCache()
+  {
+	  return gnsClient.getReadCache();
+  }
+  
   /**
    * For documentation refer to {@link GNSClient#getGNSProvider()}
    * @return
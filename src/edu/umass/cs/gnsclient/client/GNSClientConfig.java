@@ -87,6 +87,76 @@ public class GNSClientConfig {
      * The port used by the local name server.
      */
     LOCAL_NAME_SERVER_PORT(24398),
+    /**
+     * If true, the client and the local name server pick the active replica
+     * of a name by its measured latency and outstanding requests, see
+     * {@link edu.umass.cs.gnscommon.utils.ReplicaSelector}. Otherwise
+     * gigapaxos picks one.
+     */
+    ADAPTIVE_REPLICA_SELECTION(false),
+    /**
+     * The time in ms between probes of the latency to each known active
+     * replica. 0 disables probing, leaving only the samples of requests.
+     */
+    REPLICA_PROBE_INTERVAL(10000),
+    /**
+     * The time in ms after which a latency probe fails.
+     */
+    REPLICA_PROBE_TIMEOUT(2000),
+    /**
+     * The time in ms after which a request sent to an active replica without
+     * a response counts against the replica.
+     */
+    REPLICA_RESPONSE_TIMEOUT(8000),
+    /**
+     * One in this many requests is traced on the hot paths of the client,
+     * local name server and servers when their loggers are at FINE, see
+     * {@link edu.umass.cs.gnscommon.utils.RequestTracer}. 1 traces all.
+     */
+    TRACE_SAMPLING_INTERVAL(1),
+    /**
+     * The most connections an {@link edu.umass.cs.gnsclient.client.http.HttpClient}
+     * has open to its host at a time, which is also the number of its
+     * asynchronous commands that run at a time.
+     */
+    HTTP_CLIENT_MAX_CONNECTIONS(16),
+    /**
+     * The number of read values a {@link GNSClient} caches, 0 to disable the
+     * cache, see {@link GNSClient#setReadCache(int, long)}.
+     */
+    CLIENT_READ_CACHE_SIZE(0),
+    /**
+     * The time in ms for which a {@link GNSClient} returns a cached value.
+     */
+    CLIENT_READ_CACHE_TTL(5000),
+    /**
+     * The percentile of the latency after which a {@link GNSClient} sends a
+     * synchronous read again to another active replica, 0 to never, see
+     * {@link GNSClient#setHedgePercentile(double)}.
+     */
+    HEDGE_PERCENTILE(0),
+    /**
+     * Whether a {@link GNSClient} adapts the number of requests it has
+     * outstanding to the latency of the responses, see
+     * {@link edu.umass.cs.gnscommon.utils.ConcurrencyLimiter}.
+     */
+    ADAPTIVE_CONCURRENCY_LIMIT(false),
+    /**
+     * The largest number of requests outstanding at a {@link GNSClient} with
+     * {@link #ADAPTIVE_CONCURRENCY_LIMIT}.
+     */
+    MAX_CONCURRENCY_LIMIT(1000),
+    /**
+     * The number of requests that may wait for the concurrency limit of a
+     * {@link GNSClient}; more are rejected with
+     * {@link edu.umass.cs.gnscommon.ResponseCode#OVERLOAD} right away.
+     */
+    CONCURRENCY_QUEUE_SIZE(1000),
+    /**
+     * The time in ms that a request waits for the concurrency limit of a
+     * {@link GNSClient} before it is rejected, 0 to reject without waiting.
+     */
+    CONCURRENCY_QUEUE_TIMEOUT(2000),
 
 	  DEFAULT_GNS_HTTP_PROXY_PORT (5678),
 
@@ -2087,6 +2087,99 @@ public class GNSCommand extends CommandPacket {
     );
   }
 
+  /**
+   * Counts the guid records that match the {@code query}. The count is
+   * computed by the name servers, so no records are returned. The result
+   * type of the execution result of this query is
+   * {@link CommandResultType#MAP}: a JSON object with the function, the
+   * count and the value.
+   * Requires all fields accessed to be world readable.
+   *
+   * @param query
+   * The select query being issued.
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket selectCount(String query)
+          throws ClientException {
+    return getCommand(CommandType.SelectAggregate,
+            GNSProtocol.QUERY.toString(), query,
+            GNSProtocol.AGGREGATE.toString(), "COUNT");
+  }
+
+  /**
+   * Aggregates the numeric values of {@code field} over the guid records
+   * that match the {@code query}. The aggregate is computed by the name
+   * servers, so no records are returned. The result is a JSON object with
+   * the function, the field, the number of values aggregated and the value,
+   * which is missing if no record has a numeric value.
+   * Requires all fields accessed to be world readable.
+   *
+   * @param query
+   * The select query being issued.
+   * @param function one of COUNT, MIN, MAX, SUM or AVG
+   * @param field the aggregated field
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket selectAggregate(String query, String function, String field)
+          throws ClientException {
+    return getCommand(CommandType.SelectAggregate,
+            GNSProtocol.QUERY.toString(), query,
+            GNSProtocol.AGGREGATE.toString(), function,
+            GNSProtocol.AGGREGATE_FIELD.toString(), field);
+  }
+
+  /**
+   * Aggregates the numeric values of {@code field} over the guid records
+   * that match the {@code query}. See
+   * {@link #selectAggregate(String, String, String)}.
+   *
+   * @param reader
+   * @param query
+   * The select query being issued.
+   * @param function one of COUNT, MIN, MAX, SUM or AVG
+   * @param field the aggregated field
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket selectAggregate(GuidEntry reader, String query,
+          String function, String field)
+          throws ClientException {
+    return getCommand(CommandType.SelectAggregate, reader,
+            GNSProtocol.GUID.toString(), reader.getGuid(),
+            GNSProtocol.QUERY.toString(), query,
+            GNSProtocol.AGGREGATE.toString(), function,
+            GNSProtocol.AGGREGATE_FIELD.toString(), field);
+  }
+
+  /**
+   * Selects the first {@code limit} guid records that match the
+   * {@code query} ordered by {@code sortField}. Each name server only sends
+   * its own first records. Records without a value for {@code sortField}
+   * come last. {@code null} fields means return all fields.
+   * Requires all fields accessed to be world readable.
+   *
+   * @param query
+   * The select query being issued.
+   * @param fields A list of fields or null meaning all fields
+   * @param sortField the field the records are ordered by
+   * @param descending true to return the largest values first
+   * @param limit the maximum number of records returned
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket selectRecordsSorted(String query, List<String> fields,
+          String sortField, boolean descending, int limit)
+          throws ClientException {
+    return getCommand(CommandType.SelectQuery,
+            GNSProtocol.QUERY.toString(), query,
+            GNSProtocol.FIELDS.toString(), fields == null ? GNSProtocol.ENTIRE_RECORD : fields,
+            GNSProtocol.SORT_FIELD.toString(), sortField,
+            GNSProtocol.SORT_DESCENDING.toString(), descending,
+            GNSProtocol.LIMIT.toString(), limit);
+  }
+
   /**
    * Set up a context-aware group guid corresponding to the query. Requires
    * {@code accountGuid} and {@code publicKey} that are used to set up the new
@@ -2322,6 +2415,30 @@ public static final CommandPacket selectNear(GuidEntry reader, String field, JSO
             GNSProtocol.MAX_DISTANCE.toString(), Double.toString(maxDistance));
   }
 
+  /**
+   * Selects the {@code k} guids whose {@code field} is nearest to
+   * {@code value} and at most {@code maxDistance} meters away, nearest
+   * first. Each name server stops after its own {@code k} nearest records.
+   *
+   * @param field
+   * The field key
+   * @param value
+   * - [LONG, LAT]
+   * @param maxDistance
+   * - distance in meters
+   * @param k the maximum number of guids returned
+   * @return CommandPacket
+   * @throws ClientException
+   */
+  public static final CommandPacket selectNearest(String field, JSONArray value,
+          Double maxDistance, int k) throws ClientException {
+    return getCommand(CommandType.SelectNear,
+            GNSProtocol.FIELD.toString(), field,
+            GNSProtocol.NEAR.toString(), value.toString(),
+            GNSProtocol.MAX_DISTANCE.toString(), Double.toString(maxDistance),
+            GNSProtocol.LIMIT.toString(), k);
+  }
+
   /**
    * Update the location field for {@code targetGUID}.
    * See also {@link GNSProtocol#LOCATION_FIELD_NAME}.
@@ -40,6 +40,7 @@ import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnscommon.utils.Base64;
 import edu.umass.cs.gnscommon.utils.CanonicalJSON;
 import edu.umass.cs.gnscommon.utils.Format;
+import edu.umass.cs.gnscommon.utils.RequestTracer;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport
 	.CommandResponse;
 import edu.umass.cs.gnsserver.main.GNSConfig;
@@ -61,7 +62,11 @@ import java.net.InetSocketAddress;
 import java.net.URI;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -76,6 +81,7 @@ public class GNSHTTPProxy {
 		.GNSC.HTTP_SERVER_GNS_URL_PATH);
 	private final boolean isProxyClient;
 	private final HttpServer httpServer;
+	private ExecutorService executor;
 	// handles command processing
 	private final GNSClient client;
 
@@ -117,6 +123,9 @@ public class GNSHTTPProxy {
 		if (httpServer != null) {
 			httpServer.stop(0);
 		}
+		if (executor != null) {
+			executor.shutdown();
+		}
 	}
 
 	/**
@@ -132,8 +141,8 @@ public class GNSHTTPProxy {
 
 			server.createContext("/", new EchoHttpHandler());
 			server.createContext("/" + GNS_PATH, new DefaultHttpHandler());
-			server.setExecutor(Executors.newCachedThreadPool()); server
-				.start();
+			server.setExecutor(createExecutor());
+			server.start();
 			LOGGER.log(Level.INFO, "HTTP server is listening on port {0}",
 				port);
 			return server;
@@ -145,6 +154,29 @@ public class GNSHTTPProxy {
 		}
 	}
 
+	/**
+	 * Creates the executor that runs the handlers, a fixed number of daemon
+	 * threads as in the GNS HTTP server, see
+	 * {@link GNSConfig.GNSC#HTTP_SERVER_THREADS}.
+	 *
+	 * @return the executor
+	 */
+	protected ExecutorService createExecutor() {
+		int threads = Config.getGlobalInt(GNSConfig.GNSC.HTTP_SERVER_THREADS);
+		AtomicInteger count = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(threads,
+			threads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+			(Runnable r) -> {
+				Thread thread = new Thread(r, GNSHTTPProxy.class
+					.getSimpleName() + count.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		executor.allowCoreThreadTimeOut(true);
+		this.executor = executor;
+		return executor;
+	}
+
 	/**
 	 * The default handler.
 	 */
@@ -175,10 +207,13 @@ public class GNSHTTPProxy {
 					try (OutputStream responseBody = exchange.getResponseBody
 						()) {
 						URI uri = exchange.getRequestURI();
-						LOGGER.log(Level.FINE, "HTTP SERVER REQUEST FROM {0}: " +
-							"" + "" + "" + "" + "" + "" + "" + "" + "{1}", new
-							Object[]{exchange.getRemoteAddress().getHostName()
-							, uri.toString()});
+						if (LOGGER.isLoggable(Level.FINE)) {
+							// getHostName does a reverse lookup, so only once
+							// the line is written
+							LOGGER.log(Level.FINE, "HTTP SERVER REQUEST FROM {0}: {1}",
+								new Object[]{RequestTracer.lazy(() -> exchange
+									.getRemoteAddress().getHostName()), uri});
+						}
 						String path = uri.getPath();
 						String query = uri.getQuery() != null ? uri.getQuery()
 							: "";
@@ -235,8 +270,7 @@ public class GNSHTTPProxy {
 	}
 
 	private static int translateToHTTPStatusCode(ResponseCode code) {
-		// FIXME: systematically distinguish between client and server errors
-		return HttpURLConnection.HTTP_BAD_REQUEST;
+		return code.getHttpStatusCode();
 	}
 
 	/*
@@ -442,11 +476,17 @@ public class GNSHTTPProxy {
 			GNSCommand.getCommand(type, querier, jsonFormattedArguments);
 
 
-		LOGGER.log(Level.FINE, "{0} sending request {1}", new Object[]{this,
-			outgoingPacket});
+		long requestID = outgoingPacket.getRequestID();
+		boolean traced = RequestTracer.isTraced(LOGGER, Level.FINE, requestID);
+		if (traced) {
+			RequestTracer.trace(LOGGER, Level.FINE, requestID,
+				"{0} sending request {1}", this, outgoingPacket.getSummary());
+		}
 		CommandPacket returnPacket = client.execute(outgoingPacket);
-		LOGGER.log(Level.FINE, "{0} received response {1}", new
-			Object[]{this, returnPacket});
+		if (traced) {
+			RequestTracer.trace(LOGGER, Level.FINE, requestID,
+				"{0} received response {1}", this, returnPacket.getSummary());
+		}
 		/**
 		 * Can also invoke getResponse(), getResponseString(),
 		 * getResponseJSONObject()
@@ -25,7 +25,9 @@ import edu.umass.cs.gnsclient.client.GNSClientConfig;
 
 import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
 import java.net.URL;
@@ -61,7 +63,15 @@ import edu.umass.cs.gnscommon.utils.CanonicalJSON;
 import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.utils.Config;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import edu.umass.cs.gnscommon.GNSProtocol;
 
@@ -102,6 +112,17 @@ public class HttpClient {
    */
   private int readRetries = 1;
 
+  /**
+   * Limits the connections open to the host. Idle connections are kept alive
+   * by {@link HttpURLConnection}, up to the http.maxConnections system
+   * property per host.
+   */
+  private final Semaphore connections;
+  /**
+   * Runs the asynchronous commands.
+   */
+  private final ThreadPoolExecutor executor;
+
   private static final boolean includeTimestamp = false;
 
   /**
@@ -111,9 +132,33 @@ public class HttpClient {
    * @param port Port number of the GNS instance
    */
   public HttpClient(String host, int port) {
+    this(host, port, Config.getGlobalInt(GNSClientConfig.GNSCC.HTTP_CLIENT_MAX_CONNECTIONS));
+  }
+
+  /**
+   * Creates a new <code>HttpClient</code> object
+   *
+   * @param host Hostname of the GNS instance
+   * @param port Port number of the GNS instance
+   * @param maxConnections The most connections open to the GNS instance at a time
+   */
+  public HttpClient(String host, int port, int maxConnections) {
 
     this.host = host;
     this.port = port;
+    this.connections = new Semaphore(maxConnections);
+    this.executor = new ThreadPoolExecutor(maxConnections, maxConnections, 60, TimeUnit.SECONDS,
+            new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, HttpClient.class.getSimpleName() + count.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    this.executor.allowCoreThreadTimeOut(true);
   }
 
   /**
@@ -1860,6 +1905,170 @@ public class HttpClient {
     }
   }
 
+  // /////////////////////////////////////////
+  // // ASYNCHRONOUS METHODS /////
+  // /////////////////////////////////////////
+  /**
+   * A command of an {@link HttpClient}, to be run asynchronously.
+   *
+   * @param <T> the type of the result
+   */
+  public interface HttpCommand<T> {
+
+    /**
+     * Runs the command.
+     *
+     * @param client
+     * @return the result of the command
+     * @throws Exception
+     */
+    T execute(HttpClient client) throws Exception;
+  }
+
+  /**
+   * Runs any of the command methods of this client asynchronously, for
+   * example:
+   * <pre>
+   * client.executeAsync(c -&gt; c.fieldRead(guid, field))
+   * </pre>
+   * At most as many commands as the client has connections run at a time;
+   * the rest wait in turn. The future completes exceptionally with the
+   * exception the command throws.
+   *
+   * @param <T> the type of the result
+   * @param command
+   * @return a future of the result
+   */
+  public <T> CompletableFuture<T> executeAsync(final HttpCommand<T> command) {
+    final CompletableFuture<T> future = new CompletableFuture<>();
+    try {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          if (future.isCancelled()) {
+            return;
+          }
+          try {
+            future.complete(command.execute(HttpClient.this));
+          } catch (Exception e) {
+            future.completeExceptionally(e);
+          }
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(new IOException("Client is closed", e));
+    }
+    return future;
+  }
+
+  /**
+   * Obtains the guid of the alias from the GNS server asynchronously.
+   *
+   * @param alias
+   * @return a future of the guid
+   */
+  public CompletableFuture<String> lookupGuidAsync(final String alias) {
+    return executeAsync(new HttpCommand<String>() {
+      @Override
+      public String execute(HttpClient client) throws Exception {
+        return client.lookupGuid(alias);
+      }
+    });
+  }
+
+  /**
+   * Reads the entire record of the targetGuid asynchronously, see
+   * {@link #read(String, GuidEntry)}.
+   *
+   * @param targetGuid
+   * @param reader
+   * @return a future of the record
+   */
+  public CompletableFuture<JSONObject> readAsync(final String targetGuid, final GuidEntry reader) {
+    return executeAsync(new HttpCommand<JSONObject>() {
+      @Override
+      public JSONObject execute(HttpClient client) throws Exception {
+        return client.read(targetGuid, reader);
+      }
+    });
+  }
+
+  /**
+   * Reads the value of field of the targetGuid asynchronously, see
+   * {@link #fieldRead(String, String, GuidEntry)}.
+   *
+   * @param targetGuid
+   * @param field
+   * @param reader
+   * @return a future of the value
+   */
+  public CompletableFuture<String> fieldReadAsync(final String targetGuid, final String field,
+          final GuidEntry reader) {
+    return executeAsync(new HttpCommand<String>() {
+      @Override
+      public String execute(HttpClient client) throws Exception {
+        return client.fieldRead(targetGuid, field, reader);
+      }
+    });
+  }
+
+  /**
+   * Updates the targetGuid with the fields of json asynchronously, see
+   * {@link #update(String, JSONObject, GuidEntry)}.
+   *
+   * @param targetGuid
+   * @param json
+   * @param writer
+   * @return a future that completes when the update is done
+   */
+  public CompletableFuture<Void> updateAsync(final String targetGuid, final JSONObject json,
+          final GuidEntry writer) {
+    return executeAsync(new HttpCommand<Void>() {
+      @Override
+      public Void execute(HttpClient client) throws Exception {
+        client.update(targetGuid, json, writer);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Updates the field of the targetGuid asynchronously, see
+   * {@link #fieldUpdate(String, String, Object, GuidEntry)}.
+   *
+   * @param targetGuid
+   * @param field
+   * @param value
+   * @param writer
+   * @return a future that completes when the update is done
+   */
+  public CompletableFuture<Void> fieldUpdateAsync(final String targetGuid, final String field,
+          final Object value, final GuidEntry writer) {
+    return executeAsync(new HttpCommand<Void>() {
+      @Override
+      public Void execute(HttpClient client) throws Exception {
+        client.fieldUpdate(targetGuid, field, value, writer);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Runs a query asynchronously, see {@link #selectQuery(GuidEntry, String)}.
+   *
+   * @param reader
+   * @param query
+   * @return a future of the guids that match
+   */
+  public CompletableFuture<JSONArray> selectQueryAsync(final GuidEntry reader, final String query) {
+    return executeAsync(new HttpCommand<JSONArray>() {
+      @Override
+      public JSONArray execute(HttpClient client) throws Exception {
+        return client.selectQuery(reader, query);
+      }
+    });
+  }
+
   // /////////////////////////////////////////
   // // PLATFORM DEPENDENT METHODS BELOW /////
   // /////////////////////////////////////////
@@ -1912,6 +2121,12 @@ public class HttpClient {
    * @throws IOException if an error occurs
    */
   private String desktopSendGetCommmand(String queryString) throws IOException {
+    try {
+      connections.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted waiting for a connection");
+    }
     HttpURLConnection connection = null;
     try {
 
@@ -1921,16 +2136,18 @@ public class HttpClient {
       }
       GNSClientConfig.getLogger().log(Level.FINE, "Sending: {0}", urlString);
       URL serverURL = new URL(urlString);
-      // Set up the initial connection
+      // Set up the initial connection, which reuses an idle kept alive one
       connection = (HttpURLConnection) serverURL.openConnection();
       connection.setRequestMethod("GET");
-      connection.setDoOutput(true);
       connection.setReadTimeout(readTimeout);
 
       connection.connect();
 
-      // read the result from the server
-      BufferedReader inputStream = new BufferedReader(new InputStreamReader(connection.getInputStream()));
+      // read the result from the server, errors come with an error status
+      InputStream stream = connection.getResponseCode() >= HttpURLConnection.HTTP_BAD_REQUEST
+              && connection.getErrorStream() != null
+                      ? connection.getErrorStream() : connection.getInputStream();
+      BufferedReader inputStream = new BufferedReader(new InputStreamReader(stream));
 
       String response = null;
       int cnt = readRetries;
@@ -1944,8 +2161,12 @@ public class HttpClient {
         }
       } while (cnt-- > 0);
       try {
-        // in theory this close should allow the keepalive mechanism to operate correctly
+        // The connection only goes back to the keepalive cache once the whole
+        // response is read and the stream is closed.
         // http://docs.oracle.com/javase/6/docs/technotes/guides/net/http-keepalive.html
+        while (inputStream.read() != -1) {
+          // discard
+        }
         inputStream.close();
       } catch (IOException e) {
         GNSClientConfig.getLogger().warning("Problem closing the HttpURLConnection's stream.");
@@ -1956,11 +2177,14 @@ public class HttpClient {
       } else {
         throw new IOException("No response to command: " + queryString);
       }
-    } finally {
-      // close the connection, set all objects to null
+    } catch (IOException e) {
+      // the connection may be broken, so don't reuse it
       if (connection != null) {
         connection.disconnect();
       }
+      throw e;
+    } finally {
+      connections.release();
     }
   }
 
@@ -1984,7 +2208,7 @@ public class HttpClient {
    *
    */
   public void close() {
-    // nothing to stop
+    executor.shutdown();
   }
 
   private class AndroidHttpGet extends DownloadTask {
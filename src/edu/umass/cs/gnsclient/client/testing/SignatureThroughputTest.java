@@ -0,0 +1,113 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsclient.client.testing;
+
+import edu.umass.cs.gnsclient.client.CryptoUtils;
+import edu.umass.cs.gnsclient.client.util.GuidEntry;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.utils.Format;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the number of commands per second that {@link CryptoUtils} signs
+ * with the private key and with the secret key of a guid, from one thread
+ * up to the given number of threads, doubling the threads each time.
+ *
+ * No server is needed; the guid and its keys are made up locally.
+ *
+ * Typical incantation:
+ *
+ java -cp jars/GNSClient.jar edu.umass.cs.gnsclient.client.testing.SignatureThroughputTest 16 5
+ *
+ * @author westy
+ */
+public class SignatureThroughputTest {
+
+  // about the size of the canonical JSON of a field update
+  private static final String MESSAGE = "{\"command\":211,\"field\":\"environment\","
+          + "\"guid\":\"0123456789ABCDEF0123456789ABCDEF01234567\",\"seqnum\":123456789,"
+          + "\"timestamp\":\"2016-09-16T12:00:00Z\",\"value\":\"work\","
+          + "\"writer\":\"0123456789ABCDEF0123456789ABCDEF01234567\"}";
+
+  /**
+   * Run the test.
+   *
+   * @param args the largest number of threads and the number of seconds per
+   * run, both optional
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+    KeyPair keyPair = KeyPairGenerator.getInstance(GNSProtocol.RSA_ALGORITHM.toString()).generateKeyPair();
+    GuidEntry guidEntry = new GuidEntry("signatureThroughput", "0123456789ABCDEF0123456789ABCDEF01234567",
+            keyPair.getPublic(), keyPair.getPrivate());
+
+    // warm up
+    run(guidEntry, false, maxThreads, Math.min(seconds, 2));
+    run(guidEntry, true, maxThreads, Math.min(seconds, 2));
+    for (int threads = 1; threads <= maxThreads; threads *= 2) {
+      System.out.println(threads + " threads: private key signs/s = "
+              + Format.formatTime(run(guidEntry, false, threads, seconds))
+              + " secret key signs/s = "
+              + Format.formatTime(run(guidEntry, true, threads, seconds)));
+    }
+    System.exit(0);
+  }
+
+  private static double run(GuidEntry guidEntry, boolean secretKey, int numThreads, int seconds)
+          throws InterruptedException {
+    AtomicLong signs = new AtomicLong();
+    AtomicLong errors = new AtomicLong();
+    long endTime = System.currentTimeMillis() + seconds * 1000L;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    for (int t = 0; t < numThreads; t++) {
+      executor.submit(() -> {
+        long count = 0;
+        while (System.currentTimeMillis() < endTime) {
+          try {
+            if (secretKey) {
+              CryptoUtils.signDigestOfMessageSecretKey(guidEntry, MESSAGE);
+            } else {
+              CryptoUtils.signDigestOfMessage(guidEntry, MESSAGE);
+            }
+            count++;
+          } catch (Exception e) {
+            errors.incrementAndGet();
+          }
+        }
+        signs.addAndGet(count);
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+    if (errors.get() > 0) {
+      System.out.println("errors = " + errors);
+    }
+    return signs.get() / (double) seconds;
+  }
+}
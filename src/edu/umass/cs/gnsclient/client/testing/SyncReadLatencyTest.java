@@ -0,0 +1,177 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsclient.client.testing;
+
+import edu.umass.cs.gnsclient.client.GNSClient;
+import edu.umass.cs.gnsclient.client.GNSClientCommands;
+import edu.umass.cs.gnsclient.client.util.GuidEntry;
+import edu.umass.cs.gnsclient.client.util.GuidUtils;
+import edu.umass.cs.gnscommon.utils.Format;
+import edu.umass.cs.gnscommon.utils.RandomString;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.CommandLineParser;
+import org.apache.commons.cli.GnuParser;
+import org.apache.commons.cli.HelpFormatter;
+import org.apache.commons.cli.Option;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.ParseException;
+
+/**
+ * Measures the throughput and the latency of blocking reads sent by many
+ * threads through one {@link GNSClient}, without and then with hedged reads.
+ *
+ * Each thread reads a field of a guid one read after another. The reads
+ * are sent directly to the active replicas, as hedging needs the adaptive
+ * replica selection of the client, which is on by default.
+ *
+ * Typical incantation:
+ *
+ java -cp jars/GNSClient.jar edu.umass.cs.gnsclient.client.testing.SyncReadLatencyTest -alias fred@cs.umass.edu -threads 64 -seconds 30 -percentile 95
+ *
+ * @author westy
+ */
+public class SyncReadLatencyTest {
+
+  private static final String FIELD = "environment";
+
+  /**
+   * The main routine run from the command line.
+   *
+   * @param args
+   * @throws Exception
+   */
+  public static void main(String args[]) throws Exception {
+    CommandLine parser = initializeOptions(args);
+    if (parser.hasOption("help")) {
+      printUsage();
+      System.exit(1);
+    }
+    String alias = parser.getOptionValue("alias", "boo@hoo.com");
+    int numThreads = Integer.parseInt(parser.getOptionValue("threads", "16"));
+    int seconds = Integer.parseInt(parser.getOptionValue("seconds", "10"));
+    double percentile = Double.parseDouble(parser.getOptionValue("percentile", "95"));
+
+    GNSClient gnsClient = new GNSClient();
+    GNSClientCommands client = new GNSClientCommands(gnsClient);
+    GuidEntry masterGuid = GuidUtils.lookupOrCreateAccountGuid(client, alias, "password", true);
+    GuidEntry guid = GuidUtils.lookupOrCreateGuid(client, masterGuid, "syncReadLatency" + RandomString.randomString(6));
+    client.fieldUpdate(guid, FIELD, "work");
+
+    gnsClient.setHedgePercentile(0);
+    // warm up the client and the replicas, and the latency histogram
+    run(client, guid, numThreads, Math.min(seconds, 5));
+    System.out.println("Without hedging: " + run(client, guid, numThreads, seconds));
+    gnsClient.setHedgePercentile(percentile);
+    long hedged = gnsClient.getHedgedRequestCount();
+    System.out.println("Hedged at p" + Format.formatTime(percentile) + ":   "
+            + run(client, guid, numThreads, seconds)
+            + " hedged = " + (gnsClient.getHedgedRequestCount() - hedged));
+
+    client.guidRemove(masterGuid, guid.getGuid());
+    client.close();
+    System.exit(0);
+  }
+
+  private static String run(GNSClientCommands client, GuidEntry guid, int numThreads, int seconds)
+          throws Exception {
+    long endTime = System.currentTimeMillis() + seconds * 1000L;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<List<Long>>> futures = new ArrayList<>();
+    for (int t = 0; t < numThreads; t++) {
+      futures.add(executor.submit(() -> {
+        List<Long> latencies = new ArrayList<>();
+        while (System.currentTimeMillis() < endTime) {
+          long start = System.nanoTime();
+          try {
+            client.fieldRead(guid, FIELD);
+            latencies.add((System.nanoTime() - start) / 1000);
+          } catch (Exception e) {
+            latencies.add(-1L);
+          }
+        }
+        return latencies;
+      }));
+    }
+    executor.shutdown();
+    executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+    List<Long> all = new ArrayList<>();
+    for (Future<List<Long>> future : futures) {
+      all.addAll(future.get());
+    }
+    long[] latencies = all.stream().mapToLong(Long::longValue).filter(l -> l >= 0).toArray();
+    Arrays.sort(latencies);
+    if (latencies.length == 0) {
+      return "no reads, errors = " + all.size();
+    }
+    return "reads/s = " + Format.formatTime(latencies.length / (double) seconds)
+            + " errors = " + (all.size() - latencies.length)
+            + " p50 = " + Format.formatTime(percentile(latencies, 0.5) / 1000.0)
+            + "ms p99 = " + Format.formatTime(percentile(latencies, 0.99) / 1000.0)
+            + "ms p99.9 = " + Format.formatTime(percentile(latencies, 0.999) / 1000.0) + "ms";
+  }
+
+  private static long percentile(long[] sorted, double fraction) {
+    return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))];
+  }
+
+  // command line arguments
+  private static HelpFormatter formatter = new HelpFormatter();
+  private static Options commandLineOptions;
+
+  private static CommandLine initializeOptions(String[] args) throws ParseException {
+    Option help = new Option("help", "Prints Usage");
+    Option alias = OptionBuilder.withArgName("alias").hasArg()
+            .withDescription("the alias (HRN) to use for the account")
+            .create("alias");
+    Option threads = OptionBuilder.withArgName("threads").hasArg()
+            .withDescription("the number of threads reading")
+            .create("threads");
+    Option seconds = OptionBuilder.withArgName("seconds").hasArg()
+            .withDescription("the number of seconds to read for")
+            .create("seconds");
+    Option percentile = OptionBuilder.withArgName("percentile").hasArg()
+            .withDescription("the percentile of the latency after which reads are hedged")
+            .create("percentile");
+
+    commandLineOptions = new Options();
+    commandLineOptions.addOption(alias);
+    commandLineOptions.addOption(threads);
+    commandLineOptions.addOption(seconds);
+    commandLineOptions.addOption(percentile);
+    commandLineOptions.addOption(help);
+
+    CommandLineParser parser = new GnuParser();
+    return parser.parse(commandLineOptions, args);
+  }
+
+  private static void printUsage() {
+    formatter.printHelp("java -cp GNSClient.jar edu.umass.cs.gnsclient.client.testing.SyncReadLatencyTest <options>", commandLineOptions);
+  }
+}
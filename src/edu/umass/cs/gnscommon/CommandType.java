@@ -688,6 +688,9 @@ public enum CommandType {
             GNSProtocol.VALUE.toString()},
           // optional parameters
           new String[]{GNSProtocol.GUID.toString(), // the reader
+            GNSProtocol.LIMIT.toString(),
+            GNSProtocol.SORT_FIELD.toString(),
+            GNSProtocol.SORT_DESCENDING.toString(),
             GNSProtocol.SIGNATURE.toString(),
             GNSProtocol.SIGNATUREFULLMESSAGE.toString()}),
   
@@ -829,6 +832,9 @@ public enum CommandType {
            GNSProtocol.MAX_DISTANCE.toString()},
          // optional parameters
          new String[]{GNSProtocol.GUID.toString(), // the reader
+           GNSProtocol.LIMIT.toString(),
+           GNSProtocol.SORT_FIELD.toString(),
+           GNSProtocol.SORT_DESCENDING.toString(),
            GNSProtocol.SIGNATURE.toString(),
            GNSProtocol.SIGNATUREFULLMESSAGE.toString()}),
  /**
@@ -846,6 +852,9 @@ public enum CommandType {
            GNSProtocol.WITHIN.toString()},
          // optional parameters
          new String[]{GNSProtocol.GUID.toString(), // the reader
+           GNSProtocol.LIMIT.toString(),
+           GNSProtocol.SORT_FIELD.toString(),
+           GNSProtocol.SORT_DESCENDING.toString(),
            GNSProtocol.SIGNATURE.toString(),
            GNSProtocol.SIGNATUREFULLMESSAGE.toString()}),
  /**
@@ -855,13 +864,34 @@ public enum CommandType {
          CommandResultType.LIST, false, false,
          "Returns the guids of all records that satisfy the query. "
          + "For details see http://gns.name/wiki/index.php/Query_Syntax "
-         + "Values are returned as a JSON array of guids.",
+         + "Values are returned as a JSON array of guids. "
+         + "With a limit only the first records ordered by the sort field are returned.",
          new String[]{GNSProtocol.QUERY.toString()},
          // optional parameters
          new String[]{GNSProtocol.GUID.toString(), // the reader
+           GNSProtocol.LIMIT.toString(),
+           GNSProtocol.SORT_FIELD.toString(),
+           GNSProtocol.SORT_DESCENDING.toString(),
            GNSProtocol.FIELDS.toString(),
            GNSProtocol.SIGNATURE.toString(),
            GNSProtocol.SIGNATUREFULLMESSAGE.toString()}),
+ /**
+  * Aggregates a field over all records that satisfy the query.
+  */
+ SelectAggregate(323, CommandCategory.SELECT, "edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.select.SelectAggregate",
+         CommandResultType.MAP, false, false,
+         "Aggregates the numeric values of the aggregate field over all records that satisfy the query. "
+         + "For details see http://gns.name/wiki/index.php/Query_Syntax "
+         + "The aggregate is one of COUNT, MIN, MAX, SUM or AVG and is computed by the name servers. "
+         + "The return value is a JSONObject with the function, the field, the number of values "
+         + "aggregated and the value of the aggregate.",
+         new String[]{GNSProtocol.QUERY.toString(),
+           GNSProtocol.AGGREGATE.toString()},
+         // optional parameters
+         new String[]{GNSProtocol.GUID.toString(), // the reader
+           GNSProtocol.AGGREGATE_FIELD.toString(),
+           GNSProtocol.SIGNATURE.toString(),
+           GNSProtocol.SIGNATUREFULLMESSAGE.toString()}),
  
  
   //
@@ -1538,6 +1568,17 @@ public enum CommandType {
   /**
    *
    */
+  ActiveCodeUsage(738, CommandCategory.OTHER, "edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.admin.ActiveCodeUsage",
+          CommandResultType.LIST, true, true,
+          "Returns the guids whose active code consumed the most CPU time recently on this server, "
+          + "along with their resource usage and remaining budget. "
+          + "Optionally specify the number of guids returned with <n>, the default is 10.",
+          new String[]{},
+          new String[]{GNSProtocol.N.toString()},
+          CommandFlag.MUTUAL_AUTH, CommandFlag.LOCAL),
+  /**
+   *
+   */
   SetCode(810, CommandCategory.UPDATE, "edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.activecode.SetCode",
           CommandResultType.NULL, true, false,
           "Sets the given active code for the specified guid and action, ensuring the writer has permission.",
@@ -1978,6 +2019,7 @@ public enum CommandType {
         SelectNear.setChain();
         SelectWithin.setChain();
         SelectQuery.setChain();
+        SelectAggregate.setChain();
         SelectAndNotify.setChain();
         SelectNotificationStatus.setChain();
         //
@@ -2042,6 +2084,7 @@ public enum CommandType {
         HelpTcpWiki.setChain();
         Dump.setChain();
         ConnectionCheck.setChain();
+        ActiveCodeUsage.setChain();
         Unknown.setChain();
 
     }
@@ -577,6 +577,39 @@ public enum GNSProtocol {
    * See {@link edu.umass.cs.gnscommon.ResponseCode#SANITY_CHECK_ERROR}.
    */
   SANITY_CHECK_ERROR("+SANITY_CHECK_ERROR+"),
+  /**
+   * Indicates that the server shed the request because it is overloaded.
+   * See {@link edu.umass.cs.gnscommon.ResponseCode#OVERLOAD}.
+   */
+  OVERLOAD("+OVERLOAD+"),
+  /**
+   * If true in a select command, the result is not served from the select result cache.
+   */
+  BYPASS_CACHE("bypassCache"),
+  /**
+   * The time in ms for which the return value of a read may be cached by a local name server.
+   */
+  LEASE("lease"),
+  /**
+   * The aggregate function of a SelectAggregate command: COUNT, MIN, MAX, SUM or AVG.
+   */
+  AGGREGATE("aggregate"),
+  /**
+   * The field aggregated by a select command.
+   */
+  AGGREGATE_FIELD("aggregateField"),
+  /**
+   * The maximum number of records returned by a select command.
+   */
+  LIMIT("limit"),
+  /**
+   * The field the records returned by a limited select command are sorted by.
+   */
+  SORT_FIELD("sortField"),
+  /**
+   * If true, a limited select command returns the largest values of the sort field first.
+   */
+  SORT_DESCENDING("sortDescending"),
   /**
    * The select notification key field in a command.
    */
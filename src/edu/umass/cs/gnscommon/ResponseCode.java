@@ -252,7 +252,13 @@ public enum ResponseCode implements Serializable {
   /**
    * An error occurred to name mismatch while registering the account
    */
-   NAME_MISMATCH_CERTIFICATE(416, GNSProtocol.NAME_MISMATCH_ERROR.toString(),ResponseCodeType.ERROR)
+   NAME_MISMATCH_CERTIFICATE(416, GNSProtocol.NAME_MISMATCH_ERROR.toString(),ResponseCodeType.ERROR),
+
+  /**
+   * The server is overloaded and did not execute the request.
+   * The request can be retried later or at another replica.
+   */
+  OVERLOAD(417, GNSProtocol.OVERLOAD.toString(), ResponseCodeType.EXCEPTION)
         ;
 
   // stash the codes in a lookup table
@@ -383,6 +389,56 @@ public enum ResponseCode implements Serializable {
     return type == ResponseCodeType.EXCEPTION;
   }
 
+  /**
+   * The HTTP status code that the HTTP servers answer with for this code.
+   *
+   * @return the HTTP status code
+   */
+  public int getHttpStatusCode() {
+    switch (this) {
+      case NO_ERROR:
+        return 200;
+      case OPERATION_NOT_SUPPORTED:
+      case JSON_PARSE_ERROR:
+      case SANITY_CHECK_ERROR:
+      case BAD_ACL_TYPE_ERROR:
+      case TOO_MANY_ALIASES_EXCEPTION:
+      case TOO_MANY_GUIDS_EXCEPTION:
+        return 400;
+      case SIGNATURE_ERROR:
+      case ACCESS_ERROR:
+      case BAD_ACCESSOR_ERROR:
+      case VERIFICATION_ERROR:
+      case TRUST_INVALID_CERTIFICATE:
+      case TIME_INVALID_CERTIFICATE:
+        return 403;
+      case FIELD_NOT_FOUND_ERROR:
+      case FIELD_NOT_FOUND_EXCEPTION:
+      case BAD_GUID_ERROR:
+      case BAD_ACCOUNT_ERROR:
+      case BAD_ALIAS_EXCEPTION:
+      case NONEXISTENT_NAME_EXCEPTION:
+        return 404;
+      case STALE_COMMAND_VALUE:
+      case ALREADY_VERIFIED_EXCEPTION:
+      case DUPLICATE_ID_EXCEPTION:
+      case DUPLICATE_FIELD_EXCEPTION:
+      case CONFLICTING_GUID_EXCEPTION:
+      case CONFLICTING_HRN_EXCEPTION:
+        return 409;
+      case REMOTE_QUERY_EXCEPTION:
+        return 502;
+      case OVERLOAD:
+      case ACTIVE_REPLICA_EXCEPTION:
+      case RECONFIGURATION_EXCEPTION:
+        return 503;
+      case TIMEOUT:
+        return 504;
+      default:
+        return 500;
+    }
+  }
+
   private static String generateSwiftConstants() {
     StringBuilder result = new StringBuilder();
     for (ResponseCode entry : ResponseCode.values()) {
@@ -0,0 +1,78 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnscommon.packets;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.json.JSONObject;
+
+import edu.umass.cs.gnscommon.CommandType;
+import edu.umass.cs.gnscommon.GNSProtocol;
+
+/**
+ * The key under which the read caches of the client and of the local name
+ * server keep the value returned by a read.
+ *
+ * Only the commands that read fields of a guid are cached. Their result
+ * depends on nothing but the guid, the field or fields and the reader, so
+ * those make up the key; the signature, timestamp and nonce differ between
+ * requests and are left out. Other reads depend on further parameters, like
+ * the ACL type of AclRetrieve or the count of LookupRandomGuids, or are not
+ * repeatable, and are never cached. ReadSecured is sent on the mutual auth
+ * channel and is not cached either.
+ *
+ * @author westy
+ */
+public class ReadCacheKey {
+
+  /**
+   * The commands whose values may be cached.
+   */
+  public static final Set<CommandType> CACHEABLE = EnumSet.of(
+          CommandType.Read,
+          CommandType.ReadUnsigned,
+          CommandType.ReadMultiField,
+          CommandType.ReadMultiFieldUnsigned,
+          CommandType.ReadArray,
+          CommandType.ReadArrayOne,
+          CommandType.ReadArrayOneUnsigned,
+          CommandType.ReadArrayUnsigned);
+
+  /**
+   * @param packet
+   * @return the key of the value read by {@code packet}, or null if it is
+   * not a read that may be cached or it asks to bypass the caches
+   */
+  public static String getKey(CommandPacket packet) {
+    if (!CACHEABLE.contains(packet.getCommandType())) {
+      return null;
+    }
+    JSONObject command = packet.getCommand();
+    if (command.optBoolean(GNSProtocol.BYPASS_CACHE.toString(), false)) {
+      return null;
+    }
+    return packet.getServiceName()
+            + "|" + packet.getCommandType().name()
+            + "|" + command.optString(GNSProtocol.FIELD.toString(), "")
+            + "|" + command.optString(GNSProtocol.FIELDS.toString(), "")
+            + "|" + command.optString(GNSProtocol.READER.toString(), "");
+  }
+}
@@ -44,6 +44,7 @@ public class ResponsePacket extends BasicPacketWithClientAddress
   private final static String NAME = GNSProtocol.SERVICE_NAME.toString();
   private final static String RETVAL = GNSProtocol.RETURN_VALUE.toString();
   private final static String ERRCODE = GNSProtocol.ERROR_CODE.toString();
+  private final static String LEASE = GNSProtocol.LEASE.toString();
 
   private final static boolean SUPPORT_OLD_PROTOCOL = true;
   private final static String OLD_COMMAND_RETURN_PACKET_REQUESTID = "clientreqID";
@@ -66,6 +67,11 @@ public class ResponsePacket extends BasicPacketWithClientAddress
    * Indicates if the response is an error.
    */
   private final ResponseCode errorCode;
+  /**
+   * The time in ms for which the return value of a read may be cached,
+   * 0 if it may not be.
+   */
+  private long lease = 0;
 
   /**
    * Creates a CommandValueReturnPacket from a CommandResponse.
@@ -149,6 +155,7 @@ public class ResponsePacket extends BasicPacketWithClientAddress
       // not sure what to do here; this is nothing in the old protocol for this from the ios client
       this.serviceName = json.optString(NAME, "unknown");
     }
+    this.lease = json.optLong(LEASE, 0);
   }
 
   /**
@@ -187,6 +194,9 @@ public class ResponsePacket extends BasicPacketWithClientAddress
     } else {
       json.put(ERRCODE, ResponseCode.NO_ERROR.getCodeValue());
     }
+    if (lease > 0) {
+      json.put(LEASE, lease);
+    }
     return json;
   }
 
@@ -313,6 +323,28 @@ public class ResponsePacket extends BasicPacketWithClientAddress
     return errorCode;
   }
 
+  /**
+   * Get the lease.
+   *
+   * @return the time in ms for which the return value may be cached, 0 if
+   * it may not be
+   */
+  public long getLease() {
+    return lease;
+  }
+
+  /**
+   * Sets the lease, the time in ms for which the return value of a read
+   * may be cached by a local name server.
+   *
+   * @param lease
+   * @return this
+   */
+  public ResponsePacket setLease(long lease) {
+    this.lease = lease;
+    return this;
+  }
+
   /**
    *
    * @return the client request
@@ -47,6 +47,18 @@ public class NotificationStatsToIssuer
 		 * servers that are processing and  sending notifications for the select request.
 		 */
 		PENDING_NOTIFICATIONS,	
+		/**
+		 * The batches of notifications for a select request that are yet to be
+		 * handed to the select response processor at this name server, or at all 
+		 * name servers at an entry-point name server.
+		 */
+		PENDING_BATCHES,
+		/**
+		 * The number of notifications per second handed to the select response 
+		 * processor at this name server, or at all name servers at an entry-point
+		 * name server.
+		 */
+		DELIVERY_RATE,
 	}
 	
 	private final SelectHandleInfo selectHandle;
@@ -54,6 +66,8 @@ public class NotificationStatsToIssuer
 	private final long totalNotifications;
 	private final long failedNotifications;
 	private final long pendingNotifications;
+	private final long pendingBatches;
+	private final double deliveryRate;
 	
 	/**
 	 * The constructor. 
@@ -69,11 +83,31 @@ public class NotificationStatsToIssuer
 	 */
 	public NotificationStatsToIssuer(SelectHandleInfo selecthandle, 
 			long totalNotifications, long failedNotifications, long pendingNotifications)
+	{
+		this(selecthandle, totalNotifications, failedNotifications, pendingNotifications, 0, 0);
+	}
+	
+	/**
+	 * The constructor with the delivery progress. 
+	 * @param selecthandle
+	 * @param totalNotifications
+	 * @param failedNotifications
+	 * @param pendingNotifications
+	 * @param pendingBatches
+	 * The batches of notifications yet to be handed to the select response processor.
+	 * @param deliveryRate
+	 * The notifications per second handed to the select response processor.
+	 */
+	public NotificationStatsToIssuer(SelectHandleInfo selecthandle, 
+			long totalNotifications, long failedNotifications, long pendingNotifications,
+			long pendingBatches, double deliveryRate)
 	{
 		this.selectHandle = selecthandle;
 		this.totalNotifications = totalNotifications;
 		this.failedNotifications = failedNotifications;
 		this.pendingNotifications = pendingNotifications;
+		this.pendingBatches = pendingBatches;
+		this.deliveryRate = deliveryRate;
 	}
 	
 	/**
@@ -105,6 +139,26 @@ public class NotificationStatsToIssuer
 		return this.pendingNotifications;
 	}
 	
+	/**
+	 * 
+	 * @return The batches of notifications yet to be handed to the select 
+	 * response processor for the selectAndNotify GNSCommand.
+	 */
+	public long getPendingBatches()
+	{
+		return this.pendingBatches;
+	}
+	
+	/**
+	 * 
+	 * @return The notifications per second handed to the select response 
+	 * processor for the selectAndNotify GNSCommand.
+	 */
+	public double getDeliveryRate()
+	{
+		return this.deliveryRate;
+	}
+	
 	/**
 	 * 
 	 * @return The select handle that can be used to query the status of notifications. 
@@ -126,6 +180,8 @@ public class NotificationStatsToIssuer
 		json.put(Keys.TOTAL_NOTIFICATIONS.toString(), totalNotifications);
 		json.put(Keys.FAILED_NOTIFICATIONS.toString(), failedNotifications);
 		json.put(Keys.PENDING_NOTIFICATIONS.toString(), pendingNotifications);
+		json.put(Keys.PENDING_BATCHES.toString(), pendingBatches);
+		json.put(Keys.DELIVERY_RATE.toString(), deliveryRate);
 		return json;
 	}
 	
@@ -142,7 +198,11 @@ public class NotificationStatsToIssuer
 		long totalNot 	= json.getLong(Keys.TOTAL_NOTIFICATIONS.toString());
 		long failedNot 	= json.getLong(Keys.FAILED_NOTIFICATIONS.toString());
 		long pendingNot = json.getLong(Keys.PENDING_NOTIFICATIONS.toString());
+		// missing in replies from older name servers
+		long pendingBatches = json.optLong(Keys.PENDING_BATCHES.toString(), 0);
+		double deliveryRate = json.optDouble(Keys.DELIVERY_RATE.toString(), 0);
 		
-		return new NotificationStatsToIssuer(selecthandle, totalNot, failedNot, pendingNot);
+		return new NotificationStatsToIssuer(selecthandle, totalNot, failedNot, pendingNot,
+				pendingBatches, deliveryRate);
 	}	
 }
\ No newline at end of file
@@ -0,0 +1,174 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnscommon.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.ConsoleHandler;
+import java.util.logging.ErrorManager;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogManager;
+import java.util.logging.LogRecord;
+
+/**
+ * A logging handler that hands the records to another handler on a
+ * background thread, so that the thread that logs does not wait for the
+ * record to be formatted and written.
+ *
+ * The records wait in a bounded queue. When it is full a record is dropped
+ * rather than holding up the thread that logs, and the number of records
+ * dropped is written once there is room again. Records at
+ * {@link Level#WARNING} or above are never dropped. Since the arguments of
+ * a record are turned into strings on the background thread they should not
+ * be changed after they are logged.
+ *
+ * Configured in the logging .properties files, for example:
+ * <pre>
+ * handlers = edu.umass.cs.gnscommon.utils.AsyncLogHandler
+ * edu.umass.cs.gnscommon.utils.AsyncLogHandler.target = java.util.logging.FileHandler
+ * edu.umass.cs.gnscommon.utils.AsyncLogHandler.queueSize = 65536
+ * </pre>
+ * The target is configured as usual. It defaults to a {@link ConsoleHandler}.
+ *
+ * @author westy
+ */
+public class AsyncLogHandler extends Handler {
+
+  private static final int DEFAULT_QUEUE_SIZE = 65536;
+  private static final int BATCH_SIZE = 256;
+
+  private final Handler target;
+  private final BlockingQueue<LogRecord> queue;
+  private final AtomicLong dropped = new AtomicLong();
+  private final Thread writer;
+  private volatile boolean closed = false;
+
+  /**
+   * Creates the handler configured in the logging properties.
+   */
+  public AsyncLogHandler() {
+    this(createTarget(), getQueueSize());
+  }
+
+  /**
+   * @param target the handler that writes the records
+   * @param queueSize the number of records that can wait
+   */
+  public AsyncLogHandler(Handler target, int queueSize) {
+    this.target = target;
+    this.queue = new ArrayBlockingQueue<>(queueSize);
+    String level = LogManager.getLogManager().getProperty(getClass().getName() + ".level");
+    setLevel(level != null ? Level.parse(level.trim()) : Level.ALL);
+    this.writer = new Thread(this::write, getClass().getSimpleName());
+    this.writer.setDaemon(true);
+    this.writer.start();
+  }
+
+  private static Handler createTarget() {
+    String name = LogManager.getLogManager().getProperty(AsyncLogHandler.class.getName() + ".target");
+    if (name != null) {
+      try {
+        return (Handler) ClassLoader.getSystemClassLoader().loadClass(name.trim()).newInstance();
+      } catch (ReflectiveOperationException | ClassCastException e) {
+        new ErrorManager().error("Unable to create " + name, e, ErrorManager.OPEN_FAILURE);
+      }
+    }
+    return new ConsoleHandler();
+  }
+
+  private static int getQueueSize() {
+    String size = LogManager.getLogManager().getProperty(AsyncLogHandler.class.getName() + ".queueSize");
+    try {
+      return size != null ? Integer.parseInt(size.trim()) : DEFAULT_QUEUE_SIZE;
+    } catch (NumberFormatException e) {
+      return DEFAULT_QUEUE_SIZE;
+    }
+  }
+
+  @Override
+  public void publish(LogRecord record) {
+    if (closed || !isLoggable(record)) {
+      return;
+    }
+    // the caller is found from the stack, which is only right on this thread
+    record.getSourceClassName();
+    if (record.getLevel().intValue() >= Level.WARNING.intValue()) {
+      try {
+        queue.put(record);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    } else if (!queue.offer(record)) {
+      dropped.incrementAndGet();
+    }
+  }
+
+  private void write() {
+    List<LogRecord> batch = new ArrayList<>(BATCH_SIZE);
+    while (!closed || !queue.isEmpty()) {
+      try {
+        LogRecord record = queue.poll(100, TimeUnit.MILLISECONDS);
+        if (record == null) {
+          continue;
+        }
+        batch.add(record);
+        queue.drainTo(batch, BATCH_SIZE - 1);
+        for (LogRecord r : batch) {
+          target.publish(r);
+        }
+        batch.clear();
+        long lost = dropped.getAndSet(0);
+        if (lost > 0) {
+          target.publish(new LogRecord(Level.WARNING, getClass().getSimpleName()
+                  + " dropped " + lost + " log records"));
+        }
+        if (queue.isEmpty()) {
+          target.flush();
+        }
+      } catch (InterruptedException e) {
+        break;
+      } catch (RuntimeException e) {
+        reportError(null, e, ErrorManager.WRITE_FAILURE);
+      }
+    }
+    target.flush();
+  }
+
+  @Override
+  public void flush() {
+    // the writer flushes whenever it catches up
+  }
+
+  @Override
+  public void close() {
+    closed = true;
+    try {
+      writer.join(1000);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    target.close();
+  }
+}
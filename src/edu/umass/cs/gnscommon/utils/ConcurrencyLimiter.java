@@ -0,0 +1,300 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnscommon.utils;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the number of requests a client has outstanding, adapting the
+ * limit to the latency of the responses the way TCP adapts its window.
+ *
+ * The limit grows by one for each limit's worth of responses that come back
+ * within {@link #TOLERANCE} times the smallest round trip time seen lately,
+ * as long as the limit is in use. It shrinks by {@link #BACKOFF} when the
+ * round trip time grows beyond that, and by {@link #DROP_BACKOFF} when a
+ * request times out or is rejected as overloaded, at most once per round
+ * trip time so that one burst of slow responses counts once.
+ *
+ * A request over the limit waits in a bounded queue for up to the queue
+ * timeout, and is rejected once the queue is full or the time is up, so that
+ * an overloaded client fails fast locally rather than sending requests that
+ * would time out and be retried.
+ *
+ * @author westy
+ */
+public class ConcurrencyLimiter {
+
+  /**
+   * The factor of the smallest round trip time that a response may take
+   * without counting as a sign of queueing.
+   */
+  public static final double TOLERANCE = 2.0;
+  /**
+   * The factor by which the limit shrinks when the latency grows.
+   */
+  public static final double BACKOFF = 0.9;
+  /**
+   * The factor by which the limit shrinks when a request is dropped.
+   */
+  public static final double DROP_BACKOFF = 0.5;
+
+  private static final int INITIAL_LIMIT = 20;
+  // samples after which the smallest round trip time is measured afresh
+  private static final int MIN_RTT_WINDOW = 1000;
+
+  private final int minLimit;
+  private final int maxQueued;
+  private final long queueTimeout;
+  private final long expiry;
+
+  // the rest are guarded by this
+  private int maxLimit;
+  private double limit;
+  private int inFlight;
+  private int queued;
+  // request ID -> the time it was sent, in System.nanoTime()
+  private final Map<Long, Long> started = new HashMap<>();
+  private long minRtt = Long.MAX_VALUE;
+  private long windowMinRtt = Long.MAX_VALUE;
+  private double smoothedRtt;
+  private long samples;
+  private long lastDecrease;
+  private long lastExpire;
+
+  private long rejected;
+  private long dropped;
+  private long expired;
+
+  /**
+   * @param minLimit the smallest limit
+   * @param maxLimit the largest limit
+   * @param maxQueued the number of requests that may wait for the limit
+   * @param queueTimeout the time in ms a request waits for the limit
+   * @param expiry the time in ms after which a request that got no response
+   * is dropped
+   */
+  public ConcurrencyLimiter(int minLimit, int maxLimit, int maxQueued, long queueTimeout, long expiry) {
+    this.minLimit = Math.max(1, minLimit);
+    this.maxLimit = Math.max(this.minLimit, maxLimit);
+    this.maxQueued = maxQueued;
+    this.queueTimeout = queueTimeout;
+    this.expiry = expiry;
+    this.limit = Math.max(this.minLimit, Math.min(INITIAL_LIMIT, this.maxLimit));
+    this.lastExpire = System.nanoTime();
+    this.lastDecrease = this.lastExpire - TimeUnit.DAYS.toNanos(1);
+  }
+
+  /**
+   * Waits for the request to be let through. A request that is let through
+   * must be released with {@link #release}, {@link #drop} or
+   * {@link #cancel} once it is done.
+   *
+   * @param requestID
+   * @return true if the request may be sent, false if it was rejected
+   * @throws InterruptedException
+   */
+  public synchronized boolean acquire(long requestID) throws InterruptedException {
+    if (started.containsKey(requestID)) {
+      // sent again while holding its permit
+      return true;
+    }
+    if (inFlight >= limit) {
+      expire();
+    }
+    if (inFlight >= limit) {
+      if (queued >= maxQueued || queueTimeout <= 0) {
+        rejected++;
+        return false;
+      }
+      queued++;
+      try {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(queueTimeout);
+        while (inFlight >= limit) {
+          long remaining = deadline - System.nanoTime();
+          if (remaining <= 0) {
+            rejected++;
+            return false;
+          }
+          TimeUnit.NANOSECONDS.timedWait(this, remaining);
+        }
+      } finally {
+        queued--;
+      }
+    }
+    inFlight++;
+    started.put(requestID, System.nanoTime());
+    if (queued > 0 && inFlight < limit) {
+      // pass on the wakeup in case the limit grew by more than one
+      notify();
+    }
+    return true;
+  }
+
+  /**
+   * Records that the response to a request arrived.
+   *
+   * @param requestID
+   */
+  public synchronized void release(long requestID) {
+    Long start = started.remove(requestID);
+    if (start == null) {
+      return;
+    }
+    long now = System.nanoTime();
+    sample(now - start, now);
+    finish();
+  }
+
+  /**
+   * Records that a request timed out or was rejected by an overloaded
+   * server.
+   *
+   * @param requestID
+   */
+  public synchronized void drop(long requestID) {
+    if (started.remove(requestID) == null) {
+      return;
+    }
+    dropped++;
+    decrease(System.nanoTime(), DROP_BACKOFF);
+    finish();
+  }
+
+  /**
+   * Releases a request that could not be sent, without any sample.
+   *
+   * @param requestID
+   */
+  public synchronized void cancel(long requestID) {
+    if (started.remove(requestID) != null) {
+      finish();
+    }
+  }
+
+  private void finish() {
+    inFlight--;
+    if (queued > 0 && inFlight < limit) {
+      notify();
+    }
+  }
+
+  private void sample(long rtt, long now) {
+    samples++;
+    windowMinRtt = Math.min(windowMinRtt, rtt);
+    minRtt = Math.min(minRtt, rtt);
+    if (samples % MIN_RTT_WINDOW == 0) {
+      // so that a route that got slower for good becomes the new normal
+      minRtt = windowMinRtt;
+      windowMinRtt = Long.MAX_VALUE;
+    }
+    smoothedRtt = smoothedRtt == 0 ? rtt : 0.875 * smoothedRtt + 0.125 * rtt;
+    if (rtt > minRtt * TOLERANCE) {
+      decrease(now, BACKOFF);
+    } else if (inFlight >= limit / 2) {
+      // grows only while the limit is in use, not while the client is idle
+      limit = Math.min(maxLimit, limit + 1 / limit);
+    }
+  }
+
+  private void decrease(long now, double factor) {
+    if (now - lastDecrease < smoothedRtt) {
+      return;
+    }
+    lastDecrease = now;
+    limit = Math.max(minLimit, limit * factor);
+  }
+
+  private void expire() {
+    long now = System.nanoTime();
+    long expiryNanos = TimeUnit.MILLISECONDS.toNanos(expiry);
+    // scans at most ten times per expiry while at the limit
+    if (expiry <= 0 || now - lastExpire < expiryNanos / 10) {
+      return;
+    }
+    lastExpire = now;
+    boolean any = false;
+    for (Iterator<Long> it = started.values().iterator(); it.hasNext();) {
+      if (now - it.next() > expiryNanos) {
+        it.remove();
+        inFlight--;
+        expired++;
+        any = true;
+      }
+    }
+    if (any) {
+      decrease(now, DROP_BACKOFF);
+    }
+  }
+
+  /**
+   * @param maxLimit the largest limit
+   */
+  public synchronized void setMaxLimit(int maxLimit) {
+    this.maxLimit = Math.max(minLimit, maxLimit);
+    limit = Math.min(limit, this.maxLimit);
+  }
+
+  /**
+   * @return the number of requests let through at once
+   */
+  public synchronized int getLimit() {
+    return (int) limit;
+  }
+
+  /**
+   * @return the number of requests let through and not yet done
+   */
+  public synchronized int getInFlight() {
+    return inFlight;
+  }
+
+  /**
+   * @return the number of requests waiting for the limit
+   */
+  public synchronized int getQueued() {
+    return queued;
+  }
+
+  /**
+   * @return the number of requests rejected
+   */
+  public synchronized long getRejected() {
+    return rejected;
+  }
+
+  /**
+   * @return the number of requests that timed out or were rejected by an
+   * overloaded server
+   */
+  public synchronized long getDropped() {
+    return dropped + expired;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return this.getClass().getSimpleName() + "[limit=" + getLimit()
+            + " inFlight=" + inFlight + " queued=" + queued
+            + " minRtt=" + (minRtt == Long.MAX_VALUE ? "-" : Format.formatTime(minRtt / 1000000.0) + "ms")
+            + " rejected=" + rejected + " dropped=" + dropped + " expired=" + expired + "]";
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnscommon.utils;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies for estimating percentiles, that many threads
+ * can record into without locking.
+ *
+ * The buckets grow by a factor of {@link #GROWTH} from 1ms, so a percentile
+ * is off by at most that factor. The counts are halved once every
+ * {@code window} samples so that the percentiles follow changes of the
+ * latency; halving races with recording, which only loses a few samples.
+ *
+ * @author westy
+ */
+public class LatencyHistogram {
+
+  /**
+   * The ratio of the upper bounds of consecutive buckets.
+   */
+  public static final double GROWTH = 1.2;
+  private static final int BUCKETS = 64;
+  private static final double LOG_GROWTH = Math.log(GROWTH);
+
+  private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+  private final AtomicLong total = new AtomicLong();
+  private final long window;
+
+  /**
+   * @param window the number of samples after which the counts are halved
+   */
+  public LatencyHistogram(long window) {
+    this.window = window;
+  }
+
+  private static int getBucket(double latency) {
+    if (latency <= 1) {
+      return 0;
+    }
+    return Math.min(BUCKETS - 1, (int) Math.ceil(Math.log(latency) / LOG_GROWTH));
+  }
+
+  private static double getUpperBound(int bucket) {
+    return Math.pow(GROWTH, bucket);
+  }
+
+  /**
+   * @param latency in ms
+   */
+  public void record(double latency) {
+    counts.incrementAndGet(getBucket(latency));
+    if (total.incrementAndGet() % window == 0) {
+      for (int i = 0; i < BUCKETS; i++) {
+        long count = counts.get(i);
+        counts.addAndGet(i, -(count / 2));
+      }
+    }
+  }
+
+  /**
+   * @param percentile between 0 and 100
+   * @return the latency in ms that that percent of the samples are below,
+   * or -1 if there are no samples
+   */
+  public double getPercentile(double percentile) {
+    long sum = 0;
+    long[] snapshot = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      snapshot[i] = counts.get(i);
+      sum += snapshot[i];
+    }
+    if (sum == 0) {
+      return -1;
+    }
+    long rank = (long) Math.ceil(sum * percentile / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += snapshot[i];
+      if (seen >= rank) {
+        return getUpperBound(i);
+      }
+    }
+    return getUpperBound(BUCKETS - 1);
+  }
+
+  /**
+   * @return the number of samples recorded
+   */
+  public long getCount() {
+    return total.get();
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + "[n=" + getCount()
+            + " p50=" + Format.formatTime(getPercentile(50))
+            + " p99=" + Format.formatTime(getPercentile(99)) + "]";
+  }
+}
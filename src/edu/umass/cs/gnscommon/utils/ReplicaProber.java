@@ -0,0 +1,111 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnscommon.utils;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Measures the latency to the replicas known to a {@link ReplicaSelector} in
+ * the background, so that replicas that get few requests still have a
+ * current latency. A probe is the time to open a TCP connection to the
+ * replica, which takes one round trip. Each round also expires the requests
+ * that have been outstanding for longer than the response timeout.
+ *
+ * @author westy
+ */
+public class ReplicaProber implements Runnable {
+
+  private static final Logger LOGGER = Logger.getLogger(ReplicaProber.class.getName());
+
+  private final ReplicaSelector selector;
+  private final int timeout;
+  private final long responseTimeout;
+  private final boolean probe;
+  private final ScheduledExecutorService executor;
+
+  /**
+   * Starts probing.
+   *
+   * @param selector
+   * @param interval the time between rounds in ms, 0 to only expire requests
+   * @param timeout the time after which a probe fails in ms
+   * @param responseTimeout the time after which a request fails in ms
+   */
+  public ReplicaProber(ReplicaSelector selector, long interval, int timeout,
+          long responseTimeout) {
+    this.selector = selector;
+    this.timeout = timeout;
+    this.responseTimeout = responseTimeout;
+    this.executor = Executors.newSingleThreadScheduledExecutor((Runnable r) -> {
+      Thread thread = new Thread(r, ReplicaProber.class.getSimpleName());
+      thread.setDaemon(true);
+      return thread;
+    });
+    this.probe = interval > 0;
+    long delay = probe ? interval : responseTimeout;
+    this.executor.scheduleWithFixedDelay(this, delay, delay, TimeUnit.MILLISECONDS);
+  }
+
+  @Override
+  public void run() {
+    try {
+      int expired = selector.expire(responseTimeout);
+      if (probe) {
+        for (InetSocketAddress replica : selector.getReplicas()) {
+          probe(replica);
+        }
+      }
+      LOGGER.log(Level.FINE, "{0} expired {1} requests: {2}", new Object[]{this, expired, selector});
+    } catch (RuntimeException e) {
+      // keeps the probes scheduled
+      LOGGER.log(Level.WARNING, "{0} probing failed: {1}", new Object[]{this, e});
+    }
+  }
+
+  private void probe(InetSocketAddress replica) {
+    long start = System.nanoTime();
+    try (Socket socket = new Socket()) {
+      socket.connect(replica, timeout);
+      selector.record(replica, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, "{0} unable to reach {1}: {2}", new Object[]{this, replica, e});
+      selector.unreachable(replica);
+    }
+  }
+
+  /**
+   * Stops probing.
+   */
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName();
+  }
+}
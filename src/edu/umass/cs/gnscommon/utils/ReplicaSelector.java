@@ -0,0 +1,388 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnscommon.utils;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import edu.umass.cs.gigapaxos.interfaces.NearestServerSelector;
+
+/**
+ * Picks the active replica to send a request to from the replicas of a name,
+ * based on the latency to each replica and the number of requests
+ * outstanding at it.
+ *
+ * The latency to a replica is an exponentially weighted moving average of
+ * the round trip times of the requests sent to it, see
+ * {@link #sent(long, InetSocketAddress)} and {@link #received(long)}, and of
+ * the probes of a {@link ReplicaProber}. A sample further than
+ * {@link #OUTLIER_DEVIATIONS} mean deviations above the average is dropped
+ * as an outlier, unless {@link #MAX_OUTLIERS} samples in a row are, which
+ * means that the latency has changed.
+ *
+ * A replica is picked by the power of two choices: two of the replicas are
+ * drawn at random and the one with the lower latency times the number of
+ * outstanding requests plus one is picked. Replicas with no samples yet are
+ * picked first, so that every replica gets measured, and drawing two at
+ * random keeps all requests from going to the one replica that looks best.
+ *
+ * Latencies are kept per host, so the addresses of the different ports of a
+ * replica share one.
+ *
+ * @author westy
+ */
+public class ReplicaSelector implements NearestServerSelector {
+
+  /**
+   * The weight of a new sample in the average.
+   */
+  public static final double ALPHA = 0.125;
+  /**
+   * The weight of a new deviation in the mean deviation.
+   */
+  public static final double BETA = 0.25;
+  /**
+   * How many mean deviations above the average a sample is an outlier.
+   */
+  public static final double OUTLIER_DEVIATIONS = 4;
+  /**
+   * How many outliers in a row are taken as a change of the latency.
+   */
+  public static final int MAX_OUTLIERS = 3;
+  // samples before outliers are dropped
+  private static final int MIN_SAMPLES = 4;
+  // the smallest deviation, in ms, so that a steady replica does not see
+  // every jitter as an outlier
+  private static final double MIN_DEVIATION = 1;
+  // the latency of a replica that failed, in ms
+  private static final double PENALTY = 1000;
+
+  /**
+   * The latency model of a replica.
+   */
+  private static class Replica {
+
+    private double average = 0;
+    private double deviation = 0;
+    private int samples = 0;
+    private int outliers = 0;
+    private final AtomicInteger outstanding = new AtomicInteger();
+    // the address last seen for the replica, which the prober uses
+    private volatile InetSocketAddress address;
+
+    Replica(InetSocketAddress address) {
+      this.address = address;
+    }
+
+    synchronized void record(double rtt) {
+      if (samples == 0) {
+        average = rtt;
+        deviation = rtt / 2;
+      } else {
+        if (samples >= MIN_SAMPLES
+                && rtt > average + OUTLIER_DEVIATIONS * Math.max(deviation, MIN_DEVIATION)
+                && ++outliers < MAX_OUTLIERS) {
+          return;
+        }
+        outliers = 0;
+        deviation += BETA * (Math.abs(rtt - average) - deviation);
+        average += ALPHA * (rtt - average);
+      }
+      samples++;
+    }
+
+    synchronized void penalize() {
+      // doubled, until samples bring it back
+      average = samples == 0 ? PENALTY : Math.max(2 * average, PENALTY);
+      deviation = Math.max(deviation, average / 2);
+      samples = Math.max(samples, 1);
+      outliers = 0;
+    }
+
+    synchronized double getAverage() {
+      return average;
+    }
+
+    synchronized boolean isMeasured() {
+      return samples > 0;
+    }
+
+    double getScore() {
+      return getAverage() * (outstanding.get() + 1);
+    }
+
+    @Override
+    public synchronized String toString() {
+      return String.format("%.1fms+-%.1f/%d", average, deviation, outstanding.get());
+    }
+  }
+
+  /**
+   * A request in flight.
+   */
+  private static class InFlight {
+
+    final Replica replica;
+    final long sentTime = System.currentTimeMillis();
+
+    InFlight(Replica replica) {
+      this.replica = replica;
+    }
+  }
+
+  // host -> replica
+  private final ConcurrentHashMap<String, Replica> replicas = new ConcurrentHashMap<>();
+  private final ConcurrentHashMap<Long, InFlight> inFlight = new ConcurrentHashMap<>();
+
+  private static String getHost(InetSocketAddress address) {
+    InetAddress host = address.getAddress();
+    return host != null ? host.getHostAddress() : address.getHostString();
+  }
+
+  private Replica getReplica(InetSocketAddress address) {
+    Replica replica = replicas.computeIfAbsent(getHost(address), h -> new Replica(address));
+    replica.address = address;
+    return replica;
+  }
+
+  /**
+   * Picks a replica.
+   *
+   * @param servers
+   * @return the replica to send to, or null if {@code servers} is empty
+   */
+  @Override
+  public InetSocketAddress getNearest(Set<InetSocketAddress> servers) {
+    return select(servers, null);
+  }
+
+  /**
+   * Picks a replica from those not excluded.
+   *
+   * @param servers
+   * @param excludeServers may be null
+   * @return the replica to send to, or null if there is none
+   */
+  public InetSocketAddress select(Set<InetSocketAddress> servers, Set<InetSocketAddress> excludeServers) {
+    if (servers == null) {
+      return null;
+    }
+    List<InetSocketAddress> candidates = new ArrayList<>(servers.size());
+    List<InetSocketAddress> unmeasured = new ArrayList<>();
+    for (InetSocketAddress server : servers) {
+      if (excludeServers != null && excludeServers.contains(server)) {
+        continue;
+      }
+      candidates.add(server);
+      if (!getReplica(server).isMeasured()) {
+        unmeasured.add(server);
+      }
+    }
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    if (!unmeasured.isEmpty()) {
+      return unmeasured.get(random.nextInt(unmeasured.size()));
+    }
+    if (candidates.size() <= 1) {
+      return candidates.isEmpty() ? null : candidates.get(0);
+    }
+    int first = random.nextInt(candidates.size());
+    int second = random.nextInt(candidates.size() - 1);
+    if (second >= first) {
+      second++;
+    }
+    InetSocketAddress a = candidates.get(first);
+    InetSocketAddress b = candidates.get(second);
+    return getReplica(a).getScore() <= getReplica(b).getScore() ? a : b;
+  }
+
+  /**
+   * Returns a selector that picks a replica for a request and records that
+   * the request was sent to it. Gigapaxos calls it once per transmission.
+   *
+   * @param requestID
+   * @return the selector
+   */
+  public NearestServerSelector forRequest(long requestID) {
+    return (Set<InetSocketAddress> servers) -> {
+      InetSocketAddress server = getNearest(servers);
+      if (server != null) {
+        sent(requestID, server);
+      }
+      return server;
+    };
+  }
+
+  /**
+   * Returns a selector for a second copy of a request, that picks a replica
+   * other than the one the request was sent to if there is one. The copy is
+   * not recorded as sent, so the round trip time is sampled for the replica
+   * the request was first sent to, whichever replica answers.
+   *
+   * @param requestID
+   * @return the selector
+   */
+  public NearestServerSelector forHedge(long requestID) {
+    return (Set<InetSocketAddress> servers) -> {
+      InFlight request = inFlight.get(requestID);
+      InetSocketAddress server = select(servers,
+              request != null ? Collections.singleton(request.replica.address) : null);
+      return server != null ? server : getNearest(servers);
+    };
+  }
+
+  /**
+   * Records that a request was sent to a replica.
+   *
+   * @param requestID
+   * @param server
+   */
+  public void sent(long requestID, InetSocketAddress server) {
+    Replica replica = getReplica(server);
+    replica.outstanding.incrementAndGet();
+    InFlight previous = inFlight.put(requestID, new InFlight(replica));
+    if (previous != null) {
+      // retransmitted
+      previous.replica.outstanding.decrementAndGet();
+    }
+  }
+
+  /**
+   * Records that the response to a request was received, and the round trip
+   * time as a sample of the latency of the replica it was sent to.
+   *
+   * @param requestID
+   */
+  public void received(long requestID) {
+    InFlight request = inFlight.remove(requestID);
+    if (request != null) {
+      request.replica.outstanding.decrementAndGet();
+      request.replica.record(System.currentTimeMillis() - request.sentTime);
+    }
+  }
+
+  /**
+   * Records that a request got no response from the replica it was sent to.
+   *
+   * @param requestID
+   */
+  public void failed(long requestID) {
+    InFlight request = inFlight.remove(requestID);
+    if (request != null) {
+      request.replica.outstanding.decrementAndGet();
+      request.replica.penalize();
+    }
+  }
+
+  /**
+   * Fails the requests sent more than {@code timeout} ms ago, so that
+   * requests that never get a response do not count as outstanding forever.
+   *
+   * @param timeout
+   * @return the number of requests failed
+   */
+  public int expire(long timeout) {
+    long now = System.currentTimeMillis();
+    int expired = 0;
+    for (Iterator<Map.Entry<Long, InFlight>> it = inFlight.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<Long, InFlight> entry = it.next();
+      if (now - entry.getValue().sentTime > timeout && inFlight.remove(entry.getKey(), entry.getValue())) {
+        entry.getValue().replica.outstanding.decrementAndGet();
+        entry.getValue().replica.penalize();
+        expired++;
+      }
+    }
+    return expired;
+  }
+
+  /**
+   * Records a latency sample of a replica that was measured out of band.
+   *
+   * @param server
+   * @param rtt in ms
+   */
+  public void record(InetSocketAddress server, long rtt) {
+    getReplica(server).record(rtt);
+  }
+
+  /**
+   * Records that a replica could not be reached out of band.
+   *
+   * @param server
+   */
+  public void unreachable(InetSocketAddress server) {
+    getReplica(server).penalize();
+  }
+
+  /**
+   * Makes the replicas known to the selector, so that they are probed before
+   * any request is sent to them.
+   *
+   * @param servers
+   */
+  public void addReplicas(Set<InetSocketAddress> servers) {
+    for (InetSocketAddress server : servers) {
+      getReplica(server);
+    }
+  }
+
+  /**
+   * @return an address of each replica known to the selector
+   */
+  public Set<InetSocketAddress> getReplicas() {
+    Set<InetSocketAddress> result = new HashSet<>();
+    for (Replica replica : replicas.values()) {
+      result.add(replica.address);
+    }
+    return result;
+  }
+
+  /**
+   * @param server
+   * @return the latency to a replica in ms, or -1 if it has not been measured
+   */
+  public long getLatency(InetSocketAddress server) {
+    Replica replica = replicas.get(getHost(server));
+    return replica != null && replica.isMeasured() ? Math.round(replica.getAverage()) : -1;
+  }
+
+  /**
+   * @param server
+   * @return the number of requests outstanding at a replica
+   */
+  public int getOutstanding(InetSocketAddress server) {
+    Replica replica = replicas.get(getHost(server));
+    return replica != null ? replica.outstanding.get() : 0;
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + replicas;
+  }
+}
@@ -0,0 +1,107 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnscommon.utils;
+
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umass.cs.gnsclient.client.GNSClientConfig;
+import edu.umass.cs.utils.Config;
+
+/**
+ * Logging for the code that every request goes through.
+ *
+ * A trace line costs nothing unless its logger is loggable at its level and
+ * the request is sampled: one in {@link GNSClientConfig.GNSCC#TRACE_SAMPLING_INTERVAL}
+ * requests is. The sample is picked by the request id, so a request traced
+ * at the client is also traced at the local name server and the active
+ * replicas, and every trace line starts with the request id so that the
+ * lines of a request can be grepped from all the logs. Arguments are only
+ * turned into strings when the line is written, and {@link #lazy(Supplier)}
+ * defers the computation of an argument as well.
+ *
+ * Call sites guard with {@link #isTraced(Logger, Level, long)} so that not
+ * even the argument array is allocated:
+ * <pre>
+ * if (RequestTracer.isTraced(LOGGER, Level.FINE, id)) {
+ *   RequestTracer.trace(LOGGER, Level.FINE, id, "sending {0}", packet.getSummary());
+ * }
+ * </pre>
+ *
+ * @author westy
+ */
+public class RequestTracer {
+
+  private static final int SAMPLING_INTERVAL = Math.max(1,
+          Config.getGlobalInt(GNSClientConfig.GNSCC.TRACE_SAMPLING_INTERVAL));
+
+  /**
+   * @param logger
+   * @param level
+   * @param requestID
+   * @return true if a trace line of the request would be written
+   */
+  public static boolean isTraced(Logger logger, Level level, long requestID) {
+    return logger.isLoggable(level) && isSampled(requestID);
+  }
+
+  /**
+   * @param requestID
+   * @return true if the request is sampled
+   */
+  public static boolean isSampled(long requestID) {
+    if (SAMPLING_INTERVAL == 1) {
+      return true;
+    }
+    // request ids may not be random, so mix the bits first
+    long mixed = requestID * 0x9E3779B97F4A7C15L;
+    return Math.floorMod(mixed ^ (mixed >>> 32), (long) SAMPLING_INTERVAL) == 0;
+  }
+
+  /**
+   * Writes a trace line of a request if it is traced.
+   *
+   * @param logger
+   * @param level
+   * @param requestID
+   * @param format a {@link java.text.MessageFormat} pattern
+   * @param args
+   */
+  public static void trace(Logger logger, Level level, long requestID, String format,
+          Object... args) {
+    if (isTraced(logger, level, requestID)) {
+      logger.log(level, "[" + Long.toHexString(requestID) + "] " + format, args);
+    }
+  }
+
+  /**
+   * @param supplier
+   * @return an argument whose string is computed when the line is written
+   */
+  public static Object lazy(Supplier<?> supplier) {
+    return new Object() {
+      @Override
+      public String toString() {
+        return String.valueOf(supplier.get());
+      }
+    };
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnscommon.utils;
+
+import java.io.OutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.logging.SimpleFormatter;
+import java.util.logging.StreamHandler;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Measures the number of requests per second that the logging on the hot
+ * paths of the local name server lets through, with the old eager log calls
+ * and with {@link RequestTracer}.
+ *
+ * Each request logs what the local name server used to log per request: the
+ * incoming packet, the outgoing request and the response, as full JSON at
+ * INFO. The traced phases log the same lines at FINE through the tracer,
+ * with the logger at INFO, then at FINE with a synchronous handler and with
+ * an {@link AsyncLogHandler}. The lines are formatted and then discarded,
+ * so that only the cost to the thread that logs is measured.
+ *
+ * Typical incantation:
+
+ java -cp jars/GNS.jar edu.umass.cs.gnscommon.utils.RequestTracerThroughputTest 8 10
+ *
+ * @author westy
+ */
+public class RequestTracerThroughputTest {
+
+  private static final OutputStream DISCARD = new OutputStream() {
+    @Override
+    public void write(int b) {
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+    }
+  };
+
+  /**
+   * Run the test.
+   *
+   * @param args the number of threads and seconds per phase, both optional
+   * @throws InterruptedException
+   * @throws JSONException
+   */
+  public static void main(String[] args) throws InterruptedException, JSONException {
+    int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : Runtime.getRuntime().availableProcessors();
+    int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    JSONObject packet = new JSONObject();
+    for (int i = 0; i < 20; i++) {
+      packet.put("field" + i, "value of field " + i);
+    }
+
+    Handler sync = new StreamHandler(DISCARD, new SimpleFormatter());
+    Handler async = new AsyncLogHandler(new StreamHandler(DISCARD, new SimpleFormatter()), 65536);
+
+    System.out.println("Eager at INFO:            " + run(sync, Level.INFO, false, packet, numThreads, seconds));
+    System.out.println("Traced, logger at INFO:   " + run(sync, Level.INFO, true, packet, numThreads, seconds));
+    System.out.println("Traced, FINE, sync:       " + run(sync, Level.FINE, true, packet, numThreads, seconds));
+    System.out.println("Traced, FINE, async:      " + run(async, Level.FINE, true, packet, numThreads, seconds));
+    System.exit(0);
+  }
+
+  private static String run(Handler handler, Level level, boolean traced, JSONObject packet,
+          int numThreads, int seconds) throws InterruptedException {
+    Logger logger = Logger.getAnonymousLogger();
+    logger.setUseParentHandlers(false);
+    logger.addHandler(handler);
+    logger.setLevel(level);
+    handler.setLevel(Level.ALL);
+
+    AtomicLong numRequests = new AtomicLong();
+    long endTime = System.currentTimeMillis() + seconds * 1000L;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    for (int t = 0; t < numThreads; t++) {
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+          long count = 0;
+          while ((count & 0xff) != 0 || System.currentTimeMillis() < endTime) {
+            long id = random.nextLong();
+            if (traced) {
+              if (RequestTracer.isTraced(logger, Level.FINE, id)) {
+                RequestTracer.trace(logger, Level.FINE, id, "Incoming packet: {0}", packet);
+                RequestTracer.trace(logger, Level.FINE, id, "inserting outgoing request {0}", packet);
+                RequestTracer.trace(logger, Level.FINE, id, "received response {0}", packet);
+              }
+            } else {
+              logger.log(Level.INFO, "Incoming packet: {0}", packet);
+              logger.log(Level.INFO, "inserting outgoing request {0}", packet);
+              logger.log(Level.INFO, "received response {0}", packet);
+            }
+            count++;
+          }
+          numRequests.addAndGet(count);
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+    logger.removeHandler(handler);
+    return "requests/s = " + Format.formatTime(numRequests.get() / (double) seconds);
+  }
+}
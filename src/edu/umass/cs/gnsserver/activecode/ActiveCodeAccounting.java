@@ -0,0 +1,276 @@
+package edu.umass.cs.gnsserver.activecode;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * This class keeps track of the resources consumed by the active code
+ * of each GUID, and decides whether a new active request of a GUID
+ * can be admitted.
+ *
+ * <p>Each GUID has two token buckets, one for CPU time and one for allocated
+ * heap bytes. A request is admitted only if both buckets of its GUID are not
+ * empty. After a request is executed, the resources reported back by the worker
+ * are debited from the buckets, which may leave the buckets in debt. The buckets
+ * are refilled at the rate configured in {@link ActiveCodeConfig}, so a GUID
+ * that keeps consuming more than its rate is throttled until it pays its debt
+ * back, while the other GUIDs can still use the workers.
+ *
+ * <p>At most {@link ActiveCodeConfig#activeAccountingMaxGuids} GUIDs are
+ * tracked. Beyond that the least recently used GUID is forgotten, and starts
+ * over with full buckets if it runs code again. A GUID whose requests keep
+ * being rejected is used on every request, so it is not the one forgotten.
+ *
+ * @author gaozy
+ *
+ */
+public class ActiveCodeAccounting {
+
+	private static final long NANOS_PER_MS = TimeUnit.MILLISECONDS.toNanos(1);
+	private static final long BYTES_PER_MB = 1024*1024;
+
+	/**
+	 * The window (ms) over which the recent consumption of a GUID decays by half
+	 */
+	private static final long RECENT_HALF_LIFE = 60*1000;
+
+	private final Cache<String, GuidUsage> usages;
+
+	/**
+	 * The resource usage and the token buckets of a single GUID.
+	 */
+	private static class GuidUsage {
+		final String guid;
+
+		// buckets
+		double cpuTokens;
+		double allocTokens;
+		long lastRefill;
+
+		// statistics
+		long totalCpuTime;
+		long totalAllocatedBytes;
+		long numExecuted;
+		long numRejected;
+		double recentCpuTime;
+		double recentAllocatedBytes;
+		long lastUpdate;
+
+		GuidUsage(String guid, long now){
+			this.guid = guid;
+			this.cpuTokens = getCpuBurst();
+			this.allocTokens = getAllocBurst();
+			this.lastRefill = now;
+			this.lastUpdate = now;
+		}
+
+		private void refill(long now){
+			long elapsed = now - lastRefill;
+			if(elapsed > 0){
+				cpuTokens = Math.min(getCpuBurst(), cpuTokens + elapsed*getCpuRate()/1000.0);
+				allocTokens = Math.min(getAllocBurst(), allocTokens + elapsed*getAllocRate()/1000.0);
+				lastRefill = now;
+			}
+		}
+
+		private void decay(long now){
+			long elapsed = now - lastUpdate;
+			if(elapsed > 0){
+				double factor = Math.pow(0.5, ((double) elapsed)/RECENT_HALF_LIFE);
+				recentCpuTime *= factor;
+				recentAllocatedBytes *= factor;
+				lastUpdate = now;
+			}
+		}
+
+		synchronized boolean admit(long now){
+			refill(now);
+			if(cpuTokens > 0 && allocTokens > 0)
+				return true;
+			numRejected++;
+			return false;
+		}
+
+		synchronized void charge(long cpuTime, long allocatedBytes, long now){
+			refill(now);
+			decay(now);
+			cpuTokens -= cpuTime;
+			allocTokens -= allocatedBytes;
+			totalCpuTime += cpuTime;
+			totalAllocatedBytes += allocatedBytes;
+			recentCpuTime += cpuTime;
+			recentAllocatedBytes += allocatedBytes;
+			numExecuted++;
+		}
+
+		synchronized double getRecentCpuTime(long now){
+			decay(now);
+			return recentCpuTime;
+		}
+
+		synchronized JSONObject toJSONObject(long now) throws JSONException{
+			refill(now);
+			decay(now);
+			JSONObject json = new JSONObject();
+			json.put("guid", guid);
+			json.put("executed", numExecuted);
+			json.put("rejected", numRejected);
+			json.put("totalCpuMs", totalCpuTime/NANOS_PER_MS);
+			json.put("totalAllocatedMB", totalAllocatedBytes/BYTES_PER_MB);
+			json.put("recentCpuMs", Math.round(recentCpuTime/NANOS_PER_MS));
+			json.put("recentAllocatedMB", Math.round(recentAllocatedBytes/BYTES_PER_MB));
+			json.put("cpuTokensMs", Math.round(cpuTokens/NANOS_PER_MS));
+			json.put("allocTokensMB", Math.round(allocTokens/BYTES_PER_MB));
+			json.put("throttled", cpuTokens <= 0 || allocTokens <= 0);
+			return json;
+		}
+	}
+
+	/**
+	 * Tracks at most {@link ActiveCodeConfig#activeAccountingMaxGuids} GUIDs.
+	 */
+	public ActiveCodeAccounting(){
+		this(ActiveCodeConfig.activeAccountingMaxGuids);
+	}
+
+	/**
+	 * @param maxGuids the maximal number of GUIDs being tracked
+	 */
+	ActiveCodeAccounting(int maxGuids){
+		usages = CacheBuilder.newBuilder().maximumSize(maxGuids).build();
+	}
+
+	/**
+	 * @return the capacity of the CPU bucket in ns
+	 */
+	private static double getCpuBurst(){
+		return ((double) ActiveCodeConfig.activeGuidCpuBurst)*NANOS_PER_MS;
+	}
+
+	/**
+	 * @return the refill rate of the CPU bucket in ns per second
+	 */
+	private static double getCpuRate(){
+		return ((double) ActiveCodeConfig.activeGuidCpuRate)*NANOS_PER_MS;
+	}
+
+	/**
+	 * @return the capacity of the allocation bucket in bytes
+	 */
+	private static double getAllocBurst(){
+		return ((double) ActiveCodeConfig.activeGuidAllocBurst)*BYTES_PER_MB;
+	}
+
+	/**
+	 * @return the refill rate of the allocation bucket in bytes per second
+	 */
+	private static double getAllocRate(){
+		return ((double) ActiveCodeConfig.activeGuidAllocRate)*BYTES_PER_MB;
+	}
+
+	/**
+	 * Checks whether an active request of the guid can be admitted.
+	 *
+	 * @param guid
+	 * @return true if the guid has not used up its budget
+	 */
+	public boolean admit(String guid){
+		return admit(guid, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param guid
+	 * @param now the current time in ms
+	 * @return true if the guid has not used up its budget
+	 */
+	boolean admit(String guid, long now){
+		if(!ActiveCodeConfig.activeCodeAccountingEnabled){
+			return true;
+		}
+		GuidUsage usage = usages.getIfPresent(guid);
+		if(usage == null){
+			// a guid without any record has full buckets
+			return true;
+		}
+		return usage.admit(now);
+	}
+
+	/**
+	 * Debits the resources consumed by an active request from the buckets of the guid.
+	 *
+	 * @param guid
+	 * @param cpuTime CPU time in ns
+	 * @param allocatedBytes allocated heap in bytes
+	 */
+	public void charge(String guid, long cpuTime, long allocatedBytes){
+		charge(guid, cpuTime, allocatedBytes, System.currentTimeMillis());
+	}
+
+	/**
+	 * @param guid
+	 * @param cpuTime CPU time in ns
+	 * @param allocatedBytes allocated heap in bytes
+	 * @param now the current time in ms
+	 */
+	void charge(String guid, long cpuTime, long allocatedBytes, long now){
+		if(!ActiveCodeConfig.activeCodeAccountingEnabled || guid == null){
+			return;
+		}
+		GuidUsage usage = usages.asMap().computeIfAbsent(guid, g -> new GuidUsage(g, now));
+		usage.charge(Math.max(cpuTime, 0), Math.max(allocatedBytes, 0), now);
+		ActiveCodeHandler.getLogger().log(ActiveCodeHandler.DEBUG_LEVEL,
+				"charge guid {0} with {1}ns CPU time and {2} bytes",
+				new Object[]{guid, cpuTime, allocatedBytes});
+	}
+
+	/**
+	 * @param k
+	 * @return the k guids that consumed the most CPU time recently,
+	 * with the most expensive one first
+	 * @throws JSONException
+	 */
+	public JSONArray getTopConsumers(int k) throws JSONException{
+		final long now = System.currentTimeMillis();
+		List<GuidUsage> list = new ArrayList<GuidUsage>(usages.asMap().values());
+		final Map<GuidUsage, Double> recent = new HashMap<GuidUsage, Double>();
+		for(GuidUsage usage:list){
+			recent.put(usage, usage.getRecentCpuTime(now));
+		}
+		Collections.sort(list, new Comparator<GuidUsage>(){
+			@Override
+			public int compare(GuidUsage u1, GuidUsage u2) {
+				return Double.compare(recent.get(u2), recent.get(u1));
+			}
+		});
+
+		JSONArray result = new JSONArray();
+		for(int i=0; i<Math.min(k, list.size()); i++){
+			result.put(list.get(i).toJSONObject(now));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of guids being tracked
+	 */
+	public int size(){
+		return (int) usages.size();
+	}
+
+	@Override
+	public String toString(){
+		return this.getClass().getSimpleName();
+	}
+}
@@ -4,7 +4,10 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Properties;
+import java.util.Set;
 
 /**
  * This class contains all config options for active code.
@@ -51,6 +54,21 @@ public class ActiveCodeConfig {
 	   */
 	  public static boolean activeCodeTrustedMode = false;
 	  
+	  /**
+	   * The GUIDs whose code is trusted, i.e., runs inside GNS process instead of a worker
+	   */
+	  public static Set<String> activeTrustedGuids = Collections.emptySet();
+	  
+	  /**
+	   * Number of pre-warmed script engines to run trusted code
+	   */
+	  public static int activeTrustedEngines = 10;
+	  
+	  /**
+	   * The time (ms) trusted code is allowed to run
+	   */
+	  public static int activeTrustedTimeout = 500;
+	  
 	  /**
 	   * Worker heap size
 	   */
@@ -86,6 +104,42 @@ public class ActiveCodeConfig {
 	   */
 	  public static boolean activeCodeEnableDebugging = false;
 	  
+	  /**
+	   * True if the resources consumed by active code are accounted per GUID,
+	   * and the requests of a GUID exceeding its budget are rejected.
+	   */
+	  public static boolean activeCodeAccountingEnabled = false;
+	  
+	  /**
+	   * The CPU time (ms) a GUID can consume per second in the long run
+	   */
+	  public static int activeGuidCpuRate = 500;
+	  
+	  /**
+	   * The CPU time (ms) a GUID can consume in a burst
+	   */
+	  public static int activeGuidCpuBurst = 5000;
+	  
+	  /**
+	   * The heap (MB) a GUID can allocate per second in the long run
+	   */
+	  public static int activeGuidAllocRate = 64;
+	  
+	  /**
+	   * The heap (MB) a GUID can allocate in a burst
+	   */
+	  public static int activeGuidAllocBurst = 512;
+	  
+	  /**
+	   * The maximal number of GUIDs being accounted before the least recently used one is evicted
+	   */
+	  public static int activeAccountingMaxGuids = 100000;
+	  
+	  /**
+	   * The maximal number of reads in a single batch read from active code
+	   */
+	  public static int activeMaxBatchReads = 100;
+	  
 	  
 	  private static final String ACTIVE_CODE_WORKER_COUNT = "ACTIVE_CODE_WORKER_COUNT";
 	  
@@ -95,6 +149,12 @@ public class ActiveCodeConfig {
 	  
 	  private static final String ACTIVE_CODE_TRUSTED_MODE = "ACTIVE_CODE_TRUSTED_MODE";
 	  
+	  private static final String ACTIVE_TRUSTED_GUIDS = "ACTIVE_TRUSTED_GUIDS";
+	  
+	  private static final String ACTIVE_TRUSTED_ENGINES = "ACTIVE_TRUSTED_ENGINES";
+	  
+	  private static final String ACTIVE_TRUSTED_TIMEOUT = "ACTIVE_TRUSTED_TIMEOUT";
+	  
 	  private static final String ACTIVE_WORKER_HEAP_SIZE = "ACTIVE_WORKER_HEAP_SIZE";
 	  
 	  private static final String ACTIVE_GEOIP_FILE_PATH = "ACTIVE_GEOIP_FILE_PATH";
@@ -109,6 +169,20 @@ public class ActiveCodeConfig {
 	  
 	  private static final String ACTIVE_CODE_ENABLE_DEBUGGING = "ACTIVE_CODE_ENABLE_DEBUGGING";
 	  
+	  private static final String ACTIVE_CODE_ACCOUNTING_ENABLED = "ACTIVE_CODE_ACCOUNTING_ENABLED";
+	  
+	  private static final String ACTIVE_GUID_CPU_RATE = "ACTIVE_GUID_CPU_RATE";
+	  
+	  private static final String ACTIVE_GUID_CPU_BURST = "ACTIVE_GUID_CPU_BURST";
+	  
+	  private static final String ACTIVE_GUID_ALLOC_RATE = "ACTIVE_GUID_ALLOC_RATE";
+	  
+	  private static final String ACTIVE_GUID_ALLOC_BURST = "ACTIVE_GUID_ALLOC_BURST";
+	  
+	  private static final String ACTIVE_ACCOUNTING_MAX_GUIDS = "ACTIVE_ACCOUNTING_MAX_GUIDS";
+	  
+	  private static final String ACTIVE_MAX_BATCH_READS = "ACTIVE_MAX_BATCH_READS";
+	  
 	
 	/**
 	 * @param allValues
@@ -158,6 +232,51 @@ public class ActiveCodeConfig {
 		    	activeCodeTrustedMode = Boolean.parseBoolean(allValues.getProperty(ACTIVE_CODE_TRUSTED_MODE));
 		    }
 		    
+		    if(allValues.containsKey(ACTIVE_TRUSTED_GUIDS)) {
+		    	Set<String> guids = new HashSet<String>();
+		    	for(String guid:allValues.getProperty(ACTIVE_TRUSTED_GUIDS).split(",")){
+		    		if(!guid.trim().isEmpty())
+		    			guids.add(guid.trim());
+		    	}
+		    	activeTrustedGuids = Collections.unmodifiableSet(guids);
+		    }
+		    
+		    if(allValues.containsKey(ACTIVE_TRUSTED_ENGINES)) {
+		    	activeTrustedEngines = Integer.parseInt(allValues.getProperty(ACTIVE_TRUSTED_ENGINES));
+		    }
+		    
+		    if(allValues.containsKey(ACTIVE_TRUSTED_TIMEOUT)) {
+		    	activeTrustedTimeout = Integer.parseInt(allValues.getProperty(ACTIVE_TRUSTED_TIMEOUT));
+		    }
+		    
+		    if(allValues.containsKey(ACTIVE_CODE_ACCOUNTING_ENABLED)) {
+		    	activeCodeAccountingEnabled = Boolean.parseBoolean(allValues.getProperty(ACTIVE_CODE_ACCOUNTING_ENABLED));
+		    }
+		    
+		    if(allValues.containsKey(ACTIVE_GUID_CPU_RATE)) {
+		    	activeGuidCpuRate = Integer.parseInt(allValues.getProperty(ACTIVE_GUID_CPU_RATE));
+		    }
+		    
+		    if(allValues.containsKey(ACTIVE_GUID_CPU_BURST)) {
+		    	activeGuidCpuBurst = Integer.parseInt(allValues.getProperty(ACTIVE_GUID_CPU_BURST));
+		    }
+		    
+		    if(allValues.containsKey(ACTIVE_GUID_ALLOC_RATE)) {
+		    	activeGuidAllocRate = Integer.parseInt(allValues.getProperty(ACTIVE_GUID_ALLOC_RATE));
+		    }
+		    
+		    if(allValues.containsKey(ACTIVE_GUID_ALLOC_BURST)) {
+		    	activeGuidAllocBurst = Integer.parseInt(allValues.getProperty(ACTIVE_GUID_ALLOC_BURST));
+		    }
+		    
+		    if(allValues.containsKey(ACTIVE_ACCOUNTING_MAX_GUIDS)) {
+		    	activeAccountingMaxGuids = Integer.parseInt(allValues.getProperty(ACTIVE_ACCOUNTING_MAX_GUIDS));
+		    }
+		    
+		    if(allValues.containsKey(ACTIVE_MAX_BATCH_READS)) {
+		    	activeMaxBatchReads = Integer.parseInt(allValues.getProperty(ACTIVE_MAX_BATCH_READS));
+		    }
+		    
 	  }
 	 
 	/**
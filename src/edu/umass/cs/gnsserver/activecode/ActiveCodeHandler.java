@@ -79,6 +79,8 @@ public class ActiveCodeHandler {
   public static final Level DEBUG_LEVEL = Level.FINE;
 
   private static ActiveHandler handler;
+  
+  private static ActiveCodeAccounting accounting = new ActiveCodeAccounting();
 
   private static String gigapaxoConfig = PaxosConfig.GIGAPAXOS_CONFIG_FILE_KEY;
   
@@ -109,6 +111,8 @@ public class ActiveCodeHandler {
       }
     }
 
+    // sized by the configuration just read
+    accounting = new ActiveCodeAccounting();
     handler = new ActiveHandler(nodeId, new ActiveCodeDB(), ActiveCodeConfig.activeCodeWorkerCount, ActiveCodeConfig.activeWorkerThreads, ActiveCodeConfig.activeCodeBlockingEnabled);
   }
 
@@ -141,6 +145,12 @@ public class ActiveCodeHandler {
    */
   private static JSONObject runCode(InternalRequestHeader header, String code, String guid, String accessor, 
           String action, JSONObject value, int activeCodeTTL) throws InternalRequestException {
+    if (!accounting.admit(guid)) {
+      ActiveCodeHandler.getLogger().log(Level.FINE, 
+    		  "ActiveGNS request of {0} is rejected as its budget has been used up", new Object[]{guid});
+      throw new InternalRequestException(ResponseCode.INTERNAL_REQUEST_EXCEPTION, 
+    		  "ActiveGNS request rejected: " + guid + " has used up its active code budget");
+    }
     try {
       return handler.runCode(header, guid, accessor, code, value, activeCodeTTL);
     } catch (ActiveException e) {
@@ -289,6 +299,13 @@ public class ActiveCodeHandler {
     return newResult;
   }
 
+  /**
+   * @return the resource accounting of active code on this server
+   */
+  public static ActiveCodeAccounting getAccounting() {
+    return accounting;
+  }
+
   /**
    * @return LOGGER
    */
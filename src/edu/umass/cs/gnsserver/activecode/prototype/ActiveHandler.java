@@ -13,8 +13,6 @@ import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 
-import javax.script.ScriptException;
-
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -22,7 +20,6 @@ import edu.umass.cs.gnsserver.activecode.ActiveCodeConfig;
 import edu.umass.cs.gnsserver.activecode.ActiveCodeHandler;
 import edu.umass.cs.gnsserver.activecode.prototype.blocking.ActiveBlockingClient;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Client;
-import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Runner;
 import edu.umass.cs.gnsserver.activecode.prototype.unblocking.ActiveNonBlockingClient;
 import edu.umass.cs.gnsserver.interfaces.ActiveDBInterface;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
@@ -48,7 +45,7 @@ public class ActiveHandler {
 	private final static int clientStartPort = 50000;
 	private final static int workerStartPort = 60000;
 	
-	private final Runner runner;
+	private final ActiveTrustedPool trustedPool;
 	
 	/**
 	 * Test then initialize this variable
@@ -81,8 +78,12 @@ public class ActiveHandler {
 			new File(fileTestForPipe).delete();
 		}
 		
-		//FIXME: initialize Querier here, instead of initialize a query in each client
-		runner = new ActiveTrustedRunner(null);
+		// trusted code runs inside this process, only if there is some code to trust
+		if(ActiveCodeConfig.activeCodeTrustedMode || !ActiveCodeConfig.activeTrustedGuids.isEmpty()){
+			trustedPool = new ActiveTrustedPool(app, ActiveCodeConfig.activeTrustedEngines, ActiveCodeConfig.activeTrustedTimeout);
+		}else{
+			trustedPool = null;
+		}
 		
 		// initialize single clients and workers
 		clientPool = new Client[numProcess];
@@ -127,6 +128,18 @@ public class ActiveHandler {
 				clientPool[i].shutdown();
 			}
 		}
+		if(trustedPool != null){
+			trustedPool.shutdown();
+		}
+	}
+	
+	/**
+	 * @param guid
+	 * @return true if the code of the guid can run inside GNS process
+	 */
+	private boolean isTrusted(String guid){
+		return trustedPool != null && 
+				(ActiveCodeConfig.activeCodeTrustedMode || ActiveCodeConfig.activeTrustedGuids.contains(guid));
 	}
 	
 	/**
@@ -145,23 +158,27 @@ public class ActiveHandler {
 	 */
 	public JSONObject runCode(InternalRequestHeader header, String guid, 
 			String accessor, String code, JSONObject value, int ttl) throws ActiveException{
-		if(ActiveCodeConfig.activeCodeTrustedMode){
-			String result = null;
-			try {
-				result = runner.runCode(guid, accessor, code, value.toString(), ttl, 0);
-			} catch (NoSuchMethodException | ScriptException e) {
-				return value;
-			}
-			if(result != null){
-				try {
-					return new JSONObject(result);
-				} catch (JSONException e) {
-					return value;
-				}
-			}
-			return value;
+		if(isTrusted(guid)){
+			return trustedPool.runCode(header, guid, accessor, code, value, ttl);
 		}
-		return clientPool[counter.getAndIncrement()%numProcess].runCode(header, guid, accessor, code, value, ttl, 2000);
+		return runWorkerCode(header, guid, accessor, code, value, ttl);
+	}
+	
+	/**
+	 * Runs the request on a worker regardless of whether the code is trusted.
+	 * 
+	 * @param header 
+	 * @param guid
+	 * @param accessor
+	 * @param code
+	 * @param value
+	 * @param ttl
+	 * @return executed result
+	 * @throws ActiveException 
+	 */
+	public JSONObject runWorkerCode(InternalRequestHeader header, String guid, 
+			String accessor, String code, JSONObject value, int ttl) throws ActiveException{
+		return clientPool[counter.getAndIncrement()%numProcess].runCode(header, guid, accessor, code, value, ttl, ActiveCodeConfig.activeRequestTimeout);
 	}
 	
 	/***************** Test methods ****************/	
@@ -24,6 +24,16 @@ public class ActiveMessage implements Message{
 	private final static String CHARSET = "ISO-8859-1";
 	private final static AtomicLong counter = new AtomicLong();
 	
+	/**
+	 * The key of the queried guid in each read of a BATCH_READ_QUERY
+	 */
+	public final static String BATCH_READ_GUID = "guid";
+	
+	/**
+	 * The key of the queried field(s) in each read of a BATCH_READ_QUERY
+	 */
+	public final static String BATCH_READ_FIELD = "field";
+	
 	/**
 	 * Message type
 	 */
@@ -37,6 +47,8 @@ public class ActiveMessage implements Message{
 	private String value;
 	private String targetGuid;
 	private String error;
+	private long cpuTime;
+	private long allocatedBytes;
 
 	/**
 	 * This enum represents the type of this ActiveMessage
@@ -67,7 +79,14 @@ public class ActiveMessage implements Message{
 		 * This message is used for worker to send a write query
 		 * to GNS to update a field.
 		 */
-		WRITE_QUERY(3);
+		WRITE_QUERY(3),
+		
+		/**
+		 * This message is used for worker to send a batch of
+		 * read queries to GNS, the reads are executed in parallel
+		 * and their results are sent back in a single RESPONSE.
+		 */
+		BATCH_READ_QUERY(4);
 		
 		private final int type;
 		Type(int type){
@@ -147,6 +166,18 @@ public class ActiveMessage implements Message{
 		this(Type.WRITE_QUERY, id, ttl, 0, guid, accessor, null, value, targetGuid, null);
 	}
 	
+	/**
+	 * This is a BATCH_READ_QUERY message
+	 * @param ttl
+	 * @param guid
+	 * @param reads a JSON array of reads, each of which is a JSON object 
+	 * with the queried guid and field
+	 * @param id
+	 */
+	public ActiveMessage(int ttl, String guid, String reads, long id){
+		this(Type.BATCH_READ_QUERY, id, ttl, 0, guid, null, null, reads, null, null);
+	}
+	
 	/**
 	 * This is a RESPONSE message
 	 * @param id 
@@ -157,6 +188,21 @@ public class ActiveMessage implements Message{
 		this(Type.RESPONSE, id, 0, 0, null, null, null, value, null, error);
 	}
 	
+	/**
+	 * This is a RESPONSE message sent back from a worker, which also 
+	 * carries the resources consumed by the execution of the request.
+	 * @param id
+	 * @param value
+	 * @param error
+	 * @param cpuTime the CPU time (ns) consumed by the execution
+	 * @param allocatedBytes the heap bytes allocated by the execution
+	 */
+	public ActiveMessage(long id, String value, String error, long cpuTime, long allocatedBytes){
+		this(id, value, error);
+		this.cpuTime = cpuTime;
+		this.allocatedBytes = allocatedBytes;
+	}
+	
 	/**
 	 * @return the TTL left for the request
 	 */
@@ -220,6 +266,20 @@ public class ActiveMessage implements Message{
 		return budget;
 	}
 	
+	/**
+	 * @return the CPU time (ns) consumed by the worker to execute the request, only set on a RESPONSE
+	 */
+	public long getCpuTime() {
+		return cpuTime;
+	}
+	
+	/**
+	 * @return the heap bytes allocated by the worker to execute the request, only set on a RESPONSE
+	 */
+	public long getAllocatedBytes() {
+		return allocatedBytes;
+	}
+	
 	/**
 	 * 
 	 * @return an integer estimated length
@@ -237,7 +297,7 @@ public class ActiveMessage implements Message{
 			
 		case RESPONSE:
 			length = 3*Integer.BYTES // type, ttl, error length
-			+ Long.BYTES // id
+			+ 3*Long.BYTES // id, cpuTime, allocatedBytes
 			+ (error != null?error.length():0);
 			break;
 			
@@ -256,6 +316,12 @@ public class ActiveMessage implements Message{
 			+ targetGuid.length();
 			break;
 			
+		case BATCH_READ_QUERY:
+			length = 4*Integer.BYTES // type, ttl, guid length, reads length
+			+ Long.BYTES // id
+			+ guid.length();
+			break;
+			
 		default:
 			break;
 		}
@@ -376,6 +442,26 @@ public class ActiveMessage implements Message{
 			exactLength += (Integer.BYTES + valuesMapBytes.length);
 			break;
 			
+		case BATCH_READ_QUERY:
+			// put ttl
+			bbuf.putInt(ttl);
+			exactLength += Integer.BYTES;
+			
+			// put guid, can't be null
+			assert(guid != null):"guid can't be null for batch read query";
+			guidBytes = guid.getBytes(CHARSET);
+			bbuf.putInt(guidBytes.length);
+			bbuf.put(guidBytes);
+			exactLength += (Integer.BYTES + guidBytes.length);
+			
+			// put reads, can't be null
+			assert(valuesMapString != null):"reads can't be null for batch read query";
+			valuesMapBytes = valuesMapString.getBytes(CHARSET);
+			bbuf.putInt(valuesMapBytes.length);
+			bbuf.put(valuesMapBytes);
+			exactLength += (Integer.BYTES + valuesMapBytes.length);
+			break;
+			
 		case RESPONSE:
 			valuesMapBytes = (valuesMapString==null)?new byte[0]:valuesMapString.getBytes(CHARSET);
 			bbuf.putInt((valuesMapString==null)?0:valuesMapBytes.length);
@@ -386,6 +472,11 @@ public class ActiveMessage implements Message{
 			bbuf.putInt( (error==null)?0:errorBytes.length );
 			bbuf.put(errorBytes);
 			exactLength += (Integer.BYTES + ((error==null)? 0:errorBytes.length));
+			
+			// put resource usage
+			bbuf.putLong(cpuTime);
+			bbuf.putLong(allocatedBytes);
+			exactLength += 2*Long.BYTES;
 			break;
 		default:
 			break;
@@ -495,6 +586,21 @@ public class ActiveMessage implements Message{
 			value = new String(valueBytes, CHARSET);
 			break;
 			
+		case BATCH_READ_QUERY:
+			ttl = bbuf.getInt();
+			// get guid
+			length = bbuf.getInt();
+			guidBytes = new byte[length];
+			bbuf.get(guidBytes);
+			guid = new String(guidBytes, CHARSET);
+			
+			// get reads
+			length = bbuf.getInt();
+			valueBytes = new byte[length];
+			bbuf.get(valueBytes);
+			value = new String(valueBytes, CHARSET);
+			break;
+			
 		case RESPONSE:
 			// get valuesMap
 			length = bbuf.getInt();
@@ -511,6 +617,8 @@ public class ActiveMessage implements Message{
 				error = new String(errorBytes, CHARSET);
 			}
 			
+			cpuTime = bbuf.getLong();
+			allocatedBytes = bbuf.getLong();
 			break;
 		default:
 			break;
@@ -9,15 +9,23 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gnscommon.exceptions.client.ClientException;
 import edu.umass.cs.gnscommon.exceptions.server.InternalRequestException;
+import edu.umass.cs.gnsserver.activecode.ActiveCodeConfig;
 import edu.umass.cs.gnsserver.activecode.ActiveCodeHandler;
 import edu.umass.cs.gnsserver.activecode.prototype.unblocking.ActiveNonBlockingClient.Monitor;
 import edu.umass.cs.gnsserver.interfaces.ActiveDBInterface;
@@ -31,18 +39,56 @@ import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
  *
  */
 public class ActiveQueryHandler {
-	private static ActiveDBInterface app;
+	private final ActiveDBInterface app;
 	private final ThreadPoolExecutor queryExecutor;
-	private final int numThread = 10;
+	private static final int numThread = 10;
+	
+	/**
+	 * The reads of a batch are executed on a separate pool, as the task
+	 * waiting for the reads of a batch runs on queryExecutor. The pool is
+	 * shared by the query handlers of all workers, and its threads exit
+	 * when they have been idle for a while.
+	 */
+	private static final ThreadPoolExecutor batchReadExecutor = 
+			new ThreadPoolExecutor(numThread, numThread, 60, TimeUnit.SECONDS, 
+					new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("ActiveBatchRead"));
+	static {
+		batchReadExecutor.allowCoreThreadTimeOut(true);
+	}
+	
+	private static class DaemonThreadFactory implements ThreadFactory{
+		final String name;
+		final AtomicInteger counter = new AtomicInteger();
+		
+		DaemonThreadFactory(String name){
+			this.name = name;
+		}
+		
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, name+counter.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		}
+	}
 	
 	/**
 	 * Initialize a query handler
 	 * @param app
 	 */
 	public ActiveQueryHandler(ActiveDBInterface app){
-		ActiveQueryHandler.app = app;
-		this.queryExecutor = new ThreadPoolExecutor(numThread, numThread, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
-		queryExecutor.prestartAllCoreThreads();		
+		this.app = app;
+		this.queryExecutor = new ThreadPoolExecutor(numThread, numThread, 0, TimeUnit.MILLISECONDS, 
+				new LinkedBlockingQueue<Runnable>(), new DaemonThreadFactory("ActiveQuery"));
+		queryExecutor.prestartAllCoreThreads();
+	}
+	
+	/**
+	 * Stops the threads that execute the queries of this handler.
+	 * The queries submitted but not started yet are dropped.
+	 */
+	public void shutdown(){
+		queryExecutor.shutdownNow();
 	}
 	
 	/**
@@ -57,21 +103,25 @@ public class ActiveQueryHandler {
 		ActiveMessage response;
 		if(am.type == ActiveMessage.Type.READ_QUERY)
 			response = handleReadQuery(am, header);
+		else if(am.type == ActiveMessage.Type.BATCH_READ_QUERY)
+			response = handleBatchReadQuery(am, header, batchReadExecutor);
 		else
 			response = handleWriteQuery(am, header);
 		ActiveCodeHandler.getLogger().log(ActiveCodeHandler.DEBUG_LEVEL, "################ {0} returns response to worker:{1}", new Object[]{this, response} );
 		return response;
 	}
 	
-	private static class ActiveQuerierTask implements Runnable{
+	private class ActiveQuerierTask implements Runnable{
 		ActiveMessage am;
 		InternalRequestHeader header;
 		Monitor monitor;
+		ThreadPoolExecutor batchReadExecutor;
 		
-		ActiveQuerierTask(ActiveMessage am, InternalRequestHeader header, Monitor monitor){
+		ActiveQuerierTask(ActiveMessage am, InternalRequestHeader header, Monitor monitor, ThreadPoolExecutor batchReadExecutor){
 			this.am = am;
 			this.header = header;
 			this.monitor = monitor;
+			this.batchReadExecutor = batchReadExecutor;
 		}
 		
 		@Override
@@ -103,6 +153,8 @@ public class ActiveQueryHandler {
 					response = new ActiveMessage(am.getId(), null, "Read failed");
 				} 
 						
+			}else if(am.type == ActiveMessage.Type.BATCH_READ_QUERY){
+				response = handleBatchReadQuery(am, header, batchReadExecutor);
 			}else{
 				try {
 					// FIXME: the field parameter is deprecated. It is null for this query.
@@ -127,7 +179,7 @@ public class ActiveQueryHandler {
 	 * @param monitor
 	 */
 	public void handleQueryAsync(ActiveMessage am, InternalRequestHeader header, Monitor monitor){
-		queryExecutor.execute(new ActiveQuerierTask( am, header, monitor));				
+		queryExecutor.execute(new ActiveQuerierTask( am, header, monitor, batchReadExecutor));				
 	}
 	
 	/**
@@ -150,6 +202,90 @@ public class ActiveQueryHandler {
 	}
 
 	
+	/**
+	 * A single read of a batch read query.
+	 */
+	private class BatchReadTask implements Callable<JSONObject>{
+		final InternalRequestHeader header;
+		final String targetGuid;
+		final Object field;
+		
+		BatchReadTask(InternalRequestHeader header, String targetGuid, Object field){
+			this.header = header;
+			this.targetGuid = targetGuid;
+			this.field = field;
+		}
+		
+		@Override
+		public JSONObject call() throws Exception {
+			if(field instanceof JSONArray){
+				JSONArray arr = (JSONArray) field;
+				ArrayList<String> fields = new ArrayList<String>();
+				for(int i=0; i<arr.length(); i++){
+					fields.add(arr.getString(i));
+				}
+				return app.read(header, targetGuid, fields);
+			}
+			return app.read(header, targetGuid, field.toString());
+		}
+	}
+	
+	/**
+	 * This method handles batch read query from the worker. All the reads of the
+	 * batch are executed in parallel, and their results are sent back in a single
+	 * response as a JSON array in the same order as the reads. A read that fails
+	 * or does not finish within the request timeout has a null result, so that 
+	 * the code can still use the results of the other reads.
+	 * 
+	 * @param am
+	 * @param header
+	 * @param executor
+	 * @return the response ActiveMessage
+	 */
+	private ActiveMessage handleBatchReadQuery(ActiveMessage am, InternalRequestHeader header, 
+			ThreadPoolExecutor executor) {
+		JSONArray reads;
+		try {
+			reads = new JSONArray(am.getValue());
+		} catch (JSONException e) {
+			return new ActiveMessage(am.getId(), null, "Batch read failed");
+		}
+		if(reads.length() > ActiveCodeConfig.activeMaxBatchReads){
+			return new ActiveMessage(am.getId(), null, "Batch read failed: more than "
+					+ActiveCodeConfig.activeMaxBatchReads+" reads");
+		}
+		
+		List<Future<JSONObject>> futures = new ArrayList<Future<JSONObject>>();
+		for(int i=0; i<reads.length(); i++){
+			JSONObject read = reads.optJSONObject(i);
+			if(read == null || !read.has(ActiveMessage.BATCH_READ_FIELD)){
+				futures.add(null);
+				continue;
+			}
+			String targetGuid = read.optString(ActiveMessage.BATCH_READ_GUID, am.getGuid());
+			futures.add(executor.submit(new BatchReadTask(header, targetGuid, 
+					read.opt(ActiveMessage.BATCH_READ_FIELD))));
+		}
+		
+		JSONArray results = new JSONArray();
+		long deadline = System.currentTimeMillis() + ActiveCodeConfig.activeRequestTimeout;
+		for(Future<JSONObject> future:futures){
+			JSONObject result = null;
+			if(future != null){
+				try {
+					result = future.get(Math.max(deadline-System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+				} catch (InterruptedException | ExecutionException | TimeoutException e) {
+					future.cancel(true);
+					ActiveCodeHandler.getLogger().log(ActiveCodeHandler.DEBUG_LEVEL, 
+							"################ a read of batch {0} failed: {1}", new Object[]{am, e} );
+				}
+			}
+			results.put(result != null ? result : JSONObject.NULL);
+		}
+		
+		return new ActiveMessage(am.getId(), results.toString(), null);
+	}
+	
 	/**
 	 * This method handles write query from the worker. 
 	 * @param am 
@@ -0,0 +1,280 @@
+package edu.umass.cs.gnsserver.activecode.prototype;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import javax.script.ScriptException;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.gnsserver.activecode.ActiveCodeHandler;
+import edu.umass.cs.gnsserver.activecode.prototype.utils.ResourceUsageUtils;
+import edu.umass.cs.gnsserver.interfaces.ActiveDBInterface;
+import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
+import edu.umass.cs.utils.DelayProfiler;
+
+/**
+ * This class runs trusted code inside GNS process with a pool
+ * of pre-warmed script engines. Compared with the workers, it saves
+ * the IPC, the serialization of the request and the JSON round trip
+ * of the value, as the ValuesMap is passed to the script directly.
+ *
+ * <p>Each engine is used by a single request at a time. A request
+ * that does not finish within the timeout fails and its engine is
+ * retired. Its thread is interrupted and the querier of the code is
+ * stopped, so the code ends at its next query. As Nashorn does not
+ * check for interrupts, code that does not query keeps running on its
+ * thread until it returns, so the engine is replaced
+ * right away only while fewer than numEngines requests overrun.
+ * Beyond that the pool runs with fewer engines until an overrunning
+ * code returns, which bounds the threads at twice the engines.
+ *
+ * @author gaozy
+ *
+ */
+public class ActiveTrustedPool {
+
+	private final static String WARMUP_GUID = "_warmup";
+	private final static String WARMUP_CODE = "function run(value, accessor, querier){ value.warmup = [value.warmup]; return value; }";
+	private final static int WARMUP_ROUNDS = 100;
+
+	private final BlockingQueue<ActiveTrustedRunner> runners;
+	private final ThreadPoolExecutor executor;
+	/**
+	 * Warms up the replacements of the retired engines, so that
+	 * the requests do not wait for it.
+	 */
+	private final ThreadPoolExecutor warmupExecutor;
+	private final ActiveQueryHandler queryHandler;
+	private final long timeout;
+	private final int maxOverrunning;
+	private final AtomicInteger numOverrunning = new AtomicInteger();
+	private final AtomicInteger numAbandoned = new AtomicInteger();
+
+	/**
+	 * @param app
+	 * @param numEngines
+	 * @param timeout the time (ms) a request is allowed to run
+	 */
+	public ActiveTrustedPool(ActiveDBInterface app, int numEngines, long timeout){
+		this.timeout = timeout;
+		this.queryHandler = new ActiveQueryHandler(app);
+		this.maxOverrunning = numEngines;
+		this.runners = new ArrayBlockingQueue<ActiveTrustedRunner>(numEngines);
+		for(int i=0; i<numEngines; i++){
+			runners.add(createRunner());
+		}
+
+		/**
+		 * At most numEngines tasks hold an engine and at most maxOverrunning
+		 * tasks of retired engines have been replaced, so a task waits in the
+		 * queue only until the thread of the task that returned its engine is free.
+		 */
+		executor = new ThreadPoolExecutor(numEngines+maxOverrunning, numEngines+maxOverrunning, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory(){
+					final AtomicInteger counter = new AtomicInteger();
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, ActiveTrustedPool.class.getSimpleName()+counter.getAndIncrement());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		executor.prestartAllCoreThreads();
+		warmupExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory(){
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, ActiveTrustedPool.class.getSimpleName()+"Warmup");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+
+		ActiveCodeHandler.getLogger().log(Level.INFO, "{0} has been started with {1} engines",
+				new Object[]{this, numEngines});
+	}
+
+	/**
+	 * Create an engine and warm it up, so that the first requests
+	 * do not pay for the compilation of the conversion paths.
+	 */
+	private static ActiveTrustedRunner createRunner(){
+		ActiveTrustedRunner runner = new ActiveTrustedRunner();
+		try {
+			JSONObject value = new JSONObject();
+			value.put("warmup", "value");
+			for(int i=0; i<WARMUP_ROUNDS; i++){
+				runner.runCode(WARMUP_GUID, null, WARMUP_CODE, value, null);
+			}
+		} catch (NoSuchMethodException | ScriptException | JSONException e) {
+			ActiveCodeHandler.getLogger().log(Level.WARNING, "failed to warm up a trusted engine: {0}", e);
+		}
+		return runner;
+	}
+
+	private class TrustedTask implements Callable<JSONObject> {
+		private final static int RUNNING = 0;
+		private final static int DONE = 1;
+		private final static int ABANDONED = 2;
+
+		final AtomicInteger state = new AtomicInteger(RUNNING);
+		final AtomicBoolean replaced = new AtomicBoolean();
+		final ActiveTrustedRunner runner;
+		final String guid;
+		final String accessor;
+		final String code;
+		final JSONObject value;
+		final ActiveTrustedQuerier querier;
+
+		TrustedTask(ActiveTrustedRunner runner, InternalRequestHeader header, String guid, String accessor,
+				String code, JSONObject value, int ttl){
+			this.runner = runner;
+			this.guid = guid;
+			this.accessor = accessor;
+			this.code = code;
+			this.value = value;
+			this.querier = new ActiveTrustedQuerier(runner, queryHandler, header, ttl, guid);
+		}
+
+		@Override
+		public JSONObject call() throws Exception {
+			final long cpuStart = ResourceUsageUtils.getCurrentThreadCpuTime();
+			final long allocStart = ResourceUsageUtils.getCurrentThreadAllocatedBytes();
+			try {
+				return runner.runCode(guid, accessor, code, value, querier);
+			} finally {
+				ActiveCodeHandler.getAccounting().charge(guid,
+						ResourceUsageUtils.getCurrentThreadCpuTime() - cpuStart,
+						ResourceUsageUtils.getCurrentThreadAllocatedBytes() - allocStart);
+				if(state.compareAndSet(RUNNING, DONE)){
+					runners.offer(runner);
+				} else {
+					// the engine overran, it is retired
+					numOverrunning.decrementAndGet();
+					replaceRunner(this);
+				}
+			}
+		}
+
+		/**
+		 * @return true if the task is abandoned before it finishes,
+		 * in which case the code can not query any more
+		 */
+		boolean abandon(){
+			if(state.compareAndSet(RUNNING, ABANDONED)){
+				querier.stop();
+				return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * @param header
+	 * @param guid
+	 * @param accessor
+	 * @param code
+	 * @param value
+	 * @param ttl
+	 * @return executed result
+	 * @throws ActiveException
+	 */
+	public JSONObject runCode(InternalRequestHeader header, String guid,
+			String accessor, String code, JSONObject value, int ttl) throws ActiveException{
+		long t = System.nanoTime();
+		long deadline = System.currentTimeMillis() + timeout;
+		ActiveTrustedRunner runner;
+		try {
+			runner = runners.poll(timeout, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			throw new ActiveException("Interrupted while waiting for a trusted engine");
+		}
+		if(runner == null){
+			throw new ActiveException("No trusted engine is available within "+timeout+"ms");
+		}
+
+		TrustedTask task = new TrustedTask(runner, header, guid, accessor, code, value, ttl);
+		Future<JSONObject> future = executor.submit(task);
+		try {
+			JSONObject result = future.get(Math.max(deadline-System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+			DelayProfiler.updateDelayNano("activeTrusted", t);
+			return result;
+		} catch (TimeoutException e) {
+			if(task.abandon()){
+				future.cancel(true);
+				if(numOverrunning.incrementAndGet() <= maxOverrunning){
+					replaceRunner(task);
+				} else {
+					ActiveCodeHandler.getLogger().log(Level.WARNING, 
+							"{0} has {1} overrunning trusted codes, the engine of {2} is replaced once its code returns",
+							new Object[]{this, numOverrunning.get(), guid});
+				}
+				numAbandoned.incrementAndGet();
+				throw new ActiveException("Trusted code of "+guid+" timed out after "+timeout+"ms");
+			}
+			// the task finished right after the timeout
+			return getResult(future);
+		} catch (InterruptedException e) {
+			throw new ActiveException("Interrupted while running trusted code");
+		} catch (ExecutionException e) {
+			throw new ActiveException(e.getCause() != null ? e.getCause().getMessage() : e.getMessage());
+		}
+	}
+
+	/**
+	 * Replaces the retired engine of task once, either when it overruns
+	 * or when its code eventually returns.
+	 */
+	private void replaceRunner(TrustedTask task){
+		if(task.replaced.compareAndSet(false, true)){
+			try {
+				warmupExecutor.execute(() -> runners.offer(createRunner()));
+			} catch (RejectedExecutionException e) {
+				// shut down
+			}
+		}
+	}
+
+	private static JSONObject getResult(Future<JSONObject> future) throws ActiveException {
+		try {
+			return future.get();
+		} catch (InterruptedException | ExecutionException e) {
+			throw new ActiveException(e.getMessage());
+		}
+	}
+
+	/**
+	 * @return the number of engines abandoned because of timeout
+	 */
+	public int getNumAbandoned(){
+		return numAbandoned.get();
+	}
+
+	/**
+	 * Shutdown the executors and the query handler
+	 */
+	public void shutdown(){
+		executor.shutdownNow();
+		warmupExecutor.shutdownNow();
+		queryHandler.shutdown();
+	}
+
+	@Override
+	public String toString(){
+		return this.getClass().getSimpleName();
+	}
+}
@@ -0,0 +1,91 @@
+package edu.umass.cs.gnsserver.activecode.prototype;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.gnsserver.activecode.ActiveCodeConfig;
+import edu.umass.cs.gnsserver.utils.Util;
+import edu.umass.cs.gnsserver.utils.ValuesMap;
+import edu.umass.cs.utils.DelayProfiler;
+
+/**
+ * Compares the throughput of the {@link ActiveTrustedPool} with the
+ * pipe-based workers running the noop code.
+ * 
+ * Typical incantation:
+ 
+ java -cp jars/GNS.jar edu.umass.cs.gnsserver.activecode.prototype.ActiveTrustedPoolThroughputTest 10 100000
+ *
+ * @author gaozy
+ *
+ */
+public class ActiveTrustedPoolThroughputTest {
+
+	private static long benchmark(Callable<JSONObject> task, int numThread, int n) throws InterruptedException, ExecutionException{
+		ThreadPoolExecutor benchExecutor = new ThreadPoolExecutor(numThread, numThread, 0, TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<Runnable>());
+		benchExecutor.prestartAllCoreThreads();
+		ArrayList<Future<JSONObject>> tasks = new ArrayList<Future<JSONObject>>();
+		long t = System.currentTimeMillis();
+		for(int i=0; i<n; i++){
+			tasks.add(benchExecutor.submit(task));
+		}
+		for(Future<JSONObject> f:tasks){
+			f.get();
+		}
+		long elapsed = System.currentTimeMillis() - t;
+		benchExecutor.shutdown();
+		return elapsed;
+	}
+
+	/**
+	 * @param args the number of threads and the number of requests
+	 * @throws InterruptedException
+	 * @throws ExecutionException
+	 * @throws JSONException
+	 */
+	public static void main(String[] args) throws InterruptedException, ExecutionException, JSONException{
+		final int numThread = (args.length > 0)?Integer.parseInt(args[0]):ActiveCodeConfig.activeWorkerThreads;
+		final int n = (args.length > 1)?Integer.parseInt(args[1]):100000;
+
+		final String guid = "4B48F507395639FD806459281C3C09BCBB16FDFF";
+		final String field = "someField";
+		String code = "";
+		try {
+			code = new String(Files.readAllBytes(Paths.get("./scripts/activeCode/noop.js")));
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		final String noop_code = code;
+		final ValuesMap value = new ValuesMap();
+		value.put(field, "someValue");
+
+		final ActiveTrustedPool pool = new ActiveTrustedPool(null, numThread, ActiveCodeConfig.activeRequestTimeout);
+		// warm up the code cache of every engine
+		benchmark(() -> pool.runCode(null, guid, field, noop_code, value, 0), numThread, n/10);
+		long elapsed = benchmark(() -> pool.runCode(null, guid, field, noop_code, value, 0), numThread, n);
+		System.out.println("Trusted pool: it takes "+elapsed+"ms, and the average latency for each operation is "
+				+(elapsed*1000.0/n)+"us, the throughput is "+Util.df(n*1000.0/elapsed)+"reqs/sec");
+		pool.shutdown();
+
+		final ActiveHandler handler = new ActiveHandler("", null, 1, numThread, false);
+		benchmark(() -> handler.runWorkerCode(null, guid, field, noop_code, value, 0), numThread, n/10);
+		elapsed = benchmark(() -> handler.runWorkerCode(null, guid, field, noop_code, value, 0), numThread, n);
+		System.out.println("Pipe worker: it takes "+elapsed+"ms, and the average latency for each operation is "
+				+(elapsed*1000.0/n)+"us, the throughput is "+Util.df(n*1000.0/elapsed)+"reqs/sec");
+
+		System.out.println(DelayProfiler.getStats());
+		System.exit(0);
+	}
+}
@@ -0,0 +1,111 @@
+package edu.umass.cs.gnsserver.activecode.prototype;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Querier;
+import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
+import jdk.nashorn.api.scripting.ScriptObjectMirror;
+
+/**
+ * This class is an implementation of Querier for the trusted code running
+ * inside GNS process. Instead of sending the queries through a channel to
+ * GNS, it hands them to the ActiveQueryHandler directly on the thread that
+ * runs the code.
+ * 
+ * <p>Once the code has timed out, the querier is stopped and every further
+ * query of the code fails, so that the code does not read or write on behalf
+ * of a request that has already failed, and ends at its next query.
+ *
+ * @author gaozy
+ *
+ */
+public class ActiveTrustedQuerier implements Querier {
+
+	private final ActiveTrustedRunner runner;
+	private final ActiveQueryHandler queryHandler;
+	private final InternalRequestHeader header;
+	private final int currentTTL;
+	private final String currentGuid;
+	private volatile boolean stopped = false;
+
+	/**
+	 * @param runner the runner executing the code, used to convert values
+	 * @param queryHandler
+	 * @param header
+	 * @param ttl
+	 * @param guid
+	 */
+	protected ActiveTrustedQuerier(ActiveTrustedRunner runner, ActiveQueryHandler queryHandler,
+			InternalRequestHeader header, int ttl, String guid){
+		this.runner = runner;
+		this.queryHandler = queryHandler;
+		this.header = header;
+		this.currentTTL = ttl;
+		this.currentGuid = guid;
+	}
+
+	@Override
+	public ScriptObjectMirror readGuid(String field, String queriedGuid) throws ActiveException {
+		if(currentTTL <=0)
+			throw new ActiveException(); //"Out of query limit"
+		ActiveMessage response = query(new ActiveMessage(currentTTL, currentGuid, field,
+				queriedGuid==null?currentGuid:queriedGuid, 0));
+		try {
+			return (ScriptObjectMirror) runner.java2JS(new JSONObject(response.getValue()));
+		} catch (JSONException e) {
+			throw new ActiveException(e.getMessage());
+		}
+	}
+
+	@Override
+	public void writeGuid(ScriptObjectMirror value, String queriedGuid) throws ActiveException {
+		if(currentTTL <=0)
+			throw new ActiveException(); //"Out of query limit"
+		Object json;
+		try {
+			json = runner.js2Java(value);
+		} catch (JSONException e) {
+			throw new ActiveException(e.getMessage());
+		}
+		if(!(json instanceof JSONObject))
+			throw new ActiveException("value must be an object");
+		query(new ActiveMessage(currentTTL, currentGuid, null,
+				queriedGuid==null?currentGuid:queriedGuid, json.toString(), 0));
+	}
+
+	@Override
+	public ScriptObjectMirror readGuids(ScriptObjectMirror reads) throws ActiveException {
+		if(currentTTL <=0)
+			throw new ActiveException(); //"Out of query limit"
+		if(reads == null || !reads.isArray())
+			throw new ActiveException("reads must be an array");
+		try {
+			ActiveMessage response = query(new ActiveMessage(currentTTL, currentGuid,
+					runner.js2Java(reads).toString(), 0));
+			return (ScriptObjectMirror) runner.java2JS(new JSONArray(response.getValue()));
+		} catch (JSONException e) {
+			throw new ActiveException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Fails every query of the code from now on.
+	 */
+	protected void stop(){
+		stopped = true;
+	}
+
+	private ActiveMessage query(ActiveMessage am) throws ActiveException {
+		if(stopped){
+			throw new ActiveException("Trusted code of "+currentGuid+" has timed out");
+		}
+		ActiveMessage response = queryHandler.handleQuery(am, header);
+		if(response == null || response.getError() != null){
+			throw new ActiveException();
+		}
+		return response;
+	}
+
+}
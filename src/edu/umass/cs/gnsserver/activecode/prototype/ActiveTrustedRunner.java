@@ -1,6 +1,7 @@
 package edu.umass.cs.gnsserver.activecode.prototype;
 
 import java.util.HashMap;
+import java.util.Iterator;
 
 import javax.script.Invocable;
 import javax.script.ScriptContext;
@@ -8,6 +9,10 @@ import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import javax.script.SimpleScriptContext;
 
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Querier;
 import edu.umass.cs.gnsserver.activecode.prototype.interfaces.Runner;
 import jdk.nashorn.api.scripting.NashornScriptEngineFactory;
@@ -25,6 +30,8 @@ public class ActiveTrustedRunner implements Runner {
 	final private Invocable invocable;
 	
 	private final ScriptObjectMirror JSON;
+	private final ScriptObjectMirror objectConstructor;
+	private final ScriptObjectMirror arrayConstructor;
 	
 	final private Querier querier;
 	
@@ -42,12 +49,90 @@ public class ActiveTrustedRunner implements Runner {
 		
 		try {
 			JSON = (ScriptObjectMirror) engine.eval("JSON");
+			objectConstructor = (ScriptObjectMirror) engine.eval("Object");
+			arrayConstructor = (ScriptObjectMirror) engine.eval("Array");
 		} catch (ScriptException e) {
 			e.printStackTrace();
 			throw new RuntimeException("Can not eval JSON");
 		}
 	}
 	
+	/**
+	 * Initialize a runner without a default querier, the querier
+	 * is provided along with each request.
+	 */
+	public ActiveTrustedRunner(){
+		this(null);
+	}
+	
+	/**
+	 * Converts a value of a ValuesMap to its Javascript counterpart
+	 * without stringifying and parsing it.
+	 * 
+	 * @param value
+	 * @return a Javascript object, array or primitive value
+	 * @throws JSONException
+	 */
+	protected Object java2JS(Object value) throws JSONException {
+		if(value instanceof JSONObject){
+			JSONObject json = (JSONObject) value;
+			ScriptObjectMirror obj = (ScriptObjectMirror) objectConstructor.newObject();
+			Iterator<?> keys = json.keys();
+			while(keys.hasNext()){
+				String key = (String) keys.next();
+				obj.setMember(key, java2JS(json.get(key)));
+			}
+			return obj;
+		} else if(value instanceof JSONArray){
+			JSONArray arr = (JSONArray) value;
+			ScriptObjectMirror obj = (ScriptObjectMirror) arrayConstructor.newObject();
+			for(int i=0; i<arr.length(); i++){
+				obj.setSlot(i, java2JS(arr.get(i)));
+			}
+			return obj;
+		} else if(value == JSONObject.NULL){
+			return null;
+		}
+		return value;
+	}
+	
+	/**
+	 * Converts a Javascript value back to its ValuesMap counterpart,
+	 * functions and undefined values are dropped as JSON.stringify does.
+	 * 
+	 * @param value
+	 * @return a JSONObject, JSONArray, primitive value or null
+	 * @throws JSONException
+	 */
+	protected Object js2Java(Object value) throws JSONException {
+		if(value == null || ScriptObjectMirror.isUndefined(value)){
+			return null;
+		} else if(value instanceof ScriptObjectMirror){
+			ScriptObjectMirror mirror = (ScriptObjectMirror) value;
+			if(mirror.isFunction()){
+				return null;
+			} else if(mirror.isArray()){
+				JSONArray arr = new JSONArray();
+				for(Object elem:mirror.values()){
+					Object converted = js2Java(elem);
+					arr.put(converted == null ? JSONObject.NULL : converted);
+				}
+				return arr;
+			}
+			JSONObject obj = new JSONObject();
+			for(String key:mirror.keySet()){
+				Object converted = js2Java(mirror.getMember(key));
+				if(converted != null){
+					obj.put(key, converted);
+				}
+			}
+			return obj;
+		} else if(value instanceof CharSequence){
+			return value.toString();
+		}
+		return value;
+	}
+	
 	private ScriptObjectMirror string2JS(String str){
 		return (ScriptObjectMirror) JSON.callMember("parse", str);
 	}
@@ -88,5 +173,29 @@ public class ActiveTrustedRunner implements Runner {
 		
 		return valuesMap;
 	}
+	
+	/**
+	 * Runs the code with the value being passed to the script directly,
+	 * i.e., without the JSON.stringify and JSON.parse round trip of
+	 * {@link #runCode(String, String, String, String, int, long)}.
+	 * 
+	 * @param guid
+	 * @param accessor
+	 * @param code
+	 * @param value
+	 * @param querier the querier exposed to the code for this request
+	 * @return the executed result, or the value if the code does not return an object
+	 * @throws ScriptException
+	 * @throws NoSuchMethodException
+	 * @throws JSONException
+	 */
+	public JSONObject runCode(String guid, String accessor, String code, JSONObject value, Querier querier)
+			throws ScriptException, NoSuchMethodException, JSONException {
+		updateCache(guid, code);
+		engine.setContext(contexts.get(guid));
+		
+		Object result = js2Java(invocable.invokeFunction("run", java2JS(value), accessor, querier));
+		return (result instanceof JSONObject) ? (JSONObject) result : value;
+	}
 
 }
@@ -10,6 +10,7 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
@@ -186,11 +187,19 @@ public class ActiveBlockingClient implements Client {
 	}
 	
 	/**
-	 * Destroy the worker process if it's still running,
-	 * delete the pipe file if the client uses named pipe.
+	 * Destroy the worker and stop the threads of the query handler.
 	 */
 	@Override
 	public void shutdown(){
+		stopWorker();
+		queryHandler.shutdown();
+	}
+	
+	/**
+	 * Destroy the worker process if it's still running,
+	 * delete the pipe file if the client uses named pipe.
+	 */
+	private void stopWorker(){
 		
 		if(workerProc != null){		
 			//FIXME: forcibly kill the worker
@@ -356,7 +365,7 @@ public class ActiveBlockingClient implements Client {
 				 *  worker.
 				 */
 				if(!isRestarting.getAndSet(true)){
-					this.shutdown();
+					this.stopWorker();
 					this.initializeChannelAndStartWorker();
 					
 					isRestarting.set(false);
@@ -382,8 +391,11 @@ public class ActiveBlockingClient implements Client {
 				new Object[]{response});
 		
 		if(response == null){
+			// the actual usage is lost with the worker, charge the whole budget
+			ActiveCodeHandler.getAccounting().charge(guid, TimeUnit.MILLISECONDS.toNanos(budget), 0);
 			throw new ActiveException("Worker crashed!");
 		}
+		ActiveCodeHandler.getAccounting().charge(guid, response.getCpuTime(), response.getAllocatedBytes());
 		
 		if(response.getError() != null){
 			throw new ActiveException(msg.toString());
@@ -90,6 +90,20 @@ public class ActiveBlockingQuerier implements Querier,DNSQuerier {
 			writeValueIntoField(currentGuid, queriedGuid, js2String(value), currentTTL);
 	}
 	
+	/**
+	 * @param reads
+	 * @return an array of ValuesMap the code trying to read
+	 * @throws ActiveException
+	 */
+	@Override
+	public ScriptObjectMirror readGuids(ScriptObjectMirror reads) throws ActiveException{
+		if(currentTTL <=0)
+			throw new ActiveException(); //"Out of query limit"
+		if(reads == null || !reads.isArray())
+			throw new ActiveException("reads must be an array");
+		return readValuesFromFields(currentGuid, js2String(reads), currentTTL);
+	}
+	
 	/**
 	 * 
 	 * @param querierGuid
@@ -121,6 +135,29 @@ public class ActiveBlockingQuerier implements Querier,DNSQuerier {
 		return value;
 	}
 
+	/**
+	 * @param querierGuid
+	 * @param reads a JS Array of reads is stringified to this string
+	 * @param ttl
+	 * @return
+	 * @throws ActiveException
+	 */
+	private ScriptObjectMirror readValuesFromFields(String querierGuid, String reads, int ttl)
+			throws ActiveException {
+		try{
+			ActiveMessage am = new ActiveMessage(ttl, querierGuid, reads, currentID);
+			channel.sendMessage(am);
+			ActiveMessage response = (ActiveMessage) channel.receiveMessage();
+			
+			if(response == null || response.getError() != null){
+				throw new ActiveException();
+			}
+			return string2JS(response.getValue());
+		} catch(IOException e) {
+			throw new ActiveException();
+		}
+	}
+
 	private void writeValueIntoField(String querierGuid, String targetGuid, String value, int ttl)
 			throws ActiveException {
 		
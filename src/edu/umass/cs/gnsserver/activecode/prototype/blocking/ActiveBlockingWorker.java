@@ -100,7 +100,8 @@ public class ActiveBlockingWorker {
 						// e.printStackTrace();
 						// construct a response with an error and cancel this task
 						future.cancel(true);
-						response = new ActiveMessage(msg.getId(), null, e.getMessage());
+						response = new ActiveMessage(msg.getId(), null, e.getMessage(), 
+								TimeUnit.MILLISECONDS.toNanos(msg.getBudget()), 0);
 					}
 					// send back response
 					channel.sendMessage(response);
@@ -55,4 +55,20 @@ public interface Querier {
 	 * @throws ActiveException throws an exception if any parameter is null or response indicates the query fails
 	 */
 	public void writeGuid(ScriptObjectMirror value, String queriedGuid ) throws ActiveException;
+	
+	/**
+	 * This method allows customer's active code to read the values of several guids
+	 * in a single round trip. Each read is an object with a "guid" and a "field" attribute, 
+	 * where "field" could be a single field or an array of fields, and "guid" could be 
+	 * omitted to read from the guid running the code. 
+	 * 
+	 * <p>The reads are executed in parallel by GNS, and the results are returned in 
+	 * an array with the same order as the reads. Unlike readGuid, the failure of a
+	 * single read does not fail the others, the result of a failed read is null.
+	 * 
+	 * @param reads a Javascript array of reads
+	 * @return an array of ValuesMap read from the fields of the guids
+	 * @throws ActiveException throws an exception if the reads are malformed or the batch query fails
+	 */
+	public ScriptObjectMirror readGuids(ScriptObjectMirror reads) throws ActiveException;
 }
@@ -7,6 +7,7 @@ import java.lang.ProcessBuilder.Redirect;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -207,7 +208,7 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 					if(!isRestarting.getAndSet(true)){
 						lastWorkerStartedTime = System.currentTimeMillis();
 						// restart the worker
-						this.shutdown();
+						this.stopWorker();
 						this.initializeChannelAndStartWorker();
 						
 						// release all the requests that waited on its monitor
@@ -225,11 +226,19 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 	}
 	
 	/**
-	 * Destroy the worker process if it's still running,
-	 * delete the 
+	 * Destroy the worker and stop the threads of the query handler.
 	 */
 	@Override
 	public void shutdown(){
+		stopWorker();
+		queryHandler.shutdown();
+	}
+	
+	/**
+	 * Destroy the worker process if it's still running,
+	 * delete the pipe file if the client uses named pipe.
+	 */
+	private void stopWorker(){
 		
 		if(workerProc != null){		
 			//FIXME: forcibly kill the worker
@@ -449,10 +458,14 @@ public class ActiveNonBlockingClient implements Runnable,Client {
 		if(response == null){
 			/**
 			 * No need to resend the request, as it is much likely
-			 * a malicious request. 
+			 * a malicious request. Charge the whole budget, as the 
+			 * actual usage is lost with the worker.
 			 */
+			tasks.remove(msg.getId());
+			ActiveCodeHandler.getAccounting().charge(guid, TimeUnit.MILLISECONDS.toNanos(budget), 0);
 			throw new ActiveException("Worker crashes!");
 		}
+		ActiveCodeHandler.getAccounting().charge(guid, response.getCpuTime(), response.getAllocatedBytes());
 		if(response.getError() != null){
 			throw new ActiveException("Message: " + msg.toString() +
                                 " Response: " + response.toString());
@@ -83,6 +83,20 @@ public class ActiveNonBlockingQuerier implements Querier,DNSQuerier {
 	}
 	
 	
+	/**
+	 * @param reads
+	 * @return an array of ValuesMap the code trying to read
+	 * @throws ActiveException
+	 */
+	@Override
+	public ScriptObjectMirror readGuids(ScriptObjectMirror reads) throws ActiveException{
+		if(currentTTL <=0)
+			throw new ActiveException(); //"Out of query limit"
+		if(reads == null || !reads.isArray())
+			throw new ActiveException("reads must be an array");
+		return string2JS(readValuesFromFields(currentGuid, js2String(reads), currentTTL));
+	}
+	
 	/**
 	 * 
 	 * @param querierGuid
@@ -127,6 +141,41 @@ public class ActiveNonBlockingQuerier implements Querier,DNSQuerier {
 		return value;
 	}
 
+	/**
+	 * @param querierGuid
+	 * @param reads a JS Array of reads is stringified to this string
+	 * @param ttl
+	 * @return a stringified JSON array of the values being read
+	 * @throws ActiveException
+	 */
+	private String readValuesFromFields(String querierGuid, String reads, int ttl)
+			throws ActiveException {
+		monitor = new Monitor();
+		try{
+			ActiveMessage am = new ActiveMessage(ttl, querierGuid, reads, currentID);
+			channel.sendMessage(am);
+			synchronized(monitor){
+				while(!monitor.getDone()){
+					try {
+						monitor.wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						throw new ActiveException("Batch read interrupted");
+					}
+				}
+			}
+			
+			ActiveMessage response = monitor.getResult();
+			
+			if(response == null || response.getError() != null){
+				throw new ActiveException();
+			}
+			return response.getValue();
+		} catch(IOException e) {
+			throw new ActiveException();
+		}
+	}
+
 	private void writeValueIntoField(String querierGuid, String queriedGuid, String value, int ttl)
 			throws ActiveException {
 		monitor = new Monitor();
@@ -44,8 +44,12 @@ public class ActiveWorkerSubmittedTask implements Runnable {
 		try {
 			response = future.get(timeout, TimeUnit.MILLISECONDS);
 		} catch (InterruptedException | ExecutionException | TimeoutException e) {
-			// return an error
-			response = new ActiveMessage(request.getId(), null, e.getMessage());
+			/**
+			 * return an error, the timed out request is charged with its
+			 * whole budget as its actual usage can not be measured here 
+			 */
+			response = new ActiveMessage(request.getId(), null, e.getMessage(), 
+					TimeUnit.MILLISECONDS.toNanos(timeout), 0);
 			ActiveNonBlockingWorker.getLogger().log(Level.FINE, 
 					"get an exception {0} when executing request {1} with code {2}", 
 					new Object[]{e, request, request.getCode()});
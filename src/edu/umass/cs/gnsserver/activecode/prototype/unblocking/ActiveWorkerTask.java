@@ -6,6 +6,7 @@ import java.util.logging.Level;
 import javax.script.ScriptException;
 
 import edu.umass.cs.gnsserver.activecode.prototype.ActiveMessage;
+import edu.umass.cs.gnsserver.activecode.prototype.utils.ResourceUsageUtils;
 
 /**
  * This task is the task that truly executes the user code by calling ActiveRunner's runCode method.
@@ -27,15 +28,21 @@ public class ActiveWorkerTask implements Callable<ActiveMessage>  {
 	@Override
 	public ActiveMessage call() {
 		ActiveMessage response = null;
+		// measure the resources consumed by this request on the executing thread
+		final long cpuStart = ResourceUsageUtils.getCurrentThreadCpuTime();
+		final long allocStart = ResourceUsageUtils.getCurrentThreadAllocatedBytes();
 		try {
-			response = new ActiveMessage(request.getId(), 
-					runner.runCode(request.getGuid(), request.getAccessor(), request.getCode(), request.getValue(), request.getTtl(), request.getId()),
-					null);
+			String result = runner.runCode(request.getGuid(), request.getAccessor(), request.getCode(), request.getValue(), request.getTtl(), request.getId());
+			response = new ActiveMessage(request.getId(), result, null,
+					ResourceUsageUtils.getCurrentThreadCpuTime() - cpuStart,
+					ResourceUsageUtils.getCurrentThreadAllocatedBytes() - allocStart);
 		} catch (NoSuchMethodException | ScriptException e) {
 			ActiveNonBlockingWorker.getLogger().log(Level.FINE, 
 					"get an exception {0} when executing request {1} with code {2}", 
 					new Object[]{e, request, request.getCode()});
-			response = new ActiveMessage(request.getId(), null, e.getMessage());
+			response = new ActiveMessage(request.getId(), null, e.getMessage(),
+					ResourceUsageUtils.getCurrentThreadCpuTime() - cpuStart,
+					ResourceUsageUtils.getCurrentThreadAllocatedBytes() - allocStart);
 		}
 
 		return response;
@@ -0,0 +1,67 @@
+package edu.umass.cs.gnsserver.activecode.prototype.utils;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+/**
+ * This class reads the per-thread resource counters of the JVM,
+ * so that a worker can measure how much CPU time and heap a single
+ * request consumes on the thread that executes it.
+ *
+ * <p>If the JVM does not support a counter, the corresponding method
+ * returns 0, i.e., the request is charged nothing for that resource.
+ *
+ * @author gaozy
+ *
+ */
+public class ResourceUsageUtils {
+
+	private static final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+	private static final boolean cpuTimeEnabled;
+	private static final boolean allocationEnabled;
+
+	static {
+		boolean enabled = false;
+		try {
+			if(threadBean.isCurrentThreadCpuTimeSupported()){
+				if(!threadBean.isThreadCpuTimeEnabled())
+					threadBean.setThreadCpuTimeEnabled(true);
+				enabled = true;
+			}
+		} catch (UnsupportedOperationException | SecurityException e) {
+			enabled = false;
+		}
+		cpuTimeEnabled = enabled;
+
+		enabled = false;
+		if(threadBean instanceof com.sun.management.ThreadMXBean){
+			com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+			try {
+				if(bean.isThreadAllocatedMemorySupported()){
+					if(!bean.isThreadAllocatedMemoryEnabled())
+						bean.setThreadAllocatedMemoryEnabled(true);
+					enabled = true;
+				}
+			} catch (UnsupportedOperationException | SecurityException e) {
+				enabled = false;
+			}
+		}
+		allocationEnabled = enabled;
+	}
+
+	/**
+	 * @return the CPU time (ns) consumed by the current thread so far
+	 */
+	public static long getCurrentThreadCpuTime(){
+		return cpuTimeEnabled ? threadBean.getCurrentThreadCpuTime() : 0;
+	}
+
+	/**
+	 * @return the heap bytes allocated by the current thread so far
+	 */
+	public static long getCurrentThreadAllocatedBytes(){
+		return allocationEnabled ?
+				((com.sun.management.ThreadMXBean) threadBean).getThreadAllocatedBytes(Thread.currentThread().getId()) : 0;
+	}
+}
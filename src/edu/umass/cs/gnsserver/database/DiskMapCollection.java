@@ -16,9 +16,11 @@ import edu.umass.cs.utils.Config;
 import edu.umass.cs.utils.DiskMap;
 
 import java.io.IOException;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.json.JSONObject;
 
@@ -30,12 +32,21 @@ import org.json.JSONObject;
  * A collection is basically a named separate namespace for documents.
  * A document is a JSONObject.
  *
+ * Writes that the DiskMap has not yet committed to Mongo are also kept
+ * in a separate uncommitted map, so that scans can overlay them on the
+ * Mongo records instead of forcing a commit first.
+ *
  * @author westy
  */
 public class DiskMapCollection {
 
+  // the value of a removed record in the uncommitted map
+  private static final JSONObject REMOVED = new JSONObject();
+
   private DiskMap<String, JSONObject> map;
   private MongoRecords mongoRecords;
+  // name -> the latest value not yet in mongo, or REMOVED
+  private final ConcurrentHashMap<String, JSONObject> uncommitted = new ConcurrentHashMap<>();
 
   /**
    * Create a DiskMapCollection name collection on a given nodeID.
@@ -69,6 +80,11 @@ public class DiskMapCollection {
         } catch (FailedDBOperationException | RecordExistsException e) {
           throw new IOException(e);
         }
+        // unless they have been written again in the meantime
+        for (Map.Entry<String, JSONObject> entry : toCommit.entrySet()) {
+          uncommitted.remove(entry.getKey(),
+                  entry.getValue() != null ? entry.getValue() : REMOVED);
+        }
         return toCommit.keySet();
       }
 
@@ -104,4 +120,40 @@ public class DiskMapCollection {
     return mongoRecords;
   }
 
+  /**
+   * Puts a record into the diskmap.
+   *
+   * @param name
+   * @param value
+   */
+  public void put(String name, JSONObject value) {
+    uncommitted.put(name, value);
+    map.put(name, value);
+  }
+
+  /**
+   * Removes a record from the diskmap.
+   *
+   * @param name
+   */
+  public void remove(String name) {
+    uncommitted.put(name, REMOVED);
+    map.remove(name);
+  }
+
+  /**
+   * Returns the records written since they were last committed to Mongo.
+   * The values are the records as they are in the diskmap and must not be
+   * modified.
+   *
+   * @return name -> the latest record, or null if the record was removed
+   */
+  public Map<String, JSONObject> getUncommitted() {
+    Map<String, JSONObject> snapshot = new HashMap<>();
+    for (Map.Entry<String, JSONObject> entry : uncommitted.entrySet()) {
+      snapshot.put(entry.getKey(), entry.getValue() != REMOVED ? entry.getValue() : null);
+    }
+    return snapshot;
+  }
+
 }
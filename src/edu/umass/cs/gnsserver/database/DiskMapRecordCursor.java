@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.database;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.Predicate;
+import java.util.function.ToDoubleFunction;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+
+/**
+ * A cursor over the records of a DiskMapCollection that overlays the
+ * records not yet committed to Mongo on a Mongo cursor, so that a scan
+ * does not have to wait for a commit.
+ *
+ * The uncommitted records are snapshotted when the cursor is created. A
+ * Mongo record whose name is in the snapshot is replaced by the snapshot,
+ * which drops removed records and records that no longer match, and the
+ * snapshot records that match are returned as well. So every name is
+ * returned at most once, with a value at least as recent as the snapshot.
+ *
+ * If an order is given the Mongo records must come in that order, as for
+ * a $near query, and the snapshot records are merged in.
+ *
+ * @author westy
+ */
+class DiskMapRecordCursor extends AbstractRecordCursor {
+
+  private final RecordCursorInterface cursor;
+  private final Map<String, JSONObject> uncommitted;
+  private final ToDoubleFunction<JSONObject> order;
+  // the uncommitted records that match, in order if there is one
+  private final Iterator<JSONObject> overlay;
+  private JSONObject nextFromCursor = null;
+  private JSONObject nextFromOverlay = null;
+
+  /**
+   * @param cursor the Mongo cursor, which must not be read yet
+   * @param uncommitted the uncommitted records, null values for removed records
+   * @param matches true for the uncommitted records that the Mongo query matches
+   * @param order the order of the Mongo records, or null
+   */
+  DiskMapRecordCursor(RecordCursorInterface cursor, Map<String, JSONObject> uncommitted,
+          Predicate<JSONObject> matches, ToDoubleFunction<JSONObject> order) {
+    this.cursor = cursor;
+    this.uncommitted = uncommitted;
+    this.order = order;
+    List<JSONObject> matching = new ArrayList<>();
+    for (JSONObject record : uncommitted.values()) {
+      if (record != null && matches.test(record)) {
+        matching.add(record);
+      }
+    }
+    if (order != null) {
+      matching.sort(Comparator.comparingDouble(order));
+    }
+    this.overlay = matching.iterator();
+  }
+
+  @Override
+  public boolean hasNext() throws FailedDBOperationException {
+    return peekCursor() != null || peekOverlay() != null;
+  }
+
+  @Override
+  public JSONObject nextJSONObject() throws FailedDBOperationException {
+    JSONObject fromCursor = peekCursor();
+    JSONObject fromOverlay = peekOverlay();
+    if (fromCursor == null && fromOverlay == null) {
+      throw new NoSuchElementException();
+    }
+    // unordered, the Mongo records come first
+    if (fromOverlay == null || (fromCursor != null && (order == null
+            || order.applyAsDouble(fromCursor) <= order.applyAsDouble(fromOverlay)))) {
+      nextFromCursor = null;
+      return fromCursor;
+    }
+    nextFromOverlay = null;
+    try {
+      // the diskmap holds these, so callers get a copy
+      return DiskMapRecords.recursiveCopyJSONObject(fromOverlay);
+    } catch (JSONException e) {
+      throw new FailedDBOperationException("", getName(fromOverlay),
+              "Unable to copy json record");
+    }
+  }
+
+  private JSONObject peekCursor() throws FailedDBOperationException {
+    while (nextFromCursor == null && cursor.hasNext()) {
+      JSONObject record = cursor.nextJSONObject();
+      // replaced by the uncommitted record, if any
+      if (!uncommitted.containsKey(getName(record))) {
+        nextFromCursor = record;
+      }
+    }
+    return nextFromCursor;
+  }
+
+  private JSONObject peekOverlay() {
+    if (nextFromOverlay == null && overlay.hasNext()) {
+      nextFromOverlay = overlay.next();
+    }
+    return nextFromOverlay;
+  }
+
+  private static String getName(JSONObject record) {
+    return record.optString(NameRecord.NAME.getName(), null);
+  }
+}
@@ -13,6 +13,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToDoubleFunction;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -27,6 +28,7 @@ import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnscommon.utils.JSONDotNotation;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.GeoIndex;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
 import edu.umass.cs.gnsserver.utils.JSONUtils;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
@@ -97,7 +99,7 @@ public class DiskMapRecords implements NoSQLRecords {
   @Override
   public void insert(String collection, String name, JSONObject value)
           throws FailedDBOperationException, RecordExistsException {
-    getMap(collection).put(name, value);
+    getCollection(collection).put(name, value);
   }
 
   @Override
@@ -125,7 +127,7 @@ public class DiskMapRecords implements NoSQLRecords {
    * @return a JSON Object
    * @throws org.json.JSONException
    */
-  private static JSONObject recursiveCopyJSONObject(JSONObject record)
+  static JSONObject recursiveCopyJSONObject(JSONObject record)
           throws JSONException {
     String[] keys = JSONObject.getNames(record);
     JSONObject copy = new JSONObject();
@@ -256,7 +258,7 @@ public class DiskMapRecords implements NoSQLRecords {
   @Override
   public void removeEntireRecord(String collection, String name) throws FailedDBOperationException {
     LOGGER.log(Level.FINE, "Remove: {0}", name);
-    getMap(collection).remove(name);
+    getCollection(collection).remove(name);
   }
 
   @Override
@@ -266,7 +268,7 @@ public class DiskMapRecords implements NoSQLRecords {
     try {
       json.put(NameRecord.NAME.getName(), name);
       json.put(NameRecord.VALUES_MAP.getName(), valuesMap);
-      getMap(collection).put(name, json);
+      getCollection(collection).put(name, json);
     } catch (JSONException e) {
 
     }
@@ -314,7 +316,7 @@ public class DiskMapRecords implements NoSQLRecords {
         throw new FailedDBOperationException(collection, name, "Unable to parse json " + e.getMessage());
       }
     }
-    getMap(collection).put(name, record);
+    getCollection(collection).put(name, record);
   }
   // not sure why the JSON.parse doesn't handle things this way but it doesn't
 
@@ -357,33 +359,69 @@ public class DiskMapRecords implements NoSQLRecords {
                 "Problem updating json: {0}", e.getMessage());
       }
     }
-    getMap(collection).put(name, record);
+    getCollection(collection).put(name, record);
   }
 
+  /**
+   * The scans below overlay the records that are not yet committed to
+   * Mongo on the Mongo cursor instead of committing them first, so that
+   * a scan does not wait for a commit of every dirty record and writes are
+   * not held up by scans.
+   */
   @Override
   public AbstractRecordCursor getAllRowsIterator(String collection) throws FailedDBOperationException {
-    commit(collection);
-    return getMongoRecords(collection).getAllRowsIterator(MongoRecords.DBNAMERECORD);
+    Map<String, JSONObject> uncommitted = getCollection(collection).getUncommitted();
+    return new DiskMapRecordCursor(
+            getMongoRecords(collection).getAllRowsIterator(MongoRecords.DBNAMERECORD),
+            uncommitted, record -> true, null);
   }
 
   @Override
   public AbstractRecordCursor selectRecords(String collection, ColumnField valuesMapField, String key, Object value) throws FailedDBOperationException {
-    commit(collection);
-    return getMongoRecords(collection).selectRecords(MongoRecords.DBNAMERECORD, valuesMapField, key, value);
+    Map<String, JSONObject> uncommitted = getCollection(collection).getUncommitted();
+    return new DiskMapRecordCursor(
+            getMongoRecords(collection).selectRecords(MongoRecords.DBNAMERECORD, valuesMapField, key, value),
+            uncommitted, record -> matchesValue(getField(record, valuesMapField, key), value), null);
   }
 
   @Override
   public AbstractRecordCursor selectRecordsWithin(String collection, ColumnField valuesMapField, String key, String value) throws FailedDBOperationException {
-    commit(collection);
-    return getMongoRecords(collection).selectRecordsWithin(MongoRecords.DBNAMERECORD, valuesMapField, key, value);
+    double[] box = GeoIndex.parseBox(value);
+    if (box == null) {
+      commit(collection);
+      return getMongoRecords(collection).selectRecordsWithin(MongoRecords.DBNAMERECORD, valuesMapField, key, value);
+    }
+    double minX = Math.min(box[0], box[2]), maxX = Math.max(box[0], box[2]);
+    double minY = Math.min(box[1], box[3]), maxY = Math.max(box[1], box[3]);
+    Map<String, JSONObject> uncommitted = getCollection(collection).getUncommitted();
+    return new DiskMapRecordCursor(
+            getMongoRecords(collection).selectRecordsWithin(MongoRecords.DBNAMERECORD, valuesMapField, key, value),
+            uncommitted, record -> {
+              double[] point = GeoIndex.parsePoint(getField(record, valuesMapField, key));
+              return point != null && point[0] >= minX && point[0] <= maxX
+                      && point[1] >= minY && point[1] <= maxY;
+            }, null);
   }
 
   @Override
   public AbstractRecordCursor selectRecordsNear(String collection, ColumnField valuesMapField, String key, String value, Double maxDistance) throws FailedDBOperationException {
-    commit(collection);
-    return getMongoRecords(collection).selectRecordsNear(MongoRecords.DBNAMERECORD, valuesMapField, key, value, maxDistance);
+    double[] center = GeoIndex.parsePoint(value);
+    if (center == null) {
+      commit(collection);
+      return getMongoRecords(collection).selectRecordsNear(MongoRecords.DBNAMERECORD, valuesMapField, key, value, maxDistance);
+    }
+    // mongo returns the records nearest first
+    ToDoubleFunction<JSONObject> distance = record -> {
+      double[] point = GeoIndex.parsePoint(getField(record, valuesMapField, key));
+      return point != null ? GeoIndex.getDistance(key, point, center) : Double.MAX_VALUE;
+    };
+    Map<String, JSONObject> uncommitted = getCollection(collection).getUncommitted();
+    return new DiskMapRecordCursor(
+            getMongoRecords(collection).selectRecordsNear(MongoRecords.DBNAMERECORD, valuesMapField, key, value, maxDistance),
+            uncommitted, record -> distance.applyAsDouble(record) <= maxDistance, distance);
   }
 
+  // Arbitrary queries can't be matched against the uncommitted records, so these still commit first.
   @Override
   public AbstractRecordCursor selectRecordsQuery(String collection, ColumnField valuesMapField,
           String query, List<String> projection) throws FailedDBOperationException {
@@ -392,6 +430,42 @@ public class DiskMapRecords implements NoSQLRecords {
             query, projection);
   }
 
+  private static Object getField(JSONObject record, ColumnField valuesMapField, String key) {
+    try {
+      return JSONDotNotation.getWithDotNotation(key, record.getJSONObject(valuesMapField.getName()));
+    } catch (JSONException | ClassCastException e) {
+      return null;
+    }
+  }
+
+  // like mongo, a list matches if any of its elements matches
+  private static boolean matchesValue(Object field, Object value) {
+    if (field == null || field == JSONObject.NULL) {
+      return value == null;
+    }
+    if (field instanceof JSONArray) {
+      JSONArray array = (JSONArray) field;
+      for (int i = 0; i < array.length(); i++) {
+        if (matchesValue(array.opt(i), value)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    if (field instanceof Collection) {
+      for (Object element : (Collection<?>) field) {
+        if (matchesValue(element, value)) {
+          return true;
+        }
+      }
+      return false;
+    }
+    if (field instanceof Number && value instanceof Number) {
+      return ((Number) field).doubleValue() == ((Number) value).doubleValue();
+    }
+    return field.equals(value);
+  }
+
   @Override
   public void createIndex(String collection, String field, String index) {
     commit(collection);
@@ -400,8 +474,10 @@ public class DiskMapRecords implements NoSQLRecords {
 
   @Override
   public void printAllEntries(String collection) throws FailedDBOperationException {
-    commit(collection);
-    getMongoRecords(collection).printAllEntries(MongoRecords.DBNAMERECORD);
+    AbstractRecordCursor cursor = getAllRowsIterator(collection);
+    while (cursor.hasNext()) {
+      System.out.println(cursor.nextJSONObject());
+    }
   }
 
   private void commit(String collection) {
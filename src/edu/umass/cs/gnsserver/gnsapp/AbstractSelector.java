@@ -2,6 +2,8 @@ package edu.umass.cs.gnsserver.gnsapp;
 
 import java.io.IOException;
 import java.net.UnknownHostException;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -12,6 +14,7 @@ import org.json.JSONObject;
 import edu.umass.cs.gnscommon.exceptions.client.ClientException;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.InternalRequestException;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectInvalidationPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectResponsePacket;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
@@ -74,6 +77,52 @@ public abstract class AbstractSelector {
 			UnknownHostException, FailedDBOperationException,
 			InternalRequestException;
 
+	/**
+	 * Handles select request from a client without waiting for the
+	 * responses of the other servers. The default implementation
+	 * completes the future synchronously.
+	 * 
+	 * @param header
+	 * @param packet
+	 * @param app
+	 * @return a future for the SelectResponsePacket
+	 * @throws JSONException
+	 * @throws UnknownHostException
+	 * @throws FailedDBOperationException
+	 * @throws InternalRequestException
+	 */
+	public CompletableFuture<SelectResponsePacket> handleSelectRequestFromClientAsync(
+			InternalRequestHeader header, SelectRequestPacket packet,
+			GNSApplicationInterface<String> app) throws JSONException,
+			UnknownHostException, FailedDBOperationException,
+			InternalRequestException {
+		return CompletableFuture.completedFuture(handleSelectRequestFromClient(
+				header, packet, app));
+	}
+
+	/**
+	 * Called after this server has applied updates to the fields of a
+	 * record. The default implementation does nothing.
+	 * 
+	 * @param fields the updated fields, or null if any field may have
+	 * changed, e.g., because the record was created or deleted
+	 * @param app
+	 */
+	public void handleFieldsUpdated(Collection<String> fields,
+			GNSApplicationInterface<String> app) {
+	}
+
+	/**
+	 * Handles the notice of another server that it has applied updates.
+	 * The default implementation does nothing.
+	 * 
+	 * @param packet
+	 * @param app
+	 */
+	public void handleSelectInvalidation(SelectInvalidationPacket packet,
+			GNSApplicationInterface<String> app) {
+	}
+
 	/**
 	 * Returns true if a query contains operations that are not allowed.
 	 * Currently $where is not allowed as well as attempts to use internal keys.
@@ -0,0 +1,353 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.gigapaxos.interfaces.Request;
+import edu.umass.cs.gnsserver.utils.Util;
+import edu.umass.cs.reconfiguration.interfaces.ReconfigurableAppInfo;
+import edu.umass.cs.reconfiguration.interfaces.ReplicableRequest;
+import edu.umass.cs.reconfiguration.reconfigurationutils.AbstractDemandProfile;
+
+/**
+ * A demand profile for a single name that places replicas like
+ * {@link LocationBasedDemandProfile}, in less space and time per request.
+ *
+ * The senders are counted by region in a {@link SenderRegionSketch} of a
+ * fixed size, instead of by address in a {@link VotesMap}, and replicas are
+ * placed only when the profile is asked to reconfigure, instead of voted for
+ * on every request. With a GeoIP database the replicas are placed by
+ * {@link GeoReplicaPlacement} to minimize the expected round trip time of
+ * the requests; otherwise each region votes for the active replica closest
+ * to it.
+ *
+ * The report is the counters and the sketch encoded as bytes, in base64 in
+ * the JSON that the reconfigurators expect.
+ *
+ * To use it set
+ * {@code DEMAND_PROFILE_TYPE=edu.umass.cs.gnsserver.gnsapp.CompactDemandProfile}
+ * in the gigapaxos properties.
+ *
+ * @author westy
+ */
+public class CompactDemandProfile extends AbstractDemandProfile {
+
+  private static final Logger LOG = Logger.getLogger(CompactDemandProfile.class.getName());
+
+  /**
+   * The number of regions counted per name.
+   */
+  public static final int SKETCH_CAPACITY = 16;
+
+  private static final byte ENCODING_VERSION = 1;
+
+  /**
+   * The keys for the demand profile packet.
+   */
+  private enum Keys {
+
+    /**
+     * SERVICE_NAME
+     */
+    SERVICE_NAME,
+    /**
+     * STATS
+     */
+    STATS
+  };
+
+  private double interArrivalTime = 0.0;
+  private long lastRequestTime = 0;
+  private int numRequests = 0;
+  private int numTotalRequests = 0;
+  private int lookupCount = 0;
+  private int updateCount = 0;
+  private final SenderRegionSketch sketch;
+  // the time of the last request and the total requests when last reconfigured
+  private boolean reconfigured = false;
+  private long reconfiguredRequestTime = 0;
+  private int reconfiguredTotalRequests = 0;
+
+  /**
+   * Create a CompactDemandProfile instance.
+   *
+   * @param name
+   */
+  public CompactDemandProfile(String name) {
+    super(name);
+    this.sketch = new SenderRegionSketch(SKETCH_CAPACITY);
+  }
+
+  /**
+   * Create a CompactDemandProfile instance by making a deep copy of another instance.
+   *
+   * @param dp
+   */
+  public CompactDemandProfile(CompactDemandProfile dp) {
+    super(dp.name);
+    this.interArrivalTime = dp.interArrivalTime;
+    this.lastRequestTime = dp.lastRequestTime;
+    this.numRequests = dp.numRequests;
+    this.numTotalRequests = dp.numTotalRequests;
+    this.lookupCount = dp.lookupCount;
+    this.updateCount = dp.updateCount;
+    this.sketch = new SenderRegionSketch(dp.sketch);
+  }
+
+  /**
+   * Create a CompactDemandProfile instance from a JSON packet.
+   *
+   * @param json
+   * @throws org.json.JSONException
+   */
+  public CompactDemandProfile(JSONObject json) throws JSONException {
+    this(json.getString(Keys.SERVICE_NAME.toString()));
+    ByteBuffer buffer = ByteBuffer.wrap(Base64.getDecoder().decode(json.getString(Keys.STATS.toString())));
+    byte version = buffer.get();
+    if (version != ENCODING_VERSION) {
+      throw new JSONException("Unknown demand profile encoding " + version + " for " + this.name);
+    }
+    this.interArrivalTime = buffer.getDouble();
+    this.lastRequestTime = buffer.getLong();
+    this.numRequests = buffer.getInt();
+    this.numTotalRequests = buffer.getInt();
+    this.lookupCount = buffer.getInt();
+    this.updateCount = buffer.getInt();
+    this.sketch.readFrom(buffer);
+  }
+
+  /**
+   *
+   * @return the stats
+   */
+  @Override
+  public JSONObject getDemandStats() {
+    ByteBuffer buffer = ByteBuffer.allocate(1 + Double.BYTES + Long.BYTES + 4 * Integer.BYTES
+            + this.sketch.getEncodedLength());
+    buffer.put(ENCODING_VERSION)
+            .putDouble(this.interArrivalTime)
+            .putLong(this.lastRequestTime)
+            .putInt(this.numRequests)
+            .putInt(this.numTotalRequests)
+            .putInt(this.lookupCount)
+            .putInt(this.updateCount);
+    this.sketch.writeTo(buffer);
+    JSONObject json = new JSONObject();
+    try {
+      json.put(Keys.SERVICE_NAME.toString(), this.name);
+      json.put(Keys.STATS.toString(), Base64.getEncoder().encodeToString(buffer.array()));
+    } catch (JSONException je) {
+      je.printStackTrace();
+    }
+    return json;
+  }
+
+  /**
+   * Create an empty CompactDemandProfile instance for a name.
+   *
+   * @param name
+   * @return New demand profile for {@code name}.
+   */
+  public static CompactDemandProfile createDemandProfile(String name) {
+    return new CompactDemandProfile(name);
+  }
+
+  /**
+   *
+   * @param request
+   * @param sender
+   * @param nodeConfig
+   */
+  @Override
+  public boolean shouldReportDemandStats(Request request, InetAddress sender, ReconfigurableAppInfo nodeConfig) {
+    if (!request.getServiceName().equals(this.name)
+            || LocationBasedDemandProfile.shouldIgnore(request)
+            // This happens when called from a reconfigurator
+            || nodeConfig == null) {
+      return false;
+    }
+    this.numRequests++;
+    this.numTotalRequests++;
+    long now = System.currentTimeMillis();
+    if (this.lastRequestTime > 0) {
+      this.interArrivalTime = Util.movingAverage(now - this.lastRequestTime, this.interArrivalTime);
+    }
+    this.lastRequestTime = now;
+
+    if (sender != null) {
+      this.sketch.increment(SenderRegionSketch.getRegion(sender));
+    }
+
+    if (request instanceof ReplicableRequest
+            && ((ReplicableRequest) request).needsCoordination()) {
+      this.updateCount++;
+    } else {
+      this.lookupCount++;
+    }
+    return this.numRequests >= LocationBasedDemandProfile.NUMBER_OF_REQUESTS_BETWEEN_REPORTS;
+  }
+
+  /**
+   * Reset everything.
+   */
+  @Override
+  public void reset() {
+    this.interArrivalTime = 0.0;
+    this.lastRequestTime = 0;
+    this.numRequests = 0;
+    this.sketch.clear();
+    this.updateCount = 0;
+    this.lookupCount = 0;
+  }
+
+  @Override
+  public CompactDemandProfile clone() {
+    return new CompactDemandProfile(this);
+  }
+
+  /**
+   *
+   * @param dp
+   */
+  @Override
+  public void combine(AbstractDemandProfile dp) {
+    CompactDemandProfile update = (CompactDemandProfile) dp;
+    this.lastRequestTime = Math.max(this.lastRequestTime, update.lastRequestTime);
+    this.interArrivalTime = Util.movingAverage(update.interArrivalTime,
+            this.interArrivalTime, update.numRequests);
+    this.numRequests += update.numRequests; // this number is not meaningful at RC
+    this.numTotalRequests += update.numTotalRequests;
+    this.updateCount += update.updateCount;
+    this.lookupCount += update.lookupCount;
+    this.sketch.combine(update.sketch);
+  }
+
+  /**
+   * Was this just rconfigured.
+   */
+  @Override
+  public void justReconfigured() {
+    this.reconfigured = true;
+    this.reconfiguredRequestTime = this.lastRequestTime;
+    this.reconfiguredTotalRequests = this.numTotalRequests;
+  }
+
+  /**
+   *
+   * @param curActives
+   * @param nodeConfig
+   * @return the new active replicas, or null to keep the current ones
+   */
+  @Override
+  public Set<String> reconfigure(Set<String> curActives, ReconfigurableAppInfo nodeConfig) {
+    // This happens when called from a reconfigurator
+    if (nodeConfig == null) {
+      return null;
+    }
+    if (this.reconfigured
+            && (System.currentTimeMillis() - this.reconfiguredRequestTime
+            < LocationBasedDemandProfile.MIN_RECONFIGURATION_INTERVAL
+            || this.numTotalRequests - this.reconfiguredTotalRequests
+            < LocationBasedDemandProfile.NUMBER_OF_REQUESTS_BETWEEN_RECONFIGURATIONS)) {
+      return null;
+    }
+    Map<String, InetSocketAddress> activesMap = nodeConfig.getAllActiveReplicas();
+    ArrayList<InetAddress> allActives = LocationBasedDemandProfile.toInetAddresses(activesMap.values());
+    int numberOfReplicas = LocationBasedDemandProfile.computeNumberOfReplicas(lookupCount, updateCount,
+            allActives.size());
+    ArrayList<InetAddress> currentActives = LocationBasedDemandProfile.toInetAddresses(curActives, activesMap);
+    GeoLocator locator = GeoLocator.getInstance();
+    ArrayList<InetAddress> topN = locator != null
+            ? new GeoReplicaPlacement(locator).pick(numberOfReplicas, this.sketch, currentActives, allActives)
+            : null;
+    if (topN == null) {
+      topN = getTopN(numberOfReplicas, allActives);
+    }
+    LOG.log(Level.FINE, "{0} regions: {1} top: {2} lookups: {3} updates: {4} replicas: {5}",
+            new Object[]{this.name, this.sketch, topN, lookupCount, updateCount, numberOfReplicas});
+
+    List<InetAddress> ipAddrs = LocationBasedDemandProfile.pickNewActiveReplicas(numberOfReplicas,
+            currentActives, topN, allActives);
+    return LocationBasedDemandProfile.toActiveNames(curActives, activesMap, ipAddrs, numberOfReplicas);
+  }
+
+  /**
+   * Returns the active replicas closest to the regions with the most
+   * requests, by the number of requests from the regions closest to each.
+   *
+   * @param n
+   * @param allActives
+   * @return at most n active replicas
+   */
+  private ArrayList<InetAddress> getTopN(int n, List<InetAddress> allActives) {
+    Map<InetAddress, Integer> votes = new HashMap<>();
+    for (int i = 0; i < this.sketch.size(); i++) {
+      votes.merge(LocationBasedDemandProfile.findActiveReplicaClosestToSender(this.sketch.getAddress(i), allActives),
+              this.sketch.getCount(i), Integer::sum);
+    }
+    ArrayList<InetAddress> result = new ArrayList<>();
+    for (Map.Entry<InetAddress, Integer> entry : Util.sortByValueDecreasing(votes).entrySet()) {
+      if (result.size() >= n) {
+        break;
+      }
+      result.add(entry.getKey());
+    }
+    return result;
+  }
+
+  /**
+   * Returns the request rate.
+   *
+   * @return the request rate
+   */
+  public double getRequestRate() {
+    return this.interArrivalTime > 0 ? 1.0 / this.interArrivalTime
+            : 1.0 / (this.interArrivalTime + 1000);
+  }
+
+  /**
+   * @return the sketch of the regions the requests came from
+   */
+  public SenderRegionSketch getSketch() {
+    return this.sketch;
+  }
+
+  @Override
+  public String toString() {
+    return "CompactDemandProfile{" + "interArrivalTime="
+            + interArrivalTime + ", lastRequestTime=" + lastRequestTime
+            + ", numRequests=" + numRequests + ", numTotalRequests=" + numTotalRequests
+            + ", regions=" + sketch + ", lookupCount=" + lookupCount + ", updateCount=" + updateCount + '}';
+  }
+}
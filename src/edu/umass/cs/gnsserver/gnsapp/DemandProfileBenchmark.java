@@ -0,0 +1,174 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import java.lang.reflect.Proxy;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Function;
+
+import org.json.JSONException;
+
+import com.google.common.net.InetAddresses;
+
+import edu.umass.cs.gnsclient.client.CommandUtils;
+import edu.umass.cs.gnscommon.CommandType;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.packets.CommandPacket;
+import edu.umass.cs.gnscommon.utils.Format;
+import edu.umass.cs.reconfiguration.interfaces.ReconfigurableAppInfo;
+import edu.umass.cs.reconfiguration.reconfigurationutils.AbstractDemandProfile;
+
+/**
+ * Measures the time that {@link LocationBasedDemandProfile} and
+ * {@link CompactDemandProfile} take per request, including a report and a
+ * combine at the reconfigurator every
+ * {@link LocationBasedDemandProfile#NUMBER_OF_REQUESTS_BETWEEN_REPORTS}
+ * requests, and the heap each takes per name.
+ *
+ * The requests are reads of a number of names from senders spread over a
+ * number of /24 regions, with 10 active replicas.
+ *
+ * Typical incantation:
+ *
+ java -cp jars/GNS.jar edu.umass.cs.gnsserver.gnsapp.DemandProfileBenchmark 100000 1000 5000000
+ *
+ * @author westy
+ */
+public class DemandProfileBenchmark {
+
+  private static final int NUM_ACTIVES = 10;
+  private static final int NUM_SENDERS = 4096;
+
+  /**
+   * Run the benchmark.
+   *
+   * @param args the number of names, the number of sender regions and the
+   * number of requests, all optional
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    int numNames = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    int numRegions = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+    int numRequests = args.length > 2 ? Integer.parseInt(args[2]) : 5000000;
+
+    ReconfigurableAppInfo nodeConfig = getNodeConfig();
+    Random random = new Random(1);
+    InetAddress[] senders = new InetAddress[NUM_SENDERS];
+    for (int i = 0; i < senders.length; i++) {
+      senders[i] = InetAddresses.fromInteger((random.nextInt(numRegions) << 8) + 0x0A000000 + random.nextInt(256));
+    }
+    // fewer names than requests, so that most names get many requests
+    int numRequestNames = Math.min(numNames, 1000);
+    CommandPacket[] requests = new CommandPacket[numRequestNames];
+    for (int i = 0; i < requests.length; i++) {
+      requests[i] = new CommandPacket(i, CommandUtils.createCommand(CommandType.ReadUnsigned,
+              GNSProtocol.GUID.toString(), "name" + i, GNSProtocol.FIELD.toString(), "field"));
+    }
+
+    for (int round = 0; round < 2; round++) {
+      // the first round warms up
+      report("LocationBasedDemandProfile", round,
+              time(LocationBasedDemandProfile::new, requests, senders, nodeConfig, numRequests),
+              memory(LocationBasedDemandProfile::new, numNames, senders, nodeConfig));
+      report("CompactDemandProfile", round,
+              time(CompactDemandProfile::new, requests, senders, nodeConfig, numRequests),
+              memory(CompactDemandProfile::new, numNames, senders, nodeConfig));
+    }
+    System.exit(0);
+  }
+
+  private static void report(String type, int round, double nanosPerRequest, double bytesPerName) {
+    if (round > 0) {
+      System.out.println(type + ": ns/request = " + Format.formatTime(nanosPerRequest)
+              + " bytes/name = " + Format.formatTime(bytesPerName));
+    }
+  }
+
+  private static double time(Function<String, AbstractDemandProfile> factory,
+          CommandPacket[] requests, InetAddress[] senders, ReconfigurableAppInfo nodeConfig,
+          int numRequests) throws JSONException {
+    Map<String, AbstractDemandProfile> profiles = new HashMap<>();
+    Map<String, AbstractDemandProfile> aggregates = new HashMap<>();
+    for (CommandPacket request : requests) {
+      profiles.put(request.getServiceName(), factory.apply(request.getServiceName()));
+      aggregates.put(request.getServiceName(), factory.apply(request.getServiceName()));
+    }
+    Random random = new Random(2);
+    long start = System.nanoTime();
+    for (int i = 0; i < numRequests; i++) {
+      CommandPacket request = requests[random.nextInt(requests.length)];
+      AbstractDemandProfile profile = profiles.get(request.getServiceName());
+      if (profile.shouldReportDemandStats(request, senders[random.nextInt(senders.length)], nodeConfig)) {
+        // what the active replica sends and the reconfigurator combines
+        AbstractDemandProfile report = profile instanceof CompactDemandProfile
+                ? new CompactDemandProfile(profile.getDemandStats())
+                : new LocationBasedDemandProfile(profile.getDemandStats());
+        aggregates.get(request.getServiceName()).combine(report);
+        profile.reset();
+      }
+    }
+    return (System.nanoTime() - start) / (double) numRequests;
+  }
+
+  private static double memory(Function<String, AbstractDemandProfile> factory, int numNames,
+          InetAddress[] senders, ReconfigurableAppInfo nodeConfig) throws JSONException {
+    CommandPacket request = new CommandPacket(0, CommandUtils.createCommand(CommandType.ReadUnsigned,
+            GNSProtocol.GUID.toString(), "name", GNSProtocol.FIELD.toString(), "field"));
+    Random random = new Random(3);
+    long before = usedMemory();
+    AbstractDemandProfile[] profiles = new AbstractDemandProfile[numNames];
+    for (int i = 0; i < numNames; i++) {
+      profiles[i] = factory.apply("name");
+      // short of a report, so each name holds as many senders as it gets
+      for (int j = 0; j < LocationBasedDemandProfile.NUMBER_OF_REQUESTS_BETWEEN_REPORTS - 1; j++) {
+        profiles[i].shouldReportDemandStats(request, senders[random.nextInt(senders.length)], nodeConfig);
+      }
+    }
+    double bytes = (usedMemory() - before) / (double) numNames;
+    // keeps the profiles reachable until measured
+    return profiles.length > 0 ? bytes : 0;
+  }
+
+  private static long usedMemory() {
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+  }
+
+  /**
+   * Only {@link ReconfigurableAppInfo#getAllActiveReplicas()} is used by the
+   * profiles.
+   */
+  private static ReconfigurableAppInfo getNodeConfig() {
+    Map<String, InetSocketAddress> actives = new HashMap<>();
+    for (int i = 0; i < NUM_ACTIVES; i++) {
+      actives.put("active" + i, new InetSocketAddress(
+              InetAddresses.fromInteger(0x0A000000 + (i << 20) + 1), 24403));
+    }
+    return (ReconfigurableAppInfo) Proxy.newProxyInstance(ReconfigurableAppInfo.class.getClassLoader(),
+            new Class<?>[]{ReconfigurableAppInfo.class},
+            (proxy, method, methodArgs) -> method.getName().equals("getAllActiveReplicas") ? actives : null);
+  }
+}
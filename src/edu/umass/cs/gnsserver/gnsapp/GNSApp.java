@@ -51,6 +51,7 @@ import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnscommon.packets.AdminCommandPacket;
 import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnscommon.packets.ResponsePacket;
+import edu.umass.cs.gnscommon.utils.RequestTracer;
 import edu.umass.cs.gnsserver.activecode.ActiveCodeHandler;
 import edu.umass.cs.gnsserver.database.ColumnField;
 import edu.umass.cs.gnsserver.database.MongoRecords;
@@ -68,6 +69,7 @@ import edu.umass.cs.gnsserver.gnsapp.packet.InternalCommandPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet.PacketType;
 import edu.umass.cs.gnsserver.gnsapp.packet.PacketInterface;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectInvalidationPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectResponsePacket;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.BasicRecordMap;
@@ -132,6 +134,11 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
   private static boolean enqueueCommand() {
     return false;
   }
+  /**
+   * Admission control of requests, null if disabled
+   */
+  private final RequestScheduler scheduler = Config
+          .getGlobalBoolean(GNSConfig.GNSC.ENABLE_REQUEST_SCHEDULER) ? new RequestScheduler() : null;
   /**
    * Active code handler
    */
@@ -257,7 +264,7 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
   }
 
   private static final PacketType[] PACKET_TYPES = {PacketType.COMMAND,
-    PacketType.SELECT_REQUEST, PacketType.SELECT_RESPONSE,
+    PacketType.SELECT_REQUEST, PacketType.SELECT_RESPONSE, PacketType.SELECT_INVALIDATION,
     PacketType.INTERNAL_COMMAND};
 
   private static final PacketType[] MUTUAL_AUTH_TYPES = {PacketType.ADMIN_COMMAND};
@@ -324,8 +331,14 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
     try {
       Packet.PacketType packetType = request.getRequestType() instanceof Packet.PacketType ? (Packet.PacketType) request
               .getRequestType() : null;
-      GNSConfig.getLogger().log(Level.FINE, "{0} starting execute({1}) doNotReplyToClient={2}",
-              new Object[]{this, request.getSummary(), doNotReplyToClient});
+      long requestID = request instanceof RequestIdentifier
+              ? ((RequestIdentifier) request).getRequestID() : 0;
+      boolean traced = RequestTracer.isTraced(GNSConfig.getLogger(), Level.FINE, requestID);
+      if (traced) {
+        RequestTracer.trace(GNSConfig.getLogger(), Level.FINE, requestID,
+                "{0} starting execute({1}) doNotReplyToClient={2}",
+                this, request.getSummary(), doNotReplyToClient);
+      }
       Request prev = null;
       // arun: enqueue request, dequeue before returning
       if (request instanceof RequestIdentifier) {
@@ -357,40 +370,57 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
       }
 
 
-      switch (packetType) {
-        case SELECT_REQUEST:
-          getSelector().handleSelectRequest((SelectRequestPacket) request, this);
-          break;
-        case SELECT_RESPONSE:
-        	getSelector().handleSelectResponse((SelectResponsePacket) request, this);
-          break;
-        case COMMAND:
-          CommandHandler.handleCommandPacket((CommandPacket) request, doNotReplyToClient, this);
-          break;
-        case ADMIN_COMMAND:
-          CommandHandler.handleCommandPacket((AdminCommandPacket) request, doNotReplyToClient, this);
-          break;
-        default:
-          assert (false) : (this
-                  + " should not be getting packets of type "
-                  + packetType + "; exiting");
-          GNSConfig.getLogger().log(Level.SEVERE, " Packet type not found: {0}", request.getSummary());
-          return false;
+      RequestScheduler.RequestClass requestClass = RequestScheduler.classify(request);
+      long startTime = scheduler != null
+              ? scheduler.acquire(requestClass, RequestScheduler.isSheddable(request)) : 0;
+      if (startTime < 0) {
+        rejectOverloaded(request, requestClass);
+        return true;
+      }
+      try {
+        switch (packetType) {
+          case SELECT_REQUEST:
+            getSelector().handleSelectRequest((SelectRequestPacket) request, this);
+            break;
+          case SELECT_RESPONSE:
+            getSelector().handleSelectResponse((SelectResponsePacket) request, this);
+            break;
+          case SELECT_INVALIDATION:
+            getSelector().handleSelectInvalidation((SelectInvalidationPacket) request, this);
+            break;
+          case COMMAND:
+            CommandHandler.handleCommandPacket((CommandPacket) request, doNotReplyToClient, this);
+            break;
+          case ADMIN_COMMAND:
+            CommandHandler.handleCommandPacket((AdminCommandPacket) request, doNotReplyToClient, this);
+            break;
+          default:
+            assert (false) : (this
+                    + " should not be getting packets of type "
+                    + packetType + "; exiting");
+            GNSConfig.getLogger().log(Level.SEVERE, " Packet type not found: {0}", request.getSummary());
+            return false;
+        }
+      } finally {
+        if (scheduler != null) {
+          scheduler.release(requestClass, startTime);
+        }
       }
       executed = true;
 
       // arun: always clean up all created state upon exiting
       if (request instanceof RequestIdentifier && prev == null) {
-        GNSConfig.getLogger().log(Level.FINE,
-                "{0} finished execute({1})  ->  {2}",
-                new Object[]{
+        if (traced) {
+          RequestTracer.trace(GNSConfig.getLogger(), Level.FINE, requestID,
+                  "{0} finished execute({1})  ->  {2}",
                   this,
                   request.getSummary(),
                   request instanceof ClientRequest
                   && ((ClientRequest) request)
                   .getResponse() != null ? ((ClientRequest) request)
                           .getResponse().getSummary()
-                          : null});
+                          : null);
+        }
         this.outstanding.remove(((RequestIdentifier) request).getRequestID());
       }
 
@@ -412,6 +442,30 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
     return executed;
   }
 
+  /**
+   * Answers a request shed by the scheduler with {@link ResponseCode#OVERLOAD}.
+   */
+  private void rejectOverloaded(Request request, RequestScheduler.RequestClass requestClass) {
+    GNSConfig.getLogger().log(Level.FINE, "{0} shedding {1} request {2}",
+            new Object[]{this, requestClass, request.getSummary()});
+    // the selects forwarded by other name servers are never shed
+    if (request instanceof BasicPacketWithClientAddress) {
+      ((BasicPacketWithClientAddress) request)
+              .setResponse(new ResponsePacket(request.getServiceName(),
+                      ((RequestIdentifier) request).getRequestID(),
+                      ResponseCode.OVERLOAD,
+                      GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.OVERLOAD.toString()
+                      + " " + requestClass));
+    }
+  }
+
+  /**
+   * @return the request scheduler, or null if admission control is disabled
+   */
+  public RequestScheduler getRequestScheduler() {
+    return scheduler;
+  }
+
   @Override
   public void shutdown() {
     if (localNameServer != null) {
@@ -659,6 +713,7 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
         // the record. If the record does not exists this is just a
         // noop.
         NameRecord.removeNameRecord(nameRecordDB, name);
+        getSelector().handleFieldsUpdated(null, this);
       } else // state does not equal null so we either create a new record
       // or update the existing one
        if (!NameRecord.containsRecord(nameRecordDB, name)) {
@@ -668,6 +723,7 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
             NameRecord nameRecord = new NameRecord(nameRecordDB, name,
                     valuesMap);
             NameRecord.addNameRecord(nameRecordDB, nameRecord);
+            getSelector().handleFieldsUpdated(null, this);
           } catch (RecordExistsException | JSONException e) {
         	  e.printStackTrace();
         	  GNSConfig.getLogger().log(Level.SEVERE,
@@ -678,8 +734,9 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
           try {
             NameRecord nameRecord = NameRecord.getNameRecord(
                     nameRecordDB, name);
-            nameRecord
-                    .updateState(new ValuesMap(new JSONObject(state)));
+            ValuesMap valuesMap = new ValuesMap(new JSONObject(state));
+            nameRecord.updateState(valuesMap);
+            getSelector().handleFieldsUpdated(valuesMap.getKeys(), this);
           } catch (JSONException | FieldNotFoundException | RecordNotFoundException | FailedDBOperationException e) {
             GNSConfig.getLogger().log(Level.SEVERE,
                     "Problem updating name {0} with state {1}: {2}", new Object[]{name, state, e});
@@ -802,16 +859,17 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
                 .setResponse((ClientRequest) response);
         incrResponseCount((ClientRequest) response);
       }
-      GNSConfig
-              .getLogger()
-              .log(Level.FINE,
-                      "{0} set response {1} for requesting client {2} for request {3}",
-                      new Object[]{
-                        this,
-                        response,
-                        ((BasicPacketWithClientAddress) originalRequest)
-                        .getClientAddress(),
-                        originalRequest.getSummary()});
+      if (RequestTracer.isTraced(GNSConfig.getLogger(), Level.FINE,
+              ((RequestIdentifier) response).getRequestID())) {
+        RequestTracer.trace(GNSConfig.getLogger(), Level.FINE,
+                ((RequestIdentifier) response).getRequestID(),
+                "{0} set response {1} for requesting client {2} for request {3}",
+                this,
+                ((ClientRequest) response).getSummary(),
+                ((BasicPacketWithClientAddress) originalRequest)
+                .getClientAddress(),
+                originalRequest.getSummary());
+      }
       return;
     } // else
   }
@@ -825,7 +883,6 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
   @Override
   public void sendToClient(CommandPacket originalRequest, Request response, JSONObject responseJSON)
           throws IOException {
-     GNSConfig.getLogger().log(Level.FINE, "sendToClient");
     if (DELEGATE_CLIENT_MESSAGING) {
       if (enqueueCommand()) {
         this.outstanding.remove(((RequestIdentifier) response)
@@ -839,16 +896,17 @@ public class GNSApp extends AbstractReconfigurablePaxosApp<String> implements
               .setResponse((ClientRequest) response);
       incrResponseCount((ClientRequest) response);
 
-      GNSConfig
-              .getLogger()
-              .log(Level.FINE,
-                      "{0} set response {1} for requesting client {2} for request {3}",
-                      new Object[]{
-                        this,
-                        response.getSummary(),
-                        ((BasicPacketWithClientAddress) originalRequest)
-                        .getClientAddress(),
-                        originalRequest.getSummary()});
+      if (RequestTracer.isTraced(GNSConfig.getLogger(), Level.FINE,
+              originalRequest.getRequestID())) {
+        RequestTracer.trace(GNSConfig.getLogger(), Level.FINE,
+                originalRequest.getRequestID(),
+                "{0} set response {1} for requesting client {2} for request {3}",
+                this,
+                response.getSummary(),
+                ((BasicPacketWithClientAddress) originalRequest)
+                .getClientAddress(),
+                originalRequest.getSummary());
+      }
       return;
     } // else
   }
@@ -10,6 +10,7 @@ import edu.umass.cs.gnscommon.ResponseCode;
 import edu.umass.cs.gnscommon.exceptions.client.ClientException;
 import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnscommon.packets.PacketUtils;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSFieldAccess;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
 import edu.umass.cs.nio.interfaces.IntegerPacketType;
 import edu.umass.cs.reconfiguration.ReconfigurableAppClientAsync.ReconfigurationException;
@@ -193,6 +194,11 @@ public class GNSClientInternal extends GNSClient {
 	@Override
 	public CommandPacket execute(CommandPacket command) throws IOException,
 			ClientException {
+		if (command.getCommandType().isUpdate()
+				|| command.getCommandType().isCreateDelete())
+			// don't serve stale remote reads of a guid this server changes
+			NSFieldAccess.getRemoteLookup().invalidate(
+					command.getServiceName());
 		return this.execute(command, getTimeout(command));
 	}
 }
@@ -0,0 +1,183 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.maxmind.geoip2.DatabaseReader;
+import com.maxmind.geoip2.exception.GeoIp2Exception;
+import com.maxmind.geoip2.model.CityResponse;
+
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+
+/**
+ * Locates addresses with the GeoLite2 City database, the same database the
+ * active code uses through
+ * {@link edu.umass.cs.gnsserver.activecode.prototype.utils.GeoIPUtils}, and
+ * estimates the round trip time between two locations from the great circle
+ * distance between them.
+ *
+ * @author westy
+ */
+public class GeoLocator {
+
+  private static final Logger LOG = Logger.getLogger(GeoLocator.class.getName());
+
+  private static final double EARTH_RADIUS_KM = 6371;
+  /**
+   * The km of great circle distance per ms of round trip time, roughly that
+   * of light in fiber over the longer paths that routes take.
+   */
+  public static final double KM_PER_RTT_MS = 100;
+
+  // the most locations cached, each about a hundred bytes
+  private static final int MAX_CACHED = 100000;
+  private static final double[] UNKNOWN = new double[0];
+
+  private final DatabaseReader reader;
+  // address -> {latitude, longitude}, or UNKNOWN, least recently used first
+  private final Map<InetAddress, double[]> locations = new LinkedHashMap<InetAddress, double[]>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<InetAddress, double[]> eldest) {
+      return size() > MAX_CACHED;
+    }
+  };
+
+  /**
+   * @param reader
+   */
+  public GeoLocator(DatabaseReader reader) {
+    this.reader = reader;
+  }
+
+  /**
+   * @return the locator of {@link GNSConfig.GNSC#GEOIP_DATABASE_FILE}, or
+   * null if there is no such database
+   */
+  public static GeoLocator getInstance() {
+    return Holder.INSTANCE;
+  }
+
+  // loaded on the first call of getInstance
+  private static class Holder {
+
+    private static final GeoLocator INSTANCE = load();
+  }
+
+  private static GeoLocator load() {
+    File database = new File(Config.getGlobalString(GNSConfig.GNSC.GEOIP_DATABASE_FILE));
+    if (database.isFile()) {
+      try {
+        return new GeoLocator(new DatabaseReader.Builder(database).build());
+      } catch (IOException e) {
+        LOG.log(Level.WARNING, "Unable to read GeoIP database {0}: {1}", new Object[]{database, e});
+      }
+    } else {
+      LOG.log(Level.INFO, "No GeoIP database at {0}; placing replicas by address", database);
+    }
+    return null;
+  }
+
+  /**
+   * @param address
+   * @return the latitude and longitude of {@code address}, or null if it
+   * can not be located
+   */
+  public double[] locate(InetAddress address) {
+    double[] location;
+    synchronized (locations) {
+      location = locations.get(address);
+    }
+    if (location == null) {
+      location = UNKNOWN;
+      try {
+        CityResponse response = reader.city(address);
+        if (response.getLocation() != null && response.getLocation().getLatitude() != null
+                && response.getLocation().getLongitude() != null) {
+          location = new double[]{response.getLocation().getLatitude(),
+            response.getLocation().getLongitude()};
+        }
+      } catch (IOException | GeoIp2Exception e) {
+        // private and unknown addresses are not in the database
+      }
+      synchronized (locations) {
+        locations.put(address, location);
+      }
+    }
+    return location != UNKNOWN ? location : null;
+  }
+
+  /**
+   * @param sender
+   * @param actives
+   * @return the located active replica nearest to {@code sender}, or null if
+   * {@code sender} or none of {@code actives} can be located
+   */
+  public InetAddress getNearest(InetAddress sender, List<InetAddress> actives) {
+    double[] from = locate(sender);
+    if (from == null) {
+      return null;
+    }
+    InetAddress nearest = null;
+    double minDistance = Double.MAX_VALUE;
+    for (InetAddress active : actives) {
+      double[] to = locate(active);
+      if (to == null) {
+        continue;
+      }
+      double distance = getDistance(from, to);
+      if (distance < minDistance) {
+        nearest = active;
+        minDistance = distance;
+      }
+    }
+    return nearest;
+  }
+
+  /**
+   * @param a latitude and longitude
+   * @param b latitude and longitude
+   * @return the great circle distance in km
+   */
+  public static double getDistance(double[] a, double[] b) {
+    double dLat = Math.toRadians(b[0] - a[0]);
+    double dLon = Math.toRadians(b[1] - a[1]);
+    double h = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(a[0])) * Math.cos(Math.toRadians(b[0]))
+            * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+    return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(h)));
+  }
+
+  /**
+   * @param km
+   * @return the estimated round trip time in ms over {@code km}
+   */
+  public static double getRoundTripTime(double km) {
+    return km / KM_PER_RTT_MS;
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Picks the active replicas of a name that minimize the expected round trip
+ * time of its requests, given the number of requests from each region.
+ *
+ * The regions and the active replicas are located with a
+ * {@link GeoLocator}, and each request is expected to go to the replica
+ * nearest to its region. Picking the best set of k replicas is the k-median
+ * problem, so the replicas are picked greedily: each in turn is the one that
+ * lowers the total expected round trip time the most, preferring the current
+ * replicas on ties so that names do not move for nothing.
+ *
+ * @author westy
+ */
+public class GeoReplicaPlacement {
+
+  private final GeoLocator locator;
+
+  /**
+   * @param locator
+   */
+  public GeoReplicaPlacement(GeoLocator locator) {
+    this.locator = locator;
+  }
+
+  /**
+   * @param numReplicas
+   * @param demand the requests by region
+   * @param curActives
+   * @param allActives
+   * @return at most {@code numReplicas} of the located active replicas, best
+   * first, or null if no region with requests or no active replica can be
+   * located
+   */
+  public ArrayList<InetAddress> pick(int numReplicas, SenderRegionSketch demand,
+          List<InetAddress> curActives, List<InetAddress> allActives) {
+    List<double[]> regions = new ArrayList<>();
+    List<Integer> weights = new ArrayList<>();
+    for (int i = 0; i < demand.size(); i++) {
+      double[] location = locator.locate(demand.getAddress(i));
+      if (location != null) {
+        regions.add(location);
+        weights.add(demand.getCount(i));
+      }
+    }
+    List<InetAddress> actives = new ArrayList<>();
+    List<double[]> activeLocations = new ArrayList<>();
+    for (InetAddress active : allActives) {
+      double[] location = locator.locate(active);
+      if (location != null && !actives.contains(active)) {
+        actives.add(active);
+        activeLocations.add(location);
+      }
+    }
+    if (regions.isEmpty() || actives.isEmpty()) {
+      return null;
+    }
+
+    // round trip times from each region to each active replica
+    double[][] rtt = new double[regions.size()][actives.size()];
+    for (int r = 0; r < regions.size(); r++) {
+      for (int a = 0; a < actives.size(); a++) {
+        rtt[r][a] = GeoLocator.getRoundTripTime(GeoLocator.getDistance(regions.get(r), activeLocations.get(a)));
+      }
+    }
+    // the round trip time from each region to the nearest replica picked so far
+    double[] nearest = new double[regions.size()];
+    Arrays.fill(nearest, Double.MAX_VALUE);
+    boolean[] picked = new boolean[actives.size()];
+    ArrayList<InetAddress> result = new ArrayList<>();
+    while (result.size() < Math.min(numReplicas, actives.size())) {
+      int best = -1;
+      double bestCost = Double.MAX_VALUE;
+      for (int a = 0; a < actives.size(); a++) {
+        if (picked[a]) {
+          continue;
+        }
+        double cost = 0;
+        for (int r = 0; r < regions.size(); r++) {
+          cost += weights.get(r) * Math.min(nearest[r], rtt[r][a]);
+        }
+        if (best < 0 || cost < bestCost
+                || (cost == bestCost && curActives.contains(actives.get(a))
+                && !curActives.contains(actives.get(best)))) {
+          best = a;
+          bestCost = cost;
+        }
+      }
+      picked[best] = true;
+      result.add(actives.get(best));
+      for (int r = 0; r < regions.size(); r++) {
+        nearest[r] = Math.min(nearest[r], rtt[r][best]);
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @param replicas
+   * @param demand the requests by region
+   * @return the mean round trip time in ms from the located requests to
+   * the nearest of the located {@code replicas}, or NaN if there are none
+   */
+  public double getExpectedRoundTripTime(Collection<InetAddress> replicas, SenderRegionSketch demand) {
+    List<double[]> locations = new ArrayList<>();
+    for (InetAddress replica : replicas) {
+      double[] location = locator.locate(replica);
+      if (location != null) {
+        locations.add(location);
+      }
+    }
+    double total = 0;
+    long requests = 0;
+    for (int i = 0; i < demand.size() && !locations.isEmpty(); i++) {
+      double[] region = locator.locate(demand.getAddress(i));
+      if (region == null) {
+        continue;
+      }
+      double min = Double.MAX_VALUE;
+      for (double[] location : locations) {
+        min = Math.min(min, GeoLocator.getDistance(region, location));
+      }
+      total += demand.getCount(i) * GeoLocator.getRoundTripTime(min);
+      requests += demand.getCount(i);
+    }
+    return requests > 0 ? total / requests : Double.NaN;
+  }
+}
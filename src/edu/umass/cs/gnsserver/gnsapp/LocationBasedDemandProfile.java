@@ -117,15 +117,15 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
   /**
    * Only report this often.
    */
-  private static final int NUMBER_OF_REQUESTS_BETWEEN_REPORTS = 100;
+  static final int NUMBER_OF_REQUESTS_BETWEEN_REPORTS = 100;
   /**
    * Don't reconfigure more often than this time interval. Both of these need to be satisfied.
    */
-  private static final long MIN_RECONFIGURATION_INTERVAL = 60000; // milleseconds
+  static final long MIN_RECONFIGURATION_INTERVAL = 60000; // milleseconds
   /**
    * Don't reconfigure more often than this many requests. Both of these need to be satisfied.
    */
-  private static final long NUMBER_OF_REQUESTS_BETWEEN_RECONFIGURATIONS = 1000;
+  static final long NUMBER_OF_REQUESTS_BETWEEN_RECONFIGURATIONS = 1000;
 
   private double interArrivalTime = 0.0;
   private long lastRequestTime = 0;
@@ -220,7 +220,7 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
    * @param request
    * @return true if it should be ignore
    */
-  private static boolean shouldIgnore(Request request) {
+  static boolean shouldIgnore(Request request) {
     if (!(request instanceof CommandPacket)) {
       return true;
     }
@@ -261,7 +261,8 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
     }
 
     if (sender != null) { // should not happen, but just in case
-      this.votesMap.increment(findActiveReplicaClosestToSender(sender, toInetAddresses(nodeConfig.getAllActiveReplicas().values())));
+      // kept cheap as it runs for every request, see CompactDemandProfile for placement by location
+      this.votesMap.increment(findActiveReplicaClosestByAddress(sender, toInetAddresses(nodeConfig.getAllActiveReplicas().values())));
     }
 
     if (request instanceof ReplicableRequest
@@ -276,7 +277,7 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
 
   }
   
-	private static ArrayList<InetAddress> toInetAddresses(
+	static ArrayList<InetAddress> toInetAddresses(
 			Collection<InetSocketAddress> sockAddrs) {
 		ArrayList<InetAddress> ipAddrs = new ArrayList<InetAddress>();
 		for (InetSocketAddress sockAddr : sockAddrs)
@@ -284,7 +285,19 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
 		return ipAddrs;
 	}
 
-  private InetAddress findActiveReplicaClosestToSender(InetAddress sender, List<InetAddress> allActives) {
+  /**
+   * Locates the sender and the actives, so only used at reconfiguration.
+   */
+  static InetAddress findActiveReplicaClosestToSender(InetAddress sender, List<InetAddress> allActives) {
+    GeoLocator locator = GeoLocator.getInstance();
+    InetAddress nearest = locator != null ? locator.getNearest(sender, allActives) : null;
+    return nearest != null ? nearest : findActiveReplicaClosestByAddress(sender, allActives);
+  }
+
+  /**
+   * Also used when the sender or the actives can not be located.
+   */
+  static InetAddress findActiveReplicaClosestByAddress(InetAddress sender, List<InetAddress> allActives) {
     assert !allActives.isEmpty();
     InetAddress closest = allActives.get(0);
     int minDistance = Integer.MAX_VALUE;
@@ -299,7 +312,7 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
   }
 
   // TODO: arun: should use better IP-to-geo techniques here.
-  private int distanceBetween(InetAddress one, InetAddress two) {
+  private static int distanceBetween(InetAddress one, InetAddress two) {
     int result;
     try {
       // Probably a stupid matcher but it gets close.
@@ -397,10 +410,22 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
     List<InetAddress> ipAddrs = pickNewActiveReplicas(numberOfReplicas, toInetAddresses(curActives, nodeConfig.getAllActiveReplicas()),
             this.votesMap.getTopN(numberOfReplicas),
             toInetAddresses(nodeConfig.getAllActiveReplicas().values()));
-    
-    // convert ipAddrs to Set<String>
+    return toActiveNames(curActives, nodeConfig.getAllActiveReplicas(), ipAddrs, numberOfReplicas);
+  }
+
+  /**
+   * Converts the addresses of the new active replicas to their names,
+   * preferring the current active replicas at an address.
+   *
+   * @param curActives
+   * @param activesMap
+   * @param ipAddrs
+   * @param numberOfReplicas
+   * @return the names of the new active replicas
+   */
+  static Set<String> toActiveNames(Set<String> curActives, Map<String, InetSocketAddress> activesMap,
+          List<InetAddress> ipAddrs, int numberOfReplicas) {
     Set<String> newActives = new HashSet<String>();
-    Map<String, InetSocketAddress> activesMap = nodeConfig.getAllActiveReplicas();
     for(String curActive : curActives) {
     	if(activesMap.containsKey(curActive) && ipAddrs.contains(activesMap.get(curActive).getAddress()))
     		newActives.add(curActive);
@@ -414,10 +439,9 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
     		break;
     }
     return newActives;
-
   }
   
-  private static ArrayList<InetAddress> toInetAddresses(Set<String> actives, Map<String,InetSocketAddress> map) {
+  static ArrayList<InetAddress> toInetAddresses(Set<String> actives, Map<String,InetSocketAddress> map) {
 		ArrayList<InetAddress> ipAddrs = new ArrayList<InetAddress>();
 		for (String active : actives)
 			ipAddrs.add(map.get(active).getAddress());
@@ -436,7 +460,7 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
    * @return a list of InetSocketAddress
    */
   // NEED TO PICK A FRACTIONAL AMOUNT FOR LOCALITY-BASED ONES
-  private ArrayList<InetAddress> pickNewActiveReplicas(int numReplica, ArrayList<InetAddress> curActives,
+  static ArrayList<InetAddress> pickNewActiveReplicas(int numReplica, ArrayList<InetAddress> curActives,
           ArrayList<InetAddress> topN, ArrayList<InetAddress> allActives) {
 
     // If we need more replicas than we have just return them all
@@ -500,7 +524,7 @@ public class LocationBasedDemandProfile extends AbstractDemandProfile {
    * Otherwise returns a value in the range {@link edu.umass.cs.utils.Config.Config#minReplica} and
    * {@link edu.umass.cs.utils.Config.Config#maxReplica}.
    */
-  private int computeNumberOfReplicas(int lookupCount, int updateCount, int actualReplicasCount) {
+  static int computeNumberOfReplicas(int lookupCount, int updateCount, int actualReplicasCount) {
 
     if (updateCount == 0) {
       // no updates, replicate everywhere.
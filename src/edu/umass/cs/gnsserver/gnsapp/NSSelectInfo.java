@@ -22,9 +22,11 @@ package edu.umass.cs.gnsserver.gnsapp;
 import edu.umass.cs.gnscommon.packets.commandreply.NotificationStatsToIssuer;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectOperation;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectResponsePacket;
 
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
+import org.json.JSONException;
 import org.json.JSONObject;
 
 
@@ -32,11 +34,18 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class represents a data structure to store information
  * about Select operations performed on the GNS.
+ *
+ * The responses of the servers are tracked without locking: the server
+ * whose response brings the number of pending servers to zero is the one
+ * that completes the query, and the query result is handed to the request
+ * path through {@link #getFuture()}.
  */
 public class NSSelectInfo {
 
@@ -49,10 +58,15 @@ public class NSSelectInfo {
   private final Set<InetSocketAddress> allServers;
 
   private final Set<InetSocketAddress> serversToBeProcessed; // the list of servers that have yet to be processed
+  private final AtomicInteger numToBeProcessed;
+  private final CompletableFuture<SelectResponsePacket> future = new CompletableFuture<>();
   private final ConcurrentHashMap<String, JSONObject> recordResponses;
   
   private final List<NotificationStatsToIssuer> notificationStatusList;
   
+  // merges the partial aggregates of a select with an aggregation other than a limit
+  private final SelectAggregator aggregator;
+  
 
   /**
    * NSSelectInfo constructor.
@@ -66,14 +80,17 @@ public class NSSelectInfo {
 	  this.queryId = id;
   	  this.selectPacket = selectPacket;
   		
-  	  this.serversToBeProcessed = new HashSet<InetSocketAddress>();
+  	  this.serversToBeProcessed = ConcurrentHashMap.newKeySet();
   	  this.serversToBeProcessed.addAll(serverIds);
+  	  this.numToBeProcessed = new AtomicInteger(this.serversToBeProcessed.size());
       
   	  this.allServers = new HashSet<InetSocketAddress>();
   	  this.allServers.addAll(serverIds);
       
   	  this.recordResponses = new ConcurrentHashMap<String, JSONObject>();
   	  this.notificationStatusList = new LinkedList<NotificationStatsToIssuer>();
+  	  this.aggregator = selectPacket.getAggregation() != null 
+  			  && selectPacket.getAggregation().isPartial() ? new SelectAggregator(selectPacket) : null;
   }
   
   	/**
@@ -89,9 +106,12 @@ public class NSSelectInfo {
   	 * Removes the server if from the list of servers that have yet to be processed.
   	 * 
   	 * @param address
+  	 * @return true if this was the last server to respond, which happens
+  	 * exactly once even if the responses arrive concurrently
   	 */
-  	public void removeServerAddress(InetSocketAddress address) {
-  		serversToBeProcessed.remove(address);
+  	public boolean removeServerAddress(InetSocketAddress address) {
+  		return serversToBeProcessed.remove(address)
+  				&& numToBeProcessed.decrementAndGet() == 0;
   	}
   	
   	/**
@@ -102,13 +122,88 @@ public class NSSelectInfo {
   		return serversToBeProcessed;
   	}
 
+  /**
+   * Gives up on the servers that have not responded yet and expects a
+   * second response from each server that has, so that they can return
+   * the records the failed servers were responsible for.
+   * Does nothing if no server has responded yet.
+   *
+   * @return the servers given up on
+   */
+  public synchronized Set<InetSocketAddress> failOver() {
+	  Set<InetSocketAddress> failed = new HashSet<InetSocketAddress>();
+	  Set<InetSocketAddress> responded = new HashSet<InetSocketAddress>(allServers);
+	  responded.removeAll(serversToBeProcessed);
+	  if (responded.isEmpty() || allServersResponded()) {
+		  return failed;
+	  }
+	  // count the second responses first so that the count can't reach zero below
+	  numToBeProcessed.addAndGet(responded.size());
+	  Set<InetSocketAddress> pending = new HashSet<InetSocketAddress>(serversToBeProcessed);
+	  serversToBeProcessed.addAll(responded);
+	  for (InetSocketAddress address : pending) {
+		  // a server may respond concurrently, in which case it is not given up on
+		  if (serversToBeProcessed.remove(address)) {
+			  numToBeProcessed.decrementAndGet();
+			  failed.add(address);
+		  }
+	  }
+	  return failed;
+  }
+
+  /**
+   * Merges the partial aggregate of a server and removes the server from
+   * the servers that have yet to be processed. The partial aggregate of a
+   * server that is not expected to respond, e.g., one that was given up on
+   * by {@link #failOver()}, is ignored, as its records have been counted by
+   * other servers.
+   *
+   * @param address
+   * @param partial
+   * @return true if this was the last server to respond
+   * @throws JSONException
+   */
+  public synchronized boolean mergeAggregate(InetSocketAddress address, JSONObject partial)
+		  throws JSONException {
+	  if (!serversToBeProcessed.contains(address)) {
+		  return false;
+	  }
+	  aggregator.merge(partial);
+	  return removeServerAddress(address);
+  }
+
+  /**
+   * @return the aggregator of the partial aggregates, or null if the
+   * select has no aggregation or is a limit
+   */
+  public SelectAggregator getAggregator() {
+	  return aggregator;
+  }
+
   /**
    * Returns true if all the names servers have responded.
    *
    * @return true if all the names servers have responded
    */
   public boolean allServersResponded() {
-    return serversToBeProcessed.isEmpty();
+    return numToBeProcessed.get() == 0;
+  }
+
+  /**
+   * @return the future completed with the response of the query
+   */
+  public CompletableFuture<SelectResponsePacket> getFuture() {
+    return future;
+  }
+
+  /**
+   * Completes the query with {@code response} unless it is already complete.
+   *
+   * @param response
+   * @return true if this call completed the query
+   */
+  public boolean complete(SelectResponsePacket response) {
+    return future.complete(response);
   }
 
   /**
@@ -119,12 +214,7 @@ public class NSSelectInfo {
    * @return true if the response was not seen yet, false otherwise
    */
   public boolean addRecordResponseIfNotSeenYet(String name, JSONObject json) {
-	  if (!recordResponses.containsKey(name)) {
-		  recordResponses.put(name, json);
-		  return true;
-    } else {
-      return false;
-    }
+	  return recordResponses.putIfAbsent(name, json) == null;
   }
   
   /**
@@ -0,0 +1,198 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.net.InetAddresses;
+import com.maxmind.geoip2.DatabaseReader;
+
+import edu.umass.cs.gnscommon.utils.Format;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnsserver.utils.Util;
+import edu.umass.cs.utils.Config;
+
+/**
+ * Replays recorded demand offline and compares the expected round trip time
+ * of the requests under the replica placement policies:
+ * <ul>
+ * <li>none: each name keeps the minimum number of replicas it starts with
+ * <li>address: each region votes for the active replica closest by address,
+ * as {@link LocationBasedDemandProfile} does
+ * <li>geo: {@link GeoReplicaPlacement}
+ * </ul>
+ * Each name gets the number of replicas that
+ * {@link LocationBasedDemandProfile} would give it for its lookups and
+ * updates. The round trip times are estimated from the GeoIP locations, see
+ * {@link GeoLocator#getRoundTripTime(double)}.
+ *
+ * The demand file has one request per line: the name, the address of the
+ * sender and R for a lookup or W for an update, separated by commas. Lines
+ * that start with # are ignored.
+ *
+ * Typical incantation:
+ *
+ java -cp jars/GNS.jar edu.umass.cs.gnsserver.gnsapp.PlacementSimulator demand.csv 10.0.0.1,10.1.0.1,10.2.0.1 conf/activeCode/GeoLite2-City.mmdb
+ *
+ * @author westy
+ */
+public class PlacementSimulator {
+
+  // large enough to count every region of a name exactly
+  private static final int REGIONS_PER_NAME = 4096;
+
+  private static class Demand {
+
+    private final SenderRegionSketch regions = new SenderRegionSketch(REGIONS_PER_NAME);
+    private int lookupCount = 0;
+    private int updateCount = 0;
+  }
+
+  /**
+   * Run the simulator.
+   *
+   * @param args the demand file, the addresses of the active replicas
+   * separated by commas and, optionally, the GeoIP database file
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.out.println("Usage: PlacementSimulator <demand file> <active,active,...> [GeoIP database file]");
+      System.exit(1);
+    }
+    ArrayList<InetAddress> allActives = new ArrayList<>();
+    for (String active : args[1].split(",")) {
+      allActives.add(InetAddresses.forString(active.trim()));
+    }
+    File database = new File(args.length > 2 ? args[2]
+            : Config.getGlobalString(GNSConfig.GNSC.GEOIP_DATABASE_FILE));
+    GeoReplicaPlacement placement = new GeoReplicaPlacement(
+            new GeoLocator(new DatabaseReader.Builder(database).build()));
+
+    Map<String, Demand> demands = readDemand(new File(args[0]));
+    String[] policies = {"none", "address", "geo"};
+    double[] totalTime = new double[policies.length];
+    long[] totalRequests = new long[policies.length];
+    long[] totalReplicas = new long[policies.length];
+    for (Map.Entry<String, Demand> entry : demands.entrySet()) {
+      Demand demand = entry.getValue();
+      int numberOfReplicas = LocationBasedDemandProfile.computeNumberOfReplicas(
+              demand.lookupCount, demand.updateCount, allActives.size());
+      ArrayList<InetAddress> curActives = getInitialActives(entry.getKey(), allActives);
+      for (int p = 0; p < policies.length; p++) {
+        ArrayList<InetAddress> actives;
+        switch (policies[p]) {
+          case "address":
+            actives = LocationBasedDemandProfile.pickNewActiveReplicas(numberOfReplicas, curActives,
+                    getTopNByAddress(numberOfReplicas, demand.regions, allActives), allActives);
+            break;
+          case "geo":
+            ArrayList<InetAddress> topN = placement.pick(numberOfReplicas, demand.regions, curActives, allActives);
+            actives = LocationBasedDemandProfile.pickNewActiveReplicas(numberOfReplicas, curActives,
+                    topN != null ? topN : new ArrayList<>(), allActives);
+            break;
+          default:
+            actives = curActives;
+        }
+        double time = placement.getExpectedRoundTripTime(actives, demand.regions);
+        if (!Double.isNaN(time)) {
+          int requests = demand.lookupCount + demand.updateCount;
+          totalTime[p] += time * requests;
+          totalRequests[p] += requests;
+        }
+        totalReplicas[p] += actives.size();
+      }
+    }
+
+    System.out.println(demands.size() + " names, " + allActives.size() + " active replicas");
+    for (int p = 0; p < policies.length; p++) {
+      System.out.println(policies[p] + ": expected rtt = "
+              + (totalRequests[p] > 0 ? Format.formatTime(totalTime[p] / totalRequests[p]) + "ms" : "unknown")
+              + " replicas/name = " + Format.formatTime(totalReplicas[p] / (double) Math.max(1, demands.size())));
+    }
+  }
+
+  private static Map<String, Demand> readDemand(File file) throws IOException {
+    Map<String, Demand> demands = new LinkedHashMap<>();
+    try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        line = line.trim();
+        if (line.isEmpty() || line.startsWith("#")) {
+          continue;
+        }
+        String[] fields = line.split(",");
+        if (fields.length < 3) {
+          System.out.println("Ignoring " + line);
+          continue;
+        }
+        Demand demand = demands.computeIfAbsent(fields[0].trim(), name -> new Demand());
+        demand.regions.increment(SenderRegionSketch.getRegion(InetAddresses.forString(fields[1].trim())));
+        if (fields[2].trim().equalsIgnoreCase("W")) {
+          demand.updateCount++;
+        } else {
+          demand.lookupCount++;
+        }
+      }
+    }
+    return demands;
+  }
+
+  /**
+   * The minimum number of replicas, starting at an active picked by the hash
+   * of the name so that names are spread over the actives.
+   */
+  private static ArrayList<InetAddress> getInitialActives(String name, List<InetAddress> allActives) {
+    // with no lookups and some updates a name gets the minimum
+    int numberOfReplicas = LocationBasedDemandProfile.computeNumberOfReplicas(0, 1, allActives.size());
+    int start = Math.floorMod(name.hashCode(), allActives.size());
+    ArrayList<InetAddress> result = new ArrayList<>();
+    for (int i = 0; i < numberOfReplicas; i++) {
+      result.add(allActives.get((start + i) % allActives.size()));
+    }
+    return result;
+  }
+
+  private static ArrayList<InetAddress> getTopNByAddress(int n, SenderRegionSketch regions,
+          List<InetAddress> allActives) {
+    Map<InetAddress, Integer> votes = new HashMap<>();
+    for (int i = 0; i < regions.size(); i++) {
+      votes.merge(LocationBasedDemandProfile.findActiveReplicaClosestByAddress(regions.getAddress(i), allActives),
+              regions.getCount(i), Integer::sum);
+    }
+    ArrayList<InetAddress> result = new ArrayList<>();
+    for (InetAddress active : Util.sortByValueDecreasing(votes).keySet()) {
+      if (result.size() >= n) {
+        break;
+      }
+      result.add(active);
+    }
+    return result;
+  }
+}
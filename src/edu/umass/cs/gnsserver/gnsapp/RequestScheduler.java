@@ -0,0 +1,368 @@
+/* Copyright (c) 2015 University of Massachusetts
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ *
+ * Initial developer(s): Westy, arun */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.gigapaxos.interfaces.Request;
+import edu.umass.cs.gnscommon.packets.AdminCommandPacket;
+import edu.umass.cs.gnscommon.packets.CommandPacket;
+import edu.umass.cs.gnsserver.gnsapp.packet.InternalCommandPacket;
+import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DelayProfiler;
+
+/**
+ * Admission control in front of {@link GNSApp#execute(Request, boolean)}.
+ *
+ * Requests are executed on the thread that delivers them, but at most
+ * {@link GNSConfig.GNSC#SCHEDULER_MAX_CONCURRENT} of them at a time. Beyond
+ * that, a request waits in the bounded queue of its {@link RequestClass}, and
+ * a finishing request hands its slot to the head of one of the queues picked
+ * by smooth weighted round robin, so a burst of expensive selects can delay
+ * but not starve cheap reads. A request whose queue is full
+ * or that waits longer than {@link GNSConfig.GNSC#SCHEDULER_QUEUE_TIMEOUT} is
+ * shed and should be answered with
+ * {@link edu.umass.cs.gnscommon.ResponseCode#OVERLOAD}.
+ *
+ * Coordinated requests are never queued or shed: delaying them would stall
+ * their paxos group and rejecting them would make the replicas diverge. Nor
+ * are the requests that other requests wait for while holding their slot,
+ * the internal commands of active code and remote field lookups and the
+ * selects forwarded by other name servers, or the slots could all be held by
+ * requests waiting for requests that can not get one. These requests still
+ * take a slot, so that they push back on the others.
+ *
+ * @author arun
+ */
+public class RequestScheduler {
+
+  /**
+   * The classes of requests with a queue of their own.
+   */
+  public enum RequestClass {
+    /**
+     * Uncoordinated reads.
+     */
+    READ,
+    /**
+     * Updates, creates and deletes.
+     */
+    WRITE,
+    /**
+     * Select requests and responses.
+     */
+    SELECT,
+    /**
+     * Mutually authenticated admin commands.
+     */
+    ADMIN;
+  }
+
+  /**
+   * A request waiting for a slot.
+   */
+  private static class Ticket {
+
+    final RequestClass requestClass;
+    final long enqueueTime = System.currentTimeMillis();
+    // set under the scheduler lock, read under the ticket lock
+    volatile boolean granted = false;
+
+    Ticket(RequestClass requestClass) {
+      this.requestClass = requestClass;
+    }
+  }
+
+  private static class ClassQueue {
+
+    final ArrayDeque<Ticket> queue = new ArrayDeque<>();
+    final int weight;
+    int currentWeight = 0;
+    final AtomicLong executed = new AtomicLong();
+    final AtomicLong shed = new AtomicLong();
+    int maxDepth = 0;
+
+    ClassQueue(int weight) {
+      this.weight = weight;
+    }
+  }
+
+  private final EnumMap<RequestClass, ClassQueue> queues = new EnumMap<>(RequestClass.class);
+  private final int maxConcurrent;
+  private final int queueCapacity;
+  private final long queueTimeout;
+  private int running = 0;
+  private int queued = 0;
+
+  /**
+   * Creates a scheduler configured by {@link GNSConfig.GNSC}.
+   */
+  public RequestScheduler() {
+    this(Config.getGlobalInt(GNSConfig.GNSC.SCHEDULER_MAX_CONCURRENT),
+            Config.getGlobalInt(GNSConfig.GNSC.SCHEDULER_QUEUE_CAPACITY),
+            Config.getGlobalInt(GNSConfig.GNSC.SCHEDULER_QUEUE_TIMEOUT),
+            Config.getGlobalString(GNSConfig.GNSC.SCHEDULER_WEIGHTS));
+  }
+
+  /**
+   * @param maxConcurrent
+   * @param queueCapacity
+   * @param queueTimeout
+   * @param weights comma separated class:weight pairs
+   */
+  public RequestScheduler(int maxConcurrent, int queueCapacity, long queueTimeout, String weights) {
+    this.maxConcurrent = maxConcurrent;
+    this.queueCapacity = queueCapacity;
+    this.queueTimeout = queueTimeout;
+    EnumMap<RequestClass, Integer> weightMap = parseWeights(weights);
+    for (RequestClass requestClass : RequestClass.values()) {
+      queues.put(requestClass, new ClassQueue(weightMap.get(requestClass)));
+    }
+  }
+
+  private static EnumMap<RequestClass, Integer> parseWeights(String weights) {
+    EnumMap<RequestClass, Integer> weightMap = new EnumMap<>(RequestClass.class);
+    for (RequestClass requestClass : RequestClass.values()) {
+      weightMap.put(requestClass, 1);
+    }
+    if (weights != null) {
+      for (String pair : weights.split(",")) {
+        String[] parts = pair.trim().split(":");
+        try {
+          weightMap.put(RequestClass.valueOf(parts[0].trim()),
+                  Math.max(1, Integer.parseInt(parts[1].trim())));
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+          GNSConfig.getLogger().log(Level.WARNING,
+                  "Ignoring malformed scheduler weight {0}", pair);
+        }
+      }
+    }
+    return weightMap;
+  }
+
+  /**
+   * @param request
+   * @return the class of the request
+   */
+  public static RequestClass classify(Request request) {
+    if (request instanceof AdminCommandPacket) {
+      return RequestClass.ADMIN;
+    }
+    if (request.getRequestType() == Packet.PacketType.SELECT_REQUEST
+            || request.getRequestType() == Packet.PacketType.SELECT_RESPONSE
+            || request.getRequestType() == Packet.PacketType.SELECT_INVALIDATION) {
+      return RequestClass.SELECT;
+    }
+    if (request instanceof CommandPacket) {
+      CommandPacket command = (CommandPacket) request;
+      if (command.getCommandType().isSelect()) {
+        return RequestClass.SELECT;
+      }
+      if (command.getCommandType().isMutualAuth()) {
+        return RequestClass.ADMIN;
+      }
+      if (command.getCommandType().isUpdate() || command.getCommandType().isCreateDelete()) {
+        return RequestClass.WRITE;
+      }
+    }
+    return RequestClass.READ;
+  }
+
+  /**
+   * @param request
+   * @return true if the request may be queued and shed, false if it must
+   * be executed right away
+   */
+  public static boolean isSheddable(Request request) {
+    if (request.getRequestType() == Packet.PacketType.SELECT_RESPONSE) {
+      // the work of the select has already been done by the other servers
+      return false;
+    }
+    if (request.getRequestType() == Packet.PacketType.SELECT_INVALIDATION) {
+      // cheap, and dropping it would leave stale select results cached
+      return false;
+    }
+    if (request.getRequestType() == Packet.PacketType.SELECT_REQUEST
+            || request instanceof InternalCommandPacket) {
+      // issued by a request that holds a slot while waiting for it
+      return false;
+    }
+    return !(request instanceof CommandPacket && ((CommandPacket) request).needsCoordination());
+  }
+
+  /**
+   * Waits for a slot to execute a request of the given class.
+   * A successful call must be followed by {@link #release(RequestClass, long)}.
+   *
+   * @param requestClass
+   * @param sheddable
+   * @return the time (ms) the slot was granted, or -1 if the request is shed
+   */
+  public long acquire(RequestClass requestClass, boolean sheddable) {
+    ClassQueue classQueue = queues.get(requestClass);
+    Ticket ticket;
+    synchronized (this) {
+      if ((running < maxConcurrent && queued == 0) || !sheddable) {
+        running++;
+        return System.currentTimeMillis();
+      }
+      if (classQueue.queue.size() >= queueCapacity) {
+        classQueue.shed.incrementAndGet();
+        return -1;
+      }
+      ticket = new Ticket(requestClass);
+      classQueue.queue.add(ticket);
+      queued++;
+      classQueue.maxDepth = Math.max(classQueue.maxDepth, classQueue.queue.size());
+    }
+
+    long remaining = queueTimeout;
+    synchronized (ticket) {
+      while (!ticket.granted && remaining > 0) {
+        try {
+          ticket.wait(remaining);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        remaining = queueTimeout - (System.currentTimeMillis() - ticket.enqueueTime);
+      }
+    }
+    if (!ticket.granted) {
+      synchronized (this) {
+        // the grant may have raced with the timeout
+        if (!ticket.granted) {
+          classQueue.queue.remove(ticket);
+          queued--;
+          classQueue.shed.incrementAndGet();
+          return -1;
+        }
+      }
+    }
+    DelayProfiler.updateDelay("queueWait." + requestClass, ticket.enqueueTime);
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * Releases the slot of a request that was granted at {@code startTime} and
+   * hands it to the next waiting request, if any.
+   *
+   * @param requestClass
+   * @param startTime
+   */
+  public void release(RequestClass requestClass, long startTime) {
+    ClassQueue classQueue = queues.get(requestClass);
+    classQueue.executed.incrementAndGet();
+    DelayProfiler.updateDelay("execute." + requestClass, startTime);
+    Ticket next = null;
+    synchronized (this) {
+      running--;
+      if (running < maxConcurrent && queued > 0) {
+        next = dequeue();
+        next.granted = true;
+        running++;
+      }
+    }
+    if (next != null) {
+      synchronized (next) {
+        next.notify();
+      }
+    }
+  }
+
+  /**
+   * Smooth weighted round robin over the non-empty queues: every queue gains
+   * its weight, the richest one is picked and pays the total weight. Over
+   * time, each backlogged class gets a share of the slots proportional to its
+   * weight, and the picks of the classes are interleaved.
+   */
+  private Ticket dequeue() {
+    assert (Thread.holdsLock(this));
+    ClassQueue selected = null;
+    int totalWeight = 0;
+    for (ClassQueue classQueue : queues.values()) {
+      if (classQueue.queue.isEmpty()) {
+        continue;
+      }
+      classQueue.currentWeight += classQueue.weight;
+      totalWeight += classQueue.weight;
+      if (selected == null || classQueue.currentWeight > selected.currentWeight) {
+        selected = classQueue;
+      }
+    }
+    assert (selected != null);
+    selected.currentWeight -= totalWeight;
+    queued--;
+    return selected.queue.poll();
+  }
+
+  /**
+   * @return the number of requests holding a slot
+   */
+  public synchronized int getRunning() {
+    return running;
+  }
+
+  /**
+   * @return the number of requests waiting for a slot
+   */
+  public synchronized int getQueued() {
+    return queued;
+  }
+
+  /**
+   * @param requestClass
+   * @return the number of requests of the class shed so far
+   */
+  public long getShed(RequestClass requestClass) {
+    return queues.get(requestClass).shed.get();
+  }
+
+  /**
+   * @return the queue depth, maximum depth, executed and shed counts of each
+   * class, and the number of requests running
+   * @throws JSONException
+   */
+  public synchronized JSONObject getStats() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put("running", running);
+    json.put("queued", queued);
+    for (RequestClass requestClass : RequestClass.values()) {
+      ClassQueue classQueue = queues.get(requestClass);
+      JSONObject classJSON = new JSONObject();
+      classJSON.put("depth", classQueue.queue.size());
+      classJSON.put("maxDepth", classQueue.maxDepth);
+      classJSON.put("executed", classQueue.executed.get());
+      classJSON.put("shed", classQueue.shed.get());
+      classJSON.put("weight", classQueue.weight);
+      json.put(requestClass.toString(), classJSON);
+    }
+    return json;
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName();
+  }
+}
@@ -25,35 +25,33 @@ package edu.umass.cs.gnsserver.gnsapp;
  * All Rights Reserved
  */
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
-import java.security.InvalidKeyException;
-import java.security.NoSuchAlgorithmException;
-import java.security.SignatureException;
-import java.security.spec.InvalidKeySpecException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import edu.umass.cs.gigapaxos.PaxosConfig;
-import edu.umass.cs.gnscommon.GNSProtocol;
 import edu.umass.cs.gnscommon.ResponseCode;
 import edu.umass.cs.gnscommon.exceptions.client.ClientException;
 import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
@@ -63,12 +61,15 @@ import edu.umass.cs.gnscommon.packets.commandreply.NotificationStatsToIssuer;
 import edu.umass.cs.gnscommon.packets.commandreply.SelectHandleInfo;
 import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.InternalField;
-import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
-import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSAuthentication;
+import edu.umass.cs.gnsserver.gnsapp.packet.BasicPacketWithClientAddress;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectAggregation;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectInvalidationPacket;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectOperation;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectResponsePacket;
 import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
-import edu.umass.cs.gnsserver.gnsapp.selectnotification.NotificationSendingStats;
+import edu.umass.cs.gnsserver.gnsapp.selectnotification.NotificationDispatcher;
+import edu.umass.cs.gnsserver.gnsapp.selectnotification.NotificationJob;
 import edu.umass.cs.gnsserver.gnsapp.selectnotification.NameServerSelectNotificationState;
 import edu.umass.cs.gnsserver.gnsapp.selectnotification.SelectGUIDInfo;
 import edu.umass.cs.gnsserver.gnsapp.selectnotification.SelectResponseProcessor;
@@ -118,13 +119,39 @@ public class Select extends AbstractSelector
 	// for any name server.
 	private final NameServerSelectNotificationState pendingNotifications;
 	
+	// sends the notification batches of all selects
+	private final NotificationDispatcher notificationDispatcher = new NotificationDispatcher(
+			Config.getGlobalInt(GNSConfig.GNSC.SELECT_NOTIFICATION_THREADS),
+			Config.getGlobalInt(GNSConfig.GNSC.SELECT_NOTIFICATION_QUEUE_SIZE),
+			Config.getGlobalInt(GNSConfig.GNSC.SELECT_NOTIFICATION_RETRIES),
+			Config.getGlobalInt(GNSConfig.GNSC.SELECT_NOTIFICATION_RETRY_DELAY));
+	
 	
 	private final Random randomIdGen = new Random();
 	
 	private final ConcurrentMap<Integer, NSSelectInfo> pendingQueries
           = new ConcurrentHashMap<Integer, NSSelectInfo>();
-	private final ConcurrentMap<Integer, SelectResponsePacket> queryResult
-          = new ConcurrentHashMap<Integer, SelectResponsePacket>();
+	
+	private final SelectResultCache resultCache = new SelectResultCache(
+			Config.getGlobalInt(GNSConfig.GNSC.SELECT_CACHE_SIZE), 
+			Config.getGlobalInt(GNSConfig.GNSC.SELECT_CACHE_TTL));
+	
+	// the fields updated on this server that the other servers have not been told about yet
+	private Set<String> pendingInvalidations = null;
+	private boolean pendingInvalidateAll = false;
+	
+	// fails the queries that are still pending after SELECT_REQUEST_TIMEOUT
+	private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, 
+			(Runnable r) -> {
+				Thread thread = new Thread(r, Select.class.getSimpleName() + "Timer");
+				thread.setDaemon(true);
+				return thread;
+			});
+	
+	static
+	{
+		TIMER.setRemoveOnCancelPolicy(true);
+	}
 	
 	/**
 	 * The select constructor. 
@@ -202,6 +229,10 @@ public class Select extends AbstractSelector
   //FIXME: We need to determine this timeout systematically, not an ad hoc constant.
   private static final long SELECT_REQUEST_TIMEOUT = Config.getGlobalInt(GNSConfig.GNSC.SELECT_REQUEST_TIMEOUT);
   
+  private static final boolean SELECT_PRIMARY_RESPONDERS = Config.getGlobalBoolean(GNSConfig.GNSC.SELECT_PRIMARY_RESPONDERS);
+  
+  private static final long SELECT_FAILOVER_TIMEOUT = Config.getGlobalInt(GNSConfig.GNSC.SELECT_FAILOVER_TIMEOUT);
+  
   /**
    * Handle a select request from a client.
    * This node is the broadcaster and selector.
@@ -219,6 +250,38 @@ public class Select extends AbstractSelector
           SelectRequestPacket packet, GNSApplicationInterface<String> app) 
         		  throws JSONException, UnknownHostException, FailedDBOperationException, 
         		  InternalRequestException
+  {  
+	  // Wait for responses, otherwise you are violating Replicable.execute(.)'s semantics.
+	  // The wait is bounded as the timer fails the query after SELECT_REQUEST_TIMEOUT.
+	  try 
+	  {
+		  return handleSelectRequestFromClientAsync(header, packet, app).get();
+	  } catch (InterruptedException e) 
+	  {
+		  Thread.currentThread().interrupt();
+	  } catch (ExecutionException e) 
+	  {
+		  LOGGER.log(Level.WARNING, "{0} select {1} failed: {2}", 
+				  new Object[]{app, packet.getSummary(), e.getCause()});
+	  }
+	  return null;
+  }
+  
+  /**
+   * Sends a select request from a client to the name servers and returns
+   * without waiting for their responses. The returned future is completed
+   * by the thread that handles the last response, or by a timer if some
+   * name server has not responded within SELECT_REQUEST_TIMEOUT.
+   *
+   * @param header
+   * @param packet
+   * @param app
+   * @return a future for the select response packet
+   */
+  @Override
+  public CompletableFuture<SelectResponsePacket> handleSelectRequestFromClientAsync(
+		  InternalRequestHeader header, SelectRequestPacket packet, 
+		  GNSApplicationInterface<String> app)
   {  
 	  switch(packet.getSelectOperation())
 	  {
@@ -226,34 +289,53 @@ public class Select extends AbstractSelector
 	  		case NEAR:
 	  		case WITHIN:
 	  		case QUERY:
-	  		{
-	  			return processSelectRequestFromClient(header, packet, app);
-	  			//break;
-	  		}
 	  		case SELECT_NOTIFY:
 	  		{
 	  			return processSelectRequestFromClient(header, packet, app);
-	  			//break;
 	  		}
 	  		case NOTIFICATION_STATUS:
 	  		{
 	  			return processNotificationStatusFromClient(header, packet, app);
-	  			//break;
 	  		}
 	  		default:
 	  			break;
 	  }
-	  return null;
+	  return CompletableFuture.completedFuture(null);
   }
   
   
-  private SelectResponsePacket processSelectRequestFromClient(InternalRequestHeader header,
+  private CompletableFuture<SelectResponsePacket> processSelectRequestFromClient(InternalRequestHeader header,
           SelectRequestPacket packet, GNSApplicationInterface<String> app)
   {
+	  boolean cacheable = resultCache.isCacheable(packet);
+	  if (cacheable)
+	  {
+		  JSONArray records = resultCache.get(packet);
+		  if (records != null)
+		  {
+			  LOGGER.log(Level.FINE, "NS {0} answering select {1} from the result cache",
+					  new Object[]{app.getNodeID(), packet.getSummary()});
+			  return CompletableFuture.completedFuture(SelectResponsePacket.makeSuccessPacketForFullRecords(
+					  packet.getRequestID(), null, -1, null, records));
+		  }
+	  }
+	  
 	  Set<InetSocketAddress> serverAddresses = new HashSet<>(PaxosConfig.getActives().values());
 	  
 	  // store the info for later
-	  int queryId = addQueryInfo(serverAddresses, packet);
+	  NSSelectInfo info = addQueryInfo(serverAddresses, packet);
+	  int queryId = info.getId();
+	  
+	  if (cacheable)
+	  {
+		  long generation = resultCache.getGeneration();
+		  info.getFuture().thenAccept((response) -> {
+			  if (response != null && ResponseCode.NO_ERROR.equals(response.getResponseCode()))
+			  {
+				  resultCache.put(packet, response.getRecords(), generation);
+			  }
+		  });
+	  }
 	  
 	  InetSocketAddress returnAddress = new InetSocketAddress(app.getNodeAddress().getAddress(),
             ReconfigurationConfig.getClientFacingPort(app.getNodeAddress().getPort()));
@@ -261,51 +343,180 @@ public class Select extends AbstractSelector
 	  //packet.setNameServerID(app.getNodeID());
 	  packet.setNsQueryId(queryId); // Note: this also tells handleSelectRequest that it should go to NS now
 	  
+	  // select notify keeps per server state, so every replica still handles its records.
+	  if (SELECT_PRIMARY_RESPONDERS
+			  && SelectResponderPlanner.isPlacedByConsistentHashing()
+			  && packet.getSelectOperation() != SelectOperation.SELECT_NOTIFY)
+	  {
+		  packet.setPrimaryOnly(true);
+		  ScheduledFuture<?> failover = TIMER.schedule(() -> failOverQuery(info, app), 
+				  SELECT_FAILOVER_TIMEOUT, TimeUnit.MILLISECONDS);
+		  info.getFuture().whenComplete((response, e) -> failover.cancel(false));
+	  }
+	  
 	  try 
 	  {
-		  JSONObject outgoingJSON = packet.toJSONObject();
-		  
-		  LOGGER.log(Level.FINER, "addresses: {0} node address: {1}",
-				  new Object[]{serverAddresses, app.getNodeAddress()});
-		  
-		  // Forward to all but self because...
-		  for (InetSocketAddress address : serverAddresses) 
+		  sendToServers(packet, serverAddresses, app);
+	  }
+	  catch (IOException | JSONException  e) 
+	  {
+		  LOGGER.log(Level.SEVERE, "Exception while sending select request: {0}", e);
+		  completeQuery(info, null);
+	  }
+	  return info.getFuture();
+  }
+  
+  
+  private void sendToServers(BasicPacketWithClientAddress packet, Set<InetSocketAddress> serverAddresses, 
+		  GNSApplicationInterface<String> app) throws IOException, JSONException
+  {
+	  JSONObject outgoingJSON = packet.toJSONObject();
+	  
+	  LOGGER.log(Level.FINER, "addresses: {0} node address: {1}",
+			  new Object[]{serverAddresses, app.getNodeAddress()});
+	  
+	  // Forward to all but self because...
+	  for (InetSocketAddress address : serverAddresses) 
+	  {
+		  InetSocketAddress offsetAddress = new InetSocketAddress(address.getAddress(),
+              ReconfigurationConfig.getClientFacingPort(address.getPort()));
+		  LOGGER.log(Level.INFO, "NS {0} sending select {1} to {2} ({3})",
+              new Object[]{app.getNodeID(), outgoingJSON, offsetAddress, address});
+		  app.sendToAddress(offsetAddress, outgoingJSON);
+	  }
+  }
+  
+  
+  /**
+   * Gives up on the name servers that have not responded to a primary only
+   * select yet, and asks the ones that have for the records those servers
+   * were the primary responders of.
+   */
+  private void failOverQuery(NSSelectInfo info, GNSApplicationInterface<String> app)
+  {
+	  if (info.getFuture().isDone())
+	  {
+		  return;
+	  }
+	  Set<InetSocketAddress> failed = info.failOver();
+	  if (failed.isEmpty())
+	  {
+		  return;
+	  }
+	  Set<String> failedIds = new HashSet<>();
+	  for (Map.Entry<String, InetSocketAddress> entry : PaxosConfig.getActives().entrySet())
+	  {
+		  if (failed.contains(entry.getValue()))
 		  {
-			  InetSocketAddress offsetAddress = new InetSocketAddress(address.getAddress(),
-                  ReconfigurationConfig.getClientFacingPort(address.getPort()));
-			  LOGGER.log(Level.INFO, "NS {0} sending select {1} to {2} ({3})",
-                  new Object[]{app.getNodeID(), outgoingJSON, offsetAddress, address});
-			  app.sendToAddress(offsetAddress, outgoingJSON);
+			  failedIds.add(entry.getKey());
 		  }
-		  
-		  // Wait for responses, otherwise you are violating Replicable.execute(.)'s semantics.
-		  synchronized (pendingQueries) 
+	  }
+	  Set<InetSocketAddress> requery = info.serversYetToRespond();
+	  LOGGER.log(Level.WARNING, "Select {0} failing over from {1} to {2}",
+			  new Object[]{info.getId(), failedIds, requery});
+	  try 
+	  {
+		  // a copy, as the packet of the query may be in use by other threads
+		  SelectRequestPacket packet = new SelectRequestPacket(info.getSelectRequestPacket().toJSONObject());
+		  packet.setExcludedResponders(failedIds);
+		  sendToServers(packet, new HashSet<>(requery), app);
+	  }
+	  catch (IOException | JSONException  e) 
+	  {
+		  LOGGER.log(Level.SEVERE, "Exception while resending select request: {0}", e);
+		  completeQuery(info, null);
+	  }
+  }
+  
+  
+  /**
+   * Drops the cached select results that depend on the updated fields, and
+   * tells the other name servers to do the same. The fields updated within
+   * SELECT_CACHE_INVALIDATION_DELAY of each other are sent together.
+   *
+   * @param fields
+   * @param app
+   */
+  @Override
+  public void handleFieldsUpdated(Collection<String> fields, GNSApplicationInterface<String> app)
+  {
+	  if (!resultCache.isEnabled())
+	  {
+		  return;
+	  }
+	  resultCache.invalidate(fields);
+	  synchronized (this)
+	  {
+		  boolean scheduled = pendingInvalidations != null || pendingInvalidateAll;
+		  if (fields == null)
+		  {
+			  pendingInvalidateAll = true;
+			  pendingInvalidations = null;
+		  }
+		  else if (!pendingInvalidateAll)
 		  {
-			  while (pendingQueries.containsKey(queryId)) 
+			  if (pendingInvalidations == null)
 			  {
-				  try
-				  {
-					  pendingQueries.wait(SELECT_REQUEST_TIMEOUT);
-				  } catch (InterruptedException e) {
-					  e.printStackTrace();
-				  }
+				  pendingInvalidations = new HashSet<>();
 			  }
+			  pendingInvalidations.addAll(fields);
 		  }
-		  if (queryResult.containsKey(queryId)) 
+		  if (!scheduled)
 		  {
-			  
-			  return queryResult.remove(queryId);
+			  TIMER.schedule(() -> sendInvalidations(app), 
+					  Config.getGlobalInt(GNSConfig.GNSC.SELECT_CACHE_INVALIDATION_DELAY), 
+					  TimeUnit.MILLISECONDS);
 		  }
 	  }
+  }
+  
+  private void sendInvalidations(GNSApplicationInterface<String> app)
+  {
+	  Set<String> fields;
+	  synchronized (this)
+	  {
+		  fields = pendingInvalidateAll ? null : pendingInvalidations;
+		  pendingInvalidations = null;
+		  pendingInvalidateAll = false;
+	  }
+	  Set<InetSocketAddress> serverAddresses = new HashSet<>(PaxosConfig.getActives().values());
+	  serverAddresses.remove(app.getNodeAddress());
+	  try 
+	  {
+		  sendToServers(new SelectInvalidationPacket(fields), serverAddresses, app);
+	  }
 	  catch (IOException | JSONException  e) 
 	  {
-		  LOGGER.log(Level.SEVERE, "Exception while sending select request: {0}", e);
+		  LOGGER.log(Level.WARNING, "Exception while sending select invalidation: {0}", e);
 	  }
-	  return null;
   }
   
+  /**
+   * Drops the cached select results that depend on the fields updated
+   * at another name server.
+   *
+   * @param packet
+   * @param app
+   */
+  @Override
+  public void handleSelectInvalidation(SelectInvalidationPacket packet, 
+		  GNSApplicationInterface<String> app)
+  {
+	  LOGGER.log(Level.FINE, "NS {0} invalidating select results depending on {1}",
+			  new Object[]{app.getNodeID(), packet.getFields()});
+	  resultCache.invalidate(packet.getFields());
+  }
   
-  private SelectResponsePacket processNotificationStatusFromClient
+  /**
+   * @return the select result cache of this name server
+   */
+  public SelectResultCache getResultCache()
+  {
+	  return resultCache;
+  }
+  
+  
+  private CompletableFuture<SelectResponsePacket> processNotificationStatusFromClient
   					(InternalRequestHeader header, 
   							SelectRequestPacket packet, GNSApplicationInterface<String> app)
   {
@@ -321,7 +532,8 @@ public class Select extends AbstractSelector
 	  Set<InetSocketAddress> serverAddresses = getServerAddressFromHandles(localHandlesList);
 	  
 	  // store the info for later
-	  int queryId = addQueryInfo(serverAddresses, packet);
+	  NSSelectInfo info = addQueryInfo(serverAddresses, packet);
+	  int queryId = info.getId();
 	  
 	  //FIXME: aditya: COMMENT: not sure why we are not sending here on server-server port. s
 	  InetSocketAddress returnAddress = new InetSocketAddress(
@@ -363,25 +575,7 @@ public class Select extends AbstractSelector
 		  }
 	  }
 	  
-	  // Wait for responses, otherwise you are violating Replicable.execute(.)'s semantics.
-	  synchronized (pendingQueries)
-	  {
-		  while (pendingQueries.containsKey(queryId)) 
-		  {
-			  try
-			  {
-				  pendingQueries.wait(SELECT_REQUEST_TIMEOUT);
-			  } catch (InterruptedException e) {
-				  e.printStackTrace();
-			  }
-		  }
-	  }
-	  
-	  if (queryResult.containsKey(queryId)) 
-	  {
-		  return queryResult.remove(queryId);
-	  }
-	  return null;
+	  return info.getFuture();
   }
   
   
@@ -468,7 +662,9 @@ public class Select extends AbstractSelector
 			  case WITHIN:
 			  case QUERY:
 			  {
-				  response = processSelectRequestFromNSForReturningGUIDs(request, app);
+				  response = request.getAggregation() != null 
+				  		? processSelectRequestFromNSForAggregation(request, app)
+				  		: processSelectRequestFromNSForReturningGUIDs(request, app);
 				  break;
 			  }
 			  case SELECT_NOTIFY:
@@ -485,7 +681,7 @@ public class Select extends AbstractSelector
 				  break;
 		  }
 	  }
-	  catch(FailedDBOperationException  e)
+	  catch(FailedDBOperationException | JSONException  e)
 	  {
 		  LOGGER.log(Level.WARNING, "{0} exception while handling select request {1}: {2}"
 	    			, new Object[]{app, request.getSummary(), e});
@@ -520,22 +716,39 @@ public class Select extends AbstractSelector
   	  // iterator approach. 
 	  
 	  JSONArray resultRecords = new JSONArray();
+	  SelectRecordEvaluator evaluator = new SelectRecordEvaluator(request, app);
+	  SelectResponderPlanner planner = SelectResponderPlanner.forSelect(request, app.getNodeID());
+	  int fetchSize = Config.getGlobalInt(GNSC.SELECT_FETCH_SIZE);
+	  List<JSONObject> batch = new ArrayList<JSONObject>();
 	  
+	  long startTime = System.nanoTime();
 	  while (cursor != null && cursor.hasNext()) 
 	  {
 		  JSONObject record = cursor.nextJSONObject();
 		  
-		  record = aclCheckForRecord(request, record, app);
-		  if(record!=null)
+		  // skip the records another replica returns before paying for the ACL check
+		  if(isResponderForRecord(planner, record))
 		  {
-			  record = performProjectionForUserRequestedAttributes(
-					  app, request, record);
-			  
-			  if(record!=null)
-				  resultRecords.put(record);
-			  
+			  batch.add(record);
+		  }
+		  
+		  if(batch.size() >= fetchSize)
+		  {
+			  evaluator.addFetchTime(System.nanoTime() - startTime);
+			  for(JSONObject evaluated : evaluator.evaluate(batch))
+			  {
+				  resultRecords.put(evaluated);
+			  }
+			  batch = new ArrayList<JSONObject>();
+			  startTime = System.nanoTime();
 		  }
 	  }
+	  evaluator.addFetchTime(System.nanoTime() - startTime);
+	  for(JSONObject evaluated : evaluator.evaluate(batch))
+	  {
+		  resultRecords.put(evaluated);
+	  }
+	  evaluator.reportStageTimes();
 	  
 	  return SelectResponsePacket.makeSuccessPacketForFullRecords(
 			  request.getRequestID(), request.getClientAddress(),
@@ -543,6 +756,85 @@ public class Select extends AbstractSelector
   }
   
   
+  /**
+   * Aggregates the records matched by a select with an aggregation instead
+   * of returning them, and returns either the partial aggregate or, for a
+   * limit, the first records of this name server.
+   */
+  private SelectResponsePacket processSelectRequestFromNSForAggregation
+  			(SelectRequestPacket request, GNSApplicationInterface<String> app) 
+  					throws FailedDBOperationException, JSONException
+  {
+	  AbstractRecordCursor cursor = getDBCursor(request, app);
+	  
+	  SelectAggregator aggregator = new SelectAggregator(request);
+	  SelectRecordEvaluator evaluator = new SelectRecordEvaluator(request, app);
+	  SelectResponderPlanner planner = SelectResponderPlanner.forSelect(request, app.getNodeID());
+	  SelectAggregation aggregation = request.getAggregation();
+	  int fetchSize = Config.getGlobalInt(GNSC.SELECT_FETCH_SIZE);
+	  // an unordered or nearest first limit may be done long before the cursor
+	  if (aggregation.getFunction() == SelectAggregation.Function.LIMIT && aggregation.getField() == null)
+	  {
+		  fetchSize = Math.min(fetchSize, aggregation.getLimit());
+	  }
+	  List<JSONObject> batch = new ArrayList<JSONObject>();
+	  
+	  long startTime = System.nanoTime();
+	  while (cursor != null && !aggregator.isDone() && cursor.hasNext()) 
+	  {
+		  JSONObject record = cursor.nextJSONObject();
+		  if(isResponderForRecord(planner, record))
+		  {
+			  batch.add(record);
+		  }
+		  
+		  if(batch.size() >= fetchSize)
+		  {
+			  evaluator.addFetchTime(System.nanoTime() - startTime);
+			  for(JSONObject evaluated : evaluator.evaluate(batch))
+			  {
+				  aggregator.add(evaluated);
+			  }
+			  batch = new ArrayList<JSONObject>();
+			  startTime = System.nanoTime();
+		  }
+	  }
+	  evaluator.addFetchTime(System.nanoTime() - startTime);
+	  for(JSONObject evaluated : evaluator.evaluate(batch))
+	  {
+		  aggregator.add(evaluated);
+	  }
+	  evaluator.reportStageTimes();
+	  
+	  if (aggregation.isPartial())
+	  {
+		  return SelectResponsePacket.makeSuccessPacketForAggregate(
+				  request.getRequestID(), request.getClientAddress(),
+				  request.getNsQueryId(), app.getNodeAddress(), null, aggregator.getPartial());
+	  }
+	  return SelectResponsePacket.makeSuccessPacketForFullRecords(
+			  request.getRequestID(), request.getClientAddress(),
+			  request.getNsQueryId(), app.getNodeAddress(), new JSONArray(aggregator.getRecords()));
+  }
+  
+  
+  private static boolean isResponderForRecord(SelectResponderPlanner planner, JSONObject record)
+  {
+	  if (planner == null)
+	  {
+		  return true;
+	  }
+	  try
+	  {
+		  return planner.isResponder(record.getString(NameRecord.NAME.getName()));
+	  } catch (JSONException e)
+	  {
+		  // let the ACL check deal with the malformed record
+		  return true;
+	  }
+  }
+  
+  
   private SelectResponsePacket processSelectRequestFromNSForSelectNotify(
 		  		SelectRequestPacket request, GNSApplicationInterface<String> app) 
 		  				throws FailedDBOperationException
@@ -552,23 +844,28 @@ public class Select extends AbstractSelector
 	  LOGGER.log(Level.FINE, "NS{0} query: {1} {2}",
               new Object[]{app.getNodeID(), request.getQuery(), request.getProjection()});
   	
-  	  String notificationStr = request.getNotificationString();
-  	
-  	  List<SelectGUIDInfo> currList = new LinkedList<SelectGUIDInfo>();
+  	  // The batches are handed to the dispatcher as they fill up, so the 
+  	  // notifications are sent while the records are still being read.
+  	  NotificationJob job = new NotificationJob(request.getNotificationString(), 
+  			  this.notificationSender, this.notificationDispatcher);
+  	  long localHandleId = this.pendingNotifications.addNotificationJob(job);
+  	  
+  	  List<SelectGUIDInfo> currList = new ArrayList<SelectGUIDInfo>();
   	  
-  	  List<NotificationSendingStats> notificationStatsList = new LinkedList<NotificationSendingStats>();
+  	  SelectRecordEvaluator evaluator = new SelectRecordEvaluator(request, app);
+  	  int fetchSize = Config.getGlobalInt(GNSC.SELECT_FETCH_SIZE);
+  	  List<JSONObject> batch = new ArrayList<JSONObject>();
   	  
+  	  long startTime = System.nanoTime();
   	  while (cursor != null && cursor.hasNext()) 
   	  {
-  		  JSONObject record = cursor.nextJSONObject();
+  		  batch.add(cursor.nextJSONObject());
   		  
-  		  record = aclCheckForRecord(request, record, app);
-  		  if(record != null)
+  		  // evaluate a full batch, or what is left when the cursor is exhausted
+  		  if(batch.size() >= fetchSize || !cursor.hasNext())
   		  {
-  			  record = performProjectionForUserRequestedAttributes(
-					  app, request, record);
-  			  
-  			  if(record!=null)
+  			  evaluator.addFetchTime(System.nanoTime() - startTime);
+  			  for(JSONObject record : evaluator.evaluate(batch))
   			  {
   				  try
   				  {
@@ -583,55 +880,35 @@ public class Select extends AbstractSelector
 								new Object[]{e.getMessage()});
   				  }
   			  }
+  			  batch = new ArrayList<JSONObject>();
+  			  startTime = System.nanoTime();
   		  }
   		  
-  		  if(currList.size() >= Config.getGlobalInt(GNSC.SELECT_FETCH_SIZE))
+  		  if(currList.size() >= fetchSize)
   		  {  
-  			  // Sending the actual notification.
-  			  // Based on the implementation, this function could block for very long.
-  			  // Ideally, the implementation of this function should not be blocking. 
-  			  // The design is such that notification function can update the progress
-  			  // of notification sending using InternalNotificationStats, and the GNS
-  			  // can get the progress using NotificationSendingStats.
-  			  
-  			  NotificationSendingStats stats 
-						= this.notificationSender.sendNotification(currList, notificationStr);
-  			  
-  			  
-  			  notificationStatsList.add(stats);
-  			  //this.pendingNotifications.addNotificationStats(localhandle, stats);
-  			  
   			  // Not clearing currList here, as the notification function 
   			  // may be using it.
   			  // So just re-initializing it. 
-  			  currList = new LinkedList<SelectGUIDInfo>();
+  			  job.addBatch(currList);
+  			  currList = new ArrayList<SelectGUIDInfo>();
   		  }
   	  }
   	  
   	  
+  	  evaluator.reportStageTimes();
+  	  
   	  // last batch.
   	  if(currList.size() > 0)
   	  {  
-  		  // Sending the actual notification.
-  		  // Based on the implementation, this function could block for very long.
-  		  // Ideally, the implementation of this function should not be blocking. 
-  		  // The design is such that notification function can update the progress
-  		  // of notification sending using InternalNotificationStats, and the GNS
-  		  // can get the progress using NotificationSendingStats.
-    	  
-  		  NotificationSendingStats stats 
-					= this.notificationSender.sendNotification(currList, notificationStr);
-  		  
-  		  notificationStatsList.add(stats);
+  		  job.addBatch(currList);
   	  }
-  	  
-  	  long localHandleId = this.pendingNotifications.addNotificationStatsList(notificationStatsList);
+  	  job.setComplete();
   	  
   	  LocalSelectHandleInfo localSelectHandle 
 			= new LocalSelectHandleInfo(localHandleId, app.getNodeAddress());
   	  
   	  NotificationStatsToIssuer statsToIssuer 
-									= collectNotificationStats(notificationStatsList, localSelectHandle);
+									= collectNotificationStats(job, localSelectHandle);
   	  
   	  SelectResponsePacket resp = null;
   	  if(statsToIssuer != null)
@@ -685,251 +962,25 @@ public class Select extends AbstractSelector
   }
   
   private NotificationStatsToIssuer collectNotificationStats(
-		  List<NotificationSendingStats> allStats, LocalSelectHandleInfo localSelectHandle)
+		  NotificationJob job, LocalSelectHandleInfo localSelectHandle)
   {
 	  assert(localSelectHandle != null);
 	  
-	  if(allStats == null)
-		  allStats = this.pendingNotifications.lookupNotificationStats(localSelectHandle.getLocalHandleId());
+	  if(job == null)
+		  job = this.pendingNotifications.lookupNotificationJob(localSelectHandle.getLocalHandleId());
 	  
 	  // Handle state already garbage collected.
-	  if(allStats == null)
+	  if(job == null)
 		  return null;
 	  
-	  
-	  long totalNot = 0;
-  	  long totalFailed = 0;
-  	  long totalPending = 0;
-  	  if(allStats != null)
-  	  {
-  		  for(int i=0; i<allStats.size(); i++)
-  		  {
-  			  totalNot+=allStats.get(i).getTotalNotifications();
-  			  totalFailed+=allStats.get(i).getGUIDsFailed().size();
-  			  totalPending+=allStats.get(i).getNumberPending();
-  		  }
-  	  }
   	  List<LocalSelectHandleInfo> list = new LinkedList<LocalSelectHandleInfo>();
   	  list.add(localSelectHandle);
   	  SelectHandleInfo selectHandle = new SelectHandleInfo(list);
-  	  return new NotificationStatsToIssuer(selectHandle, totalNot, 
-				totalFailed, totalPending);
-  }
-  
-  /**
-   * Checks if {@code record} satisfies ACL checks. Also, removes fields from {@code record} 
-   * that the query issuer is not allowed to read. 
-   *
-   * @param packet
-   * @param record
-   * @param app
-   * @return
-   * The JSONObject corresponding to the record after removing private fields. Returns null
-   * if ACL check on query fields fails or there is an exception.
-   */
-  private JSONObject aclCheckForRecord(SelectRequestPacket packet, JSONObject record,
-		  GNSApplicationInterface<String> app) 
-  {
-	  // First we check if the query issuer is in read ACLs for all query attributes
-	  boolean satisfy =aclCheckForQueryAttributes(packet, record, app);
-	  if(satisfy)
-	  {
-		  return aclCheckForProjectionFields(packet, record, app);
-	  }
-	  else
-	  {
-		  return null;
-	  }
-  }
-  
-  /**
-   * This function removes all the internal fields and fields that are not requested by the user.
-   * This is needed because for signature and ACL checks we read internal fields too, so after all those 
-   * checks are done, we remove internal fields and return only user requested fields.
-   * @param app
-   * @param packet
-   * @param record
-   * @return
-   * Records after removing fields or null if there is some error.
-   */
-  private JSONObject performProjectionForUserRequestedAttributes(
-		  GNSApplicationInterface<String> app, SelectRequestPacket packet, JSONObject record)
-  {
-	  List<String> projection = packet.getProjection();
-	  
-	  if (projection == null
-			  // this handles the special case of the user wanting all fields 
-			  // in the projection
-			  || (!projection.isEmpty()
-					  && projection.get(0).equals(GNSProtocol.ENTIRE_RECORD.toString())))
-		  return record;
-
-
-	  HashMap<String, Boolean> fieldsMap = new HashMap<String, Boolean>();
-	  for(String field: projection)
-	  {
-		  fieldsMap.put(field, true);
-	  }
-	  
-	  try {
-		  // JSON iterator type warning suppressed.
-		  @SuppressWarnings("unchecked")
-		  Iterator<String> recordKeyIter = record.keys();
-		  
-		  while(recordKeyIter.hasNext())
-		  {
-			  String key = recordKeyIter.next();
-			  if(key.equals(NameRecord.NAME.getName()))
-			  {
-				  // do nothing, as we want to keep the name field.
-			  }
-			  else if(key.equals(NameRecord.VALUES_MAP.getName()))
-			  {
-				  JSONObject valuesMap = record.getJSONObject(NameRecord.VALUES_MAP.getName());
-				  // JSON iterator type warning suppressed.
-				  @SuppressWarnings("unchecked")
-				  Iterator<String> valueMapIter = valuesMap.keys();
-				  while(valueMapIter.hasNext())
-				  {
-					  String valKey = valueMapIter.next();
-					  
-					  if( !(fieldsMap.containsKey(valKey)) )
-					  {
-						  valueMapIter.remove();
-					  }
-				  }
-			  }
-			  else
-			  {
-				  recordKeyIter.remove();
-			  }
-		  }
-		} catch (JSONException e) {
-			// ignore the record on JSON error
-			LOGGER.log(Level.FINE, "{0} Problem getting guid from json: {1}",
-						  new Object[]{app.getNodeID(), e.getMessage()});
-			// there is some problem, we can't return this record in the result set.. 
-			return null;
-		}
-	  return record;
-  }
-  
-  /**
-   * This function checks that the query issuer has read access to all query fields for 
-   * {@code record}.
-   * 
-   * @param packet
-   * @param record
-   * @param app
-   * @return
-   * true if the acl check on query fields is satisfied. Otherwise, false.
-   */
-  private boolean aclCheckForQueryAttributes(SelectRequestPacket packet, JSONObject record,
-		  	GNSApplicationInterface<String> app) 
-  {
-	  try 
-	  {
-		  String guid = record.getString(NameRecord.NAME.getName());
-		  List<String> queryFields = getFieldsForQueryType(packet);
-		  
-		  NameRecord nr = new NameRecord(app.getDB(), record);
-        
-		  ResponseCode responseCode = NSAuthentication.signatureAndACLCheck(null, guid, null, 
-				queryFields, packet.getReader(), null, null, MetaDataTypeName.READ_WHITELIST, app, true, nr);
-		  
-		  LOGGER.log(Level.FINE, "{0} ACL check for select: guid={0} queryFields={1} responsecode={3}",
-                new Object[]{app.getNodeID(), guid, queryFields, responseCode});
-		  if (responseCode.isOKResult()) {
-			  return true;
-		  }
-      } catch (JSONException | InvalidKeyException | InvalidKeySpecException 
-    		  	| SignatureException | NoSuchAlgorithmException | FailedDBOperationException 
-    		  	| UnsupportedEncodingException e) 
-	  {
-        // ignore json errros
-        LOGGER.log(Level.FINE, "{0} Problem getting guid from json: {1}",
-                new Object[]{app.getNodeID(), e.getMessage()});
-      }
-	  return false;
-  }
-  
-  /**
-   * This filters individual fields if the cannot be accessed by the reader.
-   *
-   * @param packet
-   * @param record
-   * @param app
-   * @return
-   * the JSONObject after removing fields that don't satisfy ACL checks.
-   */
-  private JSONObject aclCheckForProjectionFields(SelectRequestPacket packet, JSONObject record,
-		  GNSApplicationInterface<String> app) 
-  {
-	  try 
-	  {
-		  String guid = record.getString(NameRecord.NAME.getName());
-		  // Look at the keys in the values map
-		  JSONObject valuesMap = record.getJSONObject(NameRecord.VALUES_MAP.getName());
-		  Iterator<?> keys = valuesMap.keys();
-		  while (keys.hasNext()) 
-		  {
-			  String field = (String) keys.next();
-			  if (!InternalField.isInternalField(field)) 
-			  {
-				  LOGGER.log(Level.FINE, "{0} Checking: {1}", new Object[]{app.getNodeID(), field});
-				  ResponseCode responseCode = NSAuthentication.signatureAndACLCheck(null, guid, field, 
-						  null, packet.getReader(), null, null, MetaDataTypeName.READ_WHITELIST, app, true, 
-						  new NameRecord(app.getDB(), record));
-            
-				  if (!responseCode.isOKResult()) 
-				  {
-					  LOGGER.log(Level.FINE, "{0} Removing: {1}", new Object[]{app.getNodeID(), field});
-					  // removing the offending field
-					  keys.remove();
-				  }
-			  }
-		  }
-      } catch (JSONException | InvalidKeyException | InvalidKeySpecException 
-    		  | SignatureException | NoSuchAlgorithmException | FailedDBOperationException 
-    		  | UnsupportedEncodingException e) 
-	  {
-    	  LOGGER.log(Level.FINE, "{0} Problem getting guid from json: {1}",
-                new Object[]{app.getNodeID(), e.getMessage()});
-    	  // This record has problems, so we can't return this to a user. 
-    	  return null;
-      }
-	  return record;
+  	  return new NotificationStatsToIssuer(selectHandle, job.getTotalNotifications(), 
+				job.getNumberFailed(), job.getNumberPending(), job.getPendingBatches(),
+				job.getDeliveryRate());
   }
   
-  // Returns the fields that present in a query.
-  private List<String> getFieldsForQueryType(SelectRequestPacket request) 
-  {
-	  switch (request.getSelectOperation()) 
-	  {
-	  	case EQUALS:
-      	case NEAR:
-      	case WITHIN:
-      		return new ArrayList<>(Arrays.asList(request.getKey()));
-      	case QUERY:
-      	case SELECT_NOTIFY:
-      		return getFieldsFromQuery(request.getQuery());
-      	default:
-      		return new ArrayList<>();
-	  }
-  }
-  
-  
-  // Uses a regular expression to extract the fields from a select query.
-  private List<String> getFieldsFromQuery(String query) {
-    List<String> result = new ArrayList<>();
-    // Create a Pattern object
-    Matcher m = Pattern.compile("~\\w+(\\.\\w+)*").matcher(query);
-    // Now create matcher object.
-    while (m.find()) {
-      result.add(m.group().substring(1));
-    }
-    return result;
-  }
   
   
   /**
@@ -974,23 +1025,7 @@ public class Select extends AbstractSelector
 		  // and this is the non-null response that needs to go to the client.
 		  if(response != null)
 		  {
-			  // Put the result where the coordinator can see it.
-			  queryResult.put(packet.getNsQueryId(), response);
-			  // and let the coordinator know the value is there
-			  if (GNSApp.DELEGATE_CLIENT_MESSAGING) 
-			  {
-				  synchronized (pendingQueries) 
-				  {
-					  // Must be done after setting result in QUERY_RESULT,
-					  // Otherwise, the waiting thread will wake up and 
-					  // find the query is not in progress but will not find any result
-					  // so will return a wrong response. A wait()
-					  // can wake spuriously without the notify() as mentioned
-					  // in the documentation of these functions.
-					  pendingQueries.remove(packet.getNsQueryId());
-					  pendingQueries.notify();
-				  }
-			  }
+			  completeQuery(info, response);
 		  }
 	  } 
 	  else 
@@ -1003,23 +1038,7 @@ public class Select extends AbstractSelector
 		  // The query has failed at one of the name servers.
 		  // So, we just send an error response to the client
 		  // and remove the query state.
-		  // Put the result where the coordinator can see it.
-		  queryResult.put(packet.getNsQueryId(), packet);
-		  // and let the coordinator know the value is there
-		  if (GNSApp.DELEGATE_CLIENT_MESSAGING) 
-		  {
-			  synchronized (pendingQueries) 
-			  {
-				  // Must be done after setting result in QUERY_RESULT,
-				  // Otherwise, the waiting thread will wake up and 
-				  // find the query is not in progress but will not find any result
-				  // so will return a wrong response. A wait()
-				  // can wake spuriously without the notify() as mentioned
-				  // in the documentation of these functions.
-				  pendingQueries.remove(packet.getNsQueryId());
-				  pendingQueries.notify();
-			  }
-		  }
+		  completeQuery(info, packet);
 	  }
   }
   
@@ -1046,7 +1065,9 @@ public class Select extends AbstractSelector
 			case WITHIN:
 			case QUERY:
 			{
-				response = processSelectResponseForReturningGUIDs(packet, info, replica);
+				response = info.getSelectRequestPacket().getAggregation() != null
+						? processSelectResponseForAggregation(packet, info, replica)
+						: processSelectResponseForReturningGUIDs(packet, info, replica);
 			  	break;
 			}
 			case SELECT_NOTIFY:
@@ -1082,27 +1103,11 @@ public class Select extends AbstractSelector
 		  SelectResponsePacket packet, NSSelectInfo info, GNSApplicationInterface<String> app) 
 				  	throws JSONException
   {
+	  addRecords(packet, info);
 	  
-	  JSONArray jsonArray = packet.getRecords();
-	  int length = jsonArray.length();
-	  for (int i = 0; i < length; i++)
-	  {
-		  JSONObject record = jsonArray.getJSONObject(i);
-		  String name = record.getString(NameRecord.NAME.getName());
-		  info.addRecordResponseIfNotSeenYet(name, record);  
-	  }
-	  
-	  // Remove the NS Address from the list to keep track of who has responded
-	  boolean allServersResponded;
-	  /* synchronization needed, otherwise assertion in app.sendToClient
-	   * implying that an outstanding request is always found gets violated. 
-	   */
-	  synchronized (info) 
-	  {
-		  // Remove the NS Address from the list to keep track of who has responded
-		  info.removeServerAddress(packet.getNSAddress());
-		  allServersResponded = info.allServersResponded();
-	  }
+	  // Remove the NS Address from the list to keep track of who has responded.
+	  // Only the last response to arrive sees true here.
+	  boolean allServersResponded = info.removeServerAddress(packet.getNSAddress());
 	  if (allServersResponded) 
 	  {  
 		  Set<JSONObject> allRecords = info.getResponsesAsSet();
@@ -1141,6 +1146,70 @@ public class Select extends AbstractSelector
   }
   
   
+  private static void addRecords(SelectResponsePacket packet, NSSelectInfo info) throws JSONException
+  {
+	  JSONArray jsonArray = packet.getRecords();
+	  int length = jsonArray.length();
+	  for (int i = 0; i < length; i++)
+	  {
+		  JSONObject record = jsonArray.getJSONObject(i);
+		  String name = record.getString(NameRecord.NAME.getName());
+		  info.addRecordResponseIfNotSeenYet(name, record);  
+	  }
+  }
+  
+  /**
+   * Merges the response of a name server to a select with an aggregation.
+   * Returns a SelectResponsePacket if all name servers have responded. 
+   * Otherwise, returns null for pending requests. 
+   */
+  private SelectResponsePacket processSelectResponseForAggregation(
+		  SelectResponsePacket packet, NSSelectInfo info, GNSApplicationInterface<String> app) 
+				  	throws JSONException
+  {
+	  if (info.getAggregator() != null)
+	  {
+		  if (info.mergeAggregate(packet.getNSAddress(), packet.getAggregate()))
+		  {
+			  JSONObject result = info.getAggregator().getResult();
+			  LOGGER.log(Level.FINE, "NS{0} aggregate:{1} All servers responded",
+					  new Object[]{app.getNodeID(), result});
+			  return SelectResponsePacket.makeSuccessPacketForAggregate(
+					  packet.getRequestID(), null, -1, null, null, result);
+		  }
+		  return null;
+	  }
+	  
+	  // a limit: each name server sent its first records, of which the first overall are kept
+	  addRecords(packet, info);
+	  if (!info.removeServerAddress(packet.getNSAddress()))
+	  {
+		  return null;
+	  }
+	  SelectAggregator limit = new SelectAggregator(info.getSelectRequestPacket());
+	  for (JSONObject record : info.getResponsesAsList())
+	  {
+		  limit.add(record);
+	  }
+	  List<JSONObject> records = limit.getRecords();
+	  JSONArray result;
+	  if (info.getProjection() == null)
+	  {
+		  result = new JSONArray();
+		  for (JSONObject record : records)
+		  {
+			  result.put(record.getString(NameRecord.NAME.getName()));
+		  }
+	  }
+	  else
+	  {
+		  result = new JSONArray(filterAndMassageRecords(new LinkedHashSet<>(records)));
+	  }
+	  return SelectResponsePacket.makeSuccessPacketForFullRecords(
+			  packet.getRequestID(), null, -1, null, result);
+  }
+  
+  
   private SelectResponsePacket processSelectResponseForSelectNotify
   		(SelectResponsePacket packet, NSSelectInfo info, 
   				GNSApplicationInterface<String> app)
@@ -1151,17 +1220,9 @@ public class Select extends AbstractSelector
 	  // Aggregating the notification stats.
 	  info.addNotificationStat(packet.getNotificationStats());
 	  
-	  // Remove the NS Address from the list to keep track of who has responded
-	  boolean allServersResponded;
-	  /* synchronization needed, otherwise assertion in app.sendToClient
-	   * implying that an outstanding request is always found gets violated. 
-	   */
-	  synchronized (info) 
-	  {
-		  // Remove the NS Address from the list to keep track of who has responded
-		  info.removeServerAddress(packet.getNSAddress());
-		  allServersResponded = info.allServersResponded();
-	  }
+	  // Remove the NS Address from the list to keep track of who has responded.
+	  // Only the last response to arrive sees true here.
+	  boolean allServersResponded = info.removeServerAddress(packet.getNSAddress());
 	  
 	  
 	  if (allServersResponded) 
@@ -1177,12 +1238,16 @@ public class Select extends AbstractSelector
 		  long totalNot = 0;
 		  long failedNot = 0;
 		  long pendingNot = 0;
+		  long pendingBatches = 0;
+		  double deliveryRate = 0;
 		  
 		  for(int i=0; i<statsList.size(); i++)
 		  {
 			  totalNot+=statsList.get(i).getTotalNotifications();
 			  failedNot+=statsList.get(i).getFailedNotifications();
 			  pendingNot+=statsList.get(i).getPendingNotifications();
+			  pendingBatches+=statsList.get(i).getPendingBatches();
+			  deliveryRate+=statsList.get(i).getDeliveryRate();
 		  }
 		  
 		  List<LocalSelectHandleInfo> handleList = getLocalSelectHandleList(statsList);
@@ -1191,7 +1256,8 @@ public class Select extends AbstractSelector
 	  					= new SelectHandleInfo(handleList);
 		  
 		  NotificationStatsToIssuer mergedStats = new NotificationStatsToIssuer
-	  							(selectHandle, totalNot, failedNot, pendingNot);
+	  							(selectHandle, totalNot, failedNot, pendingNot, 
+								pendingBatches, deliveryRate);
 		  
 		  response = SelectResponsePacket.makeSuccessPacketForNotificationStatsOnly
 				  	(packet.getRequestID(), null, -1, null, mergedStats);
@@ -1228,17 +1294,9 @@ public class Select extends AbstractSelector
 	  // Aggregating the notification stats.
 	  info.addNotificationStat(packet.getNotificationStats());
 	  
-	  // Remove the NS Address from the list to keep track of who has responded
-	  boolean allServersResponded;
-	  /* synchronization needed, otherwise assertion in app.sendToClient
-	   * implying that an outstanding request is always found gets violated. 
-	   */
-	  synchronized (info) 
-	  {
-		  // Remove the NS Address from the list to keep track of who has responded
-		  info.removeServerAddress(packet.getNSAddress());
-		  allServersResponded = info.allServersResponded();
-	  }
+	  // Remove the NS Address from the list to keep track of who has responded.
+	  // Only the last response to arrive sees true here.
+	  boolean allServersResponded = info.removeServerAddress(packet.getNSAddress());
 	  
 	  
 	  if (allServersResponded) 
@@ -1259,12 +1317,16 @@ public class Select extends AbstractSelector
 			  long totalNot = 0;
 			  long failedNot = 0;
 			  long pendingNot = 0;
+			  long pendingBatches = 0;
+			  double deliveryRate = 0;
 			  
 			  for(int i=0; i<statsList.size(); i++)
 			  {
 				  totalNot+=statsList.get(i).getTotalNotifications();
 				  failedNot+=statsList.get(i).getFailedNotifications();
 				  pendingNot+=statsList.get(i).getPendingNotifications();
+				  pendingBatches+=statsList.get(i).getPendingBatches();
+				  deliveryRate+=statsList.get(i).getDeliveryRate();
 			  }
 			  
 			  SelectHandleInfo selectHandle 
@@ -1273,7 +1335,8 @@ public class Select extends AbstractSelector
 			  assert(selectHandle != null);
 			  
 			  NotificationStatsToIssuer mergedStats = new NotificationStatsToIssuer
-		  							(selectHandle, totalNot, failedNot, pendingNot);
+		  							(selectHandle, totalNot, failedNot, pendingNot, 
+								pendingBatches, deliveryRate);
 			  
 			  
 			  response = SelectResponsePacket.makeSuccessPacketForNotificationStatsOnly
@@ -1331,22 +1394,42 @@ public class Select extends AbstractSelector
     return result;
   }
 
-  private int addQueryInfo(Set<InetSocketAddress> serverAddresses, 
+  private NSSelectInfo addQueryInfo(Set<InetSocketAddress> serverAddresses, 
 		  								SelectRequestPacket selectPacket) 
   {
-	  int id;
-	  synchronized(pendingQueries)
+	  NSSelectInfo info;
+	  do 
 	  {
-		  do 
-		  {
-			  id = randomIdGen.nextInt();
-		  }
-		  while (pendingQueries.containsKey(id));
-		  //Add query info
-		  NSSelectInfo info = new NSSelectInfo(id, serverAddresses, selectPacket);
-		  pendingQueries.put(id, info);
+		  info = new NSSelectInfo(randomIdGen.nextInt(), serverAddresses, selectPacket);
+	  }
+	  while (pendingQueries.putIfAbsent(info.getId(), info) != null);
+	  
+	  final NSSelectInfo pendingInfo = info;
+	  ScheduledFuture<?> timeout = TIMER.schedule(() -> timeoutQuery(pendingInfo), 
+			  SELECT_REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+	  info.getFuture().whenComplete((response, e) -> timeout.cancel(false));
+	  return info;
+  }
+  
+  // Removes the query state and hands the response to the request path.
+  private void completeQuery(NSSelectInfo info, SelectResponsePacket response)
+  {
+	  pendingQueries.remove(info.getId(), info);
+	  info.complete(response);
+  }
+  
+  private void timeoutQuery(NSSelectInfo info)
+  {
+	  if (info.getFuture().isDone())
+	  {
+		  return;
 	  }
-	  return id;
+	  LOGGER.log(Level.WARNING, "Select {0} timed out after {1}ms waiting for {2}",
+			  new Object[]{info.getId(), SELECT_REQUEST_TIMEOUT, info.serversYetToRespond()});
+	  completeQuery(info, SelectResponsePacket.makeFailPacket(
+			  info.getSelectRequestPacket().getRequestID(), null, -1, null, 
+			  "Select timed out after " + SELECT_REQUEST_TIMEOUT + "ms waiting for " 
+					  + info.serversYetToRespond()));
   }
   
   
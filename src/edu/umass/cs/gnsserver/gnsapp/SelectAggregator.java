@@ -0,0 +1,365 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.gnscommon.utils.JSONDotNotation;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectAggregation;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectAggregation.Function;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectOperation;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.GeoIndex;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+
+/**
+ * Computes the {@link SelectAggregation} of a select.
+ *
+ * A name server adds the records it matches, after their ACL checks, and
+ * sends back either a partial aggregate or, for a limit, its own first
+ * records. The collecting name server merges the partial aggregates, or
+ * adds the records of all the name servers and keeps the first ones.
+ *
+ * Counts, sums and averages are only additive if every record is counted
+ * by a single name server. Neither every replica returning its records nor
+ * primary responders guarantee that, as a name server outside the replicas
+ * of a record by consistent hashing also returns it, so for these each name
+ * server sends the values of the field by name and the collecting name
+ * server removes the duplicates. Minimums and maximums are not affected by
+ * duplicates, and the collecting name server keeps a single record per
+ * name for a limit.
+ *
+ * @author westy
+ */
+public class SelectAggregator {
+
+  private final static String COUNT = "count";
+  private final static String SUM = "sum";
+  private final static String MIN = "min";
+  private final static String MAX = "max";
+  private final static String VALUES = "values";
+
+  // a record of a limit with its sort key
+  private static class Ranked {
+
+    final JSONObject record;
+    final String name;
+    // a Double, a String or null
+    final Object key;
+
+    Ranked(JSONObject record, String name, Object key) {
+      this.record = record;
+      this.name = name;
+      this.key = key;
+    }
+  }
+
+  private final SelectAggregation aggregation;
+  private final Function function;
+  private final String field;
+  // the point a limit of a near select is ordered by the distance to, or null
+  private final double[] nearPoint;
+  private final String nearField;
+  // true if values are sent by name so that duplicates can be removed
+  private final boolean byName;
+  // best first
+  private final Comparator<Ranked> order;
+
+  private long count = 0;
+  private double sum = 0;
+  private double min = Double.POSITIVE_INFINITY;
+  private double max = Double.NEGATIVE_INFINITY;
+  private final Map<String, Object> values = new HashMap<>();
+  // worst first, so that the head is dropped when the limit is exceeded
+  private final PriorityQueue<Ranked> first;
+
+  /**
+   * @param request a select with an aggregation
+   */
+  public SelectAggregator(SelectRequestPacket request) {
+    this.aggregation = request.getAggregation();
+    this.function = aggregation.getFunction();
+    this.field = aggregation.getField();
+    boolean byDistance = function == Function.LIMIT && field == null
+            && request.getSelectOperation() == SelectOperation.NEAR;
+    this.nearPoint = byDistance ? GeoIndex.parsePoint(request.getValue()) : null;
+    this.nearField = byDistance ? request.getKey() : null;
+    this.byName = function == Function.COUNT || function == Function.SUM || function == Function.AVG;
+    Comparator<Ranked> byKey = (a, b) -> compareKeys(a.key, b.key, aggregation.isDescending());
+    this.order = byKey.thenComparing(a -> a.name);
+    this.first = function == Function.LIMIT
+            ? new PriorityQueue<>(Math.max(aggregation.getLimit(), 1), Collections.reverseOrder(order))
+            : null;
+  }
+
+  /**
+   * @return the aggregation
+   */
+  public SelectAggregation getAggregation() {
+    return aggregation;
+  }
+
+  /**
+   * Adds a record matched by the select.
+   *
+   * @param record a record that passed the ACL checks
+   */
+  public synchronized void add(JSONObject record) {
+    String name = record.optString(NameRecord.NAME.getName(), null);
+    JSONObject valuesMap = record.optJSONObject(NameRecord.VALUES_MAP.getName());
+    if (name == null || valuesMap == null) {
+      return;
+    }
+    if (function == Function.LIMIT) {
+      first.offer(new Ranked(record, name, getKey(valuesMap)));
+      if (first.size() > aggregation.getLimit()) {
+        first.poll();
+      }
+      return;
+    }
+    Object value = field != null ? getField(valuesMap, field) : null;
+    if (field != null && value == null) {
+      return;
+    }
+    Double number = null;
+    if (function != Function.COUNT) {
+      number = toNumber(value);
+      if (number == null) {
+        return;
+      }
+    }
+    if (byName) {
+      values.put(name, number != null ? number : Boolean.TRUE);
+    } else {
+      accumulate(number);
+    }
+  }
+
+  /**
+   * @return true if no record added from now on can change the result,
+   * i.e., for a limit that is either unordered or ordered by the distance
+   * from the point of a near select, whose records come nearest first
+   */
+  public synchronized boolean isDone() {
+    return function == Function.LIMIT && (field == null)
+            && first.size() >= aggregation.getLimit();
+  }
+
+  private void accumulate(Double number) {
+    count++;
+    if (number != null) {
+      sum += number;
+      min = Math.min(min, number);
+      max = Math.max(max, number);
+    }
+  }
+
+  /**
+   * @return the partial aggregate of the records added, sent by a name
+   * server to the collecting name server
+   * @throws JSONException
+   */
+  public synchronized JSONObject getPartial() throws JSONException {
+    JSONObject json = new JSONObject();
+    if (byName) {
+      json.put(VALUES, new JSONObject(values));
+      return json;
+    }
+    json.put(COUNT, count);
+    json.put(SUM, sum);
+    if (count > 0 && function != Function.COUNT) {
+      json.put(MIN, min);
+      json.put(MAX, max);
+    }
+    return json;
+  }
+
+  /**
+   * Merges a partial aggregate sent by a name server.
+   *
+   * @param partial
+   * @throws JSONException
+   */
+  public synchronized void merge(JSONObject partial) throws JSONException {
+    if (partial == null) {
+      return;
+    }
+    JSONObject byNameValues = partial.optJSONObject(VALUES);
+    if (byNameValues != null) {
+      Iterator<?> names = byNameValues.keys();
+      while (names.hasNext()) {
+        String name = (String) names.next();
+        values.put(name, byNameValues.get(name));
+      }
+      return;
+    }
+    count += partial.optLong(COUNT, 0);
+    sum += partial.optDouble(SUM, 0);
+    if (partial.has(MIN)) {
+      min = Math.min(min, partial.getDouble(MIN));
+    }
+    if (partial.has(MAX)) {
+      max = Math.max(max, partial.getDouble(MAX));
+    }
+  }
+
+  /**
+   * @return the result of an aggregation other than a limit, with the
+   * function, the field, the number of values aggregated and the value,
+   * which is missing if there were no values to aggregate
+   * @throws JSONException
+   */
+  public synchronized JSONObject getResult() throws JSONException {
+    long totalCount = count;
+    double totalSum = sum;
+    double totalMin = min;
+    double totalMax = max;
+    for (Object value : values.values()) {
+      Double number = toNumber(value);
+      totalCount++;
+      if (number != null) {
+        totalSum += number;
+        totalMin = Math.min(totalMin, number);
+        totalMax = Math.max(totalMax, number);
+      }
+    }
+    JSONObject json = new JSONObject();
+    json.put("function", function.name());
+    if (field != null) {
+      json.put("field", field);
+    }
+    json.put(COUNT, totalCount);
+    switch (function) {
+      case COUNT:
+        json.put("value", totalCount);
+        break;
+      case SUM:
+        json.put("value", totalSum);
+        break;
+      case AVG:
+        if (totalCount > 0) {
+          json.put("value", totalSum / totalCount);
+        }
+        break;
+      case MIN:
+        if (totalCount > 0) {
+          json.put("value", totalMin);
+        }
+        break;
+      case MAX:
+        if (totalCount > 0) {
+          json.put("value", totalMax);
+        }
+        break;
+      default:
+        break;
+    }
+    return json;
+  }
+
+  /**
+   * @return the first records of a limit, best first
+   */
+  public synchronized List<JSONObject> getRecords() {
+    List<Ranked> ranked = new ArrayList<>(first);
+    ranked.sort(order);
+    List<JSONObject> result = new ArrayList<>(ranked.size());
+    for (Ranked entry : ranked) {
+      result.add(entry.record);
+    }
+    return result;
+  }
+
+  private Object getKey(JSONObject valuesMap) {
+    if (nearPoint != null) {
+      double[] point = GeoIndex.parsePoint(getField(valuesMap, nearField));
+      if (point == null) {
+        return null;
+      }
+      return GeoIndex.getDistance(nearField, point, nearPoint);
+    }
+    if (field == null) {
+      return null;
+    }
+    Object value = getField(valuesMap, field);
+    if (value == null) {
+      return null;
+    }
+    Double number = toNumber(value);
+    return number != null ? number : value.toString();
+  }
+
+  // missing keys last, numbers before strings
+  private static int compareKeys(Object a, Object b, boolean descending) {
+    if (a == null || b == null) {
+      return a == null ? (b == null ? 0 : 1) : -1;
+    }
+    int result;
+    if (a instanceof Double && b instanceof Double) {
+      result = Double.compare((Double) a, (Double) b);
+    } else if (a instanceof Double || b instanceof Double) {
+      return a instanceof Double ? -1 : 1;
+    } else {
+      result = ((String) a).compareTo((String) b);
+    }
+    return descending ? -result : result;
+  }
+
+  private static Object getField(JSONObject valuesMap, String field) {
+    try {
+      Object value = field.contains(".")
+              ? JSONDotNotation.getWithDotNotation(field, valuesMap) : valuesMap.opt(field);
+      return value == JSONObject.NULL ? null : value;
+    } catch (JSONException | ClassCastException e) {
+      return null;
+    }
+  }
+
+  // field values are often strings, so numeric strings count as numbers
+  private static Double toNumber(Object value) {
+    if (value instanceof Number) {
+      double number = ((Number) value).doubleValue();
+      return Double.isNaN(number) || Double.isInfinite(number) ? null : number;
+    }
+    if (value instanceof String) {
+      try {
+        return toNumber(Double.valueOf(((String) value).trim()));
+      } catch (NumberFormatException e) {
+        return null;
+      }
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + "[" + aggregation + "]";
+  }
+}
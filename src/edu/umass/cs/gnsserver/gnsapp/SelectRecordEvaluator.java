@@ -0,0 +1,334 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import java.io.UnsupportedEncodingException;
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.SignatureException;
+import java.security.spec.InvalidKeySpecException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.ResponseCode;
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.InternalField;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.MetaDataTypeName;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.AccessorLookups;
+import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSAuthentication;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectAggregation;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectOperation;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DelayProfiler;
+
+/**
+ * Does the ACL checks and the projection of the records matched by a select
+ * on a name server.
+ *
+ * Everything that only depends on the request is done once when the
+ * evaluator is made: the query fields are extracted, the projection is turned
+ * into a set, and the lookups of the reader's guid info and groups, which may
+ * be remote, are shared by all the records. Fields that are projected out are
+ * dropped before their ACL is checked, and each record is wrapped in a single
+ * {@link NameRecord} for all of its checks.
+ *
+ * Records are evaluated in batches. A batch of at least
+ * {@link GNSConfig.GNSC#SELECT_PARALLEL_THRESHOLD} records is split across
+ * {@link GNSConfig.GNSC#SELECT_EVALUATION_THREADS} threads.
+ *
+ * @author westy
+ */
+public class SelectRecordEvaluator {
+
+  private static final Logger LOGGER = GNSConfig.getLogger();
+
+  private static final Pattern QUERY_FIELD_PATTERN = Pattern.compile("~\\w+(\\.\\w+)*");
+
+  // shared by all selects so that concurrent selects don't oversubscribe the cores
+  private static class PoolHolder {
+
+    static final ForkJoinPool POOL = new ForkJoinPool(getNumThreads());
+
+    private static int getNumThreads() {
+      int threads = Config.getGlobalInt(GNSConfig.GNSC.SELECT_EVALUATION_THREADS);
+      return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+  }
+
+  private final SelectRequestPacket request;
+  private final GNSApplicationInterface<String> app;
+  private final List<String> queryFields;
+  // null if all fields are returned
+  private final Set<String> projection;
+  // null if there is no reader
+  private final AccessorLookups accessorLookups;
+  private final int parallelThreshold;
+
+  private final AtomicInteger numEvaluated = new AtomicInteger();
+  private final AtomicInteger numReturned = new AtomicInteger();
+  private final AtomicLong fetchNanos = new AtomicLong();
+  private final AtomicLong queryACLNanos = new AtomicLong();
+  private final AtomicLong fieldACLNanos = new AtomicLong();
+  private final AtomicLong projectionNanos = new AtomicLong();
+
+  /**
+   * @param request
+   * @param app
+   */
+  public SelectRecordEvaluator(SelectRequestPacket request, GNSApplicationInterface<String> app) {
+    this.request = request;
+    this.app = app;
+    this.queryFields = getFieldsForQueryType(request);
+    List<String> requested = request.getProjection();
+    SelectAggregation aggregation = request.getAggregation();
+    if (aggregation != null && aggregation.isPartial()) {
+      // an aggregate only reads its field, so no other field is ACL checked
+      this.projection = new HashSet<>();
+      if (aggregation.getField() != null) {
+        this.projection.add(topLevel(aggregation.getField()));
+      }
+    } else if (requested == null
+            // this handles the special case of the user wanting all fields in the projection
+            || (!requested.isEmpty() && requested.get(0).equals(GNSProtocol.ENTIRE_RECORD.toString()))) {
+      this.projection = null;
+    } else {
+      this.projection = new HashSet<>(requested);
+      // a limit is merged by its sort key, which is returned even if not requested
+      if (aggregation != null) {
+        String sortField = aggregation.getField() != null ? aggregation.getField()
+                : request.getSelectOperation() == SelectOperation.NEAR ? request.getKey() : null;
+        if (sortField != null) {
+          this.projection.add(topLevel(sortField));
+        }
+      }
+    }
+    this.accessorLookups = request.getReader() == null ? null
+            : new AccessorLookups(null, request.getReader(), app.getRequestHandler());
+    this.parallelThreshold = Config.getGlobalInt(GNSConfig.GNSC.SELECT_PARALLEL_THRESHOLD);
+  }
+
+  /**
+   * Evaluates a batch of records.
+   *
+   * @param records
+   * @return the records that pass the ACL check of the query fields, in the
+   * same order, with the fields that the reader can not read or did not ask
+   * for removed
+   */
+  public List<JSONObject> evaluate(List<JSONObject> records) {
+    if (records.size() < parallelThreshold || PoolHolder.POOL.getParallelism() < 2) {
+      List<JSONObject> result = new ArrayList<>(records.size());
+      for (JSONObject record : records) {
+        JSONObject evaluated = evaluate(record);
+        if (evaluated != null) {
+          result.add(evaluated);
+        }
+      }
+      return result;
+    }
+    try {
+      // a parallel stream run inside a pool splits its work over that pool
+      return PoolHolder.POOL.submit(() -> records.parallelStream()
+              .map(this::evaluate).filter(Objects::nonNull)
+              .collect(Collectors.toList())).get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return new ArrayList<>();
+    } catch (ExecutionException e) {
+      LOGGER.log(Level.WARNING, "{0} parallel evaluation of select {1} failed: {2}",
+              new Object[]{app.getNodeID(), request.getSummary(), e.getCause()});
+      return new ArrayList<>();
+    }
+  }
+
+  /**
+   * Evaluates a single record.
+   *
+   * @param record
+   * @return the record, with the fields that the reader can not read or did
+   * not ask for removed, or null if the record does not pass the ACL check
+   * of the query fields or is malformed
+   */
+  public JSONObject evaluate(JSONObject record) {
+    numEvaluated.incrementAndGet();
+    try {
+      String guid = record.getString(NameRecord.NAME.getName());
+      NameRecord nameRecord = new NameRecord(app.getDB(), record);
+
+      long startTime = System.nanoTime();
+      boolean satisfy = canReadQueryFields(guid, nameRecord);
+      queryACLNanos.addAndGet(System.nanoTime() - startTime);
+      if (!satisfy) {
+        return null;
+      }
+
+      startTime = System.nanoTime();
+      JSONObject valuesMap = record.getJSONObject(NameRecord.VALUES_MAP.getName());
+      Iterator<?> keys = valuesMap.keys();
+      while (keys.hasNext()) {
+        String field = (String) keys.next();
+        if (projection != null && !projection.contains(field)) {
+          // no need to check the ACL of a field that is not returned
+          keys.remove();
+        } else if (!InternalField.isInternalField(field) && !canReadField(guid, field, nameRecord)) {
+          LOGGER.log(Level.FINE, "{0} Removing: {1}", new Object[]{app.getNodeID(), field});
+          keys.remove();
+        }
+      }
+      fieldACLNanos.addAndGet(System.nanoTime() - startTime);
+
+      if (projection != null) {
+        startTime = System.nanoTime();
+        // for the signature and ACL checks internal fields are read too, so now only
+        // the name and the user requested fields are kept
+        Iterator<?> recordKeys = record.keys();
+        while (recordKeys.hasNext()) {
+          String key = (String) recordKeys.next();
+          if (!key.equals(NameRecord.NAME.getName()) && !key.equals(NameRecord.VALUES_MAP.getName())) {
+            recordKeys.remove();
+          }
+        }
+        projectionNanos.addAndGet(System.nanoTime() - startTime);
+      }
+    } catch (JSONException | InvalidKeyException | InvalidKeySpecException
+            | SignatureException | NoSuchAlgorithmException | FailedDBOperationException
+            | UnsupportedEncodingException e) {
+      // This record has problems, so we can't return this to a user.
+      LOGGER.log(Level.FINE, "{0} Problem getting guid from json: {1}",
+              new Object[]{app.getNodeID(), e.getMessage()});
+      return null;
+    }
+    numReturned.incrementAndGet();
+    return record;
+  }
+
+  private static String topLevel(String field) {
+    int dot = field.indexOf('.');
+    return dot < 0 ? field : field.substring(0, dot);
+  }
+
+  // checks that the reader has read access to all query fields
+  private boolean canReadQueryFields(String guid, NameRecord nameRecord)
+          throws InvalidKeyException, InvalidKeySpecException, SignatureException,
+          NoSuchAlgorithmException, FailedDBOperationException, UnsupportedEncodingException {
+    if (accessorLookups == null) {
+      return NSAuthentication.signatureAndACLCheck(null, guid, null, queryFields, null, null, null,
+              MetaDataTypeName.READ_WHITELIST, app, true, nameRecord).isOKResult();
+    }
+    for (String field : queryFields) {
+      if (!canReadField(guid, field, nameRecord)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean canReadField(String guid, String field, NameRecord nameRecord)
+          throws InvalidKeyException, InvalidKeySpecException, SignatureException,
+          NoSuchAlgorithmException, FailedDBOperationException, UnsupportedEncodingException {
+    ResponseCode responseCode;
+    if (accessorLookups == null) {
+      responseCode = NSAuthentication.signatureAndACLCheck(null, guid, field, null, null, null, null,
+              MetaDataTypeName.READ_WHITELIST, app, true, nameRecord);
+    } else {
+      responseCode = NSAuthentication.aclCheck(null, guid, field, accessorLookups.getAccessorGuid(),
+              MetaDataTypeName.READ_WHITELIST, app, accessorLookups, nameRecord).getResponseCode();
+    }
+    return !responseCode.isExceptionOrError();
+  }
+
+  // Returns the fields that present in a query.
+  static List<String> getFieldsForQueryType(SelectRequestPacket request) {
+    switch (request.getSelectOperation()) {
+      case EQUALS:
+      case NEAR:
+      case WITHIN:
+        return new ArrayList<>(Arrays.asList(request.getKey()));
+      case QUERY:
+      case SELECT_NOTIFY:
+        return getFieldsFromQuery(request.getQuery());
+      default:
+        return new ArrayList<>();
+    }
+  }
+
+  // Uses a regular expression to extract the fields from a select query.
+  private static List<String> getFieldsFromQuery(String query) {
+    List<String> result = new ArrayList<>();
+    Matcher m = QUERY_FIELD_PATTERN.matcher(query);
+    while (m.find()) {
+      result.add(m.group().substring(1));
+    }
+    return result;
+  }
+
+  /**
+   * Adds to the time spent reading the records from the database.
+   *
+   * @param nanos
+   */
+  public void addFetchTime(long nanos) {
+    fetchNanos.addAndGet(nanos);
+  }
+
+  /**
+   * Records the time spent in each stage of the evaluation with the
+   * {@link DelayProfiler}.
+   */
+  public void reportStageTimes() {
+    long now = System.nanoTime();
+    DelayProfiler.updateDelayNano("selectFetch", now - fetchNanos.get());
+    DelayProfiler.updateDelayNano("selectQueryACL", now - queryACLNanos.get());
+    DelayProfiler.updateDelayNano("selectFieldACL", now - fieldACLNanos.get());
+    DelayProfiler.updateDelayNano("selectProjection", now - projectionNanos.get());
+    LOGGER.log(Level.FINE, "{0} {1}", new Object[]{app.getNodeID(), this});
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + "[" + request.getSummary()
+            + ", evaluated=" + numEvaluated + ", returned=" + numReturned
+            + ", fetchMs=" + fetchNanos.get() / 1000000
+            + ", queryACLMs=" + queryACLNanos.get() / 1000000
+            + ", fieldACLMs=" + fieldACLNanos.get() / 1000000
+            + ", projectionMs=" + projectionNanos.get() / 1000000 + "]";
+  }
+}
@@ -0,0 +1,171 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import edu.umass.cs.gigapaxos.PaxosConfig;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
+import edu.umass.cs.reconfiguration.ReconfigurationConfig;
+import edu.umass.cs.reconfiguration.reconfigurationutils.ConsistentHashing;
+import edu.umass.cs.utils.Config;
+
+/**
+ * Decides which name server returns a record in a select, so that each
+ * record matched by a select is ACL checked, projected and shipped by a
+ * single replica instead of all of them.
+ *
+ * The replicas of a guid are found with the same consistent hashing of the
+ * active replicas that is used to place names (see
+ * {@link edu.umass.cs.gnsserver.nodeconfig.GNSConsistentReconfigurableNodeConfig}),
+ * and the primary responder is picked among them by rendezvous hashing, so
+ * every name server reaches the same decision without any coordination.
+ *
+ * If some name servers do not respond in time, the collecting name server
+ * asks the others again with those servers excluded, and each guid whose
+ * primary responder was excluded is returned by the next replica in the
+ * rendezvous order.
+ *
+ * A name server does not know the actual replicas of the names it holds, so
+ * this is only sound as long as names stay where consistent hashing placed
+ * them. A demand profile other than {@link NullDemandProfile} may move names,
+ * and a record moved away from its primary responder would not be returned
+ * at all, so then every replica returns its records, see
+ * {@link #isPlacedByConsistentHashing()}.
+ *
+ * An instance holds the plan of a single select at a single name server.
+ *
+ * @author westy
+ */
+public class SelectResponderPlanner {
+
+  private static Set<String> lastActives = null;
+  private static ConsistentHashing<String> consistentHashing = null;
+
+  private static final boolean PLACED_BY_CONSISTENT_HASHING
+          = NullDemandProfile.class.getName().equals(
+                  Config.getGlobalString(ReconfigurationConfig.RC.DEMAND_PROFILE_TYPE));
+
+  private final ConsistentHashing<String> hashing;
+  private final String nodeID;
+  private final Set<String> excluded;
+
+  private SelectResponderPlanner(ConsistentHashing<String> hashing, String nodeID, Set<String> excluded) {
+    this.hashing = hashing;
+    this.nodeID = nodeID;
+    this.excluded = excluded != null && !excluded.isEmpty() ? excluded : null;
+  }
+
+  /**
+   * @return true if names are never moved away from the replicas that
+   * consistent hashing picks for them
+   */
+  public static boolean isPlacedByConsistentHashing() {
+    return PLACED_BY_CONSISTENT_HASHING;
+  }
+
+  /**
+   * Plans which records of the select {@code request} the name server
+   * {@code nodeID} returns.
+   *
+   * @param request
+   * @param nodeID
+   * @return the plan, or null if every record is returned
+   */
+  public static SelectResponderPlanner forSelect(SelectRequestPacket request, String nodeID) {
+    if (!request.isPrimaryOnly() || !PLACED_BY_CONSISTENT_HASHING) {
+      return null;
+    }
+    return new SelectResponderPlanner(getConsistentHashing(), nodeID, request.getExcludedResponders());
+  }
+
+  // refresh the consistent hash structure if the actives changed
+  private static synchronized ConsistentHashing<String> getConsistentHashing() {
+    Set<String> curActives = new HashSet<>(PaxosConfig.getActives().keySet());
+    if (consistentHashing == null) {
+      consistentHashing = new ConsistentHashing<>(curActives);
+    } else if (!curActives.equals(lastActives)) {
+      consistentHashing.refresh(curActives);
+    }
+    lastActives = curActives;
+    return consistentHashing;
+  }
+
+  /**
+   * @param guid
+   * @param replicas
+   * @param excluded the replicas that can not respond, or null
+   * @return the replica that returns {@code guid}, or null if all the
+   * replicas are excluded
+   */
+  public static String getResponder(String guid, Set<String> replicas, Set<String> excluded) {
+    String responder = null;
+    long max = Long.MIN_VALUE;
+    for (String replica : replicas) {
+      if (excluded != null && excluded.contains(replica)) {
+        continue;
+      }
+      long weight = mix(guid.hashCode() * 31L + replica.hashCode());
+      if (responder == null || weight > max
+              || (weight == max && replica.compareTo(responder) < 0)) {
+        responder = replica;
+        max = weight;
+      }
+    }
+    return responder;
+  }
+
+  // 64-bit finalizer of MurmurHash3, spreads the combined hash codes
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * Checks whether this name server should return the record of
+   * {@code guid}.
+   *
+   * A name server that is not one of the replicas of the guid according to
+   * consistent hashing, e.g., after the actives changed, returns the record
+   * when first asked, and the collecting name server removes the duplicates.
+   * It is only asked again on failover after it has responded, so then it
+   * does not return the record a second time.
+   *
+   * @param guid
+   * @return true if the record is returned by this name server
+   */
+  public boolean isResponder(String guid) {
+    Set<String> replicas = hashing.getReplicatedServers(guid);
+    if (!replicas.contains(nodeID)) {
+      return excluded == null;
+    }
+    if (excluded == null) {
+      return nodeID.equals(getResponder(guid, replicas, null));
+    }
+    // on failover, only the records of the excluded servers are returned again
+    return excluded.contains(getResponder(guid, replicas, null))
+            && nodeID.equals(getResponder(guid, replicas, excluded));
+  }
+}
@@ -0,0 +1,321 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.InternalField;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
+
+/**
+ * Caches the results of selects on the collecting name server.
+ *
+ * Results are keyed by the operation, the normalized query or key and
+ * values, the projection and the reader, and expire after a fixed time.
+ * Each entry remembers the fields its select depends on, i.e., the fields in
+ * the query and the projected fields, and is dropped as soon as any name
+ * server applies an update to one of them. Updates of internal fields, which
+ * include the ACLs, and creations or deletions of records drop all entries.
+ *
+ * A result is only cached if no invalidation happened while its select was
+ * in flight, as the select may have read records from before the update.
+ * When the cache is full the least recently used result is dropped.
+ * Results are kept in their string form, so every hit returns a fresh copy
+ * that the caller may modify.
+ *
+ * @author westy
+ */
+public class SelectResultCache {
+
+  private static class Entry {
+
+    final String records;
+    final long expires;
+    // null if the select depends on every field
+    final Set<String> fields;
+
+    Entry(String records, long expires, Set<String> fields) {
+      this.records = records;
+      this.expires = expires;
+      this.fields = fields;
+    }
+  }
+
+  private final int capacity;
+  private final long ttl;
+  // least recently used first, guarded by itself
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      if (size() > capacity) {
+        evictions.incrementAndGet();
+        return true;
+      }
+      return false;
+    }
+  };
+  // bumped by every invalidation
+  private final AtomicLong generation = new AtomicLong();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+
+  /**
+   * @param capacity the maximum number of results cached, 0 disables the cache
+   * @param ttl the time (ms) a result is cached for
+   */
+  public SelectResultCache(int capacity, long ttl) {
+    this.capacity = capacity;
+    this.ttl = ttl;
+  }
+
+  /**
+   * @return true if results are cached
+   */
+  public boolean isEnabled() {
+    return capacity > 0 && ttl > 0;
+  }
+
+  /**
+   * @param request
+   * @return true if the result of {@code request} may be cached
+   */
+  public boolean isCacheable(SelectRequestPacket request) {
+    if (!isEnabled() || request.isBypassCache()) {
+      return false;
+    }
+    switch (request.getSelectOperation()) {
+      case EQUALS:
+      case NEAR:
+      case WITHIN:
+      case QUERY:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * @return the current generation, to be passed to
+   * {@link #put(SelectRequestPacket, JSONArray, long)} by a select sent now
+   */
+  public long getGeneration() {
+    return generation.get();
+  }
+
+  /**
+   * @param request
+   * @return a copy of the cached records of {@code request}, or null
+   */
+  public JSONArray get(SelectRequestPacket request) {
+    String key = key(request);
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(key);
+      if (entry != null && entry.expires <= System.currentTimeMillis()) {
+        entries.remove(key);
+        entry = null;
+      }
+    }
+    if (entry != null) {
+      try {
+        JSONArray records = new JSONArray(entry.records);
+        hits.incrementAndGet();
+        return records;
+      } catch (JSONException e) {
+        // not expected, as the records were a JSONArray
+      }
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  /**
+   * Caches the records returned by a select.
+   *
+   * @param request
+   * @param records
+   * @param sentGeneration the generation when the select was sent
+   */
+  public void put(SelectRequestPacket request, JSONArray records, long sentGeneration) {
+    if (records == null || generation.get() != sentGeneration) {
+      return;
+    }
+    String key = key(request);
+    Entry entry = new Entry(records.toString(), System.currentTimeMillis() + ttl,
+            getDependentFields(request));
+    synchronized (entries) {
+      // an invalidation may have slipped in since the check
+      if (generation.get() == sentGeneration) {
+        entries.put(key, entry);
+      }
+    }
+  }
+
+  /**
+   * Drops the cached results that depend on any of {@code fields}.
+   *
+   * @param fields the updated fields, or null to drop all results
+   */
+  public void invalidate(Collection<String> fields) {
+    boolean all = fields == null;
+    if (!all) {
+      for (String field : fields) {
+        if (InternalField.isInternalField(field)) {
+          all = true;
+          break;
+        }
+      }
+    }
+    synchronized (entries) {
+      generation.incrementAndGet();
+      Iterator<Entry> iter = entries.values().iterator();
+      while (iter.hasNext()) {
+        Entry entry = iter.next();
+        if (all || entry.fields == null || dependsOn(entry.fields, fields)) {
+          iter.remove();
+          invalidations.incrementAndGet();
+        }
+      }
+    }
+  }
+
+  // a dotted field depends on its parents and on its children
+  private static boolean dependsOn(Set<String> dependentFields, Collection<String> updatedFields) {
+    for (String updated : updatedFields) {
+      for (String field : dependentFields) {
+        if (updated.equals(field) || updated.startsWith(field + ".")
+                || field.startsWith(updated + ".")) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param request
+   * @return the fields the result of {@code request} depends on, or null if
+   * it depends on every field
+   */
+  private static Set<String> getDependentFields(SelectRequestPacket request) {
+    List<String> projection = request.getProjection();
+    if (projection != null && projection.contains(GNSProtocol.ENTIRE_RECORD.toString())) {
+      return null;
+    }
+    Set<String> fields = new HashSet<>(SelectRecordEvaluator.getFieldsForQueryType(request));
+    if (projection != null) {
+      fields.addAll(projection);
+    }
+    if (request.getAggregation() != null && request.getAggregation().getField() != null) {
+      fields.add(request.getAggregation().getField());
+    }
+    return fields;
+  }
+
+  /**
+   * @param request
+   * @return the key of {@code request}
+   */
+  static String key(SelectRequestPacket request) {
+    StringBuilder builder = new StringBuilder();
+    builder.append(request.getSelectOperation()).append('|')
+            .append(request.getKey()).append('|')
+            .append(request.getValue()).append('|')
+            .append(request.getOtherValue()).append('|')
+            .append(normalize(request.getQuery())).append('|')
+            // the order of the projected fields does not change the result
+            .append(request.getProjection() != null ? new TreeSet<>(request.getProjection()) : null).append('|')
+            .append(request.getReader()).append('|')
+            .append(request.getAggregation());
+    return builder.toString();
+  }
+
+  // removes the whitespace outside of string literals
+  private static String normalize(String query) {
+    if (query == null) {
+      return null;
+    }
+    StringBuilder builder = new StringBuilder(query.length());
+    char quote = 0;
+    for (int i = 0; i < query.length(); i++) {
+      char c = query.charAt(i);
+      if (quote != 0) {
+        if (c == quote && query.charAt(i - 1) != '\\') {
+          quote = 0;
+        }
+      } else if (c == '"' || c == '\'') {
+        quote = c;
+      } else if (Character.isWhitespace(c)) {
+        continue;
+      }
+      builder.append(c);
+    }
+    return builder.toString();
+  }
+
+  /**
+   * @return the number of cached results
+   */
+  public int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  /**
+   * @return the hit, miss, invalidation and eviction counts, the hit rate
+   * and the number of cached results
+   * @throws JSONException
+   */
+  public JSONObject getStats() throws JSONException {
+    JSONObject json = new JSONObject();
+    long numHits = hits.get();
+    long numLookups = numHits + misses.get();
+    json.put("size", size());
+    json.put("hits", numHits);
+    json.put("misses", misses.get());
+    json.put("hitRate", numLookups > 0 ? (double) numHits / numLookups : 0);
+    json.put("invalidations", invalidations.get());
+    json.put("evictions", evictions.get());
+    return json;
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + "[size=" + size() + ", hits=" + hits
+            + ", misses=" + misses + ", invalidations=" + invalidations + "]";
+  }
+}
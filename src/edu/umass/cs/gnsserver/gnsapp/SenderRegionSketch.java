@@ -0,0 +1,208 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+
+import com.google.common.net.InetAddresses;
+
+/**
+ * Counts the requests from the regions that requests come from in a fixed
+ * amount of space, keeping the regions with the most requests. A region is
+ * the /24 prefix of the address of the sender.
+ *
+ * This is the Space-Saving summary: a region that is not counted yet takes
+ * the place of the region with the fewest requests once the sketch is full,
+ * and inherits its count as an overestimate. Every region with more than
+ * 1/capacity of the requests is kept, and each count is over by at most the
+ * error kept with it. Two sketches are combined by adding the entries of one
+ * to the other.
+ *
+ * @author westy
+ */
+public class SenderRegionSketch {
+
+  /**
+   * The bits of an IPv4 address that make up its region.
+   */
+  public static final int REGION_MASK = 0xFFFFFF00;
+
+  private final int[] regions;
+  private final int[] counts;
+  private final int[] errors;
+  private int size = 0;
+
+  /**
+   * @param capacity the number of regions counted
+   */
+  public SenderRegionSketch(int capacity) {
+    this.regions = new int[capacity];
+    this.counts = new int[capacity];
+    this.errors = new int[capacity];
+  }
+
+  /**
+   * Creates a copy of a sketch.
+   *
+   * @param sketch
+   */
+  public SenderRegionSketch(SenderRegionSketch sketch) {
+    this.regions = sketch.regions.clone();
+    this.counts = sketch.counts.clone();
+    this.errors = sketch.errors.clone();
+    this.size = sketch.size;
+  }
+
+  /**
+   * @param sender
+   * @return the region of {@code sender}
+   */
+  public static int getRegion(InetAddress sender) {
+    // IPv6 addresses are hashed to an IPv4 address, so their regions are arbitrary
+    return InetAddresses.coerceToInteger(sender) & REGION_MASK;
+  }
+
+  /**
+   * Counts a request from a region.
+   *
+   * @param region
+   */
+  public void increment(int region) {
+    add(region, 1, 0);
+  }
+
+  private void add(int region, int count, int error) {
+    for (int i = 0; i < size; i++) {
+      if (regions[i] == region) {
+        counts[i] += count;
+        errors[i] += error;
+        return;
+      }
+    }
+    if (size < regions.length) {
+      regions[size] = region;
+      counts[size] = count;
+      errors[size] = error;
+      size++;
+      return;
+    }
+    int min = 0;
+    for (int i = 1; i < size; i++) {
+      if (counts[i] < counts[min]) {
+        min = i;
+      }
+    }
+    regions[min] = region;
+    errors[min] = counts[min] + error;
+    counts[min] += count;
+  }
+
+  /**
+   * Adds the counts of another sketch to this one.
+   *
+   * @param sketch
+   */
+  public void combine(SenderRegionSketch sketch) {
+    for (int i = 0; i < sketch.size; i++) {
+      add(sketch.regions[i], sketch.counts[i], sketch.errors[i]);
+    }
+  }
+
+  /**
+   * Forgets all counts.
+   */
+  public void clear() {
+    size = 0;
+  }
+
+  /**
+   * @return the number of regions counted
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * @param i less than {@link #size()}
+   * @return the address of the region at {@code i}
+   */
+  public InetAddress getAddress(int i) {
+    return InetAddresses.fromInteger(regions[i]);
+  }
+
+  /**
+   * @param i less than {@link #size()}
+   * @return the number of requests from the region at {@code i}, an
+   * overestimate by at most {@link #getError(int)}
+   */
+  public int getCount(int i) {
+    return counts[i];
+  }
+
+  /**
+   * @param i less than {@link #size()}
+   * @return by how much the count of the region at {@code i} may be over
+   */
+  public int getError(int i) {
+    return errors[i];
+  }
+
+  /**
+   * @return the number of bytes {@link #writeTo(ByteBuffer)} writes
+   */
+  public int getEncodedLength() {
+    return Short.BYTES + size * 3 * Integer.BYTES;
+  }
+
+  /**
+   * @param buffer
+   */
+  public void writeTo(ByteBuffer buffer) {
+    buffer.putShort((short) size);
+    for (int i = 0; i < size; i++) {
+      buffer.putInt(regions[i]).putInt(counts[i]).putInt(errors[i]);
+    }
+  }
+
+  /**
+   * Replaces the counts with those written by {@link #writeTo(ByteBuffer)},
+   * keeping the regions with the most requests if there are more than fit.
+   *
+   * @param buffer
+   */
+  public void readFrom(ByteBuffer buffer) {
+    clear();
+    int n = buffer.getShort();
+    for (int i = 0; i < n; i++) {
+      add(buffer.getInt(), buffer.getInt(), buffer.getInt());
+    }
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("{");
+    for (int i = 0; i < size; i++) {
+      builder.append(i > 0 ? ", " : "").append(getAddress(i).getHostAddress())
+              .append("/24=").append(counts[i]);
+    }
+    return builder.append("}").toString();
+  }
+}
@@ -28,9 +28,12 @@ import edu.umass.cs.gnscommon.exceptions.server.InternalRequestException;
 import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnscommon.packets.ResponsePacket;
 import edu.umass.cs.gnscommon.packets.PacketUtils;
+import edu.umass.cs.gnscommon.utils.RequestTracer;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientCommandProcessorConfig;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.gnsapp.GNSApp;
 import edu.umass.cs.gnsserver.gnsapp.GNSApplicationInterface;
+import edu.umass.cs.gnsserver.gnsapp.Select;
 import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
 import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.reconfiguration.ReconfigurationConfig.RC;
@@ -109,16 +112,16 @@ public class CommandHandler {
 	                + command.getCommandType(),
 	                executeCommandStart);
 	      }
-	      if (System.currentTimeMillis() - executeCommandStart > LONG_DELAY_THRESHOLD) {
-	        ClientCommandProcessorConfig
-	                .getLogger()
-	                .log(Level.FINE,
-	                        "{0} command {1} took {2}ms of execution delay (delay logging threshold={2}ms)",
-	                        new Object[]{
-	                          handler.getApp(),
-	                          command.getSummary(),
-	                          (System.currentTimeMillis() - executeCommandStart),
-	                          LONG_DELAY_THRESHOLD});
+	      if (System.currentTimeMillis() - executeCommandStart > LONG_DELAY_THRESHOLD
+	              && RequestTracer.isTraced(ClientCommandProcessorConfig.getLogger(), Level.FINE,
+	                      commandPacket.getRequestID())) {
+	        RequestTracer.trace(ClientCommandProcessorConfig.getLogger(), Level.FINE,
+	                commandPacket.getRequestID(),
+	                "{0} command {1} took {2}ms of execution delay (delay logging threshold={3}ms)",
+	                handler.getApp(),
+	                command.getSummary(),
+	                (System.currentTimeMillis() - executeCommandStart),
+	                LONG_DELAY_THRESHOLD);
 	      }
 	      // the last arguments here in the call below are instrumentation
 	      // that the client can use to determine LNS load
@@ -126,12 +129,23 @@ public class CommandHandler {
 	              commandPacket.getRequestID(),
 	              commandPacket.getServiceName(), returnValue, 0, 0,
 	              System.currentTimeMillis() - receiptTime);
+	      // let local name servers cache reads of names that are not being written
+	      if (commandPacket.getCommandType().isUpdate()
+	              || commandPacket.getCommandType().isCreateDelete()) {
+	        ReadLeases.recordWrite(commandPacket.getServiceName());
+	      } else if (commandPacket.getCommandType().isRead()
+	              && ResponseCode.NO_ERROR.equals(returnPacket.getErrorCode())) {
+	        returnPacket.setLease(ReadLeases.grant(commandPacket.getServiceName()));
+	      }
 	
 	      try {
 	        assert (returnPacket.getErrorCode() != null);
-	        ClientCommandProcessorConfig.getLogger().log(Level.FINE,
-	                "{0} handling command reply: {1}",
-	                new Object[]{handler.getApp(), returnPacket});
+	        if (RequestTracer.isTraced(ClientCommandProcessorConfig.getLogger(), Level.FINE,
+	                commandPacket.getRequestID())) {
+	          RequestTracer.trace(ClientCommandProcessorConfig.getLogger(), Level.FINE,
+	                  commandPacket.getRequestID(), "{0} handling command reply: {1}",
+	                  handler.getApp(), returnPacket.getSummary());
+	        }
 	        // Possibly send the return value back to the client
 	        handleCommandReturnValuePacketForApp(commandPacket, returnPacket,
 	                doNotReplyToClient, app);
@@ -286,7 +300,6 @@ public class CommandHandler {
   public static void handleCommandReturnValuePacketForApp(CommandPacket command,
           ResponsePacket returnPacket, boolean doNotReplyToClient,
           GNSApplicationInterface<String> app) throws JSONException, IOException {
-    GNSConfig.getLogger().log(Level.FINE, "handleCommandReturnValuePacketForApp");
     if (!doNotReplyToClient) {
       app.sendToClient(command, returnPacket, returnPacket.toJSONObject());
     } else {
@@ -301,6 +314,17 @@ public class CommandHandler {
         ClientCommandProcessorConfig.getLogger().log(Level.INFO,
                 "{0} {1}",
                 new Object[]{app, DelayProfiler.getStats()});
+        if (app instanceof GNSApp && ((GNSApp) app).getRequestScheduler() != null) {
+          ClientCommandProcessorConfig.getLogger().log(Level.INFO,
+                  "{0} request scheduler {1}",
+                  new Object[]{app, ((GNSApp) app).getRequestScheduler().getStats()});
+        }
+        if (app instanceof GNSApp && GNSApp.getSelector() instanceof Select
+                && ((Select) GNSApp.getSelector()).getResultCache().isEnabled()) {
+          ClientCommandProcessorConfig.getLogger().log(Level.INFO,
+                  "{0} select result cache {1}",
+                  new Object[]{app, ((Select) GNSApp.getSelector()).getResultCache().getStats()});
+        }
         lastStatsTime = System.currentTimeMillis();
       }
     }
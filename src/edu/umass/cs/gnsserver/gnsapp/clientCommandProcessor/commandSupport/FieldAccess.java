@@ -30,6 +30,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -38,6 +39,7 @@ import org.apache.commons.lang3.time.DateUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import edu.umass.cs.gnscommon.CommandType;
 import edu.umass.cs.gnscommon.GNSProtocol;
 import edu.umass.cs.gnscommon.ResponseCode;
 import edu.umass.cs.gnscommon.SharedGuidUtils;
@@ -58,6 +60,7 @@ import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSAccessSupport;
 import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSAuthentication;
 import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSFieldAccess;
 import edu.umass.cs.gnsserver.gnsapp.clientSupport.NSUpdateSupport;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectAggregation;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectOperation;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
 import edu.umass.cs.gnsserver.gnsapp.packet.SelectResponsePacket;
@@ -575,32 +578,97 @@ public class FieldAccess {
   ///
   /// SELECT METHODS
   ///
-  private static SelectResponsePacket executeSelect(InternalRequestHeader header, CommandPacket commandPacket,
+  /**
+   * Turns the response of a select into the response of its command.
+   */
+  private interface SelectResponseHandler
+  {
+	  CommandResponse apply(SelectResponsePacket selectResponse) throws JSONException;
+  }
+  
+  private static CommandResponse executeSelect(InternalRequestHeader header, CommandPacket commandPacket,
           SelectOperation operation,
           String reader, String key, Object value, Object otherValue,
           String signature, String message,
-          GNSApplicationInterface<String> app)
+          GNSApplicationInterface<String> app, String errorMessage)
           throws FailedDBOperationException, JSONException, UnknownHostException, InternalRequestException 
   {
 	  SelectRequestPacket packet = new SelectRequestPacket(operation, 
 			  reader, key, value, otherValue);
-	  return executeSelectHelper(header, commandPacket, packet, reader, signature, message, app);
+	  return executeSelectHelper(header, commandPacket, packet, reader, signature, message, app,
+			  (selectResp) -> selectResp != null && selectResp.getResponseCode().equals(ResponseCode.NO_ERROR)
+			  ? new CommandResponse(ResponseCode.NO_ERROR, getSelectResult(selectResp))
+			  : new CommandResponse(ResponseCode.UNSPECIFIED_ERROR, errorMessage));
   }
   
-  private static SelectResponsePacket executeSelectHelper(InternalRequestHeader header, 
+  /**
+   * Sends a select to the name servers and waits for them to respond, as
+   * gigapaxos sends the response to the client when execute returns.
+   */
+  private static CommandResponse executeSelectHelper(InternalRequestHeader header, 
 		  CommandPacket commandPacket, SelectRequestPacket packet,
 		  String reader, String signature, String message,
-		  GNSApplicationInterface<String> app)
+		  GNSApplicationInterface<String> app, SelectResponseHandler responseHandler)
 				  throws FailedDBOperationException, JSONException, UnknownHostException, InternalRequestException 
   {
 	  // First do a signature check 
 	  if (!signatureCheckForSelect(reader, signature, message, app)) 
 	  {
-		  return null;
+		  return toCommandResponse(responseHandler, null);
 	  }
 	  
-	  return  GNSApp.getSelector().
-		       		handleSelectRequestFromClient(header, packet, app);
+	  // callers that need fresh results can skip the select result cache
+	  if (commandPacket != null && commandPacket.getCommand()
+			  .optBoolean(GNSProtocol.BYPASS_CACHE.toString(), false))
+	  {
+		  packet.setBypassCache(true);
+	  }
+	  // counts, aggregates and limits are computed by the name servers
+	  if (commandPacket != null && packet.getAggregation() == null
+			  && packet.getSelectOperation() != SelectOperation.SELECT_NOTIFY)
+	  {
+		  SelectAggregation aggregation = SelectAggregation.fromCommand(commandPacket.getCommand());
+		  // only SelectAggregate returns an object, the other selects return a list
+		  boolean aggregate = commandPacket.getCommandType() == CommandType.SelectAggregate;
+		  if (aggregate != (aggregation != null && aggregation.isPartial()))
+		  {
+			  throw new JSONException(commandPacket.getCommandType() 
+					  + (aggregate ? " needs " : " does not take ") 
+					  + "an aggregate of COUNT, MIN, MAX, SUM or AVG");
+		  }
+		  packet.setAggregation(aggregation);
+	  }
+	  
+	  CompletableFuture<CommandResponse> response = GNSApp.getSelector()
+			  .handleSelectRequestFromClientAsync(header, packet, app)
+			  .handle((selectResponse, e) -> toCommandResponse(responseHandler, 
+					  e == null ? selectResponse : null));
+	  // bounded, as the selector fails the query after SELECT_REQUEST_TIMEOUT
+	  return response.join();
+  }
+  
+  private static CommandResponse toCommandResponse(SelectResponseHandler responseHandler, 
+		  SelectResponsePacket selectResponse)
+  {
+	  try
+	  {
+		  CommandResponse response = responseHandler.apply(selectResponse);
+		  if (response != null)
+		  {
+			  return response;
+		  }
+	  } catch (JSONException e)
+	  {
+		  LOGGER.log(Level.WARNING, "Unable to answer select: {0}", e);
+	  }
+	  return new CommandResponse(ResponseCode.UNSPECIFIED_ERROR, "Unspecified error in select");
+  }
+
+  // the aggregate of a select with an aggregation, or else the records or guids
+  private static String getSelectResult(SelectResponsePacket selectResponse)
+  {
+	  return selectResponse.getAggregate() != null ? selectResponse.getAggregate().toString()
+			  : selectResponse.getRecords().toString();
   }
 
   private static boolean signatureCheckForSelect(String reader, String signature,
@@ -654,22 +722,15 @@ public class FieldAccess {
           
           ClientRequestHandlerInterface handler) throws InternalRequestException 
   {
-	  SelectResponsePacket selectResp;
 	  try 
 	  {
-		  selectResp = executeSelect(header, commandPacket, SelectOperation.EQUALS, reader, key, value, null,
-              signature, message, handler.getApp());
-
-		  if (selectResp != null && selectResp.getResponseCode().equals(ResponseCode.NO_ERROR)) 
-		  {
-			  return new CommandResponse(ResponseCode.NO_ERROR, selectResp.getRecords().toString());
-		  }
+		  return executeSelect(header, commandPacket, SelectOperation.EQUALS, reader, key, value, null,
+              signature, message, handler.getApp(), "Unspecified error in select");
 	  } catch (IOException | JSONException | FailedDBOperationException e) 
 	  {
 		  return new CommandResponse(new ClientException(e).getCode(), 
 				  "Unspecified error in select: "+e.getMessage());
 	  }
-	  return new CommandResponse(ResponseCode.UNSPECIFIED_ERROR, "Unspecified error in select");
   }
 
   
@@ -693,24 +754,16 @@ public class FieldAccess {
           String signature, String message,
           ClientRequestHandlerInterface handler) throws InternalRequestException 
   {
-	  SelectResponsePacket selectResp;
 	  try 
 	  {
-		  selectResp = executeSelect(header, commandPacket, SelectOperation.WITHIN, reader, key, value, null,
+		  return executeSelect(header, commandPacket, SelectOperation.WITHIN, reader, key, value, null,
               signature, message,
-              handler.getApp());
-
-		  if (selectResp != null && selectResp.getResponseCode().equals(ResponseCode.NO_ERROR)) 
-		  {
-			  return new CommandResponse(ResponseCode.NO_ERROR, 
-					  			selectResp.getRecords().toString());
-		  }
+              handler.getApp(), "Unspecified error in selectWithin");
 	  } catch (IOException | JSONException | FailedDBOperationException e) 
 	  {
 		  return new CommandResponse(new ClientException(e).getCode(),
 				  "Unspecified error in selectWithin: "+e.getMessage());
 	  }
-	  return new CommandResponse(ResponseCode.UNSPECIFIED_ERROR, "Unspecified error in selectWithin");
   }
 
   /**
@@ -733,22 +786,16 @@ public class FieldAccess {
           String signature, String message,
           ClientRequestHandlerInterface handler) throws InternalRequestException 
   {
-	  SelectResponsePacket selectResp;
 	  try 
 	  {
-		  selectResp = executeSelect(header, commandPacket, SelectOperation.NEAR, 
-				  reader, key, value, maxDistance, signature, message, handler.getApp());
-		  
-		  if (selectResp != null && selectResp.getResponseCode().equals(ResponseCode.NO_ERROR))
-		  {
-			  return new CommandResponse(ResponseCode.NO_ERROR, selectResp.getRecords().toString());
-		  }
+		  return executeSelect(header, commandPacket, SelectOperation.NEAR, 
+				  reader, key, value, maxDistance, signature, message, handler.getApp(),
+				  "Unspecified error in selectNear");
 	  } catch (IOException | JSONException | FailedDBOperationException e) 
 	  {
 		  return new CommandResponse(new ClientException(e).getCode(), 
 				  "Unspecified error in selectNear:"+e.getMessage());
 	  }
-	  return new CommandResponse(ResponseCode.UNSPECIFIED_ERROR, "Unspecified error in selectNear");
   }
   
   /**
@@ -780,16 +827,14 @@ public class FieldAccess {
                + GNSProtocol.OPERATION_NOT_SUPPORTED.toString()
                + " Bad query operators in " + query);
 	  }
-	  SelectResponsePacket selectResp;
 	  try
 	  {
 		  SelectRequestPacket packet = SelectRequestPacket.makeSelectNotifyRequest(
     		  reader, query, projection, notificationStr);
       
-		  selectResp = executeSelectHelper(header, commandPacket, packet, reader, 
-    		  								signature, message, handler.getApp());
-		  
-		  return getCommandResponseForSelect(packet, selectResp);
+		  return executeSelectHelper(header, commandPacket, packet, reader, 
+    		  								signature, message, handler.getApp(),
+    		  								(selectResp) -> getCommandResponseForSelect(packet, selectResp));
 	  } catch (IOException | JSONException | FailedDBOperationException e) 
 	  {
 		  ClientException cle = new ClientException(e);
@@ -819,7 +864,7 @@ public class FieldAccess {
 	    	{
 	    		if( selectResponse.getResponseCode().equals(ResponseCode.NO_ERROR))
 	    			return new CommandResponse(ResponseCode.NO_ERROR, 
-	    					selectResponse.getRecords().toString());
+	    					getSelectResult(selectResponse));
 	    		else
 	    			return new CommandResponse(selectResponse.getResponseCode(), 
 	    					selectResponse.getErrorMessage());
@@ -872,14 +917,13 @@ public class FieldAccess {
 						  + GNSProtocol.OPERATION_NOT_SUPPORTED.toString()
 						  + " Bad query operators in " + query);
 	  }
-      SelectResponsePacket selectResp;
       try 
       {
     	  SelectRequestPacket packet = SelectRequestPacket.makeQueryRequest
       											(reader, query, projection);
-      	  selectResp = executeSelectHelper(header, commandPacket, packet, reader, 
-      		  										signature, message, handler.getApp());
-      	return getCommandResponseForSelect(packet, selectResp);
+      	  return executeSelectHelper(header, commandPacket, packet, reader, 
+      		  										signature, message, handler.getApp(),
+      		  										(selectResp) -> getCommandResponseForSelect(packet, selectResp));
       } catch (IOException | JSONException | FailedDBOperationException e) 
       {
     	  ClientException cle = new ClientException(e);
@@ -1012,16 +1056,14 @@ public class FieldAccess {
 		            String signature, String message, ClientRequestHandlerInterface handler) 
 		          		  throws InternalRequestException 
     {
-	  	  SelectResponsePacket selectResp;
 	  	  try 
 	  	  {
 	  		  SelectRequestPacket packet = SelectRequestPacket.makeSelectNotificationStatusRequest
 	  				  									(reader, selectHandle, null);
 	  		  
-	  		  selectResp = executeSelectHelper(header, commandPacket, packet, reader, 
-	      		  								signature, message, handler.getApp());
-	  		  
-	  		 return getCommandResponseForSelect(packet, selectResp);
+	  		  return executeSelectHelper(header, commandPacket, packet, reader, 
+	      		  								signature, message, handler.getApp(),
+	      		  								(selectResp) -> getCommandResponseForSelect(packet, selectResp));
 	  	  }
 	  	  catch (IOException | JSONException | FailedDBOperationException e) 
 	  	  {
@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport;
+
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+
+/**
+ * Grants the leases that let local name servers cache the values returned
+ * by reads, see {@link GNSConfig.GNSC#READ_LEASE}.
+ *
+ * Every replica executes the updates of a name, so each one knows when a
+ * name was last written. A name written less than a lease ago gets no lease,
+ * so names that are being written are not cached, and a cached value is at
+ * most one lease older than the last write that its replica did not see.
+ *
+ * @author westy
+ */
+public class ReadLeases {
+
+  private static final long LEASE = Config.getGlobalInt(GNSConfig.GNSC.READ_LEASE);
+
+  // the names written less than a lease ago
+  private static final Cache<String, Boolean> RECENTLY_WRITTEN = LEASE > 0
+          ? CacheBuilder.newBuilder().expireAfterWrite(LEASE, TimeUnit.MILLISECONDS)
+          .maximumSize(Config.getGlobalInt(GNSConfig.GNSC.READ_LEASE_TRACKED_NAMES)).build()
+          : null;
+
+  /**
+   * Records that a name has been written.
+   *
+   * @param name
+   */
+  public static void recordWrite(String name) {
+    if (RECENTLY_WRITTEN != null && name != null) {
+      RECENTLY_WRITTEN.put(name, Boolean.TRUE);
+    }
+  }
+
+  /**
+   * @param name
+   * @return the lease in ms for a value of {@code name} just read, 0 if
+   * it may not be cached
+   */
+  public static long grant(String name) {
+    if (RECENTLY_WRITTEN == null || name == null
+            || RECENTLY_WRITTEN.getIfPresent(name) != null) {
+      return 0;
+    }
+    return LEASE;
+  }
+}
@@ -0,0 +1,77 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.admin;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.gnscommon.CommandType;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.ResponseCode;
+import edu.umass.cs.gnscommon.packets.CommandPacket;
+import edu.umass.cs.gnsserver.activecode.ActiveCodeHandler;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.CommandResponse;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.AbstractCommand;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commands.CommandModule;
+import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
+
+/**
+ * Returns the guids whose active code consumed the most resources on this server.
+ *
+ * @author westy
+ */
+public class ActiveCodeUsage extends AbstractCommand {
+
+  /**
+   * The number of guids returned if the command doesn't specify one.
+   */
+  private static final int DEFAULT_COUNT = 10;
+
+  /**
+   *
+   * @param module
+   */
+  public ActiveCodeUsage(CommandModule module) {
+    super(module);
+  }
+
+  /**
+   *
+   * @return the command type
+   */
+  @Override
+  public CommandType getCommandType() {
+    return CommandType.ActiveCodeUsage;
+  }
+
+  @Override
+  public CommandResponse execute(InternalRequestHeader header, CommandPacket commandPacket, ClientRequestHandlerInterface handler) throws JSONException {
+    JSONObject json = commandPacket.getCommand();
+    int count = json.optInt(GNSProtocol.N.toString(), DEFAULT_COUNT);
+    if (count <= 0) {
+      return new CommandResponse(ResponseCode.UNSPECIFIED_ERROR, GNSProtocol.BAD_RESPONSE.toString()
+              + " " + GNSProtocol.UNSPECIFIED_ERROR.toString() + " " + GNSProtocol.N.toString() + " must be positive");
+    }
+    return new CommandResponse(ResponseCode.NO_ERROR,
+            ActiveCodeHandler.getAccounting().getTopConsumers(count).toString());
+  }
+
+}
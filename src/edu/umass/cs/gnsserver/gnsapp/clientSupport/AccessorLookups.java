@@ -0,0 +1,91 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import java.util.Set;
+
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.AccountAccess;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.GuidInfo;
+import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
+
+/**
+ * The lookups about an accessor guid that an ACL check may need, done at
+ * most once and then reused for every record checked on behalf of the same
+ * accessor, e.g., all the records of a select.
+ *
+ * The results are only as fresh as the first lookup, so an instance should
+ * not outlive the request it was made for.
+ *
+ * @author westy
+ */
+public class AccessorLookups {
+
+  private final InternalRequestHeader header;
+  private final String accessorGuid;
+  private final ClientRequestHandlerInterface handler;
+
+  private boolean guidInfoLookedUp = false;
+  private GuidInfo guidInfo = null;
+  private Set<String> groups = null;
+
+  /**
+   * @param header
+   * @param accessorGuid
+   * @param handler
+   */
+  public AccessorLookups(InternalRequestHeader header, String accessorGuid,
+          ClientRequestHandlerInterface handler) {
+    this.header = header;
+    this.accessorGuid = accessorGuid;
+    this.handler = handler;
+  }
+
+  /**
+   * @return the accessor guid
+   */
+  public String getAccessorGuid() {
+    return accessorGuid;
+  }
+
+  /**
+   * @return the guid info of the accessor, possibly looked up remotely, or
+   * null if the accessor does not exist
+   */
+  public synchronized GuidInfo getGuidInfo() {
+    if (!guidInfoLookedUp) {
+      guidInfo = AccountAccess.lookupGuidInfoAnywhere(header, accessorGuid, handler);
+      guidInfoLookedUp = true;
+    }
+    return guidInfo;
+  }
+
+  /**
+   * @return the groups the accessor is a member of, possibly looked up remotely
+   * @throws FailedDBOperationException
+   */
+  public synchronized Set<String> getGroups() throws FailedDBOperationException {
+    if (groups == null) {
+      groups = NSGroupAccess.lookupGroups(header, accessorGuid, handler);
+    }
+    return groups;
+  }
+}
@@ -189,6 +189,30 @@ public class NSAuthentication {
           String accessorGuid, MetaDataTypeName access,
           GNSApplicationInterface<String> gnsApp, 
           NameRecord... alreadyReadNRs) throws FailedDBOperationException {
+    return aclCheck(header, targetGuid, field, accessorGuid, access, gnsApp, null, alreadyReadNRs);
+  }
+
+  /**
+   * Check the acl to insure that {@code accessorGuid} can access {@code targetGuid}'s {@code field}.
+   * The lookups of the accessor's guid info and groups are taken from
+   * {@code accessorLookups} if it is not null, so that checking many guids on behalf of
+   * the same accessor looks them up only once.
+   *
+   * @param header
+   * @param targetGuid
+   * @param field
+   * @param accessorGuid
+   * @param access
+   * @param gnsApp
+   * @param accessorLookups the lookups of {@code accessorGuid}, or null
+   * @param alreadyReadNRs
+   * @return Result of ACL check
+   * @throws FailedDBOperationException
+   */
+  public static AclCheckResult aclCheck(InternalRequestHeader header, String targetGuid, String field,
+          String accessorGuid, MetaDataTypeName access,
+          GNSApplicationInterface<String> gnsApp, AccessorLookups accessorLookups,
+          NameRecord... alreadyReadNRs) throws FailedDBOperationException {
     ClientSupportConfig.getLogger().log(Level.FINE,
             "@@@@@@@@@@@@@@@@ACL Check guid={0} key={1} accessor={2} access={3}",
             new Object[]{targetGuid, field, accessorGuid, access});
@@ -221,22 +245,24 @@ public class NSAuthentication {
       // Otherwise we attempt to find the public key for the accessorGuid in the ACL of the guid being
       // accesssed.
       // Note that field can be GNSProtocol.ENTIRE_RECORD.toString() here
-    	publicKey = lookupPublicKeyFromMetaData(header, targetGuid, field, accessorGuid, access, metaData, gnsApp);
+    	publicKey = lookupPublicKeyFromMetaData(header, targetGuid, field, accessorGuid, access, metaData, gnsApp,
+    			accessorLookups);
     }
     // Handle the one final case: the accessorGuid is a member of a group guid and
     // that group guid is in the ACL
     if (publicKey == null) {
       // First thing to do is to lookup the accessorGuid... possibly remotely.
       GuidInfo accessorGuidInfo;
-      //TODO: Add a cache here
-      if ((accessorGuidInfo = AccountAccess.lookupGuidInfoAnywhere(header, accessorGuid, gnsApp.getRequestHandler())) != null) {
+      if ((accessorGuidInfo = lookupAccessorGuidInfo(header, accessorGuid, gnsApp, accessorLookups)) != null) {
         ClientSupportConfig.getLogger().log(Level.FINE,
                 "================> Catchall lookup returned: {0}",
                 accessorGuidInfo);
         // Check all the ACLs in the tree for this field to see if there is a group guid that
         // in there somewhere that has accessorGuid as a member
         Set<String> groups;
-        if (!(groups = NSGroupAccess.lookupGroups(header, accessorGuid, gnsApp.getRequestHandler())).isEmpty()) {
+        groups = accessorLookups != null ? accessorLookups.getGroups()
+                : NSGroupAccess.lookupGroups(header, accessorGuid, gnsApp.getRequestHandler());
+        if (!groups.isEmpty()) {
           if (NSAccessSupport.hierarchicalAccessGroupCheck(access, targetGuid, field, groups, gnsApp)) {
             publicKey = accessorGuidInfo.getPublicKey();
           }
@@ -250,6 +276,12 @@ public class NSAuthentication {
       return new AclCheckResult(publicKey, ResponseCode.NO_ERROR);
     }
   }
+
+  private static GuidInfo lookupAccessorGuidInfo(InternalRequestHeader header, String accessorGuid,
+          GNSApplicationInterface<String> gnsApp, AccessorLookups accessorLookups) {
+    return accessorLookups != null ? accessorLookups.getGuidInfo()
+            : AccountAccess.lookupGuidInfoAnywhere(header, accessorGuid, gnsApp.getRequestHandler());
+  }
   
   /**
    * Attempts to look up the public key for a accessorGuid using the
@@ -262,12 +294,13 @@ public class NSAuthentication {
    * @param accessorGuid
    * @param access
    * @param gnsApp
-   * @param lnsAddress
+   * @param accessorLookups
    * @return the public key
    * @throws FailedDBOperationException
    */
   private static String lookupPublicKeyFromMetaData(InternalRequestHeader header, String guid, String field, String accessorGuid,
-          MetaDataTypeName access, JSONObject metaData, GNSApplicationInterface<String> gnsApp)
+          MetaDataTypeName access, JSONObject metaData, GNSApplicationInterface<String> gnsApp,
+          AccessorLookups accessorLookups)
           throws FailedDBOperationException {
 	  List<String> fields = null;
 	if(field.contains("."))  
@@ -286,7 +319,7 @@ public class NSAuthentication {
     // explicitly because it's not going to have an entry in the ACL
     if (publicKey == null && NSAccessSupport.indexOfItemInJSONArray(publicKeys, GNSProtocol.EVERYONE.toString())>=0) {
       GuidInfo accessorGuidInfo;
-      if ((accessorGuidInfo = AccountAccess.lookupGuidInfoAnywhere(header, accessorGuid, gnsApp.getRequestHandler())) != null) {
+      if ((accessorGuidInfo = lookupAccessorGuidInfo(header, accessorGuid, gnsApp, accessorLookups)) != null) {
         ClientSupportConfig.getLogger().log(Level.FINE,
                 "================> {0} lookup for EVERYONE returned {1}",
                 new Object[]{access.toString(), accessorGuidInfo});
@@ -28,7 +28,6 @@ import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
 import edu.umass.cs.gnscommon.exceptions.server.FieldNotFoundException;
 import edu.umass.cs.gnscommon.exceptions.server.InternalRequestException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
-import edu.umass.cs.gnsserver.gnsapp.GNSCommandInternal;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.ActiveCode;
 import edu.umass.cs.gnsserver.gnsapp.GNSApplicationInterface;
@@ -56,6 +55,15 @@ import org.json.JSONObject;
  */
 public class NSFieldAccess {
 
+  private static final RemoteFieldLookup REMOTE_LOOKUP = new RemoteFieldLookup();
+
+  /**
+   * @return the lookup used to read fields of guids stored on other servers
+   */
+  public static RemoteFieldLookup getRemoteLookup() {
+    return REMOTE_LOOKUP;
+  }
+
   /**
    * Looks up the value of a field in the guid on this NameServer.
    * Active code is automatically handled during this call.
@@ -322,8 +330,10 @@ public class NSFieldAccess {
     // and we're allowed then send a query to another server
     if (result.isEmpty() && !handler.getApp().getDB().containsName(guid) && allowRemoteLookup) {
       try {
-        String stringResult = handler.getInternalClient().execute(GNSCommandInternal.fieldRead(guid, field, header)).getResultString();
-        result = new ResultValue(stringResult);
+        String stringResult = REMOTE_LOOKUP.lookup(header, guid, field, handler.getInternalClient());
+        if (stringResult != null) {
+          result = new ResultValue(stringResult);
+        }
       } catch (Exception e) {
         ClientSupportConfig.getLogger().log(Level.SEVERE,
                 "Problem getting record from remote server: {0}", e);
@@ -357,7 +367,7 @@ public class NSFieldAccess {
     // if values wasn't found and the guid doesn't exist on this server and we're allowed then send a query to the LNS
     if (result == null && !gnsApp.getDB().containsName(guid)) {
       try {
-    	  String stringResult = gnsApp.getRequestHandler().getInternalClient().execute(GNSCommandInternal.fieldRead(guid, field, header)).getResultString();
+        String stringResult = REMOTE_LOOKUP.lookup(header, guid, field, gnsApp.getRequestHandler().getInternalClient());
         if (stringResult != null) {
           result = new ValuesMap();
           result.put(field, stringResult);
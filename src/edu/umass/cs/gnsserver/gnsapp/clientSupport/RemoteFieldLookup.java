@@ -0,0 +1,310 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import edu.umass.cs.gnscommon.ResponseCode;
+import edu.umass.cs.gnscommon.exceptions.client.ClientException;
+import edu.umass.cs.gnscommon.exceptions.server.InternalRequestException;
+import edu.umass.cs.gnsserver.gnsapp.GNSClientInternal;
+import edu.umass.cs.gnsserver.gnsapp.GNSCommandInternal;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.InternalField;
+import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DelayProfiler;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONException;
+
+/**
+ * Reads fields of guids that are not stored on this server, e.g., the groups
+ * of a remote accessor during an ACL check.
+ *
+ * A read of a field that is already being read for the same querier, by this
+ * or any other request, waits for that read instead of sending another
+ * internal request. Reads are shared per querier because the replicas check
+ * the ACL of the querier, so a value read for one querier is never handed to
+ * another. A nested read of the same originating request, e.g., an ACL check
+ * that leads back to this server, does not wait for the read that caused it
+ * and is sent on its own.
+ *
+ * What is cached:
+ * <ul>
+ * <li>nothing, by default. With {@link GNSConfig.GNSC#REMOTE_FIELD_CACHE_TTL}
+ * greater than 0, values and missing fields are reused for that many ms for
+ * the same querier, for at most {@link GNSConfig.GNSC#REMOTE_FIELD_CACHE_SIZE}
+ * guids, the least recently used dropped first;
+ * <li>internal fields, e.g., ACLs, groups and public keys, are never cached,
+ * as an update at another server would not drop them;
+ * <li>failed reads are never cached.
+ * </ul>
+ * An update of a guid seen by this server drops its cached fields, and reads
+ * of that guid in flight at the time are neither cached nor joined by later
+ * reads.
+ *
+ * @author westy
+ */
+public class RemoteFieldLookup {
+
+  /**
+   * Marks a field that the replicas reported as not existing.
+   */
+  private static final Object NOT_FOUND = new Object();
+
+  /**
+   * A single internal request for a field.
+   */
+  private static class Read {
+
+    final long originatingRequestID;
+    final int ttl;
+    // a String, NOT_FOUND or the Exception of the read
+    final CompletableFuture<Object> result = new CompletableFuture<>();
+
+    Read(InternalRequestHeader header) {
+      this.originatingRequestID = header.getOriginatingRequestID();
+      this.ttl = header.getTTL();
+    }
+
+    /**
+     * A read of the same originating request with fewer hops left may be
+     * waiting for this one, so it must not wait for it in turn.
+     */
+    boolean mayJoin(InternalRequestHeader header) {
+      return originatingRequestID != header.getOriginatingRequestID() || ttl == header.getTTL();
+    }
+  }
+
+  private static class CachedValue {
+
+    final Object value;
+    final long expires;
+
+    CachedValue(Object value, long expires) {
+      this.value = value;
+      this.expires = expires;
+    }
+  }
+
+  private final long cacheTTL;
+
+  // keys are the guids, the keys of the values are made by key(querier, field);
+  // each value map is only accessed within a compute of its guid
+  private final ConcurrentHashMap<String, HashMap<String, Read>> inflight = new ConcurrentHashMap<>();
+
+  // keys are the guids, the keys of the values are made by key(querier, field)
+  private final Cache<String, ConcurrentHashMap<String, CachedValue>> cache;
+
+  private final AtomicLong numRequests = new AtomicLong();
+  private final AtomicLong numCoalesced = new AtomicLong();
+  private final AtomicLong numCacheHits = new AtomicLong();
+
+  /**
+   * Creates a lookup configured by {@link GNSConfig.GNSC#REMOTE_FIELD_CACHE_TTL}
+   * and {@link GNSConfig.GNSC#REMOTE_FIELD_CACHE_SIZE}.
+   */
+  public RemoteFieldLookup() {
+    this(Config.getGlobalInt(GNSConfig.GNSC.REMOTE_FIELD_CACHE_TTL),
+            Config.getGlobalInt(GNSConfig.GNSC.REMOTE_FIELD_CACHE_SIZE));
+  }
+
+  /**
+   * @param cacheTTL the time (ms) values are cached, 0 caches nothing
+   * @param cacheSize the maximum number of guids whose fields are cached
+   */
+  RemoteFieldLookup(long cacheTTL, int cacheSize) {
+    this.cacheTTL = cacheTTL;
+    this.cache = cacheTTL > 0
+            ? CacheBuilder.newBuilder().maximumSize(cacheSize)
+            .expireAfterAccess(cacheTTL, TimeUnit.MILLISECONDS)
+            .<String, ConcurrentHashMap<String, CachedValue>>build()
+            : null;
+  }
+
+  private static String key(String querier, String field) {
+    return querier + ":" + field;
+  }
+
+  /**
+   * Reads a field of a guid that is not stored on this server.
+   *
+   * @param header
+   * @param guid
+   * @param field
+   * @param client
+   * @return the value of the field as returned by a read of a single field,
+   * or null if the field does not exist
+   * @throws IOException
+   * @throws ClientException
+   * @throws JSONException
+   * @throws InternalRequestException
+   */
+  public String lookup(InternalRequestHeader header, String guid, String field,
+          GNSClientInternal client)
+          throws IOException, ClientException, JSONException, InternalRequestException {
+    long startTime = System.currentTimeMillis();
+    String key = key(String.valueOf(header.getQueryingGUID()), field);
+    if (cache != null) {
+      ConcurrentHashMap<String, CachedValue> cached = cache.getIfPresent(guid);
+      CachedValue value = cached != null ? cached.get(key) : null;
+      if (value != null) {
+        if (value.expires > startTime) {
+          numCacheHits.incrementAndGet();
+          return value.value == NOT_FOUND ? null : (String) value.value;
+        }
+        cached.remove(key, value);
+      }
+    }
+    Read read = new Read(header);
+    Read[] joined = new Read[1];
+    inflight.compute(guid, (g, reads) -> {
+      if (reads == null) {
+        reads = new HashMap<>();
+      }
+      Read existing = reads.get(key);
+      if (existing != null && existing.mayJoin(header)) {
+        joined[0] = existing;
+      } else if (existing == null) {
+        reads.put(key, read);
+      }
+      return reads;
+    });
+    Object value;
+    if (joined[0] != null) {
+      numCoalesced.incrementAndGet();
+      value = getValue(joined[0], field);
+    } else {
+      numRequests.incrementAndGet();
+      value = read(guid, field, header, client);
+      if (value == null) {
+        value = NOT_FOUND;
+      }
+      finish(guid, key, field, read, value);
+    }
+    DelayProfiler.updateDelay("remoteFieldLookup", startTime);
+    if (value instanceof String) {
+      return (String) value;
+    } else if (value == NOT_FOUND || value == null) {
+      return null;
+    } else if (value instanceof IOException) {
+      throw (IOException) value;
+    } else if (value instanceof ClientException) {
+      throw (ClientException) value;
+    } else if (value instanceof JSONException) {
+      throw (JSONException) value;
+    } else if (value instanceof InternalRequestException) {
+      throw (InternalRequestException) value;
+    }
+    throw new InternalRequestException(ResponseCode.INTERNAL_REQUEST_EXCEPTION,
+            "Remote read of " + guid + ":" + field + " failed: " + value);
+  }
+
+  private static Object getValue(Read read, String field) throws IOException {
+    try {
+      return read.result.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a remote read of " + field);
+    } catch (ExecutionException e) {
+      return e.getCause();
+    }
+  }
+
+  /**
+   * Hands the value over to the waiting readers and caches it, unless the
+   * read was dropped by an invalidation of the guid in the meantime.
+   */
+  private void finish(String guid, String key, String field, Read read, Object value) {
+    // a later reader that finds the read still registered gets the value
+    read.result.complete(value);
+    inflight.computeIfPresent(guid, (g, reads) -> {
+      if (reads.remove(key, read) && cache != null && !InternalField.isInternalField(field)
+              && (value instanceof String || value == NOT_FOUND)) {
+        cache.asMap().computeIfAbsent(guid, k -> new ConcurrentHashMap<>())
+                .put(key, new CachedValue(value, System.currentTimeMillis() + cacheTTL));
+      }
+      return reads.isEmpty() ? null : reads;
+    });
+  }
+
+  /**
+   * Sends a single internal request for the field.
+   *
+   * @param guid
+   * @param field
+   * @param header
+   * @param client
+   * @return the value as a String, null if the field does not exist, or the
+   * Exception of the read
+   */
+  Object read(String guid, String field, InternalRequestHeader header, GNSClientInternal client) {
+    try {
+      return client.execute(GNSCommandInternal.fieldRead(guid, field, header)).getResultString();
+    } catch (ClientException e) {
+      return ResponseCode.FIELD_NOT_FOUND_EXCEPTION.equals(e.getCode()) ? null : e;
+    } catch (IOException | JSONException | InternalRequestException e) {
+      return e;
+    } catch (RuntimeException e) {
+      return e;
+    }
+  }
+
+  /**
+   * Drops the cached fields of a guid. Reads of that guid that are in flight
+   * are still delivered to their readers, but are not cached and are not
+   * joined by later reads.
+   *
+   * @param guid
+   */
+  public void invalidate(String guid) {
+    inflight.compute(guid, (g, reads) -> {
+      if (cache != null) {
+        cache.invalidate(g);
+      }
+      return null;
+    });
+  }
+
+  /**
+   * @return the number of internal requests sent
+   */
+  public long getNumRequests() {
+    return numRequests.get();
+  }
+
+  /**
+   * @return the number of reads that waited for an identical read in flight
+   */
+  public long getNumCoalesced() {
+    return numCoalesced.get();
+  }
+
+  /**
+   * @return the number of reads served from the cache
+   */
+  public long getNumCacheHits() {
+    return numCacheHits.get();
+  }
+
+  @Override
+  public String toString() {
+    return this.getClass().getSimpleName() + "[cachedGuids=" + (cache != null ? cache.size() : 0)
+            + ", requests=" + numRequests + ", coalesced=" + numCoalesced
+            + ", cacheHits=" + numCacheHits + "]";
+  }
+}
@@ -113,6 +113,10 @@ public class Packet {
      * SELECT_RESPONSE
      */
     SELECT_RESPONSE(71, SelectResponsePacket.class.getCanonicalName()),
+    /**
+     * SELECT_INVALIDATION
+     */
+    SELECT_INVALIDATION(72, SelectInvalidationPacket.class.getCanonicalName()),
     // paxos
 
     /**
@@ -289,6 +293,8 @@ public class Packet {
           return new edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket(json);
         case SELECT_RESPONSE:
           return new edu.umass.cs.gnsserver.gnsapp.packet.SelectResponsePacket(json);
+        case SELECT_INVALIDATION:
+          return new edu.umass.cs.gnsserver.gnsapp.packet.SelectInvalidationPacket(json);
         // paxos
         case PAXOS_PACKET:
           return null;
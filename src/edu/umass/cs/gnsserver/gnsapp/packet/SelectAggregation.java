@@ -0,0 +1,207 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.packet;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+
+/**
+ * Turns a select into a count, an aggregate of a numeric field or a
+ * limited number of records, which each name server computes over the
+ * records it matches and the collecting name server merges.
+ *
+ * A select with an aggregation matches records just like it would
+ * without one, so an aggregation can be added to any of
+ * {@link SelectOperation#EQUALS}, {@link SelectOperation#NEAR},
+ * {@link SelectOperation#WITHIN} and {@link SelectOperation#QUERY}.
+ *
+ * @author westy
+ */
+public class SelectAggregation {
+
+  /**
+   * The aggregate functions.
+   */
+  public enum Function {
+    /**
+     * The number of records, or of records that have the field if a field is given.
+     */
+    COUNT,
+    /**
+     * The smallest numeric value of the field.
+     */
+    MIN,
+    /**
+     * The largest numeric value of the field.
+     */
+    MAX,
+    /**
+     * The sum of the numeric values of the field.
+     */
+    SUM,
+    /**
+     * The average of the numeric values of the field.
+     */
+    AVG,
+    /**
+     * The first records ordered by the field, or by the distance to the
+     * point of a near select if no field is given, or any records if
+     * neither.
+     */
+    LIMIT,
+  }
+
+  private final static String FUNCTION = "function";
+  private final static String FIELD = "field";
+  private final static String LIMIT = "limit";
+  private final static String DESCENDING = "descending";
+
+  private final Function function;
+  // null if not needed
+  private final String field;
+  private final int limit;
+  private final boolean descending;
+
+  /**
+   * @param function
+   * @param field the aggregated field, or the sort field of a limit, or null
+   * @param limit the number of records returned by a limit
+   * @param descending true if a limit returns the largest values first
+   */
+  public SelectAggregation(Function function, String field, int limit, boolean descending) {
+    this.function = function;
+    this.field = field;
+    this.limit = limit;
+    this.descending = descending;
+  }
+
+  /**
+   * @param json
+   * @throws JSONException
+   */
+  public SelectAggregation(JSONObject json) throws JSONException {
+    this.function = Function.valueOf(json.getString(FUNCTION));
+    this.field = json.optString(FIELD, null);
+    this.limit = json.optInt(LIMIT, 0);
+    this.descending = json.optBoolean(DESCENDING, false);
+  }
+
+  /**
+   * Reads the aggregation of a select command.
+   *
+   * @param command
+   * @return the aggregation, or null if the command has none
+   * @throws JSONException if the aggregation is malformed
+   */
+  public static SelectAggregation fromCommand(JSONObject command) throws JSONException {
+    boolean descending = command.optBoolean(GNSProtocol.SORT_DESCENDING.toString(), false);
+    if (command.has(GNSProtocol.AGGREGATE.toString())) {
+      Function function;
+      try {
+        function = Function.valueOf(command.getString(GNSProtocol.AGGREGATE.toString()).toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new JSONException("Unknown aggregate " + command.getString(GNSProtocol.AGGREGATE.toString()));
+      }
+      if (function == Function.LIMIT) {
+        return makeLimit(command, descending);
+      }
+      String field = command.optString(GNSProtocol.AGGREGATE_FIELD.toString(), null);
+      if (field == null && function != Function.COUNT) {
+        throw new JSONException(function + " needs " + GNSProtocol.AGGREGATE_FIELD.toString());
+      }
+      return new SelectAggregation(function, field, 0, descending);
+    }
+    if (command.has(GNSProtocol.LIMIT.toString())) {
+      return makeLimit(command, descending);
+    }
+    return null;
+  }
+
+  private static SelectAggregation makeLimit(JSONObject command, boolean descending) throws JSONException {
+    int limit = command.getInt(GNSProtocol.LIMIT.toString());
+    if (limit <= 0) {
+      throw new JSONException(GNSProtocol.LIMIT.toString() + " must be positive: " + limit);
+    }
+    return new SelectAggregation(Function.LIMIT,
+            command.optString(GNSProtocol.SORT_FIELD.toString(), null), limit, descending);
+  }
+
+  /**
+   * @return the JSON form of this aggregation
+   * @throws JSONException
+   */
+  public JSONObject toJSONObject() throws JSONException {
+    JSONObject json = new JSONObject();
+    json.put(FUNCTION, function.name());
+    if (field != null) {
+      json.put(FIELD, field);
+    }
+    if (function == Function.LIMIT) {
+      json.put(LIMIT, limit);
+    }
+    if (descending) {
+      json.put(DESCENDING, true);
+    }
+    return json;
+  }
+
+  /**
+   * @return the function
+   */
+  public Function getFunction() {
+    return function;
+  }
+
+  /**
+   * @return the aggregated field, or the sort field of a limit, or null
+   */
+  public String getField() {
+    return field;
+  }
+
+  /**
+   * @return the number of records returned by a limit
+   */
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * @return true if a limit returns the largest values first
+   */
+  public boolean isDescending() {
+    return descending;
+  }
+
+  /**
+   * @return true if the name servers can send a partial aggregate instead of records
+   */
+  public boolean isPartial() {
+    return function != Function.LIMIT;
+  }
+
+  @Override
+  public String toString() {
+    return function + (field != null ? "(" + field + ")" : "")
+            + (function == Function.LIMIT ? " " + limit + (descending ? " desc" : "") : "");
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.packet;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.umass.cs.gigapaxos.interfaces.ClientRequest;
+import edu.umass.cs.gnsserver.utils.JSONUtils;
+
+/**
+ * Sent by a name server that has applied updates to the other name servers
+ * so that they drop the cached select results that may depend on the
+ * updated fields.
+ *
+ * @author westy
+ */
+public class SelectInvalidationPacket extends BasicPacketWithClientAddress implements ClientRequest {
+
+  private final static String ID = "id";
+  private final static String FIELDS = "fields";
+
+  private final long requestId;
+  // null if any field may have changed
+  private final Set<String> fields;
+
+  /**
+   * @param fields the updated fields, or null if any field may have changed
+   */
+  public SelectInvalidationPacket(Set<String> fields) {
+    this.type = Packet.PacketType.SELECT_INVALIDATION;
+    this.requestId = (long) (Math.random() * Long.MAX_VALUE);
+    this.fields = fields;
+  }
+
+  /**
+   * Constructs a new SelectInvalidationPacket from a JSONObject
+   *
+   * @param json JSONObject representing this packet
+   * @throws org.json.JSONException
+   */
+  public SelectInvalidationPacket(JSONObject json) throws JSONException {
+    super(json);
+    if (Packet.getPacketType(json) != Packet.PacketType.SELECT_INVALIDATION) {
+      throw new JSONException("SelectInvalidationPacket: wrong packet type " + Packet.getPacketType(json));
+    }
+    this.type = Packet.getPacketType(json);
+    this.requestId = json.getLong(ID);
+    this.fields = json.has(FIELDS)
+            ? new HashSet<>(JSONUtils.JSONArrayToArrayListString(json.getJSONArray(FIELDS))) : null;
+  }
+
+  /**
+   * Converts a SelectInvalidationPacket to a JSONObject.
+   *
+   * @return JSONObject representing this packet.
+   * @throws org.json.JSONException
+   */
+  @Override
+  public JSONObject toJSONObject() throws JSONException {
+    JSONObject json = new JSONObject();
+    Packet.putPacketType(json, getType());
+    super.addToJSONObject(json);
+    json.put(ID, requestId);
+    if (fields != null) {
+      json.put(FIELDS, new JSONArray(fields));
+    }
+    return json;
+  }
+
+  /**
+   * @return the updated fields, or null if any field may have changed
+   */
+  public Set<String> getFields() {
+    return fields;
+  }
+
+  /**
+   *
+   * @return the service name
+   */
+  @Override
+  public String getServiceName() {
+    // like select requests and responses, all invalidations share a single
+    // name so that only one demand profile is kept for them
+    return "SelectInvalidation";
+  }
+
+  /**
+   *
+   * @return the response
+   */
+  @Override
+  public ClientRequest getResponse() {
+    return this.response;
+  }
+
+  /**
+   *
+   * @return the id
+   */
+  @Override
+  public long getRequestID() {
+    return requestId;
+  }
+}
@@ -19,8 +19,11 @@
  */
 package edu.umass.cs.gnsserver.gnsapp.packet;
 
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -52,6 +55,10 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress implemen
 	private final static String NOTIFICATION_STR 				= "notifcationMesg";
 	private final static String SELECT_HANDLE 					= "selectHandle";
 	private final static String LOCAL_SELECT_HANDLE 			= "localSelectHandle";
+	private final static String PRIMARY_ONLY 					= "primaryOnly";
+	private final static String EXCLUDED_RESPONDERS 			= "excludedResponders";
+	private final static String BYPASS_CACHE 					= "bypassCache";
+	private final static String AGGREGATION 					= "aggregation";
   
   
 	private SelectOperation selectOperation;
@@ -72,6 +79,15 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress implemen
 	// used for notification status select operation. 
 	private SelectHandleInfo selectHandle = null;  
 	
+	// if true, a name server only returns the records it is the primary responder for
+	private boolean primaryOnly = false;
+	// the name servers that failed to respond and whose records are taken over
+	private Set<String> excludedResponders = null;
+	// if true, the collecting name server does not answer from its select result cache
+	private boolean bypassCache = false;
+	// if not null, the matching records are aggregated instead of returned
+	private SelectAggregation aggregation = null;
+	
   /**
    * Constructs a new SelectRequestPacket
    * 
@@ -209,6 +225,12 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress implemen
 	  this.localSelectHandle = json.has(LOCAL_SELECT_HANDLE) ?
 			  	LocalSelectHandleInfo.fromJSONObject(json.getJSONObject(LOCAL_SELECT_HANDLE)):null;
 	
+	  this.primaryOnly = json.optBoolean(PRIMARY_ONLY, false);
+	  this.excludedResponders = json.has(EXCLUDED_RESPONDERS) ?
+			  new HashSet<>(JSONUtils.JSONArrayToArrayListString(json.getJSONArray(EXCLUDED_RESPONDERS))):null;
+	  this.bypassCache = json.optBoolean(BYPASS_CACHE, false);
+	  this.aggregation = json.has(AGGREGATION) ? 
+			  new SelectAggregation(json.getJSONObject(AGGREGATION)) : null;
   }
 
   /**
@@ -266,6 +288,26 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress implemen
 	  {
 		  json.put(LOCAL_SELECT_HANDLE, this.localSelectHandle.toJSONObject());
 	  }
+	  
+	  if(this.primaryOnly)
+	  {
+		  json.put(PRIMARY_ONLY, true);
+	  }
+	  
+	  if(this.excludedResponders != null)
+	  {
+		  json.put(EXCLUDED_RESPONDERS, new JSONArray(this.excludedResponders));
+	  }
+	  
+	  if(this.bypassCache)
+	  {
+		  json.put(BYPASS_CACHE, true);
+	  }
+	  
+	  if(this.aggregation != null)
+	  {
+		  json.put(AGGREGATION, this.aggregation.toJSONObject());
+	  }
   }
 
   /**
@@ -373,6 +415,64 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress implemen
   public void setProjection(List<String> projection) {
     this.projection = projection;
   }
+  
+  /**
+   * @return true if a name server should only return the records
+   * it is the primary responder for
+   */
+  public boolean isPrimaryOnly() {
+    return primaryOnly;
+  }
+  
+  /**
+   * @param primaryOnly
+   */
+  public void setPrimaryOnly(boolean primaryOnly) {
+    this.primaryOnly = primaryOnly;
+  }
+  
+  /**
+   * @return the name servers whose records have to be returned by
+   * the next replica, or null if none
+   */
+  public Set<String> getExcludedResponders() {
+    return excludedResponders;
+  }
+  
+  /**
+   * @param excludedResponders
+   */
+  public void setExcludedResponders(Set<String> excludedResponders) {
+    this.excludedResponders = excludedResponders;
+  }
+  
+  /**
+   * @return true if the result must not be served from the select result cache
+   */
+  public boolean isBypassCache() {
+    return bypassCache;
+  }
+  
+  /**
+   * @param bypassCache
+   */
+  public void setBypassCache(boolean bypassCache) {
+    this.bypassCache = bypassCache;
+  }
+
+  /**
+   * @return the aggregation of the matching records, or null if they are returned
+   */
+  public SelectAggregation getAggregation() {
+    return aggregation;
+  }
+
+  /**
+   * @param aggregation
+   */
+  public void setAggregation(SelectAggregation aggregation) {
+    this.aggregation = aggregation;
+  }
 
   /**
    *
@@ -449,6 +549,7 @@ public class SelectRequestPacket extends BasicPacketWithNSReturnAddress implemen
 			  return getType() + ":"
                 + getQuery() 
                 + getProjection()
+                + (aggregation != null ? aggregation : "")
                 + "[" + SelectRequestPacket.this.getClientAddress() + "]";
 		  }
 	  };
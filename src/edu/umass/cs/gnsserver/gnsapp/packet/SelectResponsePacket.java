@@ -44,12 +44,15 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
 	private final static String NSQUERYID 				= "nsQueryId";
 	private final static String RESPONSECODE 			= "code";
 	private final static String ERRORSTRING 			= "error";
+	private final static String AGGREGATE 				= "aggregate";
 	
 	private long requestId;
 	private int nsQueryId;
 	private JSONArray records;
 	// Only used in SelectNotify command.
 	private NotificationStatsToIssuer notificationStats;
+	// Only used in selects with an aggregation.
+	private JSONObject aggregate;
   
 	private ResponseCode responseCode;
 	private String errorMessage;
@@ -93,6 +96,28 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
 			  null, ResponseCode.NO_ERROR, null);
   }
   
+  /**
+   * Used by a NameServer to send a partial aggregate back to the collecting
+   * NameServer, and by the collecting NameServer to return the merged aggregate.
+   *
+   * @param id
+   * @param lnsAddress
+   * @param nsQueryId
+   * @param nsAddress
+   * @param records the records of a limit, or null
+   * @param aggregate the partial or merged aggregate, or null
+   * @return a SelectResponsePacket
+   */
+  public static SelectResponsePacket makeSuccessPacketForAggregate(
+          long id, InetSocketAddress lnsAddress,
+          int nsQueryId, InetSocketAddress nsAddress, JSONArray records, JSONObject aggregate) 
+  {
+	  SelectResponsePacket packet = new SelectResponsePacket(id, lnsAddress, nsQueryId, nsAddress, 
+			  records, null, ResponseCode.NO_ERROR, null);
+	  packet.aggregate = aggregate;
+	  return packet;
+  }
+  
   /**
    * Used by a NameServer to a send response with notification stats back to 
    * an entry-point name server. 
@@ -155,6 +180,7 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
     			(json.optJSONObject(NOTIFICATION_STATS));
     }
     this.errorMessage = json.optString(ERRORSTRING, null);
+    this.aggregate = json.optJSONObject(AGGREGATE);
 
   }
 
@@ -185,6 +211,9 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
     if (errorMessage != null) {
     	json.put(ERRORSTRING, errorMessage);
     }
+    if (aggregate != null) {
+    	json.put(AGGREGATE, aggregate);
+    }
     return json;
   }
 
@@ -206,6 +235,16 @@ public class SelectResponsePacket extends BasicPacketWithReturnAddressAndNsAddre
     return records;
   }
 
+  /**
+   * Return the aggregate.
+   *
+   * @return the partial or merged aggregate, or null if the select has no
+   * aggregation or returns the records of a limit
+   */
+  public JSONObject getAggregate() {
+    return aggregate;
+  }
+
   /**
    * Return the NS query requestId.
    *
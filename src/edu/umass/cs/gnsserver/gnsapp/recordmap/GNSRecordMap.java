@@ -27,18 +27,33 @@ import edu.umass.cs.gnscommon.exceptions.server.RecordExistsException;
 import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
 import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.utils.ValuesMap;
+import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DelayProfiler;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.logging.Level;
 
 /**
  * Supports abstract access to a collection of NoSQLRecords records specified by the
  * <code>collectionName</code> string.
  *
+ * If {@link GNSConfig.GNSC#ENABLE_GEO_INDEX} is true the location fields
+ * are also kept in a {@link GeoIndex} that is updated along with the
+ * records and answers selectNear and selectWithin on those fields. The
+ * index is filled in the background from the records that have a location,
+ * and until then the selects go to the database.
+ *
  * @author westy
  * @param <NodeIDType>
  */
@@ -46,6 +61,14 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
 
   private final String collectionName;
   private final NoSQLRecords noSqlRecords;
+  // null if disabled
+  private final GeoIndex geoIndex;
+  // true once the geo index holds the records that were in the collection
+  private volatile boolean geoIndexReady = false;
+  private volatile boolean geoIndexBuilding = false;
+  // name -> the location fields updated while the geo index is built,
+  // which the build leaves alone
+  private final Map<String, Set<String>> updatedWhileBuilding = new HashMap<>();
 
   /**
    * Creates an MongoRecordMap instance.
@@ -54,8 +77,123 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
    * @param collectionName
    */
   public GNSRecordMap(NoSQLRecords noSqlRecords, String collectionName) {
+    this(noSqlRecords, collectionName, Config.getGlobalBoolean(GNSConfig.GNSC.ENABLE_GEO_INDEX)
+            ? new GeoIndex(new LinkedHashSet<>(Arrays.asList(
+                    Config.getGlobalString(GNSConfig.GNSC.GEO_INDEX_FIELDS).split("\\s*,\\s*"))),
+                    Config.getGlobalInt(GNSConfig.GNSC.GEO_INDEX_CELLS_PER_DEGREE))
+            : null);
+  }
+
+  /**
+   * Creates an MongoRecordMap instance that keeps the locations of the
+   * records in {@code geoIndex}, which is filled in the background from
+   * the records already in the collection.
+   *
+   * @param noSqlRecords
+   * @param collectionName
+   * @param geoIndex the spatial index, or null for none
+   */
+  public GNSRecordMap(NoSQLRecords noSqlRecords, String collectionName, GeoIndex geoIndex) {
     this.collectionName = collectionName;
     this.noSqlRecords = noSqlRecords;
+    this.geoIndex = geoIndex;
+    if (geoIndex != null) {
+      geoIndexBuilding = true;
+      Thread thread = new Thread(this::buildGeoIndex, GNSRecordMap.class.getSimpleName() + "GeoIndex");
+      thread.setDaemon(true);
+      thread.start();
+    }
+  }
+
+  // reads only the records with a location, and only their locations
+  private void buildGeoIndex() {
+    long startTime = System.currentTimeMillis();
+    int count = 0;
+    boolean built = false;
+    try {
+      for (String field : geoIndex.getFields()) {
+        AbstractRecordCursor cursor = noSqlRecords.selectRecordsQuery(collectionName,
+                NameRecord.VALUES_MAP, "~" + field + " : ($exists: true)", Arrays.asList(field));
+        while (cursor.hasNext()) {
+          JSONObject json = cursor.nextJSONObject();
+          if (json.has(NameRecord.NAME.getName()) && json.has(NameRecord.VALUES_MAP.getName())) {
+            String name = json.getString(NameRecord.NAME.getName());
+            Object value = getDottedField(json.getJSONObject(NameRecord.VALUES_MAP.getName()), field);
+            synchronized (updatedWhileBuilding) {
+              // an update may have changed the record since it was read
+              Set<String> updated = updatedWhileBuilding.get(name);
+              if (updated == null || !updated.contains(field)) {
+                geoIndex.update(name, field, value);
+              }
+            }
+            count++;
+          }
+        }
+      }
+      built = true;
+    } catch (FailedDBOperationException | JSONException | UnsupportedOperationException e) {
+      GNSConfig.getLogger().log(Level.SEVERE, "{0}:: Unable to build the geo index, "
+              + "selects go to the database: {1}", new Object[]{noSqlRecords, e});
+    }
+    synchronized (updatedWhileBuilding) {
+      geoIndexBuilding = false;
+      geoIndexReady = built;
+      updatedWhileBuilding.clear();
+    }
+    GNSConfig.getLogger().log(Level.INFO, "{0}:: Indexed {1} locations in {2}ms: {3}",
+            new Object[]{noSqlRecords, count, System.currentTimeMillis() - startTime, geoIndex});
+  }
+
+  // called before the geo index is updated for fields of name
+  private void markUpdated(String name, Collection<String> fields) {
+    if (geoIndexBuilding) {
+      synchronized (updatedWhileBuilding) {
+        if (geoIndexBuilding) {
+          updatedWhileBuilding.computeIfAbsent(name, n -> new HashSet<>()).addAll(fields);
+        }
+      }
+    }
+  }
+
+  // sets the indexed locations of name to those in valuesMap
+  private void indexLocations(String name, JSONObject valuesMap) {
+    for (String field : geoIndex.getFields()) {
+      geoIndex.update(name, field, getDottedField(valuesMap, field));
+    }
+  }
+
+  private static Object getDottedField(JSONObject json, String field) {
+    Object value = json;
+    for (String part : field.split("\\.")) {
+      if (!(value instanceof JSONObject) || !((JSONObject) value).has(part)) {
+        return null;
+      }
+      value = ((JSONObject) value).opt(part);
+    }
+    return value;
+  }
+
+  // reads the locations back when an update touched them only in part
+  private void reindexLocations(String name) throws FailedDBOperationException {
+    markUpdated(name, geoIndex.getFields());
+    try {
+      JSONObject json = noSqlRecords.lookupEntireRecord(collectionName, name);
+      indexLocations(name, json.has(NameRecord.VALUES_MAP.getName())
+              ? json.getJSONObject(NameRecord.VALUES_MAP.getName()) : new JSONObject());
+    } catch (RecordNotFoundException e) {
+      geoIndex.remove(name);
+    } catch (JSONException e) {
+      GNSConfig.getLogger().log(Level.WARNING, "{0}:: Unable to index the locations of {1}: {2}",
+              new Object[]{noSqlRecords, name, e});
+      geoIndex.remove(name);
+    }
+  }
+
+  /**
+   * @return the spatial index, or null if there is none
+   */
+  public GeoIndex getGeoIndex() {
+    return geoIndex;
   }
 
   @Override
@@ -81,6 +219,11 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
     try {
       String name = json.getString(NameRecord.NAME.getName());
       records.insert(collectionName, name, json);
+      if (geoIndex != null) {
+        markUpdated(name, geoIndex.getFields());
+        indexLocations(name, json.has(NameRecord.VALUES_MAP.getName())
+                ? json.getJSONObject(NameRecord.VALUES_MAP.getName()) : new JSONObject());
+      }
       GNSConfig.getLogger().log(Level.FINER, "{0}:: Added {1} JSON: {2}",
               new Object[]{records.toString(), name, json});
     } catch (JSONException e) {
@@ -92,6 +235,10 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
   @Override
   public void removeRecord(String name) throws FailedDBOperationException {
     noSqlRecords.removeEntireRecord(collectionName, name);
+    if (geoIndex != null) {
+      markUpdated(name, geoIndex.getFields());
+      geoIndex.remove(name);
+    }
   }
 
   @Override
@@ -103,6 +250,10 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
   public void updateEntireValuesMap(String name, ValuesMap valuesMap)
           throws FailedDBOperationException {
     noSqlRecords.updateEntireRecord(collectionName, name, valuesMap);
+    if (geoIndex != null) {
+      markUpdated(name, geoIndex.getFields());
+      indexLocations(name, valuesMap);
+    }
   }
 
   @Override
@@ -110,12 +261,35 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
           throws FailedDBOperationException {
     noSqlRecords.updateIndividualFields(collectionName, name,
             NameRecord.VALUES_MAP, valuesMapKeys, valuesMapValues);
+    if (geoIndex != null) {
+      boolean reindex = false;
+      for (int i = 0; i < valuesMapKeys.size(); i++) {
+        String key = valuesMapKeys.get(i).getName();
+        if (geoIndex.isIndexed(key)) {
+          markUpdated(name, Collections.singleton(key));
+          geoIndex.update(name, key, valuesMapValues.get(i));
+        } else if (geoIndex.affects(key)) {
+          reindex = true;
+        }
+      }
+      if (reindex) {
+        reindexLocations(name);
+      }
+    }
   }
 
   @Override
   public void removeMapKeys(String name, ColumnField mapField, ArrayList<ColumnField> mapKeys)
           throws FailedDBOperationException {
     noSqlRecords.removeMapKeys(collectionName, name, mapField, mapKeys);
+    if (geoIndex != null && NameRecord.VALUES_MAP.getName().equals(mapField.getName())) {
+      for (ColumnField key : mapKeys) {
+        if (geoIndex.affects(key.getName())) {
+          reindexLocations(name);
+          break;
+        }
+      }
+    }
   }
 
   @Override
@@ -130,11 +304,26 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
 
   @Override
   public AbstractRecordCursor selectRecordsWithin(ColumnField valuesMapField, String key, String value) throws FailedDBOperationException {
+    double[] box;
+    if (isGeoIndexed(valuesMapField, key) && (box = GeoIndex.parseBox(value)) != null) {
+      long startTime = System.nanoTime();
+      List<String> names = geoIndex.within(key, box[0], box[1], box[2], box[3]);
+      DelayProfiler.updateDelayNano("geoIndexWithin", startTime);
+      return new NameListRecordCursor(this, names);
+    }
     return noSqlRecords.selectRecordsWithin(collectionName, valuesMapField, key, value);
   }
 
   @Override
   public AbstractRecordCursor selectRecordsNear(ColumnField valuesMapField, String key, String value, Double maxDistance) throws FailedDBOperationException {
+    double[] point;
+    if (isGeoIndexed(valuesMapField, key) && maxDistance != null
+            && (point = GeoIndex.parsePoint(value)) != null) {
+      long startTime = System.nanoTime();
+      List<String> names = geoIndex.near(key, point[0], point[1], maxDistance);
+      DelayProfiler.updateDelayNano("geoIndexNear", startTime);
+      return new NameListRecordCursor(this, names);
+    }
     return noSqlRecords.selectRecordsNear(collectionName, valuesMapField, key, value, maxDistance);
   }
 
@@ -144,6 +333,11 @@ public class GNSRecordMap<NodeIDType> extends BasicRecordMap {
     return noSqlRecords.selectRecordsQuery(collectionName, valuesMapField, query, projection);
   }
 
+  private boolean isGeoIndexed(ColumnField valuesMapField, String key) {
+    return geoIndexReady && geoIndex.isIndexed(key)
+            && NameRecord.VALUES_MAP.getName().equals(valuesMapField.getName());
+  }
+
   @Override
   public String toString() {
     return "MongoRecordMap{" + "collectionName=" + collectionName + ", records=" + noSqlRecords + '}';
@@ -0,0 +1,453 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.recordmap;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * An in-memory spatial index of the location fields of the records held by
+ * a name server, used to answer selectNear and selectWithin without going
+ * to the database.
+ *
+ * Locations are [longitude, latitude] pairs, either as a JSON array or as
+ * the coordinates of a GeoJSON point, and are treated as points on a flat
+ * plane like the 2d index of MongoDB, except that the distances of
+ * {@link GNSProtocol#LOCATION_FIELD_NAME_2D_SPHERE}, which MongoDB indexes
+ * as 2dsphere, are great circle distances. The plane is cut into square
+ * cells of 1/cellsPerDegree degrees and every indexed field keeps, for each
+ * cell, the names whose location lies in it. A query visits the cells that
+ * intersect its box or circle and then checks the exact locations.
+ *
+ * All methods are thread safe. Updates of a single name must not be applied
+ * concurrently, which holds for the replicated state of a name server.
+ *
+ * @author westy
+ */
+public class GeoIndex {
+
+  private static class FieldIndex {
+
+    // name -> [x, y], never modified once set
+    final ConcurrentHashMap<String, double[]> points = new ConcurrentHashMap<>();
+    // cell -> names
+    final ConcurrentHashMap<Long, Set<String>> cells = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * The distance along a degree at the equator, used to convert the
+   * distances of selectNear like MongoDB does.
+   */
+  public final static double METERS_PER_DEGREE = 111.12 * 1000;
+  /**
+   * The radius of the earth that MongoDB uses for spherical distances.
+   */
+  public final static double EARTH_RADIUS_METERS = 6378.1 * 1000;
+
+  private final double cellsPerDegree;
+  private final Map<String, FieldIndex> indexes = new HashMap<>();
+
+  /**
+   * @param fields the location fields to index
+   * @param cellsPerDegree the number of cells along a degree of longitude or latitude
+   */
+  public GeoIndex(Collection<String> fields, double cellsPerDegree) {
+    if (cellsPerDegree <= 0) {
+      throw new IllegalArgumentException("cellsPerDegree must be positive: " + cellsPerDegree);
+    }
+    this.cellsPerDegree = cellsPerDegree;
+    for (String field : fields) {
+      indexes.put(field, new FieldIndex());
+    }
+  }
+
+  /**
+   * @return the indexed fields
+   */
+  public Set<String> getFields() {
+    return Collections.unmodifiableSet(indexes.keySet());
+  }
+
+  /**
+   * @param field
+   * @return true if {@code field} is indexed
+   */
+  public boolean isIndexed(String field) {
+    return indexes.containsKey(field);
+  }
+
+  /**
+   * @param field
+   * @return true if an update of {@code field} may change an indexed field,
+   * i.e., {@code field} is an indexed field, or a parent or child of one
+   */
+  public boolean affects(String field) {
+    for (String indexed : indexes.keySet()) {
+      if (indexed.equals(field) || indexed.startsWith(field + ".")
+              || field.startsWith(indexed + ".")) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @param field
+   * @return the number of names with a location in {@code field}
+   */
+  public int size(String field) {
+    FieldIndex index = indexes.get(field);
+    return index != null ? index.points.size() : 0;
+  }
+
+  /**
+   * Sets the location of {@code name} in {@code field}.
+   *
+   * @param name
+   * @param field
+   * @param value the new value of the field, if it is not a location
+   * the name is removed from the index of the field
+   */
+  public void update(String name, String field, Object value) {
+    double[] point = parsePoint(value);
+    if (point == null) {
+      remove(name, field);
+    } else {
+      update(name, field, point[0], point[1]);
+    }
+  }
+
+  /**
+   * Sets the location of {@code name} in {@code field} to (x, y).
+   *
+   * @param name
+   * @param field
+   * @param x the longitude
+   * @param y the latitude
+   */
+  public void update(String name, String field, double x, double y) {
+    FieldIndex index = indexes.get(field);
+    if (index == null) {
+      return;
+    }
+    long newCell = cell(x, y);
+    index.points.compute(name, (n, old) -> {
+      if (old != null) {
+        long oldCell = cell(old[0], old[1]);
+        if (oldCell == newCell) {
+          return new double[]{x, y};
+        }
+        removeFromCell(index, oldCell, n);
+      }
+      index.cells.compute(newCell, (c, names) -> {
+        if (names == null) {
+          names = ConcurrentHashMap.newKeySet();
+        }
+        names.add(n);
+        return names;
+      });
+      return new double[]{x, y};
+    });
+  }
+
+  /**
+   * Removes {@code name} from the index of {@code field}.
+   *
+   * @param name
+   * @param field
+   */
+  public void remove(String name, String field) {
+    FieldIndex index = indexes.get(field);
+    if (index == null) {
+      return;
+    }
+    index.points.computeIfPresent(name, (n, old) -> {
+      removeFromCell(index, cell(old[0], old[1]), n);
+      return null;
+    });
+  }
+
+  /**
+   * Removes {@code name} from the index of every field.
+   *
+   * @param name
+   */
+  public void remove(String name) {
+    for (String field : indexes.keySet()) {
+      remove(name, field);
+    }
+  }
+
+  private static void removeFromCell(FieldIndex index, long cell, String name) {
+    index.cells.computeIfPresent(cell, (c, names) -> {
+      names.remove(name);
+      return names.isEmpty() ? null : names;
+    });
+  }
+
+  /**
+   * Returns the names whose location in {@code field} lies in the box with
+   * the corners (x1, y1) and (x2, y2), borders included.
+   *
+   * @param field
+   * @param x1
+   * @param y1
+   * @param x2
+   * @param y2
+   * @return the names in no particular order
+   */
+  public List<String> within(String field, double x1, double y1, double x2, double y2) {
+    double minX = Math.min(x1, x2), maxX = Math.max(x1, x2);
+    double minY = Math.min(y1, y2), maxY = Math.max(y1, y2);
+    List<String> result = new ArrayList<>();
+    for (Map.Entry<String, double[]> entry : candidates(field, minX, minY, maxX, maxY)) {
+      double[] point = entry.getValue();
+      if (point[0] >= minX && point[0] <= maxX && point[1] >= minY && point[1] <= maxY) {
+        result.add(entry.getKey());
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Returns the names whose location in {@code field} is at most
+   * {@code maxDistance} meters away from (x, y), see
+   * {@link #getDistance(String, double[], double[])}.
+   *
+   * @param field
+   * @param x
+   * @param y
+   * @param maxDistance the distance in meters
+   * @return the names, nearest first
+   */
+  public List<String> near(String field, double x, double y, double maxDistance) {
+    double[] center = {x, y};
+    double minX, maxX, minY, maxY;
+    if (isSpherical(field)) {
+      double latitudes = Math.toDegrees(maxDistance / EARTH_RADIUS_METERS);
+      minY = Math.max(-90, y - latitudes);
+      maxY = Math.min(90, y + latitudes);
+      // a degree of longitude is shortest at the latitude furthest from the equator
+      double cos = Math.cos(Math.toRadians(Math.max(Math.abs(minY), Math.abs(maxY))));
+      double longitudes = cos > 0 ? latitudes / cos : Double.POSITIVE_INFINITY;
+      if (x - longitudes < -180 || x + longitudes > 180) {
+        // near a pole or across the antimeridian
+        minX = -180;
+        maxX = 180;
+      } else {
+        minX = x - longitudes;
+        maxX = x + longitudes;
+      }
+    } else {
+      double degrees = maxDistance / METERS_PER_DEGREE;
+      minX = x - degrees;
+      maxX = x + degrees;
+      minY = y - degrees;
+      maxY = y + degrees;
+    }
+    List<Map.Entry<String, Double>> matches = new ArrayList<>();
+    for (Map.Entry<String, double[]> entry : candidates(field, minX, minY, maxX, maxY)) {
+      double distance = getDistance(field, entry.getValue(), center);
+      if (distance <= maxDistance) {
+        matches.add(new AbstractMap.SimpleEntry<>(entry.getKey(), distance));
+      }
+    }
+    matches.sort(Comparator.comparingDouble(Map.Entry::getValue));
+    List<String> result = new ArrayList<>(matches.size());
+    for (Map.Entry<String, Double> match : matches) {
+      result.add(match.getKey());
+    }
+    return result;
+  }
+
+  /**
+   * @param field
+   * @return true if the distances of {@code field} are great circle
+   * distances, as for a 2dsphere index of MongoDB
+   */
+  public static boolean isSpherical(String field) {
+    return GNSProtocol.LOCATION_FIELD_NAME_2D_SPHERE.toString().equals(field);
+  }
+
+  /**
+   * Returns the distance between two locations of {@code field} the way
+   * MongoDB measures it: along the great circle for a spherical field,
+   * see {@link #isSpherical(String)}, and otherwise in a straight line
+   * on the plane, converted at {@link #METERS_PER_DEGREE}.
+   *
+   * @param field
+   * @param a {x, y}
+   * @param b {x, y}
+   * @return the distance in meters
+   */
+  public static double getDistance(String field, double[] a, double[] b) {
+    if (!isSpherical(field)) {
+      return Math.hypot(a[0] - b[0], a[1] - b[1]) * METERS_PER_DEGREE;
+    }
+    double dLat = Math.toRadians(b[1] - a[1]);
+    double dLon = Math.toRadians(b[0] - a[0]);
+    double h = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+            + Math.cos(Math.toRadians(a[1])) * Math.cos(Math.toRadians(b[1]))
+            * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+    return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(h)));
+  }
+
+  // the names and current locations in the cells that intersect the box
+  private Collection<Map.Entry<String, double[]>> candidates(String field,
+          double minX, double minY, double maxX, double maxY) {
+    FieldIndex index = indexes.get(field);
+    if (index == null) {
+      return Collections.emptyList();
+    }
+    long minCellX = coordinate(minX), maxCellX = coordinate(maxX);
+    long minCellY = coordinate(minY), maxCellY = coordinate(maxY);
+    double numCells = (double) (maxCellX - minCellX + 1) * (maxCellY - minCellY + 1);
+    // scanning the points is cheaper than probing mostly empty cells
+    if (numCells > index.cells.size()) {
+      List<Map.Entry<String, double[]>> all = new ArrayList<>();
+      for (Map.Entry<String, double[]> entry : index.points.entrySet()) {
+        all.add(new AbstractMap.SimpleEntry<>(entry));
+      }
+      return all;
+    }
+    // a name that is moving may briefly be in two cells
+    Map<String, double[]> found = new HashMap<>();
+    for (long cellX = minCellX; cellX <= maxCellX; cellX++) {
+      for (long cellY = minCellY; cellY <= maxCellY; cellY++) {
+        Set<String> names = index.cells.get(cell(cellX, cellY));
+        if (names == null) {
+          continue;
+        }
+        for (String name : names) {
+          double[] point = index.points.get(name);
+          if (point != null) {
+            found.put(name, point);
+          }
+        }
+      }
+    }
+    return found.entrySet();
+  }
+
+  private long coordinate(double degrees) {
+    return (long) Math.floor(degrees * cellsPerDegree);
+  }
+
+  private long cell(double x, double y) {
+    return cell(coordinate(x), coordinate(y));
+  }
+
+  private static long cell(long cellX, long cellY) {
+    return (cellX << 32) ^ (cellY & 0xffffffffL);
+  }
+
+  /**
+   * Parses a location, either a [longitude, latitude] JSON array, a GeoJSON
+   * point, or the string form of either.
+   *
+   * @param value
+   * @return the location as {x, y}, or null if {@code value} is not a location
+   */
+  public static double[] parsePoint(Object value) {
+    try {
+      if (value instanceof String) {
+        String string = ((String) value).trim();
+        if (string.startsWith("[")) {
+          value = new JSONArray(string);
+        } else if (string.startsWith("{")) {
+          value = new JSONObject(string);
+        } else {
+          return null;
+        }
+      }
+      if (value instanceof JSONObject) {
+        JSONObject json = (JSONObject) value;
+        if (!json.has("coordinates")) {
+          return null;
+        }
+        value = json.get("coordinates");
+      }
+      if (value instanceof Collection) {
+        value = new JSONArray((Collection<?>) value);
+      }
+      if (value instanceof JSONArray) {
+        JSONArray array = (JSONArray) value;
+        if (array.length() != 2) {
+          return null;
+        }
+        double x = array.getDouble(0);
+        double y = array.getDouble(1);
+        if (Double.isNaN(x) || Double.isNaN(y) || Double.isInfinite(x) || Double.isInfinite(y)) {
+          return null;
+        }
+        return new double[]{x, y};
+      }
+    } catch (JSONException e) {
+      // not a location
+    }
+    return null;
+  }
+
+  /**
+   * Parses a box, a JSON array of two corners.
+   *
+   * @param value
+   * @return the box as {x1, y1, x2, y2}, or null if {@code value} is not a box
+   */
+  public static double[] parseBox(String value) {
+    try {
+      JSONArray json = new JSONArray(value);
+      if (json.length() != 2) {
+        return null;
+      }
+      double[] corner1 = parsePoint(json.get(0));
+      double[] corner2 = parsePoint(json.get(1));
+      if (corner1 == null || corner2 == null) {
+        return null;
+      }
+      return new double[]{corner1[0], corner1[1], corner2[0], corner2[1]};
+    } catch (JSONException e) {
+      return null;
+    }
+  }
+
+  @Override
+  public String toString() {
+    Map<String, Integer> sizes = new HashMap<>();
+    for (String field : indexes.keySet()) {
+      sizes.put(field, size(field));
+    }
+    return this.getClass().getSimpleName() + sizes;
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.recordmap;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.utils.Format;
+import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.utils.Config;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the update and query throughput of the {@link GeoIndex} over a
+ * large number of moving points.
+ *
+ * The points start uniformly spread over a region and then every update
+ * moves a random point by a small random step, like a fleet of moving
+ * devices reporting their locations. The queries are selectNear and
+ * selectWithin around random points of the region. Each phase runs for
+ * a fixed time, first updates only, then queries only, then both at once.
+ *
+ * Typical incantation:
+
+ java -cp jars/GNS.jar edu.umass.cs.gnsserver.gnsapp.recordmap.GeoIndexThroughputTest 1000000 8 10
+ *
+ * @author westy
+ */
+public class GeoIndexThroughputTest {
+
+  private static final String FIELD = GNSProtocol.LOCATION_FIELD_NAME.toString();
+  // roughly the size of a large city
+  private static final double MIN_X = -71.2, MAX_X = -70.8, MIN_Y = 42.2, MAX_Y = 42.5;
+  // about 10 meters
+  private static final double STEP = 0.0001;
+  // meters
+  private static final double NEAR_DISTANCE = 500;
+  private static final double BOX_SIZE = 0.01;
+
+  /**
+   * Run the test.
+   *
+   * @param args the number of points, threads, seconds per phase and
+   * cells per degree, all optional; the cells per degree default to
+   * GEO_INDEX_CELLS_PER_DEGREE
+   * @throws InterruptedException
+   */
+  public static void main(String[] args) throws InterruptedException {
+    int numPoints = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int numThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    int cellsPerDegree = args.length > 3 ? Integer.parseInt(args[3])
+            : Config.getGlobalInt(GNSConfig.GNSC.GEO_INDEX_CELLS_PER_DEGREE);
+
+    GeoIndex index = new GeoIndex(Arrays.asList(FIELD), cellsPerDegree);
+    long startTime = System.currentTimeMillis();
+    double[][] points = new double[numPoints][2];
+    for (int i = 0; i < numPoints; i++) {
+      points[i][0] = MIN_X + ThreadLocalRandom.current().nextDouble() * (MAX_X - MIN_X);
+      points[i][1] = MIN_Y + ThreadLocalRandom.current().nextDouble() * (MAX_Y - MIN_Y);
+      index.update(name(i), FIELD, points[i][0], points[i][1]);
+    }
+    System.out.println("Loaded " + numPoints + " points in "
+            + (System.currentTimeMillis() - startTime) + "ms");
+
+    System.out.println("Updates: " + run(index, points, numThreads, seconds, true, false));
+    System.out.println("Queries: " + run(index, points, numThreads, seconds, false, true));
+    System.out.println("Mixed:   " + run(index, points, numThreads, seconds, true, true));
+    System.exit(0);
+  }
+
+  // points are only moved by the thread that owns them, as updates of a
+  // name are never concurrent in a name server
+  private static String run(GeoIndex index, double[][] points, int numThreads, int seconds,
+          boolean updates, boolean queries) throws InterruptedException {
+    AtomicLong numUpdates = new AtomicLong();
+    AtomicLong numQueries = new AtomicLong();
+    AtomicLong numResults = new AtomicLong();
+    long endTime = System.currentTimeMillis() + seconds * 1000L;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    for (int t = 0; t < numThreads; t++) {
+      final int thread = t;
+      executor.submit(new Runnable() {
+        @Override
+        public void run() {
+          ThreadLocalRandom random = ThreadLocalRandom.current();
+          int owned = points.length / numThreads;
+          int first = thread * owned;
+          long count = 0;
+          while ((count & 0xff) != 0 || System.currentTimeMillis() < endTime) {
+            // the mixed phase does one query every ten updates
+            if (updates && (!queries || count % 10 != 0)) {
+              int i = first + random.nextInt(Math.max(owned, 1));
+              double[] point = points[i];
+              point[0] = Math.min(MAX_X, Math.max(MIN_X, point[0] + (random.nextDouble() - 0.5) * STEP));
+              point[1] = Math.min(MAX_Y, Math.max(MIN_Y, point[1] + (random.nextDouble() - 0.5) * STEP));
+              index.update(name(i), FIELD, point[0], point[1]);
+              numUpdates.incrementAndGet();
+            } else {
+              double x = MIN_X + random.nextDouble() * (MAX_X - MIN_X);
+              double y = MIN_Y + random.nextDouble() * (MAX_Y - MIN_Y);
+              int found = random.nextBoolean()
+                      ? index.near(FIELD, x, y, NEAR_DISTANCE).size()
+                      : index.within(FIELD, x, y, x + BOX_SIZE, y + BOX_SIZE).size();
+              numResults.addAndGet(found);
+              numQueries.incrementAndGet();
+            }
+            count++;
+          }
+        }
+      });
+    }
+    executor.shutdown();
+    executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+    double elapsed = seconds;
+    return "updates/s = " + Format.formatTime(numUpdates.get() / elapsed)
+            + " queries/s = " + Format.formatTime(numQueries.get() / elapsed)
+            + " results/query = " + (numQueries.get() > 0 ? numResults.get() / numQueries.get() : 0);
+  }
+
+  private static String name(int i) {
+    return "guid" + i;
+  }
+}
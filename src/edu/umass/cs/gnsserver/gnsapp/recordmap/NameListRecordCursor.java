@@ -0,0 +1,75 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.recordmap;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.json.JSONObject;
+
+import edu.umass.cs.gnscommon.exceptions.server.FailedDBOperationException;
+import edu.umass.cs.gnscommon.exceptions.server.RecordNotFoundException;
+import edu.umass.cs.gnsserver.database.AbstractRecordCursor;
+
+/**
+ * A cursor over the entire records of a list of names, each looked up
+ * when the cursor reaches it. Names whose record has been removed in the
+ * meantime are skipped.
+ *
+ * @author westy
+ */
+class NameListRecordCursor extends AbstractRecordCursor {
+
+  private final BasicRecordMap recordMap;
+  private final Iterator<String> names;
+  private JSONObject next = null;
+
+  /**
+   * @param recordMap
+   * @param names
+   */
+  NameListRecordCursor(BasicRecordMap recordMap, List<String> names) {
+    this.recordMap = recordMap;
+    this.names = names.iterator();
+  }
+
+  @Override
+  public boolean hasNext() throws FailedDBOperationException {
+    while (next == null && names.hasNext()) {
+      try {
+        next = recordMap.lookupEntireRecord(names.next());
+      } catch (RecordNotFoundException e) {
+        // removed since the names were collected
+      }
+    }
+    return next != null;
+  }
+
+  @Override
+  public JSONObject nextJSONObject() throws FailedDBOperationException {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    JSONObject json = next;
+    next = null;
+    return json;
+  }
+}
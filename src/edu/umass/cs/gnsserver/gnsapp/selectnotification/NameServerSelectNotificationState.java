@@ -1,10 +1,10 @@
 package edu.umass.cs.gnsserver.gnsapp.selectnotification;
 
-import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
 
 import edu.umass.cs.utils.GCConcurrentHashMap;
 
@@ -19,12 +19,12 @@ public class NameServerSelectNotificationState
 {
 	private static final long GC_TIMEOUT			= 5000; // In ms. 
 	
-	private final HashMap<Long, List<NotificationSendingStats>> notificationInfo;
+	private final ConcurrentHashMap<Long, NotificationJob> notificationInfo;
 	
 	// For garbage collection.
 	// Once there are no pending notifications, then an entry is moved from
 	// notificationInfo to garbageCollectionMap, so it is slowly garbage collected.
-	private final GCConcurrentHashMap<Long, List<NotificationSendingStats>> garbageCollectionMap;
+	private final GCConcurrentHashMap<Long, NotificationJob> garbageCollectionMap;
 	
 	private final Object lock;
 	private final Random rand;
@@ -35,26 +35,29 @@ public class NameServerSelectNotificationState
 	 */
 	public NameServerSelectNotificationState()
 	{
-		this.notificationInfo = new HashMap<Long, List<NotificationSendingStats>>();
-		garbageCollectionMap = new GCConcurrentHashMap<Long, List<NotificationSendingStats>>(GC_TIMEOUT);
+		this.notificationInfo = new ConcurrentHashMap<Long, NotificationJob>();
+		garbageCollectionMap = new GCConcurrentHashMap<Long, NotificationJob>(GC_TIMEOUT);
 		
 		lock = new Object();
 		rand = new Random();
 		// starting GC thread
-		new Thread(new GarbageCollectionThread()).start();
+		Thread gcThread = new Thread(new GarbageCollectionThread(), 
+				NameServerSelectNotificationState.class.getSimpleName() + "GC");
+		gcThread.setDaemon(true);
+		gcThread.start();
 	}
 	
 	/**
-	 * Stores {@code stats} and returns the localHandleId.
+	 * Stores {@code job} and returns the localHandleId.
 	 * This function is thread-safe.
 	 * 
-	 * @param statsList
+	 * @param job
 	 * @return localHandle
 	 * Returns -1 if the addition fails. 
 	 */
-	public long addNotificationStatsList(List<NotificationSendingStats> statsList)
+	public long addNotificationJob(NotificationJob job)
 	{
-		if(statsList == null)
+		if(job == null)
 			return -1;
 		
 		synchronized(lock)
@@ -69,7 +72,7 @@ public class NameServerSelectNotificationState
 						|| garbageCollectionMap.containsKey(reqId));
 			
 			
-			notificationInfo.put(reqId, statsList);
+			notificationInfo.put(reqId, job);
 			return reqId;
 		}
 	}
@@ -77,19 +80,19 @@ public class NameServerSelectNotificationState
 	/**
 	 * Looks up the state using the supplied local handle identifier.
 	 * @param localHandle
-	 * @return Returns a list of {@link NotificationSendingStats} associated with
+	 * @return Returns the {@link NotificationJob} associated with
 	 * this local select handle. 
 	 */
-	public List<NotificationSendingStats> lookupNotificationStats(long localHandle)
+	public NotificationJob lookupNotificationJob(long localHandle)
 	{
-		List<NotificationSendingStats> list = notificationInfo.get(localHandle);
+		NotificationJob job = notificationInfo.get(localHandle);
 		
-		if(list == null)
+		if(job == null)
 		{
 			return this.garbageCollectionMap.get(localHandle);
 		}
 		else
-			return list;
+			return job;
 	}
 	
 	
@@ -115,7 +118,7 @@ public class NameServerSelectNotificationState
 				while(iter.hasNext())
 				{
 					long localId = iter.next();
-					if(checkZeroPendingNotifications(notificationInfo.get(localId)))
+					if(notificationInfo.get(localId).isDone())
 					{
 						toBeRemoved.add(localId);
 					}
@@ -127,25 +130,13 @@ public class NameServerSelectNotificationState
 					for(int i=0; i<toBeRemoved.size();i++)
 					{
 						long localId = toBeRemoved.get(i);
-						List<NotificationSendingStats> notList = notificationInfo.remove(localId);
+						NotificationJob job = notificationInfo.remove(localId);
 						// putting this entry in garbage collect map. 
-						garbageCollectionMap.put(localId, notList);
+						garbageCollectionMap.put(localId, job);
 					}
 				}
 				
 			}
 		}
-		
-		
-		private boolean checkZeroPendingNotifications(List<NotificationSendingStats> statList)
-		{
-			for(int i=0; i<statList.size(); i++)
-			{
-				NotificationSendingStats notStats = statList.get(i);
-				if(notStats.getNumberPending() != 0)
-					return false;
-			}
-			return true;
-		}	
 	}
 }
\ No newline at end of file
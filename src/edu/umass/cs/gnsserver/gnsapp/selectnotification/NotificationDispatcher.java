@@ -0,0 +1,136 @@
+package edu.umass.cs.gnsserver.gnsapp.selectnotification;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umass.cs.gnsserver.main.GNSConfig;
+
+/**
+ * This class hands the batches of select notifications to the
+ * {@link SelectResponseProcessor} on a bounded pool of threads, so that
+ * the name server thread that runs a select does not wait for the
+ * notifications to be sent, and the batches of a select are sent in parallel.
+ *
+ * At most queueSize batches wait for a thread. A batch that does not fit
+ * is handed over again after retryDelay, as is a batch whose sending threw
+ * an exception, up to maxRetries times. Each batch keeps its own progress
+ * in its {@link NotificationJob}, so a retry only resends that batch.
+ *
+ * @author ayadav
+ */
+public class NotificationDispatcher
+{
+	private static final Logger LOGGER = GNSConfig.getLogger();
+
+	private final ThreadPoolExecutor executor;
+	private final ScheduledThreadPoolExecutor timer;
+	private final int maxRetries;
+	private final long retryDelay;
+
+	/**
+	 * Creates a dispatcher.
+	 *
+	 * @param numThreads
+	 * The number of threads that send notifications.
+	 * @param queueSize
+	 * The maximum number of batches waiting for a thread.
+	 * @param maxRetries
+	 * The number of times a batch is resent after its sending failed.
+	 * @param retryDelay
+	 * The time in ms after which a batch is handed over again.
+	 */
+	public NotificationDispatcher(int numThreads, int queueSize, int maxRetries, long retryDelay)
+	{
+		AtomicInteger threadNum = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(numThreads, numThreads,
+				60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(queueSize),
+				(Runnable r) -> {
+					Thread thread = new Thread(r, NotificationDispatcher.class.getSimpleName()
+							+ threadNum.getAndIncrement());
+					thread.setDaemon(true);
+					return thread;
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+		this.timer = new ScheduledThreadPoolExecutor(1, (Runnable r) -> {
+			Thread thread = new Thread(r, NotificationDispatcher.class.getSimpleName() + "Timer");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.maxRetries = maxRetries;
+		this.retryDelay = retryDelay;
+	}
+
+	/**
+	 * Hands over a batch of a job.
+	 *
+	 * @param job
+	 * @param batch
+	 */
+	void dispatch(NotificationJob job, NotificationJob.Batch batch)
+	{
+		try
+		{
+			executor.execute(() -> send(job, batch));
+		}
+		catch(RejectedExecutionException e)
+		{
+			// all threads busy and the queue full, the batch waits in its job,
+			// but not for longer than its retries would take
+			if(batch.reject() <= maxRetries)
+			{
+				schedule(job, batch);
+			}
+			else
+			{
+				LOGGER.log(Level.INFO, "{0} giving up on batch {1} of {2} after {3} rejections",
+						new Object[]{this, batch, job, maxRetries + 1});
+				job.fail(batch);
+			}
+		}
+	}
+
+	private void send(NotificationJob job, NotificationJob.Batch batch)
+	{
+		if(job.send(batch))
+		{
+			return;
+		}
+		if(batch.getAttempts() <= maxRetries)
+		{
+			LOGGER.log(Level.FINE, "{0} resending batch {1} of {2} in {3}ms",
+					new Object[]{this, batch, job, retryDelay});
+			schedule(job, batch);
+		}
+		else
+		{
+			LOGGER.log(Level.INFO, "{0} giving up on batch {1} of {2} after {3} attempts",
+					new Object[]{this, batch, job, batch.getAttempts()});
+			job.fail(batch);
+		}
+	}
+
+	private void schedule(NotificationJob job, NotificationJob.Batch batch)
+	{
+		timer.schedule(() -> dispatch(job, batch), retryDelay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @return The number of batches waiting for a thread.
+	 */
+	public int getQueueSize()
+	{
+		return executor.getQueue().size();
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.getClass().getSimpleName();
+	}
+}
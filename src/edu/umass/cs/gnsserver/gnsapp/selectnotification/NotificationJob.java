@@ -0,0 +1,303 @@
+package edu.umass.cs.gnsserver.gnsapp.selectnotification;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import edu.umass.cs.gnsserver.main.GNSConfig;
+
+/**
+ * This class keeps the notifications of a select request at a name server.
+ * The GUIDs that satisfy the select are added in batches while the records
+ * are read, and each batch is handed to a {@link NotificationDispatcher}
+ * right away. The progress is kept per batch: a batch is queued until a
+ * thread sends it, and after that the {@link NotificationSendingStats}
+ * returned by the {@link SelectResponseProcessor} tell how far it is.
+ * A batch whose sending fails is retried on its own, so a failure does not
+ * restart the notifications that were already sent.
+ *
+ * @author ayadav
+ */
+public class NotificationJob
+{
+	private static final Logger LOGGER = GNSConfig.getLogger();
+
+	/**
+	 * The states of a batch.
+	 */
+	public enum State
+	{
+		/**
+		 * Waiting to be sent.
+		 */
+		QUEUED,
+		/**
+		 * Being sent by the select response processor.
+		 */
+		SENDING,
+		/**
+		 * Handed to the select response processor.
+		 */
+		SENT,
+		/**
+		 * Given up on after the retries.
+		 */
+		FAILED,
+	}
+
+	/**
+	 * A batch of the notifications of a job.
+	 */
+	public static class Batch
+	{
+		private final int number;
+		private final List<SelectGUIDInfo> guidList;
+		private volatile State state = State.QUEUED;
+		private volatile int attempts = 0;
+		private volatile int rejections = 0;
+		// set once sent
+		private volatile NotificationSendingStats stats = null;
+
+		private Batch(int number, List<SelectGUIDInfo> guidList)
+		{
+			this.number = number;
+			this.guidList = guidList;
+		}
+
+		/**
+		 * @return The state of this batch.
+		 */
+		public State getState()
+		{
+			return this.state;
+		}
+
+		/**
+		 * @return The number of times this batch has been sent.
+		 */
+		public int getAttempts()
+		{
+			return this.attempts;
+		}
+
+		/**
+		 * Counts a hand over that found all the threads of the dispatcher busy.
+		 *
+		 * @return The number of times this batch has been rejected.
+		 */
+		int reject()
+		{
+			return ++this.rejections;
+		}
+
+		/**
+		 * @return The number of notifications in this batch.
+		 */
+		public int size()
+		{
+			return this.guidList.size();
+		}
+
+		@Override
+		public String toString()
+		{
+			return number + "[" + guidList.size() + " " + state + "]";
+		}
+	}
+
+	private final String notificationStr;
+	private final SelectResponseProcessor notificationSender;
+	private final NotificationDispatcher dispatcher;
+	private final List<Batch> batches = new CopyOnWriteArrayList<Batch>();
+	private final long startTime = System.currentTimeMillis();
+	private volatile long lastSentTime = startTime;
+	private volatile boolean complete = false;
+
+	/**
+	 * Creates a job.
+	 *
+	 * @param notificationStr
+	 * The notification in string form.
+	 * @param notificationSender
+	 * @param dispatcher
+	 */
+	public NotificationJob(String notificationStr, SelectResponseProcessor notificationSender,
+			NotificationDispatcher dispatcher)
+	{
+		this.notificationStr = notificationStr;
+		this.notificationSender = notificationSender;
+		this.dispatcher = dispatcher;
+	}
+
+	/**
+	 * Adds a batch of GUIDs to notify and hands it to the dispatcher.
+	 * The list must not be modified afterwards.
+	 *
+	 * @param guidList
+	 */
+	public void addBatch(List<SelectGUIDInfo> guidList)
+	{
+		Batch batch = new Batch(batches.size(), guidList);
+		batches.add(batch);
+		dispatcher.dispatch(this, batch);
+	}
+
+	/**
+	 * Marks that all the batches have been added.
+	 */
+	public void setComplete()
+	{
+		this.complete = true;
+	}
+
+	/**
+	 * Sends a batch. Called by the dispatcher.
+	 *
+	 * @param batch
+	 * @return true if the batch was handed to the select response processor
+	 */
+	boolean send(Batch batch)
+	{
+		batch.state = State.SENDING;
+		batch.attempts++;
+		try
+		{
+			// Based on the implementation, this function could block for very long,
+			// which only holds up a dispatcher thread.
+			NotificationSendingStats stats = notificationSender.sendNotification(batch.guidList, notificationStr);
+			if(stats == null)
+			{
+				stats = new NotificationSendingStats(new InternalNotificationStats(batch.size()));
+			}
+			batch.stats = stats;
+			batch.state = State.SENT;
+			lastSentTime = System.currentTimeMillis();
+			return true;
+		}
+		catch(RuntimeException e)
+		{
+			LOGGER.log(Level.FINE, "{0} sending batch {1} failed: {2}", new Object[]{this, batch, e});
+			batch.state = State.QUEUED;
+			return false;
+		}
+	}
+
+	/**
+	 * Gives up on a batch. Called by the dispatcher.
+	 *
+	 * @param batch
+	 */
+	void fail(Batch batch)
+	{
+		batch.state = State.FAILED;
+	}
+
+	/**
+	 * @return The total number of notifications.
+	 */
+	public long getTotalNotifications()
+	{
+		long total = 0;
+		for(Batch batch : batches)
+		{
+			total += batch.size();
+		}
+		return total;
+	}
+
+	/**
+	 * @return The number of notifications that are queued, being sent,
+	 * or pending at the select response processor.
+	 */
+	public long getNumberPending()
+	{
+		long pending = 0;
+		for(Batch batch : batches)
+		{
+			switch(batch.state)
+			{
+				case QUEUED:
+				case SENDING:
+					pending += batch.size();
+					break;
+				case SENT:
+					pending += batch.stats.getNumberPending();
+					break;
+				default:
+					break;
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * @return The number of notifications that failed, either in a batch
+	 * given up on or at the select response processor.
+	 */
+	public long getNumberFailed()
+	{
+		long failed = 0;
+		for(Batch batch : batches)
+		{
+			if(batch.state == State.FAILED)
+			{
+				failed += batch.size();
+			}
+			else if(batch.state == State.SENT)
+			{
+				failed += batch.stats.getGUIDsFailed().size();
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * @return The number of batches that are queued or being sent.
+	 */
+	public int getPendingBatches()
+	{
+		int pending = 0;
+		for(Batch batch : batches)
+		{
+			if(batch.state == State.QUEUED || batch.state == State.SENDING)
+			{
+				pending++;
+			}
+		}
+		return pending;
+	}
+
+	/**
+	 * @return The number of notifications handed to the select response
+	 * processor per second, from the start of this job until the last batch
+	 * was sent.
+	 */
+	public double getDeliveryRate()
+	{
+		long sent = 0;
+		for(Batch batch : batches)
+		{
+			if(batch.state == State.SENT)
+			{
+				sent += batch.size();
+			}
+		}
+		long elapsed = Math.max(lastSentTime - startTime, 1);
+		return sent * 1000.0 / elapsed;
+	}
+
+	/**
+	 * @return True if all batches have been added and no notification is pending.
+	 */
+	public boolean isDone()
+	{
+		return complete && getNumberPending() == 0;
+	}
+
+	@Override
+	public String toString()
+	{
+		return this.getClass().getSimpleName() + "[" + batches.size() + " batches]";
+	}
+}
@@ -25,7 +25,9 @@ package edu.umass.cs.gnsserver.httpserver;
  */
 import static edu.umass.cs.gnsserver.httpserver.Defs.QUERYPREFIX;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.HttpURLConnection;
@@ -35,11 +37,23 @@ import java.util.Date;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
-import java.util.concurrent.Executors;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.apache.commons.lang.time.DurationFormatUtils;
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
@@ -49,6 +63,7 @@ import com.sun.net.httpserver.HttpHandler;
 import com.sun.net.httpserver.HttpServer;
 import com.sun.net.httpserver.HttpsExchange;
 
+import edu.umass.cs.gigapaxos.interfaces.Callback;
 import edu.umass.cs.gnsclient.client.GNSClient;
 import edu.umass.cs.gnsclient.client.GNSClientConfig;
 import edu.umass.cs.gnscommon.CommandType;
@@ -60,6 +75,7 @@ import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnscommon.utils.Base64;
 import edu.umass.cs.gnscommon.utils.CanonicalJSON;
 import edu.umass.cs.gnscommon.utils.Format;
+import edu.umass.cs.gnscommon.utils.RequestTracer;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.CommandHandler;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.CommandResponse;
@@ -70,6 +86,7 @@ import edu.umass.cs.gnsserver.utils.Util;
 import edu.umass.cs.nio.JSONPacket;
 import edu.umass.cs.reconfiguration.ReconfigurationConfig;
 import edu.umass.cs.utils.Config;
+import edu.umass.cs.utils.DelayProfiler;
 
 /**
  *
@@ -82,6 +99,10 @@ public class GNSHttpServer {
    *
    */
   protected static final String GNS_PATH = Config.getGlobalString(GNSConfig.GNSC.HTTP_SERVER_GNS_URL_PATH);
+  /**
+   * The path of the {@link BatchHttpHandler}.
+   */
+  protected static final String BATCH_PATH = "/" + GNS_PATH + "/batch";
   private HttpServer httpServer = null;
   // handles command processing
   private final CommandModule commandModule;
@@ -93,6 +114,30 @@ public class GNSHttpServer {
    */
   protected final ClientRequestHandlerInterface requestHandler;
   private final Date serverStartDate = new Date();
+  private static final int MAX_PENDING = Config.getGlobalInt(GNSConfig.GNSC.HTTP_SERVER_MAX_PENDING);
+  // the requests being processed
+  private final Semaphore pending = new Semaphore(MAX_PENDING);
+  // runs the handlers and the commands of batches
+  private ExecutorService executor;
+
+  private static final int MAX_BATCH_SIZE = Config.getGlobalInt(GNSConfig.GNSC.HTTP_SERVER_MAX_BATCH_SIZE);
+  private static final int BATCH_CONCURRENCY = Math.max(1, Config.getGlobalInt(GNSConfig.GNSC.HTTP_SERVER_BATCH_CONCURRENCY));
+  // batch metrics, shown by the EchoHttpHandler
+  private final AtomicLong batches = new AtomicLong();
+  private final AtomicLong batchCommands = new AtomicLong();
+  private final AtomicLong batchesRejected = new AtomicLong();
+
+  private static final long REQUEST_TIMEOUT = Config.getGlobalInt(GNSConfig.GNSC.HTTP_SERVER_REQUEST_TIMEOUT);
+  // times out remote commands
+  private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1, (Runnable r) -> {
+    Thread thread = new Thread(r, GNSHttpServer.class.getSimpleName() + "Timer");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  static {
+    TIMER.setRemoveOnCancelPolicy(true);
+  }
 
   private final static Logger LOGGER = Logger.getLogger(GNSHttpServer.class.getName());
 
@@ -157,7 +202,8 @@ public class GNSHttpServer {
 
       httpServer.createContext("/", new EchoHttpHandler());
       httpServer.createContext("/" + GNS_PATH, new DefaultHttpHandler());
-      httpServer.setExecutor(Executors.newCachedThreadPool());
+      httpServer.createContext(BATCH_PATH, new BatchHttpHandler());
+      httpServer.setExecutor(createExecutor());
       httpServer.start();
       // Need to do this for the places where we expose the insecure http service to the user
       requestHandler.setHttpServerPort(port);
@@ -172,8 +218,36 @@ public class GNSHttpServer {
     }
   }
 
+  /**
+   * Creates the executor that runs the handlers. The handlers of remote
+   * commands only parse the request and hand it to the {@link GNSClient}, so
+   * a fixed number of threads serve any number of requests in flight, see
+   * {@link GNSConfig.GNSC#HTTP_SERVER_THREADS}.
+   *
+   * @return the executor
+   */
+  protected ExecutorService createExecutor() {
+    int threads = Config.getGlobalInt(GNSConfig.GNSC.HTTP_SERVER_THREADS);
+    AtomicInteger count = new AtomicInteger();
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads,
+            60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), (Runnable r) -> {
+              Thread thread = new Thread(r, GNSHttpServer.class.getSimpleName() + count.incrementAndGet());
+              thread.setDaemon(true);
+              return thread;
+            });
+    executor.allowCoreThreadTimeOut(true);
+    this.executor = executor;
+    return executor;
+  }
+
   /**
    * The default handler.
+   *
+   * Takes the arguments of a command from the query string of a GET or as a
+   * JSON object in the body of a POST. The status code of the response is
+   * that of its {@link ResponseCode}. At most
+   * {@link GNSConfig.GNSC#HTTP_SERVER_MAX_PENDING} requests are processed at
+   * a time; more are answered with 503 rather than queued.
    */
   protected class DefaultHttpHandler implements HttpHandler {
 
@@ -185,63 +259,346 @@ public class GNSHttpServer {
     public void handle(HttpExchange exchange) {
       try {
         String requestMethod = exchange.getRequestMethod();
-        if (requestMethod.equalsIgnoreCase("GET")) {
-          Headers requestHeaders = exchange.getRequestHeaders();
-          String host = requestHeaders.getFirst("Host");
-          Headers responseHeaders = exchange.getResponseHeaders();
-          responseHeaders.set("Content-Type", "text/plain");
-          if (Config.getGlobalBoolean(GNSClientConfig.GNSCC.ENABLE_CROSS_ORIGIN_REQUESTS)) {
-            responseHeaders.set("Access-Control-Allow-Origin", "*");
-          }
-          exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
-
-          try (OutputStream responseBody = exchange.getResponseBody()) {
-            URI uri = exchange.getRequestURI();
-            LOGGER.log(Level.FINE,
-                    "HTTP SERVER REQUEST FROM {0}: {1}",
-                    new Object[]{exchange.getRemoteAddress().getHostName(), uri.toString()});
-            String path = uri.getPath();
-            String query = uri.getQuery() != null ? uri.getQuery() : ""; // stupidly it returns null for empty query
-
-            String commandName = path.replaceFirst("/" + GNS_PATH + "/", "");
-
-            CommandResponse response;
-            if (!commandName.isEmpty()) {
-              LOGGER.log(Level.FINE, "Action: {0} Query:{1}", new Object[]{commandName, query});
-              boolean secureServer = exchange instanceof HttpsExchange;
-              response = processQuery(host, commandName, query, secureServer);
-            } else {
-              response = new CommandResponse(ResponseCode.OPERATION_NOT_SUPPORTED, GNSProtocol.BAD_RESPONSE.toString()
-                      + " " + GNSProtocol.OPERATION_NOT_SUPPORTED.toString() + " Don't understand " + commandName + " " + query);
-            }
-            LOGGER.log(Level.FINER, "Response: {0}", response);
-            // FIXME: This totally ignores the error code.
-            responseBody.write(response.getReturnValue().getBytes());
+        boolean post = requestMethod.equalsIgnoreCase("POST");
+        if (!post && !requestMethod.equalsIgnoreCase("GET")) {
+          exchange.getResponseHeaders().set("Allow", "GET, POST");
+          sendResponse(exchange, HttpURLConnection.HTTP_BAD_METHOD, GNSProtocol.BAD_RESPONSE.toString()
+                  + " " + GNSProtocol.OPERATION_NOT_SUPPORTED.toString() + " Don't understand " + requestMethod);
+          return;
+        }
+        URI uri = exchange.getRequestURI();
+        if (LOGGER.isLoggable(Level.FINE)) {
+          // getHostName does a reverse lookup, so only once the line is written
+          LOGGER.log(Level.FINE,
+                  "HTTP SERVER REQUEST FROM {0}: {1} {2}",
+                  new Object[]{RequestTracer.lazy(() -> exchange.getRemoteAddress().getHostName()),
+                    requestMethod, uri});
+        }
+        String body = post ? readBody(exchange) : null;
+        if (!pending.tryAcquire()) {
+          sendResponse(exchange, new CommandResponse(ResponseCode.OVERLOAD, GNSProtocol.BAD_RESPONSE.toString()
+                  + " " + ResponseCode.OVERLOAD.getProtocolCode() + " Too many requests in progress"));
+          return;
+        }
+        CompletableFuture<CommandResponse> response;
+        try {
+          String host = exchange.getRequestHeaders().getFirst("Host");
+          String path = uri.getPath();
+          String query = uri.getQuery() != null ? uri.getQuery() : ""; // stupidly it returns null for empty query
+
+          String commandName = path.replaceFirst("/" + GNS_PATH + "/", "");
+
+          if (!commandName.isEmpty()) {
+            LOGGER.log(Level.FINE, "Action: {0} Query:{1}", new Object[]{commandName, query});
+            boolean secureServer = exchange instanceof HttpsExchange;
+            response = processQuery(host, commandName, query, body, secureServer);
+          } else {
+            response = CompletableFuture.completedFuture(new CommandResponse(ResponseCode.OPERATION_NOT_SUPPORTED,
+                    GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.OPERATION_NOT_SUPPORTED.toString()
+                    + " Don't understand " + commandName + " " + query));
           }
+        } catch (InternalRequestException | RuntimeException e) {
+          pending.release();
+          throw e;
         }
+        // remote commands complete on a thread of the client
+        response.whenComplete((CommandResponse commandResponse, Throwable e) -> {
+          pending.release();
+          LOGGER.log(Level.FINER, "Response: {0}", commandResponse);
+          sendResponse(exchange, commandResponse != null ? commandResponse
+                  : new CommandResponse(ResponseCode.QUERY_PROCESSING_ERROR, GNSProtocol.BAD_RESPONSE.toString()
+                          + " " + GNSProtocol.QUERY_PROCESSING_ERROR.toString() + " " + e));
+        });
       } catch (Exception e) {
         LOGGER.log(Level.SEVERE, "Error: {0}", e.getMessage());
         e.printStackTrace();
+        sendResponse(exchange, new CommandResponse(ResponseCode.QUERY_PROCESSING_ERROR,
+                GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.QUERY_PROCESSING_ERROR.toString() + " " + e));
+      }
+    }
+  }
+
+  /**
+   * Handles a batch of commands POSTed to /GNS/batch.
+   *
+   * The body is a JSON array with an element per command: either the command
+   * as it follows /GNS/ in the URL of a GET, for example
+   * <code>"read?guid=...&amp;field=..."</code>, or a JSON object of the
+   * arguments of the command with its name under COMMANDNAME. The commands
+   * run concurrently, at most {@link GNSConfig.GNSC#HTTP_SERVER_BATCH_CONCURRENCY}
+   * of a batch at a time, and the response is a JSON array with an element
+   * per command in order, <code>{"status":200,"response":"..."}</code>, that
+   * is streamed as the results come in. A batch of more than
+   * {@link GNSConfig.GNSC#HTTP_SERVER_MAX_BATCH_SIZE} commands is answered
+   * with 413.
+   */
+  protected class BatchHttpHandler implements HttpHandler {
+
+    /**
+     *
+     * @param exchange
+     */
+    @Override
+    public void handle(HttpExchange exchange) {
+      try {
+        if (!exchange.getRequestMethod().equalsIgnoreCase("POST")) {
+          exchange.getResponseHeaders().set("Allow", "POST");
+          sendResponse(exchange, HttpURLConnection.HTTP_BAD_METHOD, GNSProtocol.BAD_RESPONSE.toString()
+                  + " " + GNSProtocol.OPERATION_NOT_SUPPORTED.toString() + " A batch must be POSTed");
+          return;
+        }
+        String body = readBody(exchange);
+        JSONArray commands;
         try {
-          String response = GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.QUERY_PROCESSING_ERROR.toString() + " " + e;
-          try (OutputStream responseBody = exchange.getResponseBody()) {
-            responseBody.write(response.getBytes());
-          }
-        } catch (Exception f) {
-          // at this point screw it
+          commands = new JSONArray(body != null ? body : "[]");
+        } catch (JSONException e) {
+          sendResponse(exchange, new CommandResponse(ResponseCode.JSON_PARSE_ERROR, GNSProtocol.BAD_RESPONSE.toString()
+                  + " " + ResponseCode.JSON_PARSE_ERROR.getProtocolCode() + " " + e.getMessage()));
+          return;
+        }
+        if (commands.length() > MAX_BATCH_SIZE) {
+          batchesRejected.incrementAndGet();
+          sendResponse(exchange, HttpURLConnection.HTTP_ENTITY_TOO_LARGE, GNSProtocol.BAD_RESPONSE.toString()
+                  + " " + GNSProtocol.OPERATION_NOT_SUPPORTED.toString() + " Too many commands in the batch: "
+                  + commands.length() + " > " + MAX_BATCH_SIZE);
+          return;
+        }
+        // each command counts against the requests in progress
+        int permits = Math.min(Math.max(commands.length(), 1), MAX_PENDING);
+        if (!pending.tryAcquire(permits)) {
+          batchesRejected.incrementAndGet();
+          sendResponse(exchange, new CommandResponse(ResponseCode.OVERLOAD, GNSProtocol.BAD_RESPONSE.toString()
+                  + " " + ResponseCode.OVERLOAD.getProtocolCode() + " Too many requests in progress"));
+          return;
+        }
+        Batch batch = new Batch(exchange, commands, permits);
+        try {
+          batch.start();
+        } catch (IOException | RuntimeException e) {
+          batch.abort(e);
+        }
+      } catch (Exception e) {
+        LOGGER.log(Level.SEVERE, "Error: {0}", e.getMessage());
+        sendResponse(exchange, new CommandResponse(ResponseCode.QUERY_PROCESSING_ERROR,
+                GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.QUERY_PROCESSING_ERROR.toString() + " " + e));
+      }
+    }
+  }
+
+  /**
+   * The commands of a batch being executed.
+   */
+  private class Batch {
+
+    private final HttpExchange exchange;
+    private final JSONArray commands;
+    private final int permits;
+    private final String host;
+    private final boolean secureServer;
+    private final CommandResponse[] responses;
+    private final long startTime = System.currentTimeMillis();
+    private final AtomicInteger started = new AtomicInteger();
+    // the rest are guarded by this
+    private OutputStream output;
+    private boolean headersSent = false;
+    private int written = 0;
+    private boolean failed = false;
+
+    Batch(HttpExchange exchange, JSONArray commands, int permits) {
+      this.exchange = exchange;
+      this.commands = commands;
+      this.permits = permits;
+      this.host = exchange.getRequestHeaders().getFirst("Host");
+      this.secureServer = exchange instanceof HttpsExchange;
+      this.responses = new CommandResponse[commands.length()];
+    }
+
+    synchronized void start() throws IOException {
+      batches.incrementAndGet();
+      batchCommands.addAndGet(commands.length());
+      Headers responseHeaders = exchange.getResponseHeaders();
+      responseHeaders.set("Content-Type", "application/json");
+      if (Config.getGlobalBoolean(GNSClientConfig.GNSCC.ENABLE_CROSS_ORIGIN_REQUESTS)) {
+        responseHeaders.set("Access-Control-Allow-Origin", "*");
+      }
+      // the results are streamed, so the length is not known
+      exchange.sendResponseHeaders(HttpURLConnection.HTTP_OK, 0);
+      headersSent = true;
+      output = exchange.getResponseBody();
+      output.write('[');
+      if (responses.length == 0) {
+        finish();
+        return;
+      }
+      for (int i = Math.min(BATCH_CONCURRENCY, responses.length); i > 0; i--) {
+        startNext();
+      }
+    }
+
+    private void startNext() {
+      int index = started.getAndIncrement();
+      if (index >= responses.length) {
+        return;
+      }
+      try {
+        // on a worker, so that commands executed locally run concurrently too,
+        // and the responses are written on a worker rather than on a thread of the client
+        CompletableFuture.supplyAsync(() -> execute(index), executor)
+                .thenCompose(response -> response)
+                .whenCompleteAsync((CommandResponse response, Throwable e) -> {
+                  complete(index, response != null ? response
+                          : new CommandResponse(ResponseCode.QUERY_PROCESSING_ERROR, GNSProtocol.BAD_RESPONSE.toString()
+                                  + " " + GNSProtocol.QUERY_PROCESSING_ERROR.toString() + " " + e));
+                  startNext();
+                }, executor);
+      } catch (RejectedExecutionException e) {
+        // shutting down
+        complete(index, new CommandResponse(ResponseCode.QUERY_PROCESSING_ERROR, GNSProtocol.BAD_RESPONSE.toString()
+                + " " + GNSProtocol.QUERY_PROCESSING_ERROR.toString() + " " + e));
+        startNext();
+      }
+    }
+
+    /*
+     * Ends a batch that failed to start, so none of its commands is running.
+     */
+    synchronized void abort(Exception e) {
+      LOGGER.log(Level.FINE, "Unable to start the batch: {0}", e.getMessage());
+      try {
+        if (!headersSent) {
+          sendResponse(exchange, new CommandResponse(ResponseCode.QUERY_PROCESSING_ERROR,
+                  GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.QUERY_PROCESSING_ERROR.toString() + " " + e));
+        } else {
+          exchange.close();
+        }
+      } finally {
+        pending.release(permits);
+      }
+    }
+
+    private CompletableFuture<CommandResponse> execute(int index) {
+      Object command = commands.opt(index);
+      try {
+        if (command instanceof String) {
+          URI uri = URI.create("/" + command);
+          return processQuery(host, uri.getPath().substring(1),
+                  uri.getQuery() != null ? uri.getQuery() : "", null, secureServer);
+        } else if (command instanceof JSONObject) {
+          JSONObject jsonCommand = (JSONObject) command;
+          String commandName = jsonCommand.optString(GNSProtocol.COMMANDNAME.toString(), "");
+          jsonCommand.remove(GNSProtocol.COMMANDNAME.toString());
+          return processCommand(host, commandName, jsonCommand.toString(), jsonCommand, secureServer);
         }
+      } catch (InternalRequestException | IllegalArgumentException e) {
+        return CompletableFuture.completedFuture(new CommandResponse(ResponseCode.QUERY_PROCESSING_ERROR,
+                GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.QUERY_PROCESSING_ERROR.toString() + " " + e));
+      }
+      return CompletableFuture.completedFuture(new CommandResponse(ResponseCode.OPERATION_NOT_SUPPORTED,
+              GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.OPERATION_NOT_SUPPORTED.toString()
+              + " Don't understand " + command));
+    }
+
+    /*
+     * Writes the responses that are next in order.
+     */
+    private synchronized void complete(int index, CommandResponse response) {
+      responses[index] = response;
+      while (written < responses.length && responses[written] != null) {
+        write(responses[written], written == 0);
+        // done with it
+        responses[written++] = null;
+        if (written == responses.length) {
+          finish();
+        }
+      }
+    }
+
+    private void write(CommandResponse response, boolean first) {
+      if (failed) {
+        return;
+      }
+      try {
+        ResponseCode code = response.getExceptionOrErrorCode();
+        JSONObject json = new JSONObject()
+                .put("status", code != null ? code.getHttpStatusCode() : HttpURLConnection.HTTP_OK)
+                .put("response", response.getReturnValue());
+        output.write(((first ? "" : ",") + json.toString()).getBytes());
+        output.flush();
+      } catch (IOException | JSONException e) {
+        // the client is gone, but the commands still have to finish
+        LOGGER.log(Level.FINE, "Unable to send the batch response: {0}", e.getMessage());
+        failed = true;
+      }
+    }
+
+    private void finish() {
+      try {
+        if (!failed) {
+          output.write(']');
+          output.close();
+        }
+      } catch (IOException e) {
+        LOGGER.log(Level.FINE, "Unable to send the batch response: {0}", e.getMessage());
+      } finally {
+        exchange.close();
+        pending.release(permits);
+        DelayProfiler.updateDelay("HttpBatch", startTime);
       }
     }
   }
 
+  private static String readBody(HttpExchange exchange) throws IOException {
+    try (InputStream input = exchange.getRequestBody()) {
+      ByteArrayOutputStream body = new ByteArrayOutputStream();
+      byte[] buffer = new byte[4096];
+      int length;
+      while ((length = input.read(buffer)) != -1) {
+        body.write(buffer, 0, length);
+      }
+      return body.size() > 0 ? body.toString(GNSProtocol.CHARSET.toString()) : null;
+    }
+  }
+
+  private static void sendResponse(HttpExchange exchange, CommandResponse response) {
+    ResponseCode code = response.getExceptionOrErrorCode();
+    sendResponse(exchange, code != null ? code.getHttpStatusCode() : HttpURLConnection.HTTP_OK,
+            response.getReturnValue());
+  }
+
   /*
-   * Process queries for the http service. Converts the URI of e the HTTP query into
-   * the JSON Object format that is used by the CommandModeule class, then finds
-   * executes the matching command.
+   * Sends the whole response with its length, so that the connection can be
+   * kept alive for the next request.
+   */
+  private static void sendResponse(HttpExchange exchange, int statusCode, String response) {
+    try {
+      byte[] bytes = response != null ? response.getBytes() : new byte[0];
+      Headers responseHeaders = exchange.getResponseHeaders();
+      responseHeaders.set("Content-Type", "text/plain");
+      if (Config.getGlobalBoolean(GNSClientConfig.GNSCC.ENABLE_CROSS_ORIGIN_REQUESTS)) {
+        responseHeaders.set("Access-Control-Allow-Origin", "*");
+      }
+      exchange.sendResponseHeaders(statusCode, bytes.length > 0 ? bytes.length : -1);
+      if (bytes.length > 0) {
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+          responseBody.write(bytes);
+        }
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, "Unable to send the response: {0}", e.getMessage());
+    } finally {
+      exchange.close();
+    }
+  }
+
+  /*
+   * Process queries for the http service. Converts the URI of e the HTTP query, or
+   * the JSON body of a POST, into the JSON Object format that is used by the
+   * CommandModeule class, then finds executes the matching command.
    *
    * @throws InternalRequestException
    */
-  private CommandResponse processQuery(String host, String commandName, String queryString, boolean secureServer) throws InternalRequestException {
+  private CompletableFuture<CommandResponse> processQuery(String host, String commandName, String queryString,
+          String body, boolean secureServer) throws InternalRequestException {
 
     // Convert the URI into a JSONObject, stuffing in some extra relevant fields like
     // the signature, and the message signed.
@@ -249,7 +606,25 @@ public class GNSHttpServer {
       // Note that the commandName is not part of the queryString string here so
       // it doesn't end up in the jsonCommand. Also see below where we put the
       // command integer into the jsonCommand.
-      JSONObject jsonCommand = Util.parseURIQueryStringIntoJSONObject(queryString);
+      JSONObject jsonCommand = body != null ? new JSONObject(body)
+              : Util.parseURIQueryStringIntoJSONObject(queryString);
+      return processCommand(host, commandName, queryString, jsonCommand, secureServer);
+    } catch (JSONException e) {
+      return CompletableFuture.completedFuture(new CommandResponse(ResponseCode.UNSPECIFIED_ERROR,
+              GNSProtocol.BAD_RESPONSE.toString() + " "
+              + GNSProtocol.UNSPECIFIED_ERROR.toString() + " " + e.toString()));
+    }
+  }
+
+  /*
+   * Executes the command with the arguments in jsonCommand. The queryString
+   * only goes into error messages.
+   *
+   * @throws InternalRequestException
+   */
+  private CompletableFuture<CommandResponse> processCommand(String host, String commandName, String queryString,
+          JSONObject jsonCommand, boolean secureServer) throws InternalRequestException {
+    try {
       // If the signature exists it is Base64 encoded so decode it now.
       if (jsonCommand.has(GNSProtocol.SIGNATURE.toString())) {
         jsonCommand.put(GNSProtocol.SIGNATURE.toString(),
@@ -259,16 +634,16 @@ public class GNSHttpServer {
       // getCommandForHttp allows for "dump" as well as "Dump"
       CommandType commandType = CommandType.getCommandForHttp(commandName);
       if (commandType == null) {
-        return new CommandResponse(ResponseCode.OPERATION_NOT_SUPPORTED,
+        return CompletableFuture.completedFuture(new CommandResponse(ResponseCode.OPERATION_NOT_SUPPORTED,
                 GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.OPERATION_NOT_SUPPORTED.toString()
-                + " Sorry, don't understand " + commandName + QUERYPREFIX + queryString);
+                + " Sorry, don't understand " + commandName + QUERYPREFIX + queryString));
       }
 
       //Only allow mutual auth commands if we're on a secure (HTTPS) server
       if (commandType.isMutualAuth() && !secureServer) {
-        return new CommandResponse(ResponseCode.OPERATION_NOT_SUPPORTED,
+        return CompletableFuture.completedFuture(new CommandResponse(ResponseCode.OPERATION_NOT_SUPPORTED,
                 GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.OPERATION_NOT_SUPPORTED.toString()
-                + " Not authorized to execute " + commandName + QUERYPREFIX + queryString);
+                + " Not authorized to execute " + commandName + QUERYPREFIX + queryString));
       }
 
       // The client currently just uses the command name (which is not part of the
@@ -294,7 +669,7 @@ public class GNSHttpServer {
           // other side of the if) already does this.
           processSignature(jsonCommand);
           if (command != null) {
-            return CommandHandler.executeCommand(command,
+            return CompletableFuture.completedFuture(CommandHandler.executeCommand(command,
                     new CommandPacket((long) (Math.random() * Long.MAX_VALUE), jsonCommand, false),
                     requestHandler,
                     /**
@@ -304,37 +679,48 @@ public class GNSHttpServer {
                      * 
                      * author: gaozy
                      */
-                    false );
+                    false ));
           }
           LOGGER.log(Level.FINE, "lookupCommand returned null for {0}", commandName);
         } catch (IllegalArgumentException e) {
           LOGGER.log(Level.FINE, "lookupCommand failed for {0}", commandName);
         }
-        return new CommandResponse(ResponseCode.OPERATION_NOT_SUPPORTED,
+        return CompletableFuture.completedFuture(new CommandResponse(ResponseCode.OPERATION_NOT_SUPPORTED,
                 GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.OPERATION_NOT_SUPPORTED.toString()
-                + " Sorry, don't understand " + commandName + QUERYPREFIX + queryString);
+                + " Sorry, don't understand " + commandName + QUERYPREFIX + queryString));
       } else {
         // Send the command remotely using a client
         try {
           LOGGER.log(Level.FINE, "Sending command out to a remote server: {0}", jsonCommand);
-          CommandPacket commandResponsePacket = getResponseUsingGNSClient(client, jsonCommand);
-          return new CommandResponse(ResponseCode.NO_ERROR,
-                  // Some crap here to make single field reads return just the value for backward compatibility
-                  // There is similar code to this other places.
-                  specialCaseSingleFieldRead(commandResponsePacket.getResultString(),
-                          commandType, jsonCommand));
-        } catch (IOException | ClientException e) {
-          return new CommandResponse(ResponseCode.UNSPECIFIED_ERROR, GNSProtocol.BAD_RESPONSE.toString() + " "
-                  + GNSProtocol.UNSPECIFIED_ERROR.toString() + " " + e.toString());
-//      } catch (ClientException e) {
-//        return new CommandResponse(ResponseCode.GNSProtocol.UNSPECIFIED_ERROR.toString(),
-//                GNSProtocol.BAD_RESPONSE.toString() + " " + GNSProtocol.OPERATION_NOT_SUPPORTED.toString()
-//                + " Sorry, don't understand " + commandName + QUERYPREFIX + queryString);
+          return getResponseUsingGNSClient(client, jsonCommand).handle(
+                  (CommandPacket commandResponsePacket, Throwable e) -> {
+                    try {
+                      if (e != null) {
+                        Throwable cause = e instanceof CompletionException ? e.getCause() : e;
+                        throw cause instanceof ClientException ? (ClientException) cause
+                                : new ClientException(cause);
+                      }
+                      return new CommandResponse(ResponseCode.NO_ERROR,
+                              // Some crap here to make single field reads return just the value for backward compatibility
+                              // There is similar code to this other places.
+                              specialCaseSingleFieldRead(commandResponsePacket.getResultString(),
+                                      commandType, jsonCommand));
+                    } catch (ClientException f) {
+                      ResponseCode code = f.getCode() != null ? f.getCode() : ResponseCode.UNSPECIFIED_ERROR;
+                      return new CommandResponse(code, GNSProtocol.BAD_RESPONSE.toString() + " "
+                              + code.getProtocolCode() + " " + f.toString());
+                    }
+                  });
+        } catch (IOException e) {
+          return CompletableFuture.completedFuture(new CommandResponse(ResponseCode.UNSPECIFIED_ERROR,
+                  GNSProtocol.BAD_RESPONSE.toString() + " "
+                  + GNSProtocol.UNSPECIFIED_ERROR.toString() + " " + e.toString()));
         }
       }
     } catch (JSONException | UnsupportedEncodingException e) {
-      return new CommandResponse(ResponseCode.UNSPECIFIED_ERROR, GNSProtocol.BAD_RESPONSE.toString() + " "
-              + GNSProtocol.UNSPECIFIED_ERROR.toString() + " " + e.toString());
+      return CompletableFuture.completedFuture(new CommandResponse(ResponseCode.UNSPECIFIED_ERROR,
+              GNSProtocol.BAD_RESPONSE.toString() + " "
+              + GNSProtocol.UNSPECIFIED_ERROR.toString() + " " + e.toString()));
     }
   }
 
@@ -389,24 +775,42 @@ public class GNSHttpServer {
     return response;
   }
 
-  private CommandPacket getResponseUsingGNSClient(GNSClient client,
-          JSONObject jsonFormattedArguments) throws ClientException, IOException, JSONException {
-    LOGGER.log(Level.FINE, "jsonFormattedCommand ={0}", jsonFormattedArguments.toString());
-
+  /*
+   * Sends the command without waiting for the response. The future completes
+   * on a thread of the client, or with a ClientException with the code
+   * TIMEOUT after GNSC.HTTP_SERVER_REQUEST_TIMEOUT.
+   */
+  private CompletableFuture<CommandPacket> getResponseUsingGNSClient(GNSClient client,
+          JSONObject jsonFormattedArguments) throws IOException, JSONException {
     CommandPacket outgoingPacket = new CommandPacket((long) (Math.random() * Long.MAX_VALUE), jsonFormattedArguments, false);
     //GNSCommand.createGNSCommandFromJSONObject(jsonFormattedArguments);
 
-    LOGGER.log(Level.FINE, "outgoingPacket ={0}", outgoingPacket.toString());
-
-    CommandPacket returnPacket = client.execute(outgoingPacket);
+    long requestID = outgoingPacket.getRequestID();
+    boolean traced = RequestTracer.isTraced(LOGGER, Level.FINE, requestID);
+    if (traced) {
+      RequestTracer.trace(LOGGER, Level.FINE, requestID, "outgoingPacket ={0}", outgoingPacket.getSummary());
+    }
 
-    LOGGER.log(Level.FINE, "returnPacket ={0}", returnPacket.toString());
+    CompletableFuture<CommandPacket> future = new CompletableFuture<>();
+    client.execute(outgoingPacket, new Callback<CommandPacket, CommandPacket>() {
+      @Override
+      public CommandPacket processResponse(CommandPacket returnPacket) {
+        if (traced) {
+          RequestTracer.trace(LOGGER, Level.FINE, requestID, "returnPacket ={0}", returnPacket.getSummary());
+        }
+        future.complete(returnPacket);
+        return returnPacket;
+      }
+    });
+    ScheduledFuture<?> timeout = TIMER.schedule(() -> future.completeExceptionally(
+            new ClientException(ResponseCode.TIMEOUT, "No response to " + requestID + " after "
+                    + REQUEST_TIMEOUT + "ms")), REQUEST_TIMEOUT, TimeUnit.MILLISECONDS);
+    future.whenComplete((CommandPacket returnPacket, Throwable e) -> timeout.cancel(false));
     /**
      * Can also invoke getResponse(), getResponseString(), getResponseJSONObject()
      * etc. on {@link CommandPacket} as documented in {@link GNSCommand}.
      */
-    return returnPacket;
-
+    return future;
   }
 
   /**
@@ -447,6 +851,8 @@ public class GNSHttpServer {
           String numberOfNameServers = "Server count: " + requestHandler.getGnsNodeConfig().getNumberOfNodes();
           String recordsClass = "Records Class: " + GNSConfig.GNSC.getNoSqlRecordsClass();
           String secureString = exchange instanceof HttpsExchange ? "Security: Secure" : "Security: Open";
+          String batchString = "Batches: " + batches.get() + " commands: " + batchCommands.get()
+                  + " rejected: " + batchesRejected.get();
           // Build the response
           responseBody.write(responsePreamble.getBytes());
           responseBody.write(buildVersionInfo.getBytes());
@@ -465,6 +871,8 @@ public class GNSHttpServer {
           responseBody.write("<br>".getBytes());
           responseBody.write(secureString.getBytes());
           responseBody.write("<br>".getBytes());
+          responseBody.write(batchString.getBytes());
+          responseBody.write("<br>".getBytes());
 
           responseBody.write(recordsClass.getBytes());
           responseBody.write("<br>".getBytes());
@@ -0,0 +1,165 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.httpserver;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.utils.Format;
+
+/**
+ * Measures the number of requests per second that a {@link GNSHttpServer}
+ * answers and the latency of the requests, from a number of threads that
+ * each send one request after another over a kept alive connection.
+ *
+ * The request is a GET of the URL, or a POST of the JSON body to the URL with
+ * the query string removed. The throughput counts every response, so a
+ * command that is answered with an error measures the front end alone; the
+ * number of responses with each status code is printed as well.
+ *
+ * Typical incantation:
+ *
+ java -cp jars/GNS.jar edu.umass.cs.gnsserver.httpserver.GNSHttpServerLoadTest http://localhost:8080/GNS/lookupGuid?name=test 64 30
+ java -cp jars/GNS.jar edu.umass.cs.gnsserver.httpserver.GNSHttpServerLoadTest http://localhost:8080/GNS/lookupGuid 64 30 '{"name":"test"}'
+ *
+ * @author westy
+ */
+public class GNSHttpServerLoadTest {
+
+  private static class Result {
+
+    final List<Long> latencies = new ArrayList<>();
+    final Map<Integer, Integer> statusCodes = new TreeMap<>();
+  }
+
+  /**
+   * Run the test.
+   *
+   * @param args the URL, and optionally the number of threads, the number of
+   * seconds and the body to POST
+   * @throws Exception
+   */
+  public static void main(String[] args) throws Exception {
+    if (args.length < 1) {
+      System.out.println("Usage: GNSHttpServerLoadTest url [threads] [seconds] [body]");
+      System.exit(1);
+    }
+    URL url = new URL(args[0]);
+    int numThreads = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    byte[] body = args.length > 3 ? args[3].getBytes(GNSProtocol.CHARSET.toString()) : null;
+
+    // warm up the server and the connections
+    run(url, body, numThreads, Math.min(seconds, 5));
+    long startTime = System.currentTimeMillis();
+    List<Result> results = run(url, body, numThreads, seconds);
+    double elapsed = (System.currentTimeMillis() - startTime) / 1000.0;
+
+    long[] latencies = results.stream().flatMap(r -> r.latencies.stream())
+            .mapToLong(Long::longValue).toArray();
+    Arrays.sort(latencies);
+    Map<Integer, Integer> statusCodes = new TreeMap<>();
+    for (Result result : results) {
+      result.statusCodes.forEach((code, count) -> statusCodes.merge(code, count, Integer::sum));
+    }
+    System.out.println("Requests: " + latencies.length + " status codes: " + statusCodes);
+    System.out.println("requests/s = " + Format.formatTime(latencies.length / elapsed));
+    if (latencies.length > 0) {
+      System.out.println("latency p50 = " + Format.formatTime(percentile(latencies, 0.5) / 1000.0)
+              + "ms p99 = " + Format.formatTime(percentile(latencies, 0.99) / 1000.0)
+              + "ms max = " + Format.formatTime(latencies[latencies.length - 1] / 1000.0) + "ms");
+    }
+    System.exit(0);
+  }
+
+  private static long percentile(long[] sorted, double fraction) {
+    return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))];
+  }
+
+  private static List<Result> run(URL url, byte[] body, int numThreads, int seconds)
+          throws Exception {
+    URL target = body != null ? new URL(url.getProtocol(), url.getHost(), url.getPort(), url.getPath()) : url;
+    long endTime = System.currentTimeMillis() + seconds * 1000L;
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    List<Future<Result>> futures = new ArrayList<>();
+    for (int t = 0; t < numThreads; t++) {
+      futures.add(executor.submit(() -> {
+        Result result = new Result();
+        byte[] buffer = new byte[4096];
+        while (System.currentTimeMillis() < endTime) {
+          long start = System.nanoTime();
+          int statusCode;
+          try {
+            statusCode = send(target, body, buffer);
+          } catch (IOException e) {
+            statusCode = -1;
+          }
+          result.latencies.add((System.nanoTime() - start) / 1000);
+          result.statusCodes.merge(statusCode, 1, Integer::sum);
+        }
+        return result;
+      }));
+    }
+    executor.shutdown();
+    executor.awaitTermination(seconds + 60, TimeUnit.SECONDS);
+    List<Result> results = new ArrayList<>();
+    for (Future<Result> future : futures) {
+      results.add(future.get());
+    }
+    return results;
+  }
+
+  private static int send(URL url, byte[] body, byte[] buffer) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+    if (body != null) {
+      connection.setRequestMethod("POST");
+      connection.setDoOutput(true);
+      connection.setFixedLengthStreamingMode(body.length);
+      connection.setRequestProperty("Content-Type", "application/json");
+      try (OutputStream output = connection.getOutputStream()) {
+        output.write(body);
+      }
+    }
+    int statusCode = connection.getResponseCode();
+    // reading the whole response returns the connection to the keep-alive cache
+    InputStream input = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+    if (input != null) {
+      try (InputStream response = input) {
+        while (response.read(buffer) != -1) {
+          // discard
+        }
+      }
+    }
+    return statusCode;
+  }
+}
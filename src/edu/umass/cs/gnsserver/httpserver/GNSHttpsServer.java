@@ -28,7 +28,6 @@ import com.sun.net.httpserver.HttpsParameters;
 import com.sun.net.httpserver.HttpsServer;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.concurrent.Executors;
 import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.ClientRequestHandlerInterface;
 import java.io.FileInputStream;
 import java.net.BindException;
@@ -103,7 +102,8 @@ public class GNSHttpsServer extends GNSHttpServer {
 
       httpsServer.createContext("/", new EchoHttpHandler());
       httpsServer.createContext("/" + GNS_PATH, new DefaultHttpHandler());
-      httpsServer.setExecutor(Executors.newCachedThreadPool());
+      httpsServer.createContext(BATCH_PATH, new BatchHttpHandler());
+      httpsServer.setExecutor(createExecutor());
       httpsServer.start();
       // Need to do this for the places where we expose the secure http service to the user
       requestHandler.setHttpsServerPort(port);
@@ -23,8 +23,11 @@ import edu.umass.cs.gigapaxos.interfaces.NearestServerSelector;
 import edu.umass.cs.gigapaxos.interfaces.Request;
 import edu.umass.cs.gigapaxos.interfaces.RequestCallback;
 import edu.umass.cs.gnsserver.main.GNSConfig;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.ResponseCode;
 import edu.umass.cs.gnscommon.packets.CommandPacket;
 import edu.umass.cs.gnscommon.packets.ResponsePacket;
+import edu.umass.cs.gnscommon.utils.RequestTracer;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
 import edu.umass.cs.nio.AbstractJSONPacketDemultiplexer;
 import edu.umass.cs.nio.MessageNIOTransport;
@@ -55,6 +58,8 @@ public class LNSPacketDemultiplexer<NodeIDType> extends AbstractJSONPacketDemult
 
   private final RequestHandlerInterface handler;
   private final Random random = new Random();
+  private long commandCount = 0;
+  private long lastStatsTime = 0;
 
   final ReconfigurableAppClientAsync<Request> asyncLNSClient;
 
@@ -84,7 +89,8 @@ public class LNSPacketDemultiplexer<NodeIDType> extends AbstractJSONPacketDemult
    */
   @Override
   public boolean handleMessage(JSONObject json, NIOHeader header) {
-    GNSConfig.getLogger().log(Level.INFO, ">>>>>>>>>>>>>>>>>>>>> Incoming packet: {0}", json);
+    // every packet comes through here, so only at FINEST
+    GNSConfig.getLogger().log(Level.FINEST, ">>>>>>>>>>>>>>>>>>>>> Incoming packet: {0}", json);
     boolean isPacketTypeFound = true;
     try {
       if (ReconfigurationPacket.isReconfigurationPacket(json)) {
@@ -151,6 +157,18 @@ public class LNSPacketDemultiplexer<NodeIDType> extends AbstractJSONPacketDemult
     }
   };
 
+  // shows us the read cache stats every 100 commands, but not more than
+  // once every 5 seconds
+  private void logStats() {
+    if (commandCount++ % 100 == 0
+            && Config.getGlobalBoolean(RC.ENABLE_INSTRUMENTATION)
+            && System.currentTimeMillis() - lastStatsTime > 5000) {
+      GNSConfig.getLogger().log(Level.INFO, "{0} {1}",
+              new Object[]{this, handler.getReadCache()});
+      lastStatsTime = System.currentTimeMillis();
+    }
+  }
+
   /**
    * Handles a command packet that has come in from a client.
    *
@@ -163,11 +181,28 @@ public class LNSPacketDemultiplexer<NodeIDType> extends AbstractJSONPacketDemult
           IOException {
 
     CommandPacket packet = new CommandPacket(json);
+    logStats();
+    if (packet.getCommandType().isUpdate() || packet.getCommandType().isCreateDelete()) {
+      handler.getReadCache().invalidate(packet.getServiceName());
+    } else if (!packet.getCommand().optBoolean(GNSProtocol.BYPASS_CACHE.toString(), false)) {
+      String key = LNSReadCache.getKey(packet);
+      String value = key != null ? handler.getReadCache().get(key) : null;
+      if (value != null) {
+        if (RequestTracer.isTraced(GNSConfig.getLogger(), Level.FINE, packet.getRequestID())) {
+          RequestTracer.trace(GNSConfig.getLogger(), Level.FINE, packet.getRequestID(),
+                  "{0} answering {1} from the read cache", this, packet.getSummary());
+        }
+        handler.sendToClient(header.sndr, new ResponsePacket(packet.getServiceName(),
+                packet.getRequestID(), ResponseCode.NO_ERROR, value).toJSONObject());
+        return;
+      }
+    }
     LNSRequestInfo requestInfo = new LNSRequestInfo(packet.getRequestID(),
             packet, header.sndr);
-    GNSConfig.getLogger().log(Level.INFO,
-            "{0} inserting outgoing request {1} with header {2}",
-            new Object[]{this, json,  header});
+    if (RequestTracer.isTraced(GNSConfig.getLogger(), Level.FINE, packet.getRequestID())) {
+      RequestTracer.trace(GNSConfig.getLogger(), Level.FINE, packet.getRequestID(),
+              "{0} inserting outgoing request {1} from {2}", this, packet.getSummary(), header.sndr);
+    }
     handler.addRequestInfo(packet.getRequestID(), requestInfo, header);
     packet = removeSenderInfo(json);
 
@@ -176,6 +211,9 @@ public class LNSPacketDemultiplexer<NodeIDType> extends AbstractJSONPacketDemult
 //      if (GNSCommandProtocol.CREATE_DELETE_COMMANDS.contains(requestInfo.getCommandName())
 //            || requestInfo.getCommandName().equals(GNSCommandProtocol.SELECT)) {
       this.asyncLNSClient.sendRequestAnycast(packet, callback);
+    } else if (handler.getReplicaSelector() != null) {
+      this.asyncLNSClient.sendRequest(packet, callback,
+              handler.getReplicaSelector().forRequest(packet.getRequestID()));
     } else {
       this.asyncLNSClient.sendRequest(packet, callback, redirector);
     }
@@ -259,48 +297,47 @@ private static CommandPacket removeSenderInfo(JSONObject json) throws JSONExcept
             : null;
     ActiveReplicaError error = response instanceof ActiveReplicaError ? (ActiveReplicaError) response
             : null;
-    GNSConfig.getLogger().log(
-            Level.INFO,
-            "{0} received response {1}",
-            new Object[]{
-              this,
-              returnPacket != null ? returnPacket : error.getSummary()});
     assert (returnPacket != null || error != null);
     long id = returnPacket != null ? returnPacket.getRequestID() : error.getRequestID();
     String serviceName = returnPacket != null ? returnPacket.getServiceName() : error.getServiceName();
-    LNSRequestInfo sentInfo;
-    GNSConfig.getLogger().log(Level.INFO, "{0} matching {1} with {2}",
-            new Object[]{this, id + "", handler.getRequestInfo(id)});
-    if ((sentInfo = handler.getRequestInfo(id)) != null) {
+    LNSRequestInfo sentInfo = handler.getRequestInfo(id);
+    boolean traced = RequestTracer.isTraced(GNSConfig.getLogger(), Level.FINE, id);
+    if (traced) {
+      RequestTracer.trace(GNSConfig.getLogger(), Level.FINE, id,
+              "{0} received response {1} matching {2}", this,
+              returnPacket != null ? returnPacket.getSummary() : error.getSummary(), sentInfo);
+    }
+    if (sentInfo != null) {
       // doublecheck that it is for the same service name
       if ((sentInfo.getServiceName()
               .equals(serviceName)
               || // arun: except when service name is special name
               (sentInfo.getServiceName().equals(Config
                       .getGlobalString(RC.SPECIAL_NAME))))) {
-        // String serviceName = returnPacket.getServiceName();
-        GNSConfig.getLogger().log(Level.INFO, "{0} about to remove {1}",
-                new Object[]{this, id + ""});
         handler.removeRequestInfo(id);
-        // update cache - if the service name isn't missing (invalid)
-        // and if it is a READ command
-        // FIXME: THIS ISN'T GOING TO WORK WITHOUT MORE INFO ABOUT THE
-        // REQUEST
+        if (handler.getReplicaSelector() != null) {
+          handler.getReplicaSelector().received(id);
+        }
+        // update the read cache - if the service name isn't missing (invalid)
+        // and if it is a READ command that the replica granted a lease for
         if (!CommandPacket.BOGUS_SERVICE_NAME.equals(serviceName)
                 && sentInfo.getCommandType().isRead()
-                //&& sentInfo.getCommandName().equals(GNSCommandProtocol.READ)
-                && returnPacket != null) {
-          handler.updateCacheEntry(serviceName,
-                  returnPacket.getReturnValue());
+                && returnPacket != null
+                && ResponseCode.NO_ERROR.equals(returnPacket.getErrorCode())) {
+          handler.getReadCache().put(LNSReadCache.getKey(sentInfo.getCommandPacket()),
+                  serviceName, returnPacket.getReturnValue(),
+                  returnPacket.getLease(), sentInfo.getStartTime());
+        } else if (sentInfo.getCommandType().isUpdate()
+                || sentInfo.getCommandType().isCreateDelete()) {
+          // drops what reads sent while the write was in flight have cached
+          handler.getReadCache().invalidate(sentInfo.getServiceName());
         }
         // send the response back
-        GNSConfig.getLogger()
-                .log(Level.FINE,
-                        "<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<<< LNS IS SENDING VALUE BACK TO {0}: {1}",
-                        new Object[]{
-                          sentInfo.getHost() + ":"
-                          + sentInfo.getPort(),
-                          returnPacket != null ? returnPacket.getSummary() : error.getSummary()});
+        if (traced) {
+          RequestTracer.trace(GNSConfig.getLogger(), Level.FINE, id,
+                  "{0} sending response back to {1}:{2}", this,
+                  sentInfo.getHost(), Integer.toString(sentInfo.getPort()));
+        }
         handler.sendToClient(new InetSocketAddress(sentInfo.getHost(),
                 sentInfo.getPort()), json != null ? json
                 : returnPacket != null ? returnPacket.toJSONObject()
@@ -311,10 +348,10 @@ private static CommandPacket removeSenderInfo(JSONObject json) throws JSONExcept
                 new Object[]{sentInfo.getServiceName(), returnPacket.getServiceName()});
       }
     } else {
-      GNSConfig.getLogger().log(Level.FINE,
-              "Duplicate response for {0}: {1}",
-              new Object[]{id, json != null ? json : returnPacket != null
-                                ? returnPacket.toJSONObject() : error.toJSONObject()});
+      if (traced) {
+        RequestTracer.trace(GNSConfig.getLogger(), Level.FINE, id, "{0} duplicate response {1}",
+                this, returnPacket != null ? returnPacket.getSummary() : error.getSummary());
+      }
     }
   }
 
@@ -0,0 +1,241 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.localnameserver;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.json.JSONObject;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.packets.CommandPacket;
+import edu.umass.cs.gnscommon.packets.ReadCacheKey;
+
+/**
+ * Caches the values returned by reads at the local name server, keyed by
+ * the guid, the command and the fields read. Only the reads of fields are
+ * cached, see {@link ReadCacheKey}, and only those without a reader, which only succeed for fields that everyone can read: the
+ * local name server does not check signatures, so a value read by one
+ * reader must not be returned to a request that merely claims to be that
+ * reader.
+ *
+ * A value is only cached if the active replica that answered the read
+ * granted a lease for it, and is dropped once the lease is over. Updates,
+ * creates and deletes that go through this local name server drop the
+ * values of their guid right away, including those of reads still in
+ * flight. The replicas do not tell the local name server when a name is
+ * written by others, so a write that goes through another local name
+ * server or straight to a replica is only seen here once the lease is
+ * over: consistency rests on the lease alone. The cache is bounded by the
+ * memory taken by its keys and values.
+ *
+ * @author westy
+ */
+public class LNSReadCache {
+
+  // how long an invalidation is remembered, longer than any read is in flight
+  private static final long INVALIDATION_MEMORY = 60000;
+  // per entry overhead in bytes, roughly
+  private static final int ENTRY_OVERHEAD = 64;
+
+  private static class Entry {
+
+    final String guid;
+    final String value;
+    final long expiry;
+
+    Entry(String guid, String value, long expiry) {
+      this.guid = guid;
+      this.value = value;
+      this.expiry = expiry;
+    }
+  }
+
+  private final Cache<String, Entry> cache;
+  // guid -> the keys of its values
+  private final ConcurrentHashMap<String, Set<String>> keysByGuid = new ConcurrentHashMap<>();
+  // guid -> the time it was last invalidated
+  private final Cache<String, Long> invalidated = CacheBuilder.newBuilder()
+          .expireAfterWrite(INVALIDATION_MEMORY, TimeUnit.MILLISECONDS).build();
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong stale = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  /**
+   * @param maxBytes the memory used by the keys and values
+   */
+  public LNSReadCache(long maxBytes) {
+    this.cache = CacheBuilder.newBuilder()
+            .maximumWeight(maxBytes)
+            .weigher((String key, Entry entry)
+                    -> 2 * (key.length() + entry.value.length()) + ENTRY_OVERHEAD)
+            .removalListener((RemovalListener<String, Entry>) removal -> {
+              Entry entry = removal.getValue();
+              if (entry != null) {
+                keysByGuid.computeIfPresent(entry.guid, (guid, keys) -> {
+                  keys.remove(removal.getKey());
+                  return keys.isEmpty() ? null : keys;
+                });
+              }
+            })
+            .build();
+  }
+
+  /**
+   * @param packet
+   * @return the key of the value read by {@code packet}, or null if it is
+   * not a read that may be cached or it has a reader
+   */
+  public static String getKey(CommandPacket packet) {
+    if (packet.getCommand().has(GNSProtocol.READER.toString())) {
+      return null;
+    }
+    return ReadCacheKey.getKey(packet);
+  }
+
+  /**
+   * @param key
+   * @return the value, or null if there is none or its lease is over
+   */
+  public String get(String key) {
+    Entry entry = cache.getIfPresent(key);
+    if (entry == null) {
+      misses.incrementAndGet();
+      return null;
+    }
+    if (System.currentTimeMillis() >= entry.expiry) {
+      stale.incrementAndGet();
+      cache.invalidate(key);
+      return null;
+    }
+    hits.incrementAndGet();
+    return entry.value;
+  }
+
+  /**
+   * Caches the value returned by a read, unless its guid has been
+   * invalidated since the read was sent.
+   *
+   * @param key
+   * @param guid
+   * @param value
+   * @param lease the lease granted for the value in ms
+   * @param sentTime the time the read was sent
+   */
+  public void put(String key, String guid, String value, long lease, long sentTime) {
+    long now = System.currentTimeMillis();
+    if (lease <= 0 || key == null || value == null || now - sentTime >= INVALIDATION_MEMORY) {
+      return;
+    }
+    Long invalidatedTime = invalidated.getIfPresent(guid);
+    if (invalidatedTime != null && invalidatedTime >= sentTime) {
+      return;
+    }
+    keysByGuid.computeIfAbsent(guid, g -> ConcurrentHashMap.newKeySet()).add(key);
+    // the lease starts when the value was read, which is before now
+    cache.put(key, new Entry(guid, value, sentTime + lease));
+    // in case of an invalidation since the check above
+    invalidatedTime = invalidated.getIfPresent(guid);
+    if (invalidatedTime != null && invalidatedTime >= sentTime) {
+      cache.invalidate(key);
+    }
+  }
+
+  /**
+   * Drops the values of a guid, and those of the reads in flight.
+   *
+   * @param guid
+   */
+  public void invalidate(String guid) {
+    invalidations.incrementAndGet();
+    invalidated.put(guid, System.currentTimeMillis());
+    Set<String> keys = keysByGuid.remove(guid);
+    if (keys != null) {
+      cache.invalidateAll(keys);
+    }
+  }
+
+  /**
+   * Drops all values.
+   */
+  public void invalidateAll() {
+    cache.invalidateAll();
+  }
+
+  /**
+   * @return the number of cached values
+   */
+  public long size() {
+    return cache.size();
+  }
+
+  /**
+   * @return the number of reads answered from the cache
+   */
+  public long getHits() {
+    return hits.get();
+  }
+
+  /**
+   * @return the number of reads whose value was not cached
+   */
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the number of reads whose value was cached but its lease over
+   */
+  public long getStale() {
+    return stale.get();
+  }
+
+  /**
+   * @return the number of writes that dropped the values of their guid
+   */
+  public long getInvalidations() {
+    return invalidations.get();
+  }
+
+  /**
+   * @return the fraction of the reads answered from the cache
+   */
+  public double getHitRate() {
+    long lookups = hits.get() + misses.get() + stale.get();
+    return lookups > 0 ? (double) hits.get() / lookups : 0;
+  }
+
+  @Override
+  public String toString() {
+    long lookups = hits.get() + misses.get() + stale.get();
+    return this.getClass().getSimpleName() + "[size=" + size()
+            + " hits=" + hits.get() + " misses=" + misses.get() + " stale=" + stale.get()
+            + " invalidations=" + invalidations.get()
+            + " hitRate=" + (lookups > 0 ? hits.get() * 100 / lookups : 0) + "%]";
+  }
+}
@@ -40,7 +40,10 @@ import com.google.common.cache.CacheBuilder;
 import edu.umass.cs.gigapaxos.interfaces.Request;
 import edu.umass.cs.gnsclient.client.GNSClientConfig;
 import edu.umass.cs.gnscommon.utils.NetworkUtils;
+import edu.umass.cs.gnscommon.utils.ReplicaProber;
+import edu.umass.cs.gnscommon.utils.ReplicaSelector;
 import edu.umass.cs.gnsserver.gnsapp.packet.Packet;
+import edu.umass.cs.gnsserver.main.GNSConfig;
 import edu.umass.cs.gnsserver.localnameserver.nodeconfig.LNSConsistentReconfigurableNodeConfig;
 import edu.umass.cs.gnsserver.localnameserver.nodeconfig.LNSNodeConfig;
 import edu.umass.cs.gnsserver.utils.Shutdownable;
@@ -93,6 +96,10 @@ public class LocalNameServer implements RequestHandlerInterface, Shutdownable {
           = new ConcurrentHashMap<>(10, 0.75f, 3);
 
   private final Cache<String, CacheEntry> cache;
+  private final LNSReadCache readCache;
+  // null unless GNSCC.ADAPTIVE_REPLICA_SELECTION
+  private final ReplicaSelector replicaSelector;
+  private final ReplicaProber replicaProber;
   private JSONMessenger<InetSocketAddress> messenger;
   // FIXME: Eventually need separate servers for ssl and clear
   //private JSONMessenger<InetSocketAddress> sslServer;
@@ -139,6 +146,19 @@ public class LocalNameServer implements RequestHandlerInterface, Shutdownable {
     //LNSPacketDemultiplexer<String> sslDemultiplexer = new LNSPacketDemultiplexer<>(this, asyncClient);
 
     this.cache = CacheBuilder.newBuilder().concurrencyLevel(5).maximumSize(1000).build();
+    this.readCache = new LNSReadCache(Config.getGlobalInt(GNSConfig.GNSC.LNS_READ_CACHE_BYTES));
+    if (Config.getGlobalBoolean(GNSClientConfig.GNSCC.ADAPTIVE_REPLICA_SELECTION)) {
+      this.replicaSelector = new ReplicaSelector();
+      // probed before any request goes to them
+      this.replicaSelector.addReplicas(nodeConfig.getActiveReplicas());
+      this.replicaProber = new ReplicaProber(replicaSelector,
+              Config.getGlobalInt(GNSClientConfig.GNSCC.REPLICA_PROBE_INTERVAL),
+              Config.getGlobalInt(GNSClientConfig.GNSCC.REPLICA_PROBE_TIMEOUT),
+              Config.getGlobalInt(GNSClientConfig.GNSCC.REPLICA_RESPONSE_TIMEOUT));
+    } else {
+      this.replicaSelector = null;
+      this.replicaProber = null;
+    }
     try {
       JSONNIOTransport<InetSocketAddress> gnsNiot = new JSONNIOTransport<>(
               address, crNodeConfig, demultiplexer, sslMode);
@@ -157,6 +177,11 @@ public class LocalNameServer implements RequestHandlerInterface, Shutdownable {
    */
   @Override
   public void shutdown() {
+    LOGGER.log(Level.INFO, "{0}", readCache);
+    if (replicaProber != null) {
+      LOGGER.log(Level.INFO, "{0}", replicaSelector);
+      replicaProber.shutdown();
+    }
     messenger.stop();
     demultiplexer.stop();
     protocolExecutor.stop();
@@ -364,6 +389,7 @@ edu.umass.cs.gnsserver.localnameserver.LocalNameServer
    * Selects the closest Name Server from a set of Name Servers.
    * excludeNameServers is a set of Name Servers from the first list to not consider.
    * If the local server is one of the serverIds and not excluded this will return it.
+   * If adaptive replica selection is on the {@link ReplicaSelector} picks it instead.
    *
    * @param serverIds
    * @param excludeServers
@@ -374,6 +400,9 @@ edu.umass.cs.gnsserver.localnameserver.LocalNameServer
     if (serverIds == null || serverIds.isEmpty()) {
       return null;
     }
+    if (replicaSelector != null) {
+      return replicaSelector.select(serverIds, excludeServers);
+    }
 
     long lowestLatency = Long.MAX_VALUE;
     InetSocketAddress serverAddress = null;
@@ -462,12 +491,23 @@ edu.umass.cs.gnsserver.localnameserver.LocalNameServer
     }
   }
 
+  @Override
+  public LNSReadCache getReadCache() {
+    return readCache;
+  }
+
+  @Override
+  public ReplicaSelector getReplicaSelector() {
+    return replicaSelector;
+  }
+
   /**
    * Clears the cache.
    */
   @Override
   public void invalidateCache() {
     cache.invalidateAll();
+    readCache.invalidateAll();
   }
 
   /**
@@ -19,6 +19,7 @@
  */
 package edu.umass.cs.gnsserver.localnameserver;
 
+import edu.umass.cs.gnscommon.utils.ReplicaSelector;
 import edu.umass.cs.gnsserver.localnameserver.nodeconfig.LNSConsistentReconfigurableNodeConfig;
 import edu.umass.cs.nio.AbstractJSONPacketDemultiplexer;
 import edu.umass.cs.nio.nioutils.NIOHeader;
@@ -154,6 +155,20 @@ public interface RequestHandlerInterface {
    */
   public Set<InetSocketAddress> getActivesIfValid(String name);
   
+  /**
+   * Returns the cache of the values returned by reads.
+   * 
+   * @return the read cache
+   */
+  public LNSReadCache getReadCache();
+
+  /**
+   * Returns the selector of the active replicas to send requests to.
+   *
+   * @return the replica selector, or null if gigapaxos picks the replicas
+   */
+  public ReplicaSelector getReplicaSelector();
+  
   /**
    * Returns the protocol executor.
    * 
@@ -107,6 +107,18 @@ public class GNSConfig {
     /* FIXME: arun: need to determine this timeout systematically, not an ad
 		 * hoc constant. */
     SELECT_REQUEST_TIMEOUT(5000),
+    /**
+     * The time (ms) a field read from a remote replica is reused by other
+     * requests of the same querier. Internal fields, e.g., the groups of a
+     * guid for an ACL check, are never cached. 0 disables caching, but
+     * concurrent reads of the same field for the same querier still share
+     * a single request.
+     */
+    REMOTE_FIELD_CACHE_TTL(0),
+    /**
+     * The maximum number of remote guids whose fields are cached.
+     */
+    REMOTE_FIELD_CACHE_SIZE(10000),
     /**
      *
      */
@@ -189,6 +201,28 @@ public class GNSConfig {
      * The URL path used by the HTTP server.
      */
     HTTP_SERVER_GNS_URL_PATH("GNS"),
+    /**
+     * The number of threads that run the handlers of the HTTP server.
+     */
+    HTTP_SERVER_THREADS(32),
+    /**
+     * The most requests the HTTP server processes at a time. More are
+     * answered with 503 (OVERLOAD).
+     */
+    HTTP_SERVER_MAX_PENDING(1024),
+    /**
+     * The time in ms after which the HTTP server answers a command it sent to
+     * the replicas with 504 (TIMEOUT).
+     */
+    HTTP_SERVER_REQUEST_TIMEOUT(30000),
+    /**
+     * The most commands in a batch POSTed to the HTTP server.
+     */
+    HTTP_SERVER_MAX_BATCH_SIZE(256),
+    /**
+     * The most commands of a batch that the HTTP server executes at a time.
+     */
+    HTTP_SERVER_BATCH_CONCURRENCY(16),
     //
     // LOCAL NAME SERVER SETUP
     //
@@ -295,6 +329,16 @@ public class GNSConfig {
      * those GUIDs. 
      */
     SELECT_FETCH_SIZE(1000),
+    /**
+     * The number of threads that do the ACL checks and projection of the
+     * records matched by selects, shared by all selects. 0 means one per core.
+     */
+    SELECT_EVALUATION_THREADS(0),
+    /**
+     * The minimum number of select records evaluated at once for the
+     * evaluation to be split across SELECT_EVALUATION_THREADS threads.
+     */
+    SELECT_PARALLEL_THRESHOLD(256),
         
     /**
      * Specifies the class name for a select response processor. 
@@ -302,6 +346,122 @@ public class GNSConfig {
      * to GUIDs that satisfy a select request. 
      */
     SELECT_REPONSE_PROCESSOR("edu.umass.cs.gnsserver.gnsapp.selectnotification.examples.PendingSelectResponseProcessor"),
+    /**
+     * The number of threads that hand the batches of select notifications
+     * to the select response processor, shared by all selects.
+     */
+    SELECT_NOTIFICATION_THREADS(4),
+    /**
+     * The maximum number of batches of select notifications waiting for
+     * a thread. The others wait in their select until there is room.
+     */
+    SELECT_NOTIFICATION_QUEUE_SIZE(1024),
+    /**
+     * The number of times a batch of select notifications is resent after
+     * the select response processor failed to send it.
+     */
+    SELECT_NOTIFICATION_RETRIES(3),
+    /**
+     * The time (ms) after which a batch of select notifications is resent
+     * or handed over again.
+     */
+    SELECT_NOTIFICATION_RETRY_DELAY(1000),
+
+    /**
+     * If true, each name server only returns the records of a select for
+     * which it is the primary responder among the replicas of the record,
+     * instead of every replica returning every record it holds.
+     * Assumes that names are placed by consistent hashing over the actives,
+     * so it is ignored unless DEMAND_PROFILE_TYPE is NullDemandProfile.
+     */
+    SELECT_PRIMARY_RESPONDERS(false),
+    /**
+     * The time (ms) after which the records of the name servers that have
+     * not responded to a select are requested from the next replicas.
+     * Only used by selects answered by primary responders, and should be less
+     * than SELECT_REQUEST_TIMEOUT.
+     */
+    SELECT_FAILOVER_TIMEOUT(2000),
+    /**
+     * The maximum number of select results cached by the collecting name
+     * server. 0 disables the cache.
+     */
+    SELECT_CACHE_SIZE(0),
+    /**
+     * The time (ms) a select result is cached for.
+     */
+    SELECT_CACHE_TTL(5000),
+    /**
+     * The time (ms) for which the fields updated on a name server are
+     * collected before the other name servers are told to drop the select
+     * results that depend on them.
+     */
+    SELECT_CACHE_INVALIDATION_DELAY(20),
+    /**
+     * If true, the locations in GEO_INDEX_FIELDS are kept in an in-memory
+     * spatial index that answers selectNear and selectWithin instead of
+     * the database.
+     */
+    ENABLE_GEO_INDEX(false),
+    /**
+     * The comma separated location fields kept in the spatial index.
+     */
+    GEO_INDEX_FIELDS("geoLocation,geoLocationCurrent"),
+    /**
+     * The number of cells of the spatial index along a degree of
+     * longitude or latitude.
+     */
+    GEO_INDEX_CELLS_PER_DEGREE(10),
+    /**
+     * The GeoLite2 City database that the demand profiles locate senders
+     * and active replicas with to place replicas near the demand, see
+     * {@link edu.umass.cs.gnsserver.gnsapp.GeoLocator}. Without it they
+     * compare addresses instead.
+     */
+    GEOIP_DATABASE_FILE("conf/activeCode/GeoLite2-City.mmdb"),
+    /**
+     * The time (ms) for which a local name server may cache the value
+     * returned by a read without a reader. No lease is granted for names written less than
+     * a lease ago. 0 disables the caching of reads.
+     */
+    READ_LEASE(0),
+    /**
+     * The maximum number of recently written names a name server keeps
+     * track of to deny them leases.
+     */
+    READ_LEASE_TRACKED_NAMES(100000),
+    /**
+     * The memory (bytes) used by the read cache of a local name server.
+     */
+    LNS_READ_CACHE_BYTES(16 * 1024 * 1024),
+
+    /**
+     * If true, uncoordinated requests are admitted through per-class
+     * bounded queues before being executed, and shed with
+     * {@link edu.umass.cs.gnscommon.ResponseCode#OVERLOAD} when
+     * their queue is full or they wait for too long. A queued request
+     * keeps the thread that delivered it waiting.
+     */
+    ENABLE_REQUEST_SCHEDULER(false),
+    /**
+     * The maximum number of requests executed at the same time.
+     * Coordinated requests are never queued but still count.
+     */
+    SCHEDULER_MAX_CONCURRENT(128),
+    /**
+     * The capacity of the queue of each request class.
+     */
+    SCHEDULER_QUEUE_CAPACITY(1000),
+    /**
+     * The time (ms) a request may wait in its queue before being shed.
+     */
+    SCHEDULER_QUEUE_TIMEOUT(2000),
+    /**
+     * The weights used to pick the next queue to dequeue from, as
+     * a comma separated list of class:weight pairs. Classes that are
+     * not listed have a weight of 1.
+     */
+    SCHEDULER_WEIGHTS("READ:8,WRITE:4,ADMIN:2,SELECT:1"),
     ;
 
     final Object defaultValue;
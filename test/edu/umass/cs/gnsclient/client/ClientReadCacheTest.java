@@ -0,0 +1,153 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsclient.client;
+
+import edu.umass.cs.gnscommon.CommandType;
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnscommon.exceptions.client.ClientException;
+import edu.umass.cs.gnscommon.packets.CommandPacket;
+import edu.umass.cs.utils.DefaultTest;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the keys, expiry and invalidation of {@link ClientReadCache}.
+ *
+ * @author westy
+ */
+public class ClientReadCacheTest extends DefaultTest {
+
+  private static final String GUID = "0123456789ABCDEF0123456789ABCDEF01234567";
+  private static final String READER = "76543210FEDCBA9876543210FEDCBA9876543210";
+
+  private static CommandPacket read(String field, String reader) throws ClientException {
+    return GNSCommand.getCommand(CommandType.Read,
+            GNSProtocol.GUID.toString(), GUID,
+            GNSProtocol.FIELD.toString(), field,
+            GNSProtocol.READER.toString(), reader);
+  }
+
+  private static CommandPacket aclRetrieve(String aclType) throws ClientException {
+    return GNSCommand.getCommand(CommandType.AclRetrieve,
+            GNSProtocol.GUID.toString(), GUID,
+            GNSProtocol.FIELD.toString(), "field",
+            GNSProtocol.ACL_TYPE.toString(), aclType,
+            GNSProtocol.READER.toString(), READER);
+  }
+
+  // caches the value read by packet as if it had just been answered
+  private static void put(ClientReadCache cache, CommandPacket packet, String value) {
+    cache.put(ClientReadCache.getKey(packet), GUID, value, 0, System.currentTimeMillis());
+  }
+
+  /**
+   * A read of a field is returned from the cache when it is sent again.
+   *
+   * @throws ClientException
+   */
+  @Test
+  public void test_01_ReadHits() throws ClientException {
+    ClientReadCache cache = new ClientReadCache(10, 10000);
+    put(cache, read("field", READER), "value");
+    assertEquals("value", cache.get(ClientReadCache.getKey(read("field", READER))));
+    assertEquals(1, cache.getHits());
+  }
+
+  /**
+   * Reads of different fields or by different readers miss each other.
+   *
+   * @throws ClientException
+   */
+  @Test
+  public void test_02_FieldAndReaderInKey() throws ClientException {
+    ClientReadCache cache = new ClientReadCache(10, 10000);
+    put(cache, read("field", READER), "value");
+    assertNull(cache.get(ClientReadCache.getKey(read("other", READER))));
+    assertNull(cache.get(ClientReadCache.getKey(read("field", GUID))));
+    assertEquals(2, cache.getMisses());
+  }
+
+  /**
+   * Two reads that differ only in the ACL type miss each other.
+   *
+   * @throws ClientException
+   */
+  @Test
+  public void test_03_AclTypesMissEachOther() throws ClientException {
+    ClientReadCache cache = new ClientReadCache(10, 10000);
+    CommandPacket readWhitelist = aclRetrieve("READ_WHITELIST");
+    CommandPacket writeWhitelist = aclRetrieve("WRITE_WHITELIST");
+    put(cache, readWhitelist, "[\"reader\"]");
+    assertNull(cache.get(ClientReadCache.getKey(writeWhitelist)));
+    assertNull(cache.get(ClientReadCache.getKey(readWhitelist)));
+    assertEquals(0, cache.getHits());
+  }
+
+  /**
+   * Only the reads of fields are cached.
+   *
+   * @throws ClientException
+   */
+  @Test
+  public void test_04_OnlyFieldReadsCached() throws ClientException {
+    assertNotNull(ClientReadCache.getKey(read("field", READER)));
+    assertNull(ClientReadCache.getKey(aclRetrieve("READ_WHITELIST")));
+    assertNull(ClientReadCache.getKey(GNSCommand.getCommand(CommandType.LookupRandomGuids,
+            GNSProtocol.GUID.toString(), GUID, GNSProtocol.GUIDCNT.toString(), 3)));
+    assertNull(ClientReadCache.getKey(GNSCommand.getCommand(CommandType.Read,
+            GNSProtocol.GUID.toString(), GUID, GNSProtocol.FIELD.toString(), "field",
+            GNSProtocol.BYPASS_CACHE.toString(), true)));
+  }
+
+  /**
+   * A write drops the values of the guid, and a value read before the
+   * write is not cached after it.
+   *
+   * @throws ClientException
+   */
+  @Test
+  public void test_05_Invalidate() throws ClientException {
+    ClientReadCache cache = new ClientReadCache(10, 10000);
+    String key = ClientReadCache.getKey(read("field", READER));
+    long sent = System.currentTimeMillis() - 1;
+    put(cache, read("field", READER), "value");
+    cache.invalidate(GUID);
+    assertNull(cache.get(key));
+    cache.put(key, GUID, "stale", 0, sent);
+    assertNull(cache.get(key));
+  }
+
+  /**
+   * A value expires with the time to live or the lease, whichever is
+   * shorter.
+   *
+   * @throws ClientException
+   */
+  @Test
+  public void test_06_Expiry() throws ClientException {
+    ClientReadCache cache = new ClientReadCache(10, 10000);
+    String key = ClientReadCache.getKey(read("field", READER));
+    cache.put(key, GUID, "value", 1, System.currentTimeMillis() - 1);
+    assertNull(cache.get(key));
+    ClientReadCache shortLived = new ClientReadCache(10, 1);
+    shortLived.put(key, GUID, "value", 10000, System.currentTimeMillis() - 1);
+    assertNull(shortLived.get(key));
+  }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2016
+ * University of Massachusetts
+ * All Rights Reserved
+ *
+ * Initial developer(s): Westy.
+ */
+package edu.umass.cs.gnsclient.client.singletests.simple;
+
+import edu.umass.cs.gnsclient.client.http.HttpClient;
+import edu.umass.cs.gnsclient.client.util.GuidEntry;
+import edu.umass.cs.gnsclient.client.util.GuidUtils;
+import edu.umass.cs.gnscommon.utils.Format;
+import edu.umass.cs.gnscommon.utils.RandomString;
+import edu.umass.cs.gnsserver.utils.DefaultGNSTest;
+import edu.umass.cs.utils.Utils;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.junit.Test;
+import org.junit.FixMethodOrder;
+import org.junit.runners.MethodSorters;
+import org.junit.Assert;
+
+/**
+ * Measures the reads per second of an {@link HttpClient} from many threads
+ * and with the asynchronous API, over its pooled connections.
+ *
+ * @author westy
+ */
+@FixMethodOrder(MethodSorters.NAME_ASCENDING)
+public class SimpleHttpClientThroughputTest extends DefaultGNSTest {
+
+  private static final int NUM_THREADS = 32;
+  private static final int SECONDS = 10;
+
+  private HttpClient httpClient;
+
+  private static GuidEntry masterGuid;
+  private static GuidEntry httpEntry;
+
+  /**
+   *
+   */
+  public SimpleHttpClientThroughputTest() {
+    if (httpClient == null) {
+      httpClient = new HttpClient("127.0.0.1", 24703);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_910_Http_CreateGuid() {
+    try {
+      masterGuid = GuidUtils.getGUIDKeys(globalAccountName);
+      httpEntry = httpClient.guidCreate(masterGuid, "httpThroughputEntry" + RandomString.randomString(12));
+      httpClient.fieldUpdate(httpEntry.getGuid(), "environment", "work", httpEntry);
+    } catch (Exception e) {
+      Utils.failWithStackTrace("Exception while creating guid: ", e);
+    }
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_911_Http_SyncReadThroughput() {
+    AtomicLong reads = new AtomicLong();
+    AtomicLong errors = new AtomicLong();
+    long endTime = System.currentTimeMillis() + SECONDS * 1000L;
+    ExecutorService executor = Executors.newFixedThreadPool(NUM_THREADS);
+    for (int t = 0; t < NUM_THREADS; t++) {
+      executor.submit(() -> {
+        while (System.currentTimeMillis() < endTime) {
+          try {
+            Assert.assertEquals("work", httpClient.fieldRead(httpEntry.getGuid(), "environment", httpEntry));
+            reads.incrementAndGet();
+          } catch (Exception | AssertionError e) {
+            errors.incrementAndGet();
+          }
+        }
+      });
+    }
+    try {
+      executor.shutdown();
+      executor.awaitTermination(SECONDS + 60, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Utils.failWithStackTrace("Interrupted: ", e);
+    }
+    System.out.println("Sync reads: " + reads + " errors: " + errors
+            + " reads/s = " + Format.formatTime(reads.get() / (double) SECONDS));
+    Assert.assertEquals(0, errors.get());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_912_Http_AsyncReadThroughput() {
+    AtomicLong reads = new AtomicLong();
+    AtomicLong errors = new AtomicLong();
+    // keeps the client busy without queueing every read at once
+    Semaphore outstanding = new Semaphore(4 * NUM_THREADS);
+    long endTime = System.currentTimeMillis() + SECONDS * 1000L;
+    try {
+      while (System.currentTimeMillis() < endTime) {
+        outstanding.acquire();
+        httpClient.fieldReadAsync(httpEntry.getGuid(), "environment", httpEntry).whenComplete((value, e) -> {
+          if (e == null && "work".equals(value)) {
+            reads.incrementAndGet();
+          } else {
+            errors.incrementAndGet();
+          }
+          outstanding.release();
+        });
+      }
+      outstanding.acquire(4 * NUM_THREADS);
+    } catch (InterruptedException e) {
+      Utils.failWithStackTrace("Interrupted: ", e);
+    }
+    System.out.println("Async reads: " + reads + " errors: " + errors
+            + " reads/s = " + Format.formatTime(reads.get() / (double) SECONDS));
+    Assert.assertEquals(0, errors.get());
+  }
+
+  /**
+   *
+   */
+  @Test
+  public void test_919_Cleanup() {
+    try {
+      httpClient.guidRemove(masterGuid, httpEntry.getGuid());
+    } catch (Exception e) {
+      Utils.failWithStackTrace("Exception while removing guid: " + e);
+    }
+    httpClient.close();
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnscommon.utils;
+
+import edu.umass.cs.utils.DefaultTest;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the limit growth, backoff, queueing and expiry of
+ * {@link ConcurrencyLimiter}.
+ *
+ * @author westy
+ */
+public class ConcurrencyLimiterTest extends DefaultTest {
+
+  // long enough that scheduling noise stays well within the tolerance
+  private static final long HOLD = 20;
+
+  /**
+   * The limit grows while it is in use and the latency stays flat.
+   *
+   * @throws InterruptedException
+   */
+  @Test
+  public void test_01_GrowsWhileInUse() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 100, 0, 0, 0);
+    int initial = limiter.getLimit();
+    long id = 0;
+    for (int round = 0; round < 5; round++) {
+      long first = id;
+      int n = limiter.getLimit();
+      for (int i = 0; i < n; i++) {
+        assertTrue(limiter.acquire(id++));
+      }
+      Thread.sleep(HOLD);
+      for (long i = first; i < id; i++) {
+        limiter.release(i);
+      }
+    }
+    assertTrue(limiter.getLimit() > initial);
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  /**
+   * The limit does not grow while the client is idle.
+   *
+   * @throws InterruptedException
+   */
+  @Test
+  public void test_02_DoesNotGrowWhileIdle() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 100, 0, 0, 0);
+    int initial = limiter.getLimit();
+    for (long id = 0; id < 100; id++) {
+      assertTrue(limiter.acquire(id));
+      limiter.release(id);
+    }
+    assertTrue(limiter.getLimit() <= initial);
+  }
+
+  /**
+   * A dropped request halves the limit.
+   *
+   * @throws InterruptedException
+   */
+  @Test
+  public void test_03_BacksOffOnDrop() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 100, 0, 0, 0);
+    int initial = limiter.getLimit();
+    assertTrue(limiter.acquire(1));
+    limiter.drop(1);
+    assertEquals((int) (initial * ConcurrencyLimiter.DROP_BACKOFF), limiter.getLimit());
+    assertEquals(1, limiter.getDropped());
+    assertEquals(0, limiter.getInFlight());
+  }
+
+  /**
+   * A response much slower than the fastest one shrinks the limit.
+   *
+   * @throws InterruptedException
+   */
+  @Test
+  public void test_04_BacksOffOnLatency() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 100, 0, 0, 0);
+    int initial = limiter.getLimit();
+    assertTrue(limiter.acquire(1));
+    Thread.sleep(HOLD);
+    limiter.release(1);
+    assertEquals(initial, limiter.getLimit());
+    assertTrue(limiter.acquire(2));
+    Thread.sleep((long) (HOLD * ConcurrencyLimiter.TOLERANCE * 3));
+    limiter.release(2);
+    assertEquals((int) (initial * ConcurrencyLimiter.BACKOFF), limiter.getLimit());
+  }
+
+  /**
+   * The limit never goes below the smallest limit.
+   *
+   * @throws InterruptedException
+   */
+  @Test
+  public void test_05_StopsAtMinLimit() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(5, 100, 0, 0, 0);
+    for (long id = 0; id < 10; id++) {
+      assertTrue(limiter.acquire(id));
+      limiter.drop(id);
+    }
+    assertEquals(5, limiter.getLimit());
+  }
+
+  /**
+   * A request over the limit is rejected right away with no queue.
+   *
+   * @throws InterruptedException
+   */
+  @Test
+  public void test_06_RejectsWithoutQueue() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 0, 1000, 0);
+    assertTrue(limiter.acquire(1));
+    assertFalse(limiter.acquire(2));
+    assertEquals(1, limiter.getRejected());
+    // the same request sent again keeps its permit
+    assertTrue(limiter.acquire(1));
+    assertEquals(1, limiter.getInFlight());
+  }
+
+  /**
+   * A queued request is rejected once the queue timeout is up.
+   *
+   * @throws InterruptedException
+   */
+  @Test
+  public void test_07_RejectsAfterQueueTimeout() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 50, 0);
+    assertTrue(limiter.acquire(1));
+    long start = System.nanoTime();
+    assertFalse(limiter.acquire(2));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    assertEquals(1, limiter.getRejected());
+    assertEquals(0, limiter.getQueued());
+  }
+
+  /**
+   * A request is rejected right away when the queue is full, and a queued
+   * request is let through once a request is released.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_08_QueuedUntilReleased() throws Exception {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 1, 10000, 0);
+    assertTrue(limiter.acquire(1));
+    CompletableFuture<Boolean> queued = CompletableFuture.supplyAsync(() -> {
+      try {
+        return limiter.acquire(2);
+      } catch (InterruptedException e) {
+        return false;
+      }
+    });
+    while (limiter.getQueued() == 0) {
+      Thread.sleep(1);
+    }
+    assertFalse(limiter.acquire(3));
+    assertEquals(1, limiter.getRejected());
+    limiter.release(1);
+    assertTrue(queued.get(5, TimeUnit.SECONDS));
+    assertEquals(1, limiter.getInFlight());
+  }
+
+  /**
+   * A request that got no response within the expiry is dropped to make
+   * room for a new one.
+   *
+   * @throws InterruptedException
+   */
+  @Test
+  public void test_09_ExpiresLostRequests() throws InterruptedException {
+    ConcurrencyLimiter limiter = new ConcurrencyLimiter(1, 1, 0, 0, 50);
+    assertTrue(limiter.acquire(1));
+    assertFalse(limiter.acquire(2));
+    Thread.sleep(100);
+    assertTrue(limiter.acquire(3));
+    assertEquals(1, limiter.getDropped());
+    assertEquals(1, limiter.getInFlight());
+    // the response to the expired request no longer counts
+    limiter.release(1);
+    assertEquals(1, limiter.getInFlight());
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnscommon.utils;
+
+import edu.umass.cs.utils.DefaultTest;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the percentiles of {@link LatencyHistogram}.
+ *
+ * @author westy
+ */
+public class LatencyHistogramTest extends DefaultTest {
+
+  /**
+   * A histogram with no samples has no percentiles.
+   */
+  @Test
+  public void test_01_Empty() {
+    LatencyHistogram histogram = new LatencyHistogram(1000);
+    assertEquals(-1, histogram.getPercentile(50), 0);
+    assertEquals(0, histogram.getCount());
+  }
+
+  /**
+   * The percentiles of uniform latencies are within a bucket of the
+   * exact ones and never below them.
+   */
+  @Test
+  public void test_02_PercentilesWithinGrowth() {
+    LatencyHistogram histogram = new LatencyHistogram(Long.MAX_VALUE);
+    for (int latency = 1; latency <= 1000; latency++) {
+      histogram.record(latency);
+    }
+    for (double percentile : new double[]{10, 50, 90, 99, 100}) {
+      double exact = 10 * percentile;
+      double estimate = histogram.getPercentile(percentile);
+      assertTrue(percentile + ": " + estimate, estimate >= exact);
+      assertTrue(percentile + ": " + estimate, estimate <= exact * LatencyHistogram.GROWTH);
+    }
+  }
+
+  /**
+   * The percentiles of a mix of fast and slow latencies are within a
+   * bucket of the exact ones.
+   */
+  @Test
+  public void test_03_SkewedLatencies() {
+    LatencyHistogram histogram = new LatencyHistogram(Long.MAX_VALUE);
+    Random random = new Random(42);
+    // 90% around 5ms and 10% around 200ms
+    for (int i = 0; i < 10000; i++) {
+      histogram.record(i % 10 == 0 ? 200 : 5);
+    }
+    for (int i = 0; i < 1000; i++) {
+      histogram.record(5 + random.nextDouble());
+    }
+    assertTrue(histogram.getPercentile(50) >= 5);
+    assertTrue(histogram.getPercentile(50) <= 6 * LatencyHistogram.GROWTH);
+    assertTrue(histogram.getPercentile(99) >= 200);
+    assertTrue(histogram.getPercentile(99) <= 200 * LatencyHistogram.GROWTH);
+  }
+
+  /**
+   * Latencies of at most 1ms share the first bucket.
+   */
+  @Test
+  public void test_04_SubMillisecond() {
+    LatencyHistogram histogram = new LatencyHistogram(1000);
+    histogram.record(0);
+    histogram.record(0.5);
+    histogram.record(1);
+    assertEquals(1, histogram.getPercentile(100), 0);
+    assertEquals(3, histogram.getCount());
+  }
+
+  /**
+   * Halving the counts lets the percentiles follow a change of the latency.
+   */
+  @Test
+  public void test_05_FollowsChanges() {
+    LatencyHistogram histogram = new LatencyHistogram(100);
+    for (int i = 0; i < 100; i++) {
+      histogram.record(10);
+    }
+    for (int i = 0; i < 100; i++) {
+      histogram.record(1000);
+    }
+    // without halving half of the samples would still be at 10ms
+    assertTrue(histogram.getPercentile(50) >= 1000);
+    assertEquals(200, histogram.getCount());
+  }
+}
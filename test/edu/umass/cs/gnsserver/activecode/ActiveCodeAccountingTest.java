@@ -0,0 +1,164 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.activecode;
+
+import edu.umass.cs.utils.DefaultTest;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the budget enforcement and the bound on tracked guids of
+ * {@link ActiveCodeAccounting}.
+ *
+ * @author gaozy
+ */
+public class ActiveCodeAccountingTest extends DefaultTest {
+
+  private static final long NOW = 1000000;
+  private static final long MB = 1024 * 1024;
+
+  private boolean enabled;
+  private int cpuBurst;
+  private int cpuRate;
+  private int allocBurst;
+  private int allocRate;
+
+  /**
+   * Enables the accounting with a 5s CPU burst refilled at 500ms per second
+   * and a 512MB allocation burst refilled at 64MB per second.
+   */
+  @Before
+  public void setUp() {
+    enabled = ActiveCodeConfig.activeCodeAccountingEnabled;
+    cpuBurst = ActiveCodeConfig.activeGuidCpuBurst;
+    cpuRate = ActiveCodeConfig.activeGuidCpuRate;
+    allocBurst = ActiveCodeConfig.activeGuidAllocBurst;
+    allocRate = ActiveCodeConfig.activeGuidAllocRate;
+    ActiveCodeConfig.activeCodeAccountingEnabled = true;
+    ActiveCodeConfig.activeGuidCpuBurst = 5000;
+    ActiveCodeConfig.activeGuidCpuRate = 500;
+    ActiveCodeConfig.activeGuidAllocBurst = 512;
+    ActiveCodeConfig.activeGuidAllocRate = 64;
+  }
+
+  /**
+   * Restores the configuration.
+   */
+  @After
+  public void tearDown() {
+    ActiveCodeConfig.activeCodeAccountingEnabled = enabled;
+    ActiveCodeConfig.activeGuidCpuBurst = cpuBurst;
+    ActiveCodeConfig.activeGuidCpuRate = cpuRate;
+    ActiveCodeConfig.activeGuidAllocBurst = allocBurst;
+    ActiveCodeConfig.activeGuidAllocRate = allocRate;
+  }
+
+  private static long ms(long ms) {
+    return TimeUnit.MILLISECONDS.toNanos(ms);
+  }
+
+  /**
+   * A guid that never ran any code, or ran within its budget, is admitted.
+   */
+  @Test
+  public void test_01_AdmitsWithinBudget() {
+    ActiveCodeAccounting accounting = new ActiveCodeAccounting(100);
+    assertTrue(accounting.admit("guid", NOW));
+    accounting.charge("guid", ms(4999), 511 * MB, NOW);
+    assertTrue(accounting.admit("guid", NOW));
+    assertEquals(1, accounting.size());
+  }
+
+  /**
+   * A guid that used up its CPU burst is rejected, the other guids are not.
+   */
+  @Test
+  public void test_02_RejectsOverCpuBudget() {
+    ActiveCodeAccounting accounting = new ActiveCodeAccounting(100);
+    accounting.charge("heavy", ms(3000), 0, NOW);
+    accounting.charge("heavy", ms(3000), 0, NOW);
+    accounting.charge("light", ms(10), 0, NOW);
+    assertFalse(accounting.admit("heavy", NOW));
+    assertTrue(accounting.admit("light", NOW));
+  }
+
+  /**
+   * A guid that used up its allocation burst is rejected.
+   */
+  @Test
+  public void test_03_RejectsOverAllocBudget() {
+    ActiveCodeAccounting accounting = new ActiveCodeAccounting(100);
+    accounting.charge("guid", ms(1), 600 * MB, NOW);
+    assertFalse(accounting.admit("guid", NOW));
+  }
+
+  /**
+   * A guid in debt is admitted again once the refill has paid it back.
+   */
+  @Test
+  public void test_04_AdmitsAfterPayingBack() {
+    ActiveCodeAccounting accounting = new ActiveCodeAccounting(100);
+    // 1000ms in debt, paid back in 2s
+    accounting.charge("guid", ms(6000), 0, NOW);
+    assertFalse(accounting.admit("guid", NOW + 1000));
+    assertFalse(accounting.admit("guid", NOW + 2000));
+    assertTrue(accounting.admit("guid", NOW + 2100));
+  }
+
+  /**
+   * The refill does not go beyond the burst.
+   */
+  @Test
+  public void test_05_RefillCappedAtBurst() {
+    ActiveCodeAccounting accounting = new ActiveCodeAccounting(100);
+    accounting.charge("guid", ms(1), 0, NOW);
+    // a long idle time does not allow more than the burst
+    accounting.charge("guid", ms(5001), 0, NOW + 3600 * 1000);
+    assertFalse(accounting.admit("guid", NOW + 3600 * 1000));
+  }
+
+  /**
+   * Every guid is admitted and nothing is tracked when the accounting is
+   * disabled.
+   */
+  @Test
+  public void test_06_Disabled() {
+    ActiveCodeConfig.activeCodeAccountingEnabled = false;
+    ActiveCodeAccounting accounting = new ActiveCodeAccounting(100);
+    accounting.charge("guid", ms(60000), 0, NOW);
+    assertTrue(accounting.admit("guid", NOW));
+    assertEquals(0, accounting.size());
+  }
+
+  /**
+   * The number of tracked guids never goes beyond the maximum.
+   */
+  @Test
+  public void test_07_BoundedGuids() {
+    ActiveCodeAccounting accounting = new ActiveCodeAccounting(10);
+    for (int i = 0; i < 1000; i++) {
+      accounting.charge("guid" + i, ms(1), 0, NOW);
+      assertTrue(accounting.size() <= 10);
+    }
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import com.google.common.net.InetAddresses;
+import edu.umass.cs.utils.DefaultTest;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the greedy picks of {@link GeoReplicaPlacement} with a
+ * {@link GeoLocator} that locates addresses from a fixed table instead of a
+ * GeoIP database.
+ *
+ * @author westy
+ */
+public class GeoReplicaPlacementTest extends DefaultTest {
+
+  // active replicas, two of them in the same place
+  private static final InetAddress AMHERST = InetAddresses.forString("192.168.1.1");
+  private static final InetAddress AMHERST_TOO = InetAddresses.forString("192.168.1.2");
+  private static final InetAddress LONDON = InetAddresses.forString("192.168.2.1");
+  private static final InetAddress TOKYO = InetAddresses.forString("192.168.3.1");
+  private static final InetAddress NOWHERE = InetAddresses.forString("192.168.4.1");
+  private static final List<InetAddress> ALL = Arrays.asList(AMHERST, AMHERST_TOO, LONDON, TOKYO, NOWHERE);
+
+  // senders, each in the region of the replica of the same place
+  private static final String BOSTON = "10.0.1.1";
+  private static final String PARIS = "10.0.2.1";
+  private static final String OSAKA = "10.0.3.1";
+  private static final String UNKNOWN = "10.0.4.1";
+
+  private static final Map<InetAddress, double[]> LOCATIONS = new HashMap<>();
+
+  static {
+    LOCATIONS.put(AMHERST, new double[]{42.37, -72.52});
+    LOCATIONS.put(AMHERST_TOO, new double[]{42.37, -72.52});
+    LOCATIONS.put(LONDON, new double[]{51.51, -0.13});
+    LOCATIONS.put(TOKYO, new double[]{35.68, 139.69});
+    LOCATIONS.put(regionAddress(BOSTON), new double[]{42.36, -71.06});
+    LOCATIONS.put(regionAddress(PARIS), new double[]{48.86, 2.35});
+    LOCATIONS.put(regionAddress(OSAKA), new double[]{34.69, 135.50});
+  }
+
+  private static final GeoReplicaPlacement PLACEMENT = new GeoReplicaPlacement(new GeoLocator(null) {
+    @Override
+    public double[] locate(InetAddress address) {
+      return LOCATIONS.get(address);
+    }
+  });
+
+  private static InetAddress regionAddress(String sender) {
+    return InetAddresses.fromInteger(SenderRegionSketch.getRegion(InetAddresses.forString(sender)));
+  }
+
+  private static SenderRegionSketch demand(Object... sendersAndCounts) {
+    SenderRegionSketch sketch = new SenderRegionSketch(16);
+    for (int i = 0; i < sendersAndCounts.length; i += 2) {
+      for (int j = 0; j < (Integer) sendersAndCounts[i + 1]; j++) {
+        sketch.increment(SenderRegionSketch.getRegion(InetAddresses.forString((String) sendersAndCounts[i])));
+      }
+    }
+    return sketch;
+  }
+
+  /**
+   * The first pick is the replica nearest to most of the requests.
+   */
+  @Test
+  public void test_01_PicksNearestToDemand() {
+    ArrayList<InetAddress> picked = PLACEMENT.pick(1, demand(BOSTON, 1, OSAKA, 10),
+            Collections.<InetAddress>emptyList(), ALL);
+    assertEquals(Arrays.asList(TOKYO), picked);
+  }
+
+  /**
+   * Each further pick lowers the total round trip time the most, so the
+   * regions get a replica nearby in order of their requests.
+   */
+  @Test
+  public void test_02_PicksGreedily() {
+    ArrayList<InetAddress> picked = PLACEMENT.pick(3, demand(BOSTON, 5, PARIS, 20, OSAKA, 10),
+            Collections.<InetAddress>emptyList(), ALL);
+    assertEquals(3, picked.size());
+    assertEquals(LONDON, picked.get(0));
+    assertEquals(TOKYO, picked.get(1));
+    assertTrue(picked.get(2).equals(AMHERST) || picked.get(2).equals(AMHERST_TOO));
+  }
+
+  /**
+   * Of two equally good replicas the current one is kept, and otherwise
+   * the first one listed.
+   */
+  @Test
+  public void test_03_TiesGoToCurrentActives() {
+    SenderRegionSketch demand = demand(BOSTON, 10);
+    assertEquals(Arrays.asList(AMHERST),
+            PLACEMENT.pick(1, demand, Collections.<InetAddress>emptyList(), ALL));
+    assertEquals(Arrays.asList(AMHERST_TOO),
+            PLACEMENT.pick(1, demand, Arrays.asList(LONDON, AMHERST_TOO), ALL));
+  }
+
+  /**
+   * A replica that adds nothing is still picked to reach the number of
+   * replicas, preferring a current one.
+   */
+  @Test
+  public void test_04_FillsWithCurrentActives() {
+    ArrayList<InetAddress> picked = PLACEMENT.pick(2, demand(BOSTON, 10),
+            Arrays.asList(TOKYO), ALL);
+    assertEquals(2, picked.size());
+    assertEquals(AMHERST, picked.get(0));
+    // every other replica leaves the round trip time from Boston unchanged
+    assertEquals(TOKYO, picked.get(1));
+  }
+
+  /**
+   * Only located replicas are picked, and no more than there are.
+   */
+  @Test
+  public void test_05_SkipsUnlocated() {
+    ArrayList<InetAddress> picked = PLACEMENT.pick(10, demand(PARIS, 1),
+            Collections.<InetAddress>emptyList(), ALL);
+    assertEquals(4, picked.size());
+    assertFalse(picked.contains(NOWHERE));
+  }
+
+  /**
+   * With no located requests there is nothing to go by.
+   */
+  @Test
+  public void test_06_NothingLocated() {
+    assertNull(PLACEMENT.pick(1, demand(UNKNOWN, 10), Collections.<InetAddress>emptyList(), ALL));
+    assertNull(PLACEMENT.pick(1, demand(BOSTON, 10), Collections.<InetAddress>emptyList(),
+            Arrays.asList(NOWHERE)));
+  }
+
+  /**
+   * The expected round trip time weighs each region by its requests.
+   */
+  @Test
+  public void test_07_ExpectedRoundTripTime() {
+    SenderRegionSketch demand = demand(BOSTON, 3, PARIS, 1);
+    double boston = GeoLocator.getRoundTripTime(
+            GeoLocator.getDistance(LOCATIONS.get(regionAddress(BOSTON)), LOCATIONS.get(AMHERST)));
+    double paris = GeoLocator.getRoundTripTime(
+            GeoLocator.getDistance(LOCATIONS.get(regionAddress(PARIS)), LOCATIONS.get(LONDON)));
+    assertEquals((3 * boston + paris) / 4,
+            PLACEMENT.getExpectedRoundTripTime(Arrays.asList(AMHERST, LONDON), demand), 1e-9);
+    assertTrue(Double.isNaN(PLACEMENT.getExpectedRoundTripTime(Arrays.asList(NOWHERE), demand)));
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import edu.umass.cs.gnsserver.gnsapp.RequestScheduler.RequestClass;
+import edu.umass.cs.utils.DefaultTest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the admission, weighted dequeueing, shedding and timeouts of
+ * {@link RequestScheduler}.
+ *
+ * @author westy
+ */
+public class RequestSchedulerTest extends DefaultTest {
+
+  private static final RequestClass READ = RequestClass.READ;
+  private static final RequestClass SELECT = RequestClass.SELECT;
+
+  // a thread per waiting request, as the common pool may have too few
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool();
+
+  // acquires a slot on another thread
+  private static CompletableFuture<Long> acquireAsync(RequestScheduler scheduler,
+          RequestClass requestClass) {
+    return CompletableFuture.supplyAsync(() -> scheduler.acquire(requestClass, true), EXECUTOR);
+  }
+
+  private static void waitForQueued(RequestScheduler scheduler, int queued)
+          throws InterruptedException {
+    while (scheduler.getQueued() < queued) {
+      Thread.sleep(1);
+    }
+  }
+
+  /**
+   * Requests run right away up to the maximum, and a request that must not
+   * be shed runs even beyond it.
+   */
+  @Test
+  public void test_01_AdmitsUpToMax() {
+    RequestScheduler scheduler = new RequestScheduler(2, 10, 0, null);
+    assertTrue(scheduler.acquire(READ, true) >= 0);
+    assertTrue(scheduler.acquire(SELECT, true) >= 0);
+    assertTrue(scheduler.acquire(READ, false) >= 0);
+    assertEquals(3, scheduler.getRunning());
+    assertEquals(0, scheduler.getQueued());
+  }
+
+  /**
+   * A request that waits longer than the queue timeout is shed.
+   */
+  @Test
+  public void test_02_ShedsAfterTimeout() {
+    RequestScheduler scheduler = new RequestScheduler(1, 10, 50, null);
+    assertTrue(scheduler.acquire(READ, true) >= 0);
+    long start = System.nanoTime();
+    assertEquals(-1, scheduler.acquire(READ, true));
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+    assertEquals(1, scheduler.getShed(READ));
+    assertEquals(0, scheduler.getQueued());
+    assertEquals(1, scheduler.getRunning());
+  }
+
+  /**
+   * A request is shed right away when the queue of its class is full, but
+   * not when only the queue of another class is.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_03_ShedsWhenQueueFull() throws Exception {
+    RequestScheduler scheduler = new RequestScheduler(1, 1, 10000, null);
+    long start = scheduler.acquire(READ, true);
+    CompletableFuture<Long> queued = acquireAsync(scheduler, READ);
+    waitForQueued(scheduler, 1);
+    assertEquals(-1, scheduler.acquire(READ, true));
+    assertEquals(1, scheduler.getShed(READ));
+    CompletableFuture<Long> select = acquireAsync(scheduler, SELECT);
+    waitForQueued(scheduler, 2);
+    assertEquals(0, scheduler.getShed(SELECT));
+    scheduler.release(READ, start);
+    scheduler.release(READ, queued.get(5, TimeUnit.SECONDS));
+    assertTrue(select.get(5, TimeUnit.SECONDS) >= 0);
+  }
+
+  /**
+   * A released slot goes to a waiting request.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_04_ReleaseHandsOver() throws Exception {
+    RequestScheduler scheduler = new RequestScheduler(1, 10, 10000, null);
+    long start = scheduler.acquire(READ, true);
+    CompletableFuture<Long> queued = acquireAsync(scheduler, READ);
+    waitForQueued(scheduler, 1);
+    assertFalse(queued.isDone());
+    scheduler.release(READ, start);
+    assertTrue(queued.get(5, TimeUnit.SECONDS) >= 0);
+    assertEquals(1, scheduler.getRunning());
+    assertEquals(0, scheduler.getQueued());
+  }
+
+  /**
+   * Waiting classes get slots in proportion to their weights, interleaved.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_05_Weights() throws Exception {
+    RequestScheduler scheduler = new RequestScheduler(1, 10, 10000, "READ:2,SELECT:1");
+    long start = scheduler.acquire(READ, true);
+    List<RequestClass> granted = Collections.synchronizedList(new ArrayList<RequestClass>());
+    List<CompletableFuture<Void>> waiters = new ArrayList<>();
+    RequestClass[] classes = {READ, READ, READ, READ, SELECT, SELECT};
+    for (int i = 0; i < classes.length; i++) {
+      RequestClass requestClass = classes[i];
+      waiters.add(CompletableFuture.runAsync(() -> {
+        long time = scheduler.acquire(requestClass, true);
+        granted.add(requestClass);
+        scheduler.release(requestClass, time);
+      }, EXECUTOR));
+      waitForQueued(scheduler, i + 1);
+    }
+    scheduler.release(READ, start);
+    for (CompletableFuture<Void> waiter : waiters) {
+      waiter.get(5, TimeUnit.SECONDS);
+    }
+    assertEquals("[READ, SELECT, READ, READ, SELECT, READ]", granted.toString());
+  }
+
+  /**
+   * Malformed weights are ignored.
+   */
+  @Test
+  public void test_06_MalformedWeights() {
+    RequestScheduler scheduler = new RequestScheduler(1, 10, 0, "READ:x,BOGUS:3,WRITE");
+    assertTrue(scheduler.acquire(RequestClass.WRITE, true) >= 0);
+  }
+}
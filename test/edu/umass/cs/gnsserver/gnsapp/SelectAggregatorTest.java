@@ -0,0 +1,248 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectAggregation;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectAggregation.Function;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
+import edu.umass.cs.gnsserver.gnsapp.recordmap.NameRecord;
+import edu.umass.cs.utils.DefaultTest;
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONException;
+import org.json.JSONObject;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the partial aggregates of the name servers and their merging by
+ * the collecting name server in {@link SelectAggregator}, both with every
+ * replica returning its records and with primary responders only.
+ *
+ * @author westy
+ */
+public class SelectAggregatorTest extends DefaultTest {
+
+  private static final String FIELD = "x";
+
+  private static SelectRequestPacket request(Function function, int limit,
+          boolean descending, boolean primaryOnly) {
+    SelectRequestPacket request = SelectRequestPacket.makeQueryRequest(null,
+            "~" + FIELD + " : {$exists: true}", null);
+    request.setAggregation(new SelectAggregation(function,
+            function == Function.COUNT ? null : FIELD, limit, descending));
+    request.setPrimaryOnly(primaryOnly);
+    return request;
+  }
+
+  private static JSONObject record(String name, Object value) throws JSONException {
+    JSONObject valuesMap = new JSONObject();
+    if (value != null) {
+      valuesMap.put(FIELD, value);
+    }
+    return new JSONObject()
+            .put(NameRecord.NAME.getName(), name)
+            .put(NameRecord.VALUES_MAP.getName(), valuesMap);
+  }
+
+  // the partial aggregate a name server sends for its records
+  private static JSONObject partial(SelectRequestPacket request, JSONObject... records)
+          throws JSONException {
+    SelectAggregator aggregator = new SelectAggregator(request);
+    for (JSONObject record : records) {
+      aggregator.add(record);
+    }
+    return aggregator.getPartial();
+  }
+
+  // the result at the collecting name server of the partial aggregates
+  private static JSONObject merge(SelectRequestPacket request, JSONObject... partials)
+          throws JSONException {
+    SelectAggregator aggregator = new SelectAggregator(request);
+    for (JSONObject partial : partials) {
+      aggregator.merge(partial);
+    }
+    return aggregator.getResult();
+  }
+
+  // two name servers that both return the record of b
+  private static JSONObject aggregate(Function function, boolean primaryOnly)
+          throws JSONException {
+    SelectRequestPacket request = request(function, 0, false, primaryOnly);
+    return merge(request,
+            partial(request, record("a", 1), record("b", "2")),
+            partial(request, record("b", "2"), record("c", 6), record("d", "none")));
+  }
+
+  /**
+   * A count counts a record returned by two name servers once, whether or
+   * not the select uses primary responders.
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_01_Count() throws JSONException {
+    for (boolean primaryOnly : new boolean[]{false, true}) {
+      JSONObject result = aggregate(Function.COUNT, primaryOnly);
+      assertEquals("COUNT", result.getString("function"));
+      assertEquals(4, result.getLong("value"));
+      assertEquals(4, result.getLong("count"));
+    }
+  }
+
+  /**
+   * A sum adds the numeric values of distinct records, and numeric strings
+   * count as numbers.
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_02_Sum() throws JSONException {
+    for (boolean primaryOnly : new boolean[]{false, true}) {
+      JSONObject result = aggregate(Function.SUM, primaryOnly);
+      assertEquals(9, result.getDouble("value"), 0);
+      assertEquals(3, result.getLong("count"));
+    }
+  }
+
+  /**
+   * An average divides the sum of the distinct records by their number.
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_03_Avg() throws JSONException {
+    for (boolean primaryOnly : new boolean[]{false, true}) {
+      assertEquals(3, aggregate(Function.AVG, primaryOnly).getDouble("value"), 0);
+    }
+  }
+
+  /**
+   * Minimums and maximums are merged from partial aggregates.
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_04_MinMax() throws JSONException {
+    for (boolean primaryOnly : new boolean[]{false, true}) {
+      assertEquals(1, aggregate(Function.MIN, primaryOnly).getDouble("value"), 0);
+      assertEquals(6, aggregate(Function.MAX, primaryOnly).getDouble("value"), 0);
+    }
+  }
+
+  /**
+   * With no values there is nothing to average, and the count is zero.
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_05_NoValues() throws JSONException {
+    SelectRequestPacket avg = request(Function.AVG, 0, false, false);
+    JSONObject result = merge(avg, partial(avg, record("a", null)), partial(avg));
+    assertFalse(result.has("value"));
+    assertEquals(0, result.getLong("count"));
+    SelectRequestPacket count = request(Function.COUNT, 0, false, false);
+    assertEquals(0, merge(count, partial(count)).getLong("value"));
+  }
+
+  /**
+   * A partial aggregate with a count and a sum instead of values by name,
+   * as sent for minimums and maximums, is added up.
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_06_MergeCountsAndSums() throws JSONException {
+    SelectRequestPacket request = request(Function.SUM, 0, false, true);
+    JSONObject result = merge(request,
+            new JSONObject().put("count", 2).put("sum", 5.0).put("min", 1.0).put("max", 4.0),
+            new JSONObject().put("count", 1).put("sum", 3.0).put("min", 3.0).put("max", 3.0),
+            partial(request, record("c", 1)));
+    assertEquals(9, result.getDouble("value"), 0);
+    assertEquals(4, result.getLong("count"));
+  }
+
+  /**
+   * A limit keeps the first records of each name server and then the first
+   * of all of them, ordered by the field.
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_07_Limit() throws JSONException {
+    SelectRequestPacket request = request(Function.LIMIT, 2, true, false);
+    SelectAggregator first = new SelectAggregator(request);
+    SelectAggregator second = new SelectAggregator(request);
+    first.add(record("a", 1));
+    first.add(record("b", 5));
+    first.add(record("c", 3));
+    second.add(record("d", 4));
+    second.add(record("e", null));
+    assertEquals(2, first.getRecords().size());
+    SelectAggregator collector = new SelectAggregator(request);
+    for (JSONObject record : first.getRecords()) {
+      collector.add(record);
+    }
+    for (JSONObject record : second.getRecords()) {
+      collector.add(record);
+    }
+    List<String> names = new ArrayList<>();
+    for (JSONObject record : collector.getRecords()) {
+      names.add(record.getString(NameRecord.NAME.getName()));
+    }
+    assertEquals("[b, d]", names.toString());
+  }
+
+  /**
+   * An unordered limit is done once it has enough records, an ordered one
+   * never is.
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_08_LimitDone() throws JSONException {
+    SelectRequestPacket unordered = request(Function.LIMIT, 1, false, false);
+    unordered.setAggregation(new SelectAggregation(Function.LIMIT, null, 1, false));
+    SelectAggregator any = new SelectAggregator(unordered);
+    assertFalse(any.isDone());
+    any.add(record("a", 1));
+    assertTrue(any.isDone());
+    SelectAggregator ordered = new SelectAggregator(request(Function.LIMIT, 1, false, false));
+    ordered.add(record("a", 1));
+    assertFalse(ordered.isDone());
+  }
+
+  /**
+   * An aggregation survives its JSON encoding.
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_09_AggregationRoundTrip() throws JSONException {
+    SelectAggregation aggregation = new SelectAggregation(Function.LIMIT, FIELD, 7, true);
+    SelectAggregation copy = new SelectAggregation(aggregation.toJSONObject());
+    assertEquals(Function.LIMIT, copy.getFunction());
+    assertEquals(FIELD, copy.getField());
+    assertEquals(7, copy.getLimit());
+    assertTrue(copy.isDescending());
+    assertTrue(new SelectAggregation(Function.AVG, FIELD, 0, false).isPartial());
+    assertFalse(copy.isPartial());
+  }
+}
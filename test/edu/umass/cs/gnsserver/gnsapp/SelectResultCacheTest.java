@@ -0,0 +1,213 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.InternalField;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectOperation;
+import edu.umass.cs.gnsserver.gnsapp.packet.SelectRequestPacket;
+import edu.umass.cs.utils.DefaultTest;
+import java.util.Arrays;
+import java.util.Collections;
+import org.json.JSONArray;
+import org.json.JSONException;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the keys, eviction, copies and invalidation of
+ * {@link SelectResultCache}.
+ *
+ * @author westy
+ */
+public class SelectResultCacheTest extends DefaultTest {
+
+  private static final long TTL = 60000;
+
+  private static SelectRequestPacket query(String query, String... projection) {
+    return SelectRequestPacket.makeQueryRequest("reader", query,
+            projection.length > 0 ? Arrays.asList(projection) : null);
+  }
+
+  private static JSONArray records(String... guids) {
+    return new JSONArray(Arrays.asList(guids));
+  }
+
+  private static void put(SelectResultCache cache, SelectRequestPacket request, JSONArray records) {
+    cache.put(request, records, cache.getGeneration());
+  }
+
+  /**
+   * Whitespace outside of string literals and the order of the projected
+   * fields do not change the key, anything else does.
+   */
+  @Test
+  public void test_01_KeyNormalization() {
+    assertEquals(SelectResultCache.key(query("~a > 5 && ~b == 'x'")),
+            SelectResultCache.key(query(" ~a>5  &&\t~b=='x' ")));
+    assertNotEquals(SelectResultCache.key(query("~b == 'x y'")),
+            SelectResultCache.key(query("~b == 'xy'")));
+    assertNotEquals(SelectResultCache.key(query("~b == \"x y\"")),
+            SelectResultCache.key(query("~b == \"xy\"")));
+    assertEquals(SelectResultCache.key(query("~a > 5", "a", "b")),
+            SelectResultCache.key(query("~a > 5", "b", "a")));
+    assertNotEquals(SelectResultCache.key(query("~a > 5", "a")),
+            SelectResultCache.key(query("~a > 5")));
+    assertNotEquals(SelectResultCache.key(query("~a > 5")),
+            SelectResultCache.key(SelectRequestPacket.makeQueryRequest("other", "~a > 5", null)));
+  }
+
+  /**
+   * Equivalent queries share a cached result.
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_02_HitOnEquivalentQuery() throws JSONException {
+    SelectResultCache cache = new SelectResultCache(10, TTL);
+    put(cache, query("~a > 5", "a", "b"), records("g1", "g2"));
+    JSONArray hit = cache.get(query("~a>5", "b", "a"));
+    assertNotNull(hit);
+    assertEquals("g2", hit.getString(1));
+    assertNull(cache.get(query("~a > 6")));
+  }
+
+  /**
+   * The least recently used result is dropped when the cache is full.
+   */
+  @Test
+  public void test_03_LRUEviction() {
+    SelectResultCache cache = new SelectResultCache(2, TTL);
+    put(cache, query("~a > 1"), records("g1"));
+    put(cache, query("~a > 2"), records("g2"));
+    // makes ~a > 2 the least recently used
+    assertNotNull(cache.get(query("~a > 1")));
+    put(cache, query("~a > 3"), records("g3"));
+    assertEquals(2, cache.size());
+    assertNotNull(cache.get(query("~a > 1")));
+    assertNull(cache.get(query("~a > 2")));
+    assertNotNull(cache.get(query("~a > 3")));
+  }
+
+  /**
+   * Every hit returns a copy, so changing it or the cached records does not
+   * change the next hit.
+   *
+   * @throws JSONException
+   */
+  @Test
+  public void test_04_ReturnsCopies() throws JSONException {
+    SelectResultCache cache = new SelectResultCache(10, TTL);
+    JSONArray records = records("g1");
+    put(cache, query("~a > 5"), records);
+    records.put("changed");
+    JSONArray first = cache.get(query("~a > 5"));
+    first.put("g2");
+    JSONArray second = cache.get(query("~a > 5"));
+    assertNotSame(first, second);
+    assertEquals(1, second.length());
+    assertEquals("g1", second.getString(0));
+  }
+
+  /**
+   * An update drops the results depending on the updated field, its
+   * parents and its children, and keeps the others.
+   */
+  @Test
+  public void test_05_InvalidatedByUpdate() {
+    SelectResultCache cache = new SelectResultCache(10, TTL);
+    put(cache, query("~a > 5"), records("g1"));
+    put(cache, query("~b.c > 5"), records("g2"));
+    put(cache, query("~d > 5", "e"), records("g3"));
+    put(cache, new SelectRequestPacket(SelectOperation.EQUALS, null, "f", 1, null), records("g4"));
+    cache.invalidate(Arrays.asList("x"));
+    assertEquals(4, cache.size());
+    cache.invalidate(Arrays.asList("a.z"));
+    assertNull(cache.get(query("~a > 5")));
+    cache.invalidate(Arrays.asList("b"));
+    assertNull(cache.get(query("~b.c > 5")));
+    // a projected field counts too
+    cache.invalidate(Arrays.asList("e"));
+    assertNull(cache.get(query("~d > 5", "e")));
+    assertNotNull(cache.get(new SelectRequestPacket(SelectOperation.EQUALS, null, "f", 1, null)));
+  }
+
+  /**
+   * An update of an internal field, e.g., an ACL, or a creation or deletion
+   * drops all results, as does a select of the entire record.
+   */
+  @Test
+  public void test_06_InvalidatedByAclOrRecordChange() {
+    SelectResultCache cache = new SelectResultCache(10, TTL);
+    put(cache, query("~a > 5"), records("g1"));
+    put(cache, query("~b > 5"), records("g2"));
+    cache.invalidate(Collections.singletonList(InternalField.makeInternalFieldString("acl")));
+    assertEquals(0, cache.size());
+    put(cache, query("~a > 5"), records("g1"));
+    cache.invalidate(null);
+    assertEquals(0, cache.size());
+    put(cache, query("~a > 5", GNSProtocol.ENTIRE_RECORD.toString()), records("g1"));
+    cache.invalidate(Arrays.asList("z"));
+    assertEquals(0, cache.size());
+  }
+
+  /**
+   * A result is not cached if an update came in while its select was in
+   * flight.
+   */
+  @Test
+  public void test_07_NotCachedAfterInvalidationInFlight() {
+    SelectResultCache cache = new SelectResultCache(10, TTL);
+    long generation = cache.getGeneration();
+    cache.invalidate(Arrays.asList("z"));
+    cache.put(query("~a > 5"), records("g1"), generation);
+    assertEquals(0, cache.size());
+  }
+
+  /**
+   * A result is dropped once it expires.
+   *
+   * @throws InterruptedException
+   */
+  @Test
+  public void test_08_Expires() throws InterruptedException {
+    SelectResultCache cache = new SelectResultCache(10, 20);
+    put(cache, query("~a > 5"), records("g1"));
+    Thread.sleep(50);
+    assertNull(cache.get(query("~a > 5")));
+    assertEquals(0, cache.size());
+  }
+
+  /**
+   * Only selects of records that do not bypass the cache are cached, and
+   * nothing is when the cache is disabled.
+   */
+  @Test
+  public void test_09_Cacheable() {
+    SelectResultCache cache = new SelectResultCache(10, TTL);
+    assertTrue(cache.isCacheable(query("~a > 5")));
+    SelectRequestPacket bypass = query("~a > 5");
+    bypass.setBypassCache(true);
+    assertFalse(cache.isCacheable(bypass));
+    assertFalse(cache.isCacheable(SelectRequestPacket.makeSelectNotifyRequest("reader", "~a > 5",
+            null, "notification")));
+    assertFalse(new SelectResultCache(0, TTL).isCacheable(query("~a > 5")));
+  }
+}
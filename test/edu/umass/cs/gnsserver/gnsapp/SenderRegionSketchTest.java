@@ -0,0 +1,211 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp;
+
+import com.google.common.net.InetAddresses;
+import edu.umass.cs.utils.DefaultTest;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the counting, eviction, combining and encoding of
+ * {@link SenderRegionSketch}.
+ *
+ * @author westy
+ */
+public class SenderRegionSketchTest extends DefaultTest {
+
+  private static int region(String address) {
+    return SenderRegionSketch.getRegion(InetAddresses.forString(address));
+  }
+
+  // the index of the region of address, or -1 if it is not counted
+  private static int indexOf(SenderRegionSketch sketch, String address) {
+    InetAddress regionAddress = InetAddresses.fromInteger(region(address));
+    for (int i = 0; i < sketch.size(); i++) {
+      if (sketch.getAddress(i).equals(regionAddress)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static void increment(SenderRegionSketch sketch, String address, int times) {
+    for (int i = 0; i < times; i++) {
+      sketch.increment(region(address));
+    }
+  }
+
+  /**
+   * Senders in the same /24 share a region.
+   */
+  @Test
+  public void test_01_Region() {
+    assertEquals(region("10.1.2.3"), region("10.1.2.200"));
+    assertNotEquals(region("10.1.2.3"), region("10.1.3.3"));
+    assertEquals(InetAddresses.forString("10.1.2.0"),
+            InetAddresses.fromInteger(region("10.1.2.3")));
+  }
+
+  /**
+   * Requests are counted exactly while the regions fit.
+   */
+  @Test
+  public void test_02_CountsExactly() {
+    SenderRegionSketch sketch = new SenderRegionSketch(4);
+    increment(sketch, "10.0.1.1", 3);
+    increment(sketch, "10.0.2.1", 1);
+    increment(sketch, "10.0.1.2", 2);
+    assertEquals(2, sketch.size());
+    assertEquals(5, sketch.getCount(indexOf(sketch, "10.0.1.1")));
+    assertEquals(0, sketch.getError(indexOf(sketch, "10.0.1.1")));
+    assertEquals(1, sketch.getCount(indexOf(sketch, "10.0.2.1")));
+  }
+
+  /**
+   * A new region takes the place of the one with the fewest requests and
+   * inherits its count as the error.
+   */
+  @Test
+  public void test_03_EvictsFewest() {
+    SenderRegionSketch sketch = new SenderRegionSketch(2);
+    increment(sketch, "10.0.1.1", 3);
+    increment(sketch, "10.0.2.1", 1);
+    increment(sketch, "10.0.3.1", 1);
+    assertEquals(2, sketch.size());
+    assertEquals(-1, indexOf(sketch, "10.0.2.1"));
+    int evictor = indexOf(sketch, "10.0.3.1");
+    assertEquals(2, sketch.getCount(evictor));
+    assertEquals(1, sketch.getError(evictor));
+    assertEquals(3, sketch.getCount(indexOf(sketch, "10.0.1.1")));
+  }
+
+  /**
+   * A region with more than 1/capacity of the requests is kept however the
+   * others are spread, and its count is over by at most its error.
+   */
+  @Test
+  public void test_04_KeepsHeavyHitters() {
+    SenderRegionSketch sketch = new SenderRegionSketch(4);
+    for (int i = 0; i < 1000; i++) {
+      // every other request is from the heavy region, the rest from 250 others
+      increment(sketch, i % 2 == 0 ? "10.0.0.1" : "10.1." + (i % 250) + ".1", 1);
+    }
+    int heavy = indexOf(sketch, "10.0.0.1");
+    assertTrue(heavy >= 0);
+    assertTrue(sketch.getCount(heavy) >= 500);
+    assertTrue(sketch.getCount(heavy) - sketch.getError(heavy) <= 500);
+  }
+
+  /**
+   * Combining adds the counts of the same regions and keeps the others.
+   */
+  @Test
+  public void test_05_Combine() {
+    SenderRegionSketch a = new SenderRegionSketch(4);
+    increment(a, "10.0.1.1", 3);
+    increment(a, "10.0.2.1", 1);
+    SenderRegionSketch b = new SenderRegionSketch(4);
+    increment(b, "10.0.1.9", 2);
+    increment(b, "10.0.3.1", 4);
+    a.combine(b);
+    assertEquals(3, a.size());
+    assertEquals(5, a.getCount(indexOf(a, "10.0.1.1")));
+    assertEquals(1, a.getCount(indexOf(a, "10.0.2.1")));
+    assertEquals(4, a.getCount(indexOf(a, "10.0.3.1")));
+    // b is unchanged
+    assertEquals(2, b.size());
+  }
+
+  /**
+   * Combining into a full sketch carries the errors of the evicted counts.
+   */
+  @Test
+  public void test_06_CombineFull() {
+    SenderRegionSketch a = new SenderRegionSketch(1);
+    increment(a, "10.0.1.1", 2);
+    SenderRegionSketch b = new SenderRegionSketch(1);
+    increment(b, "10.0.2.1", 3);
+    a.combine(b);
+    assertEquals(1, a.size());
+    int i = indexOf(a, "10.0.2.1");
+    assertEquals(5, a.getCount(i));
+    assertEquals(2, a.getError(i));
+  }
+
+  /**
+   * The binary encoding round trips and has the length it claims.
+   */
+  @Test
+  public void test_07_RoundTrip() {
+    SenderRegionSketch sketch = new SenderRegionSketch(2);
+    increment(sketch, "10.0.1.1", 3);
+    increment(sketch, "10.0.2.1", 1);
+    increment(sketch, "10.0.3.1", 1);
+    ByteBuffer buffer = ByteBuffer.allocate(sketch.getEncodedLength());
+    sketch.writeTo(buffer);
+    assertEquals(0, buffer.remaining());
+    buffer.flip();
+    SenderRegionSketch copy = new SenderRegionSketch(2);
+    increment(copy, "10.0.9.1", 7);
+    copy.readFrom(buffer);
+    assertEquals(0, buffer.remaining());
+    assertEquals(sketch.size(), copy.size());
+    for (int i = 0; i < sketch.size(); i++) {
+      assertEquals(sketch.getAddress(i), copy.getAddress(i));
+      assertEquals(sketch.getCount(i), copy.getCount(i));
+      assertEquals(sketch.getError(i), copy.getError(i));
+    }
+  }
+
+  /**
+   * Reading more regions than fit keeps the ones with the most requests.
+   */
+  @Test
+  public void test_08_ReadIntoSmaller() {
+    SenderRegionSketch sketch = new SenderRegionSketch(3);
+    increment(sketch, "10.0.1.1", 1);
+    increment(sketch, "10.0.2.1", 5);
+    increment(sketch, "10.0.3.1", 4);
+    ByteBuffer buffer = ByteBuffer.allocate(sketch.getEncodedLength());
+    sketch.writeTo(buffer);
+    buffer.flip();
+    SenderRegionSketch smaller = new SenderRegionSketch(2);
+    smaller.readFrom(buffer);
+    assertEquals(2, smaller.size());
+    assertTrue(indexOf(smaller, "10.0.2.1") >= 0);
+    assertTrue(indexOf(smaller, "10.0.3.1") >= 0);
+  }
+
+  /**
+   * A copy does not share counts with the original.
+   */
+  @Test
+  public void test_09_Copy() {
+    SenderRegionSketch sketch = new SenderRegionSketch(2);
+    increment(sketch, "10.0.1.1", 1);
+    SenderRegionSketch copy = new SenderRegionSketch(sketch);
+    increment(sketch, "10.0.1.1", 1);
+    assertEquals(1, copy.getCount(indexOf(copy, "10.0.1.1")));
+    assertEquals(2, sketch.getCount(indexOf(sketch, "10.0.1.1")));
+  }
+}
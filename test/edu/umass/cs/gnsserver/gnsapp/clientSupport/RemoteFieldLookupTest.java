@@ -0,0 +1,320 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.clientSupport;
+
+import edu.umass.cs.gnsserver.gnsapp.GNSClientInternal;
+import edu.umass.cs.gnsserver.gnsapp.clientCommandProcessor.commandSupport.InternalField;
+import edu.umass.cs.gnsserver.interfaces.InternalRequestHeader;
+import edu.umass.cs.utils.DefaultTest;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import static org.junit.Assert.*;
+import org.junit.AfterClass;
+import org.junit.Test;
+
+/**
+ * Tests the sharing of reads in flight, the caching and the invalidation of
+ * {@link RemoteFieldLookup} with reads answered from a map instead of the
+ * replicas.
+ *
+ * @author westy
+ */
+public class RemoteFieldLookupTest extends DefaultTest {
+
+  private static final String GUID = "guid";
+
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool();
+
+  /**
+   * Shuts down the readers.
+   */
+  @AfterClass
+  public static void shutdown() {
+    EXECUTOR.shutdownNow();
+  }
+
+  /**
+   * Answers reads from a map of fields to values. Once held, reads with a
+   * ttl of {@link InternalRequestHeader#DEFAULT_TTL} wait until released.
+   */
+  private static class TestLookup extends RemoteFieldLookup {
+
+    final Map<String, Object> values = new HashMap<>();
+    volatile CountDownLatch started = new CountDownLatch(0);
+    volatile CountDownLatch release = new CountDownLatch(0);
+
+    TestLookup(long cacheTTL) {
+      super(cacheTTL, 100);
+    }
+
+    void hold() {
+      started = new CountDownLatch(1);
+      release = new CountDownLatch(1);
+    }
+
+    @Override
+    Object read(String guid, String field, InternalRequestHeader header, GNSClientInternal client) {
+      if (header.getTTL() == InternalRequestHeader.DEFAULT_TTL) {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+      return values.get(field);
+    }
+  }
+
+  private static InternalRequestHeader header(long requestID, String querier, int ttl) {
+    return new InternalRequestHeader() {
+      @Override
+      public long getOriginatingRequestID() {
+        return requestID;
+      }
+
+      @Override
+      public String getOriginatingGUID() {
+        return querier;
+      }
+
+      @Override
+      public int getTTL() {
+        return ttl;
+      }
+
+      @Override
+      public boolean hasBeenCoordinatedOnce() {
+        return false;
+      }
+    };
+  }
+
+  private static InternalRequestHeader header(long requestID, String querier) {
+    return header(requestID, querier, InternalRequestHeader.DEFAULT_TTL);
+  }
+
+  private static CompletableFuture<String> lookupAsync(TestLookup lookup,
+          InternalRequestHeader header, String field) {
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return lookup.lookup(header, GUID, field, null);
+      } catch (Exception e) {
+        throw new RuntimeException(e);
+      }
+    }, EXECUTOR);
+  }
+
+  // waits until a reader is waiting for the read of the first one
+  private static void awaitCoalesced(TestLookup lookup, long coalesced) throws InterruptedException {
+    while (lookup.getNumCoalesced() < coalesced) {
+      Thread.sleep(1);
+    }
+  }
+
+  /**
+   * Reads of the same field for the same querier from different requests
+   * share a single internal request.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_01_SharesReadsAcrossRequests() throws Exception {
+    TestLookup lookup = new TestLookup(0);
+    lookup.values.put("field", "value");
+    lookup.hold();
+    CompletableFuture<String> first = lookupAsync(lookup, header(1, "querier"), "field");
+    assertTrue(lookup.started.await(5, TimeUnit.SECONDS));
+    CompletableFuture<String> second = lookupAsync(lookup, header(2, "querier"), "field");
+    awaitCoalesced(lookup, 1);
+    lookup.release.countDown();
+    assertEquals("value", first.get(5, TimeUnit.SECONDS));
+    assertEquals("value", second.get(5, TimeUnit.SECONDS));
+    assertEquals(1, lookup.getNumRequests());
+  }
+
+  /**
+   * Reads for different queriers or of different fields are sent on their
+   * own.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_02_DoesNotShareAcrossQueriers() throws Exception {
+    TestLookup lookup = new TestLookup(0);
+    lookup.values.put("field", "value");
+    lookup.hold();
+    CompletableFuture<String> first = lookupAsync(lookup, header(1, "querier"), "field");
+    assertTrue(lookup.started.await(5, TimeUnit.SECONDS));
+    CompletableFuture<String> other = lookupAsync(lookup, header(2, "other"), "field");
+    CompletableFuture<String> otherField = lookupAsync(lookup, header(3, "querier"), "missing");
+    while (lookup.getNumRequests() < 3) {
+      Thread.sleep(1);
+    }
+    lookup.release.countDown();
+    assertEquals("value", first.get(5, TimeUnit.SECONDS));
+    assertEquals("value", other.get(5, TimeUnit.SECONDS));
+    assertNull(otherField.get(5, TimeUnit.SECONDS));
+    assertEquals(0, lookup.getNumCoalesced());
+  }
+
+  /**
+   * A nested read of the same originating request does not wait for the
+   * read that caused it.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_03_NestedReadDoesNotWait() throws Exception {
+    TestLookup lookup = new TestLookup(0);
+    lookup.values.put("field", "value");
+    lookup.hold();
+    CompletableFuture<String> outer = lookupAsync(lookup, header(1, "querier"), "field");
+    assertTrue(lookup.started.await(5, TimeUnit.SECONDS));
+    assertEquals("value", lookup.lookup(header(1, "querier", InternalRequestHeader.DEFAULT_TTL - 1),
+            GUID, "field", null));
+    assertFalse(outer.isDone());
+    lookup.release.countDown();
+    assertEquals("value", outer.get(5, TimeUnit.SECONDS));
+    assertEquals(2, lookup.getNumRequests());
+  }
+
+  /**
+   * Nothing is cached by default.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_04_NoCacheByDefault() throws Exception {
+    TestLookup lookup = new TestLookup(0);
+    lookup.values.put("field", "value");
+    assertEquals("value", lookup.lookup(header(1, "querier"), GUID, "field", null));
+    assertEquals("value", lookup.lookup(header(2, "querier"), GUID, "field", null));
+    assertEquals(2, lookup.getNumRequests());
+    assertEquals(0, lookup.getNumCacheHits());
+  }
+
+  /**
+   * Values and missing fields are cached for the same querier, internal
+   * fields and failed reads are not.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_05_Cache() throws Exception {
+    TestLookup lookup = new TestLookup(60000);
+    String internal = InternalField.makeInternalFieldString("groups");
+    lookup.values.put("field", "value");
+    lookup.values.put(internal, "[]");
+    lookup.values.put("broken", new IOException("broken"));
+    for (int i = 0; i < 2; i++) {
+      assertEquals("value", lookup.lookup(header(i, "querier"), GUID, "field", null));
+      assertNull(lookup.lookup(header(i, "querier"), GUID, "missing", null));
+      assertEquals("[]", lookup.lookup(header(i, "querier"), GUID, internal, null));
+      try {
+        lookup.lookup(header(i, "querier"), GUID, "broken", null);
+        fail("The read should have failed");
+      } catch (IOException e) {
+        // expected
+      }
+    }
+    assertEquals(2, lookup.getNumCacheHits());
+    assertEquals(6, lookup.getNumRequests());
+    assertEquals("value", lookup.lookup(header(3, "other"), GUID, "field", null));
+    assertEquals(7, lookup.getNumRequests());
+  }
+
+  /**
+   * Cached values expire after the ttl.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_06_CacheExpires() throws Exception {
+    TestLookup lookup = new TestLookup(20);
+    lookup.values.put("field", "value");
+    assertEquals("value", lookup.lookup(header(1, "querier"), GUID, "field", null));
+    Thread.sleep(50);
+    assertEquals("value", lookup.lookup(header(2, "querier"), GUID, "field", null));
+    assertEquals(2, lookup.getNumRequests());
+    assertEquals(0, lookup.getNumCacheHits());
+  }
+
+  /**
+   * An invalidation drops the cached fields of the guid, and a read in
+   * flight at the time is neither joined nor cached.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_07_Invalidate() throws Exception {
+    TestLookup lookup = new TestLookup(60000);
+    lookup.values.put("field", "old");
+    assertEquals("old", lookup.lookup(header(1, "querier"), GUID, "field", null));
+    lookup.invalidate(GUID);
+    lookup.values.put("field", "new");
+    lookup.hold();
+    CompletableFuture<String> inflight = lookupAsync(lookup, header(2, "querier"), "field");
+    assertTrue(lookup.started.await(5, TimeUnit.SECONDS));
+    lookup.invalidate(GUID);
+    // not joined
+    assertEquals("new", lookup.lookup(header(3, "querier", 1), GUID, "field", null));
+    lookup.release.countDown();
+    assertEquals("new", inflight.get(5, TimeUnit.SECONDS));
+    assertEquals(3, lookup.getNumRequests());
+    assertEquals(0, lookup.getNumCoalesced());
+    // the read after the invalidation was cached, the one in flight was not
+    assertEquals("new", lookup.lookup(header(4, "querier"), GUID, "field", null));
+    assertEquals(1, lookup.getNumCacheHits());
+  }
+
+  /**
+   * A failed read fails all the readers waiting for it.
+   *
+   * @throws Exception
+   */
+  @Test
+  public void test_08_FailureReachesAllReaders() throws Exception {
+    TestLookup lookup = new TestLookup(0);
+    lookup.values.put("field", new IOException("broken"));
+    lookup.hold();
+    CompletableFuture<String> first = lookupAsync(lookup, header(1, "querier"), "field");
+    assertTrue(lookup.started.await(5, TimeUnit.SECONDS));
+    CompletableFuture<String> second = lookupAsync(lookup, header(2, "querier"), "field");
+    awaitCoalesced(lookup, 1);
+    lookup.release.countDown();
+    for (CompletableFuture<String> future : Arrays.asList(first, second)) {
+      try {
+        future.get(5, TimeUnit.SECONDS);
+        fail("The read should have failed");
+      } catch (ExecutionException e) {
+        assertTrue(e.getCause().getCause() instanceof IOException);
+      }
+    }
+  }
+}
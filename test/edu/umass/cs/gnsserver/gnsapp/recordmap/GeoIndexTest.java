@@ -0,0 +1,294 @@
+/*
+ *
+ *  Copyright (c) 2015 University of Massachusetts
+ *
+ *  Licensed under the Apache License, Version 2.0 (the "License"); you
+ *  may not use this file except in compliance with the License. You
+ *  may obtain a copy of the License at
+ *
+ *  http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or
+ *  implied. See the License for the specific language governing
+ *  permissions and limitations under the License.
+ *
+ *  Initial developer(s): Westy
+ *
+ */
+package edu.umass.cs.gnsserver.gnsapp.recordmap;
+
+import edu.umass.cs.gnscommon.GNSProtocol;
+import edu.umass.cs.utils.DefaultTest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Tests the results of selectWithin and selectNear on a {@link GeoIndex}
+ * against a scan of all the locations, at cell borders, across the
+ * antimeridian, near the poles and after updates and removals.
+ *
+ * @author westy
+ */
+public class GeoIndexTest extends DefaultTest {
+
+  private static final String PLANE = GNSProtocol.LOCATION_FIELD_NAME.toString();
+  private static final String SPHERE = GNSProtocol.LOCATION_FIELD_NAME_2D_SPHERE.toString();
+
+  private static GeoIndex index(double cellsPerDegree) {
+    return new GeoIndex(Arrays.asList(PLANE, SPHERE), cellsPerDegree);
+  }
+
+  private static void put(GeoIndex index, Map<String, double[]> points, String name,
+          double x, double y) {
+    index.update(name, PLANE, x, y);
+    index.update(name, SPHERE, x, y);
+    points.put(name, new double[]{x, y});
+  }
+
+  private static HashSet<String> within(Map<String, double[]> points,
+          double x1, double y1, double x2, double y2) {
+    HashSet<String> result = new HashSet<>();
+    for (Map.Entry<String, double[]> entry : points.entrySet()) {
+      double[] p = entry.getValue();
+      if (p[0] >= Math.min(x1, x2) && p[0] <= Math.max(x1, x2)
+              && p[1] >= Math.min(y1, y2) && p[1] <= Math.max(y1, y2)) {
+        result.add(entry.getKey());
+      }
+    }
+    return result;
+  }
+
+  private static HashSet<String> near(Map<String, double[]> points, String field,
+          double x, double y, double maxDistance) {
+    HashSet<String> result = new HashSet<>();
+    for (Map.Entry<String, double[]> entry : points.entrySet()) {
+      if (GeoIndex.getDistance(field, entry.getValue(), new double[]{x, y}) <= maxDistance) {
+        result.add(entry.getKey());
+      }
+    }
+    return result;
+  }
+
+  private static void assertNearestFirst(String field, List<String> names,
+          Map<String, double[]> points, double x, double y) {
+    double last = 0;
+    for (String name : names) {
+      double distance = GeoIndex.getDistance(field, points.get(name), new double[]{x, y});
+      assertTrue(distance >= last);
+      last = distance;
+    }
+  }
+
+  /**
+   * Boxes find exactly the locations in them, borders included, whatever
+   * the order of the corners.
+   */
+  @Test
+  public void test_01_Within() {
+    GeoIndex index = index(1);
+    Map<String, double[]> points = new HashMap<>();
+    put(index, points, "inside", 10.5, 20.5);
+    put(index, points, "corner", 10, 20);
+    put(index, points, "edge", 12, 20.7);
+    put(index, points, "outside", 12.0001, 20.5);
+    put(index, points, "below", 11, 19.9999);
+    HashSet<String> expected = new HashSet<>(Arrays.asList("inside", "corner", "edge"));
+    assertEquals(expected, new HashSet<>(index.within(PLANE, 10, 20, 12, 21)));
+    assertEquals(expected, new HashSet<>(index.within(PLANE, 12, 21, 10, 20)));
+    assertEquals(expected, new HashSet<>(index.within(PLANE, 10, 21, 12, 20)));
+    assertTrue(index.within(PLANE, 50, 50, 60, 60).isEmpty());
+  }
+
+  /**
+   * Boxes match a scan of all the locations, both when the cells are
+   * probed and when all the locations are scanned.
+   */
+  @Test
+  public void test_02_WithinMatchesScan() {
+    GeoIndex index = index(10);
+    Map<String, double[]> points = new HashMap<>();
+    Random random = new Random(42);
+    for (int i = 0; i < 2000; i++) {
+      put(index, points, "n" + i, random.nextDouble() * 20 - 10, random.nextDouble() * 20 - 10);
+    }
+    for (int i = 0; i < 200; i++) {
+      // small boxes probe the cells, large ones scan
+      double size = i % 2 == 0 ? random.nextDouble() : random.nextDouble() * 30;
+      double x = random.nextDouble() * 24 - 12, y = random.nextDouble() * 24 - 12;
+      assertEquals(within(points, x, y, x + size, y + size),
+              new HashSet<>(index.within(PLANE, x, y, x + size, y + size)));
+    }
+  }
+
+  /**
+   * Locations right on the borders of cells, including negative ones, are
+   * found from both sides.
+   */
+  @Test
+  public void test_03_NearAtCellBorders() {
+    GeoIndex index = index(1);
+    Map<String, double[]> points = new HashMap<>();
+    put(index, points, "border", 1, 1);
+    put(index, points, "negative", -1, -1);
+    put(index, points, "zero", 0, 0);
+    double oneDegree = GeoIndex.METERS_PER_DEGREE;
+    // from just inside the neighboring cells
+    assertEquals(Arrays.asList("border"), index.near(PLANE, 0.999, 0.999, 0.01 * oneDegree));
+    assertEquals(Arrays.asList("border"), index.near(PLANE, 1.001, 1.001, 0.01 * oneDegree));
+    assertEquals(Arrays.asList("negative"), index.near(PLANE, -0.999, -1.001, 0.01 * oneDegree));
+    // a circle reaching exactly to the corners of a cell finds both of them
+    assertEquals(new HashSet<>(Arrays.asList("zero", "border")),
+            new HashSet<>(index.near(PLANE, 0.5, 0.5, Math.hypot(0.5, 0.5) * oneDegree)));
+    assertEquals(Arrays.asList("zero"), index.near(PLANE, 0, 0, 0));
+  }
+
+  /**
+   * Circles match a scan of all the locations and list the nearest first,
+   * on the plane and on the sphere.
+   */
+  @Test
+  public void test_04_NearMatchesScan() {
+    GeoIndex index = index(10);
+    Map<String, double[]> points = new HashMap<>();
+    Random random = new Random(7);
+    for (int i = 0; i < 2000; i++) {
+      put(index, points, "n" + i, random.nextDouble() * 40 - 20, random.nextDouble() * 40 - 20);
+    }
+    for (String field : new String[]{PLANE, SPHERE}) {
+      for (int i = 0; i < 100; i++) {
+        double x = random.nextDouble() * 40 - 20, y = random.nextDouble() * 40 - 20;
+        double distance = random.nextDouble() * (i % 2 == 0 ? 100000 : 3000000);
+        List<String> result = index.near(field, x, y, distance);
+        assertEquals(near(points, field, x, y, distance), new HashSet<>(result));
+        assertNearestFirst(field, result, points, x, y);
+      }
+    }
+  }
+
+  /**
+   * On the sphere a circle reaches across the antimeridian; on the plane,
+   * like the 2d index of MongoDB, it does not.
+   */
+  @Test
+  public void test_05_NearAcrossAntimeridian() {
+    GeoIndex index = index(10);
+    Map<String, double[]> points = new HashMap<>();
+    put(index, points, "east", 179.9, 0);
+    put(index, points, "west", -179.9, 0);
+    put(index, points, "far", 170, 0);
+    // a quarter of a degree along the equator
+    double distance = 0.25 * Math.toRadians(1) * GeoIndex.EARTH_RADIUS_METERS;
+    assertEquals(Arrays.asList("east", "west"), index.near(SPHERE, 179.95, 0, distance));
+    assertEquals(Arrays.asList("west", "east"), index.near(SPHERE, -179.95, 0, distance));
+    assertEquals(Arrays.asList("east"), index.near(PLANE, 179.95, 0, 0.1 * GeoIndex.METERS_PER_DEGREE));
+  }
+
+  /**
+   * Near a pole a circle reaches locations of any longitude.
+   */
+  @Test
+  public void test_06_NearThePoles() {
+    GeoIndex index = index(10);
+    Map<String, double[]> points = new HashMap<>();
+    put(index, points, "north0", 0, 89.9);
+    put(index, points, "north180", 180, 89.9);
+    put(index, points, "north-90", -90, 89.95);
+    put(index, points, "pole", 45, 90);
+    put(index, points, "south", 0, -89.9);
+    // a little over 0.2 degrees of latitude
+    double distance = 0.21 * Math.toRadians(1) * GeoIndex.EARTH_RADIUS_METERS;
+    List<String> result = index.near(SPHERE, 0, 89.9, distance);
+    assertEquals(near(points, SPHERE, 0, 89.9, distance), new HashSet<>(result));
+    assertEquals(new HashSet<>(Arrays.asList("north0", "north180", "north-90", "pole")),
+            new HashSet<>(result));
+    assertEquals("north0", result.get(0));
+    assertNearestFirst(SPHERE, result, points, 0, 89.9);
+    assertEquals(Arrays.asList("south"), index.near(SPHERE, 90, -90, distance));
+  }
+
+  /**
+   * A moved location is found at its new place only, within the same cell
+   * and across cells.
+   */
+  @Test
+  public void test_07_Updates() {
+    GeoIndex index = index(1);
+    index.update("name", PLANE, 10.2, 10.2);
+    index.update("name", PLANE, 10.8, 10.8);
+    assertTrue(index.within(PLANE, 10, 10, 10.5, 10.5).isEmpty());
+    assertEquals(Arrays.asList("name"), index.within(PLANE, 10.5, 10.5, 11, 11));
+    index.update("name", PLANE, -20.5, 30.5);
+    assertTrue(index.within(PLANE, 10, 10, 11, 11).isEmpty());
+    assertEquals(Arrays.asList("name"), index.within(PLANE, -21, 30, -20, 31));
+    assertEquals(Arrays.asList("name"), index.near(PLANE, -20.5, 30.5, 1));
+    assertEquals(1, index.size(PLANE));
+    // other fields are not indexed
+    index.update("name", "other", 0, 0);
+    assertEquals(0, index.size("other"));
+    assertTrue(index.within("other", -1, -1, 1, 1).isEmpty());
+  }
+
+  /**
+   * A removed location, or one replaced by a value that is not a location,
+   * is no longer found.
+   */
+  @Test
+  public void test_08_Removals() {
+    GeoIndex index = index(1);
+    Map<String, double[]> points = new HashMap<>();
+    put(index, points, "a", 1.5, 1.5);
+    put(index, points, "b", 1.6, 1.6);
+    put(index, points, "c", 1.7, 1.7);
+    index.remove("a", PLANE);
+    index.remove("b");
+    index.update("c", PLANE, "not a location");
+    assertTrue(index.within(PLANE, 0, 0, 3, 3).isEmpty());
+    assertTrue(index.near(PLANE, 1.5, 1.5, GeoIndex.METERS_PER_DEGREE).isEmpty());
+    assertEquals(0, index.size(PLANE));
+    // the other field keeps the ones not removed from it
+    assertEquals(new HashSet<>(Arrays.asList("a", "c")),
+            new HashSet<>(index.within(SPHERE, 0, 0, 3, 3)));
+    // removing again or an unknown name is harmless
+    index.remove("a", PLANE);
+    index.remove("unknown");
+    assertEquals(2, index.size(SPHERE));
+  }
+
+  /**
+   * Random updates and removals leave the index matching a scan.
+   */
+  @Test
+  public void test_09_RandomChurn() {
+    GeoIndex index = index(4);
+    Map<String, double[]> points = new HashMap<>();
+    Random random = new Random(3);
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < 500; i++) {
+      names.add("n" + i);
+    }
+    for (int i = 0; i < 20000; i++) {
+      String name = names.get(random.nextInt(names.size()));
+      if (random.nextInt(5) == 0) {
+        index.remove(name);
+        points.remove(name);
+      } else {
+        put(index, points, name, random.nextDouble() * 10, random.nextDouble() * 10);
+      }
+    }
+    assertEquals(points.size(), index.size(PLANE));
+    assertEquals(within(points, 2, 2, 4, 4), new HashSet<>(index.within(PLANE, 2, 2, 4, 4)));
+    assertEquals(near(points, SPHERE, 5, 5, 200000),
+            new HashSet<>(index.near(SPHERE, 5, 5, 200000)));
+    assertEquals(Collections.emptyList(), index.within(PLANE, 20, 20, 30, 30));
+  }
+}